@@ -40,6 +40,7 @@ import com.google.gerrit.index.query.DataSource;
 import com.google.gerrit.index.query.FieldBundle;
 import com.google.gerrit.index.query.Predicate;
 import com.google.gerrit.index.query.QueryParseException;
+import com.google.gerrit.index.query.SearchAfterResultSet;
 import com.google.gerrit.server.config.SitePaths;
 import com.google.gerrit.server.index.IndexUtils;
 import com.google.gson.Gson;
@@ -278,12 +279,38 @@ abstract class AbstractElasticIndex<K, V> implements Index<K, V> {
     return params;
   }
 
-  protected String getSearch(SearchSourceBuilder searchSource, JsonArray sortArray) {
+  protected String getSearch(
+      SearchSourceBuilder searchSource, JsonArray sortArray, @Nullable JsonArray searchAfter) {
     JsonObject search = new JsonParser().parse(searchSource.toString()).getAsJsonObject();
     search.add("sort", sortArray);
+    if (searchAfter != null) {
+      search.add("search_after", searchAfter);
+    }
     return gson.toJson(search);
   }
 
+  /**
+   * Converts a {@link QueryOptions#searchAfter()} position to the {@code search_after} values of a
+   * search request.
+   *
+   * @return sort values of the position, or null if this index doesn't support search-after
+   *     pagination.
+   */
+  @Nullable
+  protected JsonArray toSortValues(Object searchAfter) {
+    return null;
+  }
+
+  /**
+   * Converts the sort values of a hit to a position for {@link QueryOptions#searchAfter()}.
+   *
+   * @return position of the hit, or null if this index doesn't support search-after pagination.
+   */
+  @Nullable
+  protected Object fromSortValues(JsonArray sort) {
+    return null;
+  }
+
   protected JsonArray getSortArray(String idFieldName) {
     JsonObject properties = new JsonObject();
     properties.addProperty(ORDER, "asc");
@@ -355,7 +382,8 @@ abstract class AbstractElasticIndex<K, V> implements Index<K, V> {
               .from(opts.start())
               .size(opts.limit())
               .fields(Lists.newArrayList(opts.fields()));
-      search = getSearch(searchSource, sortArray);
+      JsonArray searchAfter = opts.searchAfter() != null ? toSortValues(opts.searchAfter()) : null;
+      search = getSearch(searchSource, sortArray, searchAfter);
     }
 
     @Override
@@ -376,6 +404,7 @@ abstract class AbstractElasticIndex<K, V> implements Index<K, V> {
     private <T> ResultSet<T> readImpl(Function<JsonObject, T> mapper) throws OrmException {
       try {
         List<T> results = Collections.emptyList();
+        Object searchAfter = null;
         String uri = getURI(index, SEARCH);
         Response response =
             performRequest(HttpPost.METHOD_NAME, uri, search, Collections.emptyMap());
@@ -393,12 +422,19 @@ abstract class AbstractElasticIndex<K, V> implements Index<K, V> {
                 results.add(mapperResult);
               }
             }
+            if (json.size() > 0) {
+              JsonElement sort = json.get(json.size() - 1).getAsJsonObject().get("sort");
+              if (sort != null) {
+                searchAfter = fromSortValues(sort.getAsJsonArray());
+              }
+            }
           }
         } else {
           logger.atSevere().log(statusLine.getReasonPhrase());
         }
         final List<T> r = Collections.unmodifiableList(results);
-        return new ResultSet<T>() {
+        final Object last = searchAfter;
+        return new SearchAfterResultSet<T>() {
           @Override
           public Iterator<T> iterator() {
             return r.iterator();
@@ -409,6 +445,11 @@ abstract class AbstractElasticIndex<K, V> implements Index<K, V> {
             return r;
           }
 
+          @Override
+          public Object searchAfter() {
+            return last;
+          }
+
           @Override
           public void close() {
             // Do nothing.
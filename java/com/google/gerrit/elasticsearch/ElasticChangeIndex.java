@@ -53,6 +53,7 @@ import com.google.gerrit.server.config.SitePaths;
 import com.google.gerrit.server.index.IndexUtils;
 import com.google.gerrit.server.index.change.ChangeField;
 import com.google.gerrit.server.index.change.ChangeIndex;
+import com.google.gerrit.server.index.change.ChangeIndexCursor;
 import com.google.gerrit.server.index.change.ChangeIndexRewriter;
 import com.google.gerrit.server.project.SubmitRuleOptions;
 import com.google.gerrit.server.query.change.ChangeData;
@@ -181,6 +182,20 @@ class ElasticChangeIndex extends AbstractElasticIndex<Change.Id, ChangeData>
     return sortArray;
   }
 
+  @Override
+  protected JsonArray toSortValues(Object searchAfter) {
+    ChangeIndexCursor cursor = (ChangeIndexCursor) searchAfter;
+    JsonArray sort = new JsonArray();
+    sort.add(cursor.updated());
+    sort.add(cursor.changeId());
+    return sort;
+  }
+
+  @Override
+  protected Object fromSortValues(JsonArray sort) {
+    return ChangeIndexCursor.create(sort.get(0).getAsLong(), sort.get(1).getAsInt());
+  }
+
   private String getURI(List<String> types) {
     return String.join(",", types);
   }
@@ -75,6 +75,7 @@ public interface Changes {
     private String query;
     private int limit;
     private int start;
+    private String searchAfter;
     private EnumSet<ListChangesOption> options = EnumSet.noneOf(ListChangesOption.class);
 
     public abstract List<ChangeInfo> get() throws RestApiException;
@@ -94,6 +95,11 @@ public interface Changes {
       return this;
     }
 
+    public QueryRequest withSearchAfter(String searchAfter) {
+      this.searchAfter = searchAfter;
+      return this;
+    }
+
     public QueryRequest withOption(ListChangesOption options) {
       this.options.add(options);
       return this;
@@ -121,6 +127,10 @@ public interface Changes {
       return start;
     }
 
+    public String getSearchAfter() {
+      return searchAfter;
+    }
+
     public EnumSet<ListChangesOption> getOptions() {
       return options;
     }
@@ -134,6 +144,9 @@ public interface Changes {
       if (start != 0) {
         sb.append(", start=").append(start);
       }
+      if (searchAfter != null) {
+        sb.append(", searchAfter=").append(searchAfter);
+      }
       if (!options.isEmpty()) {
         sb.append("options=").append(options);
       }
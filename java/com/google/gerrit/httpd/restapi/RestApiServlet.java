@@ -151,9 +151,11 @@ import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -202,6 +204,15 @@ public class RestApiServlet extends HttpServlet {
   public static final String XD_METHOD = "$m";
 
   private static final int HEAP_EST_SIZE = 10 * 8 * 1024; // Presize 10 blocks.
+
+  /**
+   * Minimum number of elements in a collection or map result to stream it to the client.
+   *
+   * <p>Smaller results are buffered, so that their content length is known and the response is only
+   * compressed if that actually makes it smaller.
+   */
+  private static final int STREAM_MIN_SIZE = 100;
+
   private static final String PLAIN_TEXT = "text/plain";
   private static final Pattern TYPE_SPLIT_PATTERN = Pattern.compile("[ ,;][ ,;]*");
 
@@ -1011,6 +1022,10 @@ public class RestApiServlet extends HttpServlet {
       ListMultimap<String, String> config,
       Object result)
       throws IOException {
+    if (size(result) >= STREAM_MIN_SIZE) {
+      return replyJsonStream(req, res, allowTracing, config, result);
+    }
+
     TemporaryBuffer.Heap buf = heap(HEAP_EST_SIZE, Integer.MAX_VALUE);
     buf.write(JSON_MAGIC);
     Writer w = new BufferedWriter(new OutputStreamWriter(buf, UTF_8));
@@ -1041,6 +1056,98 @@ public class RestApiServlet extends HttpServlet {
         req, res, asBinaryResult(buf).setContentType(JSON_TYPE).setCharacterEncoding(UTF_8));
   }
 
+  private static int size(Object result) {
+    if (result instanceof Collection) {
+      return ((Collection<?>) result).size();
+    } else if (result instanceof Map) {
+      return ((Map<?, ?>) result).size();
+    }
+    return -1;
+  }
+
+  /**
+   * Writes a collection or map result element by element to the response.
+   *
+   * <p>Unlike {@link #replyJson(HttpServletRequest, HttpServletResponse, boolean, ListMultimap,
+   * Object)} the serialized result is never held in memory as a whole, which matters for queries
+   * returning thousands of entities. The content length of the response is not known upfront.
+   *
+   * <p>The collection is copied before anything is written, so lazy views are evaluated while an
+   * error can still be reported as a 500. Entries are then serialized as they are written; if
+   * serialization fails mid-stream the response is already committed, the failure is only logged by
+   * {@link #handleException(Throwable, HttpServletRequest, HttpServletResponse)} and the client
+   * sees a truncated body, which is not valid JSON.
+   */
+  private static long replyJsonStream(
+      @Nullable HttpServletRequest req,
+      HttpServletResponse res,
+      boolean allowTracing,
+      ListMultimap<String, String> config,
+      Object result)
+      throws IOException {
+    Gson gson = newGson(config, req);
+    Object value =
+        result instanceof Map
+            ? new LinkedHashMap<>((Map<?, ?>) result)
+            : new ArrayList<>((Collection<?>) result);
+    BinaryResult bin =
+        new BinaryResult() {
+          @Override
+          public void writeTo(OutputStream os) throws IOException {
+            os.write(JSON_MAGIC);
+            Writer w = new BufferedWriter(new OutputStreamWriter(os, UTF_8));
+            JsonWriter json = gson.newJsonWriter(w);
+            if (value instanceof Map) {
+              json.beginObject();
+              for (Map.Entry<?, ?> e : ((Map<?, ?>) value).entrySet()) {
+                json.name(jsonKey(gson, e.getKey()));
+                writeJsonValue(gson, json, e.getValue());
+              }
+              json.endObject();
+            } else {
+              json.beginArray();
+              for (Object o : (Collection<?>) value) {
+                writeJsonValue(gson, json, o);
+              }
+              json.endArray();
+            }
+            json.flush();
+            w.write('\n');
+            w.flush();
+          }
+        }.setContentType(JSON_TYPE).setCharacterEncoding(UTF_8);
+
+    if (acceptsGzip(req)) {
+      res.setHeader("Content-Encoding", "gzip");
+      bin = gzip(bin).setContentType(bin.getContentType());
+    }
+    if (allowTracing) {
+      logger.atFinest().log("JSON response body with %d entries streamed", size(result));
+    }
+    return replyBinaryResult(req, res, bin.disableGzip());
+  }
+
+  /**
+   * Returns the property name Gson uses for a map key. The key is passed through Gson's own map
+   * adapter, so the streamed output has the same keys as the buffered one.
+   */
+  private static String jsonKey(Gson gson, @Nullable Object key) {
+    JsonElement e = gson.toJsonTree(Collections.singletonMap(key, 0));
+    if (e.isJsonObject()) {
+      return Iterables.getOnlyElement(e.getAsJsonObject().keySet());
+    }
+    return String.valueOf(key);
+  }
+
+  private static void writeJsonValue(Gson gson, JsonWriter json, @Nullable Object value)
+      throws IOException {
+    if (value == null) {
+      json.nullValue();
+    } else {
+      gson.toJson(value, value.getClass(), json);
+    }
+  }
+
   private static Gson newGson(
       ListMultimap<String, String> config, @Nullable HttpServletRequest req) {
     GsonBuilder gb = OutputFormat.JSON_COMPACT.newGsonBuilder();
@@ -1202,21 +1309,24 @@ public class RestApiServlet extends HttpServlet {
         return src;
       }
     } else {
-      gz =
-          new BinaryResult() {
-            @Override
-            public void writeTo(OutputStream out) throws IOException {
-              GZIPOutputStream gz = new GZIPOutputStream(out);
-              src.writeTo(gz);
-              gz.finish();
-              gz.flush();
-            }
-          };
+      gz = gzip(src);
     }
     res.setHeader("Content-Encoding", "gzip");
     return gz.setContentType(src.getContentType());
   }
 
+  private static BinaryResult gzip(BinaryResult src) {
+    return new BinaryResult() {
+      @Override
+      public void writeTo(OutputStream out) throws IOException {
+        GZIPOutputStream gz = new GZIPOutputStream(out);
+        src.writeTo(gz);
+        gz.finish();
+        gz.flush();
+      }
+    };
+  }
+
   private ViewData view(
       RestCollection<RestResource, RestResource> rc, String method, List<IdString> path)
       throws AmbiguousViewException, RestApiException {
@@ -67,6 +67,15 @@ public interface Index<K, V> {
    */
   void deleteAll() throws IOException;
 
+  /**
+   * Make all previous writes to this index durable.
+   *
+   * <p>Indexes that persist every write immediately don't need to do anything.
+   *
+   * @throws IOException
+   */
+  default void flush() throws IOException {}
+
   /**
    * Convert the given operator predicate into a source searching the index and returning only the
    * documents matching that predicate.
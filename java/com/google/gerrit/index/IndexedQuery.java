@@ -107,6 +107,17 @@ public class IndexedQuery<I, T> extends Predicate<T> implements DataSource<T>, P
     return read();
   }
 
+  @Override
+  public ResultSet<T> restart(Object searchAfter) throws OrmException {
+    opts = opts.withStart(0).withSearchAfter(searchAfter);
+    try {
+      source = index.getSource(pred, opts);
+    } catch (QueryParseException e) {
+      throw new OrmException(e);
+    }
+    return read();
+  }
+
   @Override
   public Predicate<T> copy(Collection<? extends Predicate<T>> children) {
     return this;
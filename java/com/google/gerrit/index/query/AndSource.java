@@ -103,7 +103,8 @@ public class AndSource<T> extends AndPredicate<T>
     T last = null;
     int nextStart = 0;
     boolean skipped = false;
-    for (T data : buffer(source.read())) {
+    ResultSet<T> rs = source.read();
+    for (T data : buffer(rs)) {
       if (!isMatchable() || match(data)) {
         r.add(data);
       } else {
@@ -118,11 +119,16 @@ public class AndSource<T> extends AndPredicate<T>
       // least one of its results, we may not have filled the full
       // limit the caller wants.  Restart the source and continue.
       //
+      //
+      // If the source knows the position of its last result, continue from
+      // there, so the index doesn't have to collect and skip all results
+      // read so far again.
       @SuppressWarnings("unchecked")
       Paginated<T> p = (Paginated<T>) source;
+      Object searchAfter = SearchAfterResultSet.searchAfter(rs);
       while (skipped && r.size() < p.getOptions().limit() + start) {
         skipped = false;
-        ResultSet<T> next = p.restart(nextStart);
+        ResultSet<T> next = searchAfter != null ? p.restart(searchAfter) : p.restart(nextStart);
 
         for (T data : buffer(next)) {
           if (match(data)) {
@@ -132,6 +138,7 @@ public class AndSource<T> extends AndPredicate<T>
           }
           nextStart++;
         }
+        searchAfter = SearchAfterResultSet.searchAfter(next);
       }
     }
 
@@ -163,7 +170,18 @@ public class AndSource<T> extends AndPredicate<T>
 
   private Iterable<T> buffer(ResultSet<T> scanner) {
     return FluentIterable.from(Iterables.partition(scanner, 50))
-        .transformAndConcat(this::transformBuffer);
+        .transformAndConcat(b -> prepareVisibility(transformBuffer(b)));
+  }
+
+  private List<T> prepareVisibility(List<T> buffer) throws OrmRuntimeException {
+    if (isVisibleToPredicate != null) {
+      try {
+        isVisibleToPredicate.prepare(buffer);
+      } catch (OrmException e) {
+        throw new OrmRuntimeException(e);
+      }
+    }
+    return buffer;
   }
 
   protected List<T> transformBuffer(List<T> buffer) throws OrmRuntimeException {
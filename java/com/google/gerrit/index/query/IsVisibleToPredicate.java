@@ -14,8 +14,23 @@
 
 package com.google.gerrit.index.query;
 
+import com.google.gwtorm.server.OrmException;
+import java.util.List;
+
 public abstract class IsVisibleToPredicate<T> extends OperatorPredicate<T> implements Matchable<T> {
   public IsVisibleToPredicate(String name, String value) {
     super(name, value);
   }
+
+  /**
+   * Prepares visibility checks for a batch of candidates.
+   *
+   * <p>Called by {@link AndSource} with each batch of results read from its source, before {@link
+   * #match(Object)} is called on the individual results. Implementations may use this to share
+   * expensive permission checks between candidates; the default implementation does nothing.
+   *
+   * @param candidates results that will be passed to {@link #match(Object)}.
+   * @throws OrmException if visibility could not be checked.
+   */
+  public void prepare(List<T> candidates) throws OrmException {}
 }
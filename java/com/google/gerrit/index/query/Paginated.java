@@ -22,4 +22,13 @@ public interface Paginated<T> {
   QueryOptions getOptions();
 
   ResultSet<T> restart(int start) throws OrmException;
+
+  /**
+   * Restarts the query after the given position, rather than skipping a number of results.
+   *
+   * @param searchAfter position of the last result read so far, as returned by {@link
+   *     SearchAfterResultSet#searchAfter()}.
+   * @return results following {@code searchAfter}.
+   */
+  ResultSet<T> restart(Object searchAfter) throws OrmException;
 }
@@ -88,6 +88,7 @@ public abstract class QueryProcessor<T> {
   private final AtomicBoolean used;
 
   protected int start;
+  protected Object searchAfter;
 
   private boolean enforceVisibility = true;
   private int userProvidedLimit;
@@ -123,6 +124,22 @@ public abstract class QueryProcessor<T> {
     return this;
   }
 
+  /**
+   * Start the results after the given position, rather than after a number of results.
+   *
+   * <p>Unlike {@link #setStart(int)}, the index doesn't need to collect and skip all earlier
+   * results, so this is suitable for paging deep into large result sets. If both are set, {@code
+   * start} results following the position are skipped.
+   *
+   * @param searchAfter position in the sorted results of the index, in a form the index
+   *     understands; see {@link QueryOptions#searchAfter()}.
+   * @return this.
+   */
+  public QueryProcessor<T> setSearchAfter(@Nullable Object searchAfter) {
+    this.searchAfter = searchAfter;
+    return this;
+  }
+
   /**
    * Specify whether to enforce visibility by filtering out results that are not visible to the
    * user.
@@ -242,7 +259,9 @@ public abstract class QueryProcessor<T> {
         // Always bump limit by 1, even if this results in exceeding the permitted
         // max for this user. The only way to see if there are more entities is to
         // ask for one more result from the query.
-        QueryOptions opts = createOptions(indexConfig, start, limit + 1, getRequestedFields());
+        QueryOptions opts =
+            createOptions(indexConfig, start, limit + 1, getRequestedFields())
+                .withSearchAfter(searchAfter);
         logger.atFine().log("Query options: " + opts);
         Predicate<T> pred = rewriter.rewrite(q, opts);
         if (enforceVisibility) {
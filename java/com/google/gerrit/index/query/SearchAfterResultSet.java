@@ -0,0 +1,44 @@
+// Copyright (C) 2019 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.index.query;
+
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.index.QueryOptions;
+import com.google.gwtorm.server.ResultSet;
+
+/** Result set of an index query that knows the position of its last result. */
+public interface SearchAfterResultSet<T> extends ResultSet<T> {
+  /**
+   * Returns the position of the last result, if any.
+   *
+   * @param rs result set.
+   * @return the position of the last result of {@code rs}, or null if {@code rs} is empty or
+   *     doesn't support search-after pagination.
+   */
+  @Nullable
+  static Object searchAfter(ResultSet<?> rs) {
+    return rs instanceof SearchAfterResultSet ? ((SearchAfterResultSet<?>) rs).searchAfter() : null;
+  }
+
+  /**
+   * Returns the position of the last result in the sorted results of the index, suitable for {@link
+   * QueryOptions#searchAfter()} or {@link Paginated#restart(Object)} to read the results that
+   * follow it.
+   *
+   * @return position of the last result, or null if there are no results.
+   */
+  @Nullable
+  Object searchAfter();
+}
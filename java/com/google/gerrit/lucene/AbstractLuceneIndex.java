@@ -292,6 +292,11 @@ public abstract class AbstractLuceneIndex<K, V> implements Index<K, V> {
     writer.deleteAll();
   }
 
+  @Override
+  public void flush() throws IOException {
+    writer.commit();
+  }
+
   public IndexWriter getWriter() {
     return writer;
   }
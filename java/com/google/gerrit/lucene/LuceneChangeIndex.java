@@ -30,6 +30,7 @@ import com.google.common.base.Function;
 import com.google.common.base.Throwables;
 import com.google.common.collect.Collections2;
 import com.google.common.collect.FluentIterable;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.ListMultimap;
 import com.google.common.collect.MultimapBuilder;
@@ -37,11 +38,13 @@ import com.google.common.collect.Sets;
 import com.google.common.flogger.FluentLogger;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.gerrit.common.Nullable;
 import com.google.gerrit.index.QueryOptions;
 import com.google.gerrit.index.Schema;
 import com.google.gerrit.index.query.FieldBundle;
 import com.google.gerrit.index.query.Predicate;
 import com.google.gerrit.index.query.QueryParseException;
+import com.google.gerrit.index.query.SearchAfterResultSet;
 import com.google.gerrit.reviewdb.client.Account;
 import com.google.gerrit.reviewdb.client.Change;
 import com.google.gerrit.reviewdb.client.PatchSet;
@@ -54,6 +57,7 @@ import com.google.gerrit.server.index.IndexExecutor;
 import com.google.gerrit.server.index.IndexUtils;
 import com.google.gerrit.server.index.change.ChangeField;
 import com.google.gerrit.server.index.change.ChangeIndex;
+import com.google.gerrit.server.index.change.ChangeIndexCursor;
 import com.google.gerrit.server.index.change.ChangeIndexRewriter;
 import com.google.gerrit.server.project.SubmitRuleOptions;
 import com.google.gerrit.server.query.change.ChangeData;
@@ -77,9 +81,15 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import org.apache.lucene.document.Document;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.index.DocValues;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.SortedDocValues;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.search.FieldDoc;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
@@ -105,6 +115,7 @@ public class LuceneChangeIndex implements ChangeIndex {
 
   static final String UPDATED_SORT_FIELD = sortFieldName(ChangeField.UPDATED);
   static final String ID_SORT_FIELD = sortFieldName(ChangeField.LEGACY_ID);
+  static final String PROJECT_SORT_FIELD = sortFieldName(ChangeField.PROJECT);
 
   private static final String CHANGES = "changes";
   private static final String CHANGES_OPEN = "open";
@@ -132,6 +143,10 @@ public class LuceneChangeIndex implements ChangeIndex {
   private static final String UNRESOLVED_COMMENT_COUNT_FIELD =
       ChangeField.UNRESOLVED_COMMENT_COUNT.getName();
 
+  // Fields that can be read from doc values alone, without loading the stored document.
+  private static final ImmutableSet<String> DOC_VALUES_FIELDS =
+      ImmutableSet.of(LEGACY_ID.getName(), PROJECT.getName());
+
   static Term idTerm(ChangeData cd) {
     return QueryBuilder.intTerm(LEGACY_ID.getName(), cd.getId().get());
   }
@@ -233,6 +248,12 @@ public class LuceneChangeIndex implements ChangeIndex {
     closedIndex.deleteAll();
   }
 
+  @Override
+  public void flush() throws IOException {
+    openIndex.flush();
+    closedIndex.flush();
+  }
+
   @Override
   public ChangeDataSource getSource(Predicate<ChangeData> p, QueryOptions opts)
       throws QueryParseException {
@@ -312,9 +333,9 @@ public class LuceneChangeIndex implements ChangeIndex {
       final Set<String> fields = IndexUtils.changeFields(opts);
       return new ChangeDataResults(
           executor.submit(
-              new Callable<List<Document>>() {
+              new Callable<Hits>() {
                 @Override
-                public List<Document> call() throws IOException {
+                public Hits call() throws IOException {
                   return doRead(fields);
                 }
 
@@ -328,14 +349,14 @@ public class LuceneChangeIndex implements ChangeIndex {
 
     @Override
     public ResultSet<FieldBundle> readRaw() throws OrmException {
-      List<Document> documents;
+      Hits hits;
       try {
-        documents = doRead(IndexUtils.changeFields(opts));
+        hits = doRead(IndexUtils.changeFields(opts));
       } catch (IOException e) {
         throw new OrmException(e);
       }
-      List<FieldBundle> fieldBundles = documents.stream().map(rawDocumentMapper).collect(toList());
-      return new ResultSet<FieldBundle>() {
+      List<FieldBundle> fieldBundles = hits.docs.stream().map(rawDocumentMapper).collect(toList());
+      return new SearchAfterResultSet<FieldBundle>() {
         @Override
         public Iterator<FieldBundle> iterator() {
           return fieldBundles.iterator();
@@ -346,6 +367,11 @@ public class LuceneChangeIndex implements ChangeIndex {
           return fieldBundles;
         }
 
+        @Override
+        public Object searchAfter() {
+          return hits.searchAfter;
+        }
+
         @Override
         public void close() {
           // Do nothing.
@@ -353,26 +379,39 @@ public class LuceneChangeIndex implements ChangeIndex {
       };
     }
 
-    private List<Document> doRead(Set<String> fields) throws IOException {
+    private Hits doRead(Set<String> fields) throws IOException {
       IndexSearcher[] searchers = new IndexSearcher[indexes.size()];
       try {
         int realLimit = opts.start() + opts.limit();
         if (Integer.MAX_VALUE - opts.limit() < opts.start()) {
           realLimit = Integer.MAX_VALUE;
         }
+        FieldDoc after = toFieldDoc((ChangeIndexCursor) opts.searchAfter());
         TopFieldDocs[] hits = new TopFieldDocs[indexes.size()];
         for (int i = 0; i < indexes.size(); i++) {
           searchers[i] = indexes.get(i).acquire();
-          hits[i] = searchers[i].search(query, realLimit, sort);
+          hits[i] =
+              after != null
+                  ? searchers[i].searchAfter(after, query, realLimit, sort)
+                  : searchers[i].search(query, realLimit, sort);
         }
         TopDocs docs = TopDocs.merge(sort, realLimit, hits);
 
+        boolean docValuesOnly = DOC_VALUES_FIELDS.containsAll(fields);
         List<Document> result = new ArrayList<>(docs.scoreDocs.length);
         for (int i = opts.start(); i < docs.scoreDocs.length; i++) {
           ScoreDoc sd = docs.scoreDocs[i];
-          result.add(searchers[sd.shardIndex].doc(sd.doc, fields));
+          Document doc = docValuesOnly ? readDocValues(searchers[sd.shardIndex], sd.doc) : null;
+          if (doc == null) {
+            doc = searchers[sd.shardIndex].doc(sd.doc, fields);
+          }
+          result.add(doc);
         }
-        return result;
+        ChangeIndexCursor searchAfter = null;
+        if (docs.scoreDocs.length > 0) {
+          searchAfter = toCursor((FieldDoc) docs.scoreDocs[docs.scoreDocs.length - 1]);
+        }
+        return new Hits(result, searchAfter);
       } finally {
         for (int i = 0; i < indexes.size(); i++) {
           if (searchers[i] != null) {
@@ -387,11 +426,60 @@ public class LuceneChangeIndex implements ChangeIndex {
     }
   }
 
-  private class ChangeDataResults implements ResultSet<ChangeData> {
-    private final Future<List<Document>> future;
+  /**
+   * Reads the ID and project of a hit from doc values, without loading the stored document.
+   *
+   * @return a document with the ID and project fields, or null if the hit was indexed before the
+   *     project was stored as doc values.
+   */
+  @Nullable
+  private static Document readDocValues(IndexSearcher searcher, int doc) throws IOException {
+    List<LeafReaderContext> leaves = searcher.getIndexReader().leaves();
+    LeafReaderContext leaf = leaves.get(ReaderUtil.subIndex(doc, leaves));
+    int leafDoc = doc - leaf.docBase;
+    SortedDocValues project = DocValues.getSorted(leaf.reader(), PROJECT_SORT_FIELD);
+    if (project.getOrd(leafDoc) < 0) {
+      return null;
+    }
+    int id = (int) DocValues.getNumeric(leaf.reader(), ID_SORT_FIELD).get(leafDoc);
+    Document result = new Document();
+    result.add(new StoredField(LEGACY_ID.getName(), id));
+    result.add(new StoredField(PROJECT.getName(), project.get(leafDoc).utf8ToString()));
+    return result;
+  }
+
+  /** Documents read for a query, with the position of the last hit in the sorted results. */
+  private static class Hits {
+    final List<Document> docs;
+    @Nullable final ChangeIndexCursor searchAfter;
+
+    Hits(List<Document> docs, @Nullable ChangeIndexCursor searchAfter) {
+      this.docs = docs;
+      this.searchAfter = searchAfter;
+    }
+  }
+
+  // The sort values of a hit are those of the fields in getSort(), which are
+  // both of type LONG. The doc ID of the cursor is larger than that of any
+  // hit, so that searchAfter also skips the change at the cursor itself.
+  @Nullable
+  private static FieldDoc toFieldDoc(@Nullable ChangeIndexCursor cursor) {
+    if (cursor == null) {
+      return null;
+    }
+    return new FieldDoc(
+        Integer.MAX_VALUE, Float.NaN, new Object[] {cursor.updated(), (long) cursor.changeId()});
+  }
+
+  private static ChangeIndexCursor toCursor(FieldDoc doc) {
+    return ChangeIndexCursor.create((Long) doc.fields[0], ((Long) doc.fields[1]).intValue());
+  }
+
+  private class ChangeDataResults implements SearchAfterResultSet<ChangeData> {
+    private final Future<Hits> future;
     private final Set<String> fields;
 
-    ChangeDataResults(Future<List<Document>> future, Set<String> fields) {
+    ChangeDataResults(Future<Hits> future, Set<String> fields) {
       this.future = future;
       this.fields = fields;
     }
@@ -404,7 +492,7 @@ public class LuceneChangeIndex implements ChangeIndex {
     @Override
     public List<ChangeData> toList() {
       try {
-        List<Document> docs = future.get();
+        List<Document> docs = future.get().docs;
         List<ChangeData> result = new ArrayList<>(docs.size());
         String idFieldName = LEGACY_ID.getName();
         for (Document doc : docs) {
@@ -420,6 +508,19 @@ public class LuceneChangeIndex implements ChangeIndex {
       }
     }
 
+    @Override
+    public Object searchAfter() {
+      try {
+        return future.get().searchAfter;
+      } catch (InterruptedException e) {
+        close();
+        throw new OrmRuntimeException(e);
+      } catch (ExecutionException e) {
+        Throwables.throwIfUnchecked(e.getCause());
+        throw new OrmRuntimeException(e.getCause());
+      }
+    }
+
     @Override
     public void close() {
       future.cancel(false /* do not interrupt Lucene */);
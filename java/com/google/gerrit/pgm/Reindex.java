@@ -20,6 +20,7 @@ import static java.util.stream.Collectors.toSet;
 
 import com.google.common.collect.Sets;
 import com.google.gerrit.common.Die;
+import com.google.gerrit.common.Nullable;
 import com.google.gerrit.elasticsearch.ElasticIndexModule;
 import com.google.gerrit.extensions.config.FactoryModule;
 import com.google.gerrit.index.Index;
@@ -32,15 +33,21 @@ import com.google.gerrit.pgm.util.SiteProgram;
 import com.google.gerrit.pgm.util.ThreadLimiter;
 import com.google.gerrit.server.change.ChangeResource;
 import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.config.SitePaths;
 import com.google.gerrit.server.index.IndexModule;
 import com.google.gerrit.server.index.IndexModule.IndexType;
+import com.google.gerrit.server.index.change.AllChangesIndexer;
 import com.google.gerrit.server.index.change.ChangeSchemaDefinitions;
+import com.google.gerrit.server.index.change.ReindexCheckpoint;
+import com.google.gerrit.server.notedb.ChangeNotesSnapshot;
+import com.google.gerrit.server.notedb.NotesMigration;
 import com.google.gerrit.server.plugins.PluginGuiceEnvironment;
 import com.google.inject.Inject;
 import com.google.inject.Injector;
 import com.google.inject.Key;
 import com.google.inject.Module;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -71,12 +78,24 @@ public class Reindex extends SiteProgram {
   @Option(name = "--index", usage = "Only reindex specified indices")
   private List<String> indices = new ArrayList<>();
 
+  @Option(
+      name = "--skip-change-notes-snapshot",
+      usage = "Don't write a snapshot of the change notes read while reindexing changes")
+  private boolean skipChangeNotesSnapshot;
+
+  @Option(
+      name = "--resume",
+      usage = "Resume an interrupted reindex of changes, skipping the changes it already indexed")
+  private boolean resume;
+
   private Injector dbInjector;
   private Injector sysInjector;
   private Injector cfgInjector;
   private Config globalConfig;
 
   @Inject private Collection<IndexDefinition<?, ?, ?>> indexDefs;
+  @Inject private NotesMigration notesMigration;
+  @Inject private SitePaths sitePaths;
 
   @Override
   public int run() throws Exception {
@@ -194,20 +213,76 @@ public class Reindex extends SiteProgram {
     I index = def.getIndexCollection().getSearchIndex();
     requireNonNull(
         index, () -> String.format("no active search index configured for %s", def.getName()));
+    SiteIndexer<K, V, I> siteIndexer = def.getSiteIndexer();
+    ReindexCheckpoint checkpoint = openCheckpoint(def, index, siteIndexer);
+    boolean resuming = checkpoint != null && checkpoint.resumedSlices() > 0;
     index.markReady(false);
-    index.deleteAll();
+    if (resuming) {
+      System.out.format(
+          "Resuming reindex of %s index, skipping %d changes\n",
+          def.getName(), checkpoint.resumedChanges());
+    } else {
+      index.deleteAll();
+    }
 
-    SiteIndexer<K, V, I> siteIndexer = def.getSiteIndexer();
     siteIndexer.setProgressOut(System.err);
     siteIndexer.setVerboseOut(verbose ? System.out : NullOutputStream.INSTANCE);
-    SiteIndexer.Result result = siteIndexer.indexAll(index);
-    int n = result.doneCount() + result.failedCount();
-    double t = result.elapsed(TimeUnit.MILLISECONDS) / 1000d;
-    System.out.format(
-        "Reindexed %d documents in %s index in %.01fs (%.01f/s)\n", n, def.getName(), t, n / t);
-    if (result.success()) {
-      index.markReady(true);
+    SiteIndexer.Result result;
+    try (ReindexCheckpoint c = checkpoint;
+        ChangeNotesSnapshot.Writer snapshot =
+            resuming ? null : openChangeNotesSnapshot(siteIndexer)) {
+      result = siteIndexer.indexAll(index);
+      int n = result.doneCount() + result.failedCount();
+      double t = result.elapsed(TimeUnit.MILLISECONDS) / 1000d;
+      System.out.format(
+          "Reindexed %d documents in %s index in %.01fs (%.01f/s)\n", n, def.getName(), t, n / t);
+      if (result.success()) {
+        index.markReady(true);
+        if (snapshot != null) {
+          System.out.format("Wrote %d changes to change notes snapshot\n", snapshot.commit());
+        }
+        if (checkpoint != null) {
+          checkpoint.delete();
+        }
+      }
+    } finally {
+      if (siteIndexer instanceof AllChangesIndexer) {
+        ((AllChangesIndexer) siteIndexer).setChangeNotesSnapshot(null);
+        ((AllChangesIndexer) siteIndexer).setCheckpoint(null);
+      }
     }
     return result.success();
   }
+
+  @Nullable
+  private ReindexCheckpoint openCheckpoint(
+      IndexDefinition<?, ?, ?> def, Index<?, ?> index, SiteIndexer<?, ?, ?> siteIndexer)
+      throws IOException {
+    if (!(siteIndexer instanceof AllChangesIndexer)) {
+      return null;
+    }
+    ReindexCheckpoint checkpoint =
+        ReindexCheckpoint.open(
+            ReindexCheckpoint.getPath(sitePaths, def.getName(), index.getSchema().getVersion()),
+            resume);
+    ((AllChangesIndexer) siteIndexer).setCheckpoint(checkpoint);
+    return checkpoint;
+  }
+
+  @Nullable
+  private ChangeNotesSnapshot.Writer openChangeNotesSnapshot(SiteIndexer<?, ?, ?> siteIndexer)
+      throws IOException {
+    if (skipChangeNotesSnapshot
+        || !(siteIndexer instanceof AllChangesIndexer)
+        || !notesMigration.readChanges()) {
+      return null;
+    }
+    Path path = ChangeNotesSnapshot.getPath(sitePaths, globalConfig);
+    if (path == null) {
+      return null;
+    }
+    ChangeNotesSnapshot.Writer snapshot = ChangeNotesSnapshot.newWriter(path);
+    ((AllChangesIndexer) siteIndexer).setChangeNotesSnapshot(snapshot);
+    return snapshot;
+  }
 }
@@ -0,0 +1,153 @@
+// Copyright (C) 2019 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.pgm;
+
+import static com.google.gerrit.server.schema.DataSourceProvider.Context.MULTI_USER;
+
+import com.google.gerrit.extensions.config.FactoryModule;
+import com.google.gerrit.lifecycle.LifecycleManager;
+import com.google.gerrit.pgm.util.BatchProgramModule;
+import com.google.gerrit.pgm.util.SiteProgram;
+import com.google.gerrit.pgm.util.ThreadLimiter;
+import com.google.gerrit.reviewdb.client.Project;
+import com.google.gerrit.reviewdb.server.ReviewDb;
+import com.google.gerrit.server.change.ChangeResource;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.config.SitePaths;
+import com.google.gerrit.server.git.GitRepositoryManager;
+import com.google.gerrit.server.index.DummyIndexModule;
+import com.google.gerrit.server.notedb.ChangeNotes;
+import com.google.gerrit.server.notedb.ChangeNotesSnapshot;
+import com.google.gerrit.server.notedb.NotesMigration;
+import com.google.gerrit.server.project.ProjectCache;
+import com.google.gwtorm.server.SchemaFactory;
+import com.google.inject.Inject;
+import com.google.inject.Injector;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.Repository;
+import org.kohsuke.args4j.Option;
+
+/**
+ * Writes a snapshot of the change notes of all changes to {@code
+ * (cache.directory)/change_notes.snapshot}, to be mapped by the server at startup.
+ */
+public class SnapshotChangeNotes extends SiteProgram {
+  @Option(name = "--threads", usage = "Number of threads to use for reading changes")
+  private int threads = Runtime.getRuntime().availableProcessors();
+
+  @Inject @GerritServerConfig private Config cfg;
+  @Inject private ChangeNotes.Factory notesFactory;
+  @Inject private GitRepositoryManager repoManager;
+  @Inject private NotesMigration notesMigration;
+  @Inject private ProjectCache projectCache;
+  @Inject private SchemaFactory<ReviewDb> schemaFactory;
+  @Inject private SitePaths sitePaths;
+
+  @Override
+  public int run() throws Exception {
+    mustHaveValidSite();
+    Injector dbInjector = createDbInjector(MULTI_USER);
+    threads = ThreadLimiter.limitThreads(dbInjector, threads);
+    LifecycleManager dbManager = new LifecycleManager();
+    dbManager.add(dbInjector);
+    dbManager.start();
+
+    Injector sysInjector =
+        dbInjector.createChildInjector(
+            new FactoryModule() {
+              @Override
+              public void configure() {
+                install(dbInjector.getInstance(BatchProgramModule.class));
+                install(new DummyIndexModule());
+                factory(ChangeResource.Factory.class);
+              }
+            });
+    LifecycleManager sysManager = new LifecycleManager();
+    sysManager.add(sysInjector);
+    sysManager.start();
+    sysInjector.injectMembers(this);
+
+    try {
+      return snapshot() ? 0 : 1;
+    } finally {
+      sysManager.stop();
+      dbManager.stop();
+    }
+  }
+
+  private boolean snapshot() throws Exception {
+    if (!notesMigration.readChanges()) {
+      throw die("Changes are not read from NoteDb");
+    }
+    Path path = ChangeNotesSnapshot.getPath(sitePaths, cfg);
+    if (path == null) {
+      throw die("cache.directory is not set");
+    }
+
+    AtomicInteger failed = new AtomicInteger();
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try (ChangeNotesSnapshot.Writer snapshot = ChangeNotesSnapshot.newWriter(path)) {
+      List<Future<?>> futures = new ArrayList<>();
+      for (Project.NameKey project : projectCache.all()) {
+        futures.add(
+            executor.submit(
+                () -> {
+                  snapshot(snapshot, project, failed);
+                  return null;
+                }));
+      }
+      for (Future<?> f : futures) {
+        f.get();
+      }
+      int n = snapshot.commit();
+      System.out.format("Wrote %d changes to %s\n", n, path);
+    } finally {
+      executor.shutdown();
+    }
+
+    if (failed.get() > 0) {
+      System.err.format("error: Failed to read %d changes\n", failed.get());
+      return false;
+    }
+    return true;
+  }
+
+  private void snapshot(
+      ChangeNotesSnapshot.Writer snapshot, Project.NameKey project, AtomicInteger failed)
+      throws Exception {
+    try (Repository repo = repoManager.openRepository(project);
+        ReviewDb db = schemaFactory.open()) {
+      notesFactory
+          .scan(repo, db, project)
+          .forEach(
+              r -> {
+                if (r.error().isPresent()) {
+                  System.err.format(
+                      "error: Failed to read change %s: %s\n", r.id(), r.error().get());
+                  failed.incrementAndGet();
+                } else {
+                  snapshot.add(r.notes());
+                }
+              });
+    }
+  }
+}
@@ -18,10 +18,13 @@ import static com.google.common.base.Preconditions.checkArgument;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.metrics.Counter1;
 import com.google.gerrit.metrics.Description;
 import com.google.gerrit.metrics.Description.Units;
 import com.google.gerrit.metrics.Field;
 import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.metrics.Timer1;
 import com.google.gerrit.metrics.Timer2;
 import com.google.gerrit.reviewdb.server.ReviewDb;
 import com.google.gerrit.server.config.AllProjectsName;
@@ -29,6 +32,7 @@ import com.google.gerrit.server.config.AllUsersName;
 import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.extensions.events.GitReferenceUpdated;
 import com.google.gerrit.server.git.GitRepositoryManager;
+import com.google.gerrit.server.git.WorkQueue;
 import com.google.gerrit.server.notedb.NotesMigration;
 import com.google.gerrit.server.notedb.RepoSequence;
 import com.google.gwtorm.server.OrmException;
@@ -37,6 +41,8 @@ import com.google.inject.Provider;
 import com.google.inject.Singleton;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 import org.eclipse.jgit.lib.Config;
 
 @Singleton
@@ -61,6 +67,8 @@ public class Sequences {
   private final RepoSequence changeSeq;
   private final RepoSequence groupSeq;
   private final Timer2<SequenceType, Boolean> nextIdLatency;
+  private final Timer1<SequenceType> acquireLatency;
+  private final Counter1<SequenceType> discardedIds;
 
   @Inject
   public Sequences(
@@ -71,10 +79,34 @@ public class Sequences {
       GitReferenceUpdated gitRefUpdated,
       AllProjectsName allProjects,
       AllUsersName allUsers,
-      MetricMaker metrics) {
+      MetricMaker metrics,
+      @Nullable WorkQueue workQueue) {
     this.db = db;
     this.migration = migration;
 
+    nextIdLatency =
+        metrics.newTimer(
+            "sequence/next_id_latency",
+            new Description("Latency of requesting IDs from repo sequences")
+                .setCumulative()
+                .setUnit(Units.MILLISECONDS),
+            Field.ofEnum(SequenceType.class, "sequence"),
+            Field.ofBoolean("multiple"));
+    acquireLatency =
+        metrics.newTimer(
+            "sequence/acquire_latency",
+            new Description("Latency of acquiring a new range of IDs for repo sequences")
+                .setCumulative()
+                .setUnit(Units.MILLISECONDS),
+            Field.ofEnum(SequenceType.class, "sequence"));
+    discardedIds =
+        metrics.newCounter(
+            "sequence/discarded_ids",
+            new Description("IDs acquired by repo sequences that were discarded without use")
+                .setCumulative()
+                .setUnit("ids"),
+            Field.ofEnum(SequenceType.class, "sequence"));
+
     int accountBatchSize = cfg.getInt("noteDb", "accounts", "sequenceBatchSize", 1);
     accountSeq =
         new RepoSequence(
@@ -83,30 +115,62 @@ public class Sequences {
             allUsers,
             NAME_ACCOUNTS,
             () -> ReviewDb.FIRST_ACCOUNT_ID,
-            accountBatchSize);
+            accountBatchSize,
+            accountBatchSize,
+            null,
+            listener(SequenceType.ACCOUNTS));
 
     int gap = getChangeSequenceGap(cfg);
     @SuppressWarnings("deprecation")
     RepoSequence.Seed changeSeed = () -> db.get().nextChangeId() + gap;
     int changeBatchSize = cfg.getInt("noteDb", "changes", "sequenceBatchSize", 20);
+    int changeMaxBatchSize =
+        Math.max(
+            changeBatchSize,
+            cfg.getInt("noteDb", "changes", "sequenceMaxBatchSize", changeBatchSize));
+    Executor changePrefetchExecutor =
+        workQueue != null && cfg.getBoolean("noteDb", "changes", "sequencePrefetch", false)
+            ? workQueue.createQueue(1, "ChangeSequencePrefetch")
+            : null;
     changeSeq =
         new RepoSequence(
-            repoManager, gitRefUpdated, allProjects, NAME_CHANGES, changeSeed, changeBatchSize);
+            repoManager,
+            gitRefUpdated,
+            allProjects,
+            NAME_CHANGES,
+            changeSeed,
+            changeBatchSize,
+            changeMaxBatchSize,
+            changePrefetchExecutor,
+            listener(SequenceType.CHANGES));
 
     RepoSequence.Seed groupSeed = () -> nextGroupId(db.get());
     int groupBatchSize = 1;
     groupSeq =
         new RepoSequence(
-            repoManager, gitRefUpdated, allUsers, NAME_GROUPS, groupSeed, groupBatchSize);
+            repoManager,
+            gitRefUpdated,
+            allUsers,
+            NAME_GROUPS,
+            groupSeed,
+            groupBatchSize,
+            groupBatchSize,
+            null,
+            listener(SequenceType.GROUPS));
+  }
 
-    nextIdLatency =
-        metrics.newTimer(
-            "sequence/next_id_latency",
-            new Description("Latency of requesting IDs from repo sequences")
-                .setCumulative()
-                .setUnit(Units.MILLISECONDS),
-            Field.ofEnum(SequenceType.class, "sequence"),
-            Field.ofBoolean("multiple"));
+  private RepoSequence.Listener listener(SequenceType type) {
+    return new RepoSequence.Listener() {
+      @Override
+      public void onAcquire(int count, long elapsedNanos) {
+        acquireLatency.record(type, elapsedNanos, TimeUnit.NANOSECONDS);
+      }
+
+      @Override
+      public void onDiscard(int count) {
+        discardedIds.incrementBy(type, count);
+      }
+    };
   }
 
   public int nextAccountId() throws OrmException {
@@ -18,9 +18,9 @@ import static com.google.common.collect.ImmutableSetMultimap.toImmutableSetMulti
 import static java.util.stream.Collectors.toList;
 
 import com.google.auto.value.AutoValue;
+import com.google.auto.value.extension.memoized.Memoized;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableSetMultimap;
-import com.google.common.collect.SetMultimap;
 import com.google.gerrit.reviewdb.client.Account;
 import com.google.gerrit.server.cache.proto.Cache.AllExternalIdsProto;
 import com.google.gerrit.server.cache.proto.Cache.AllExternalIdsProto.ExternalIdProto;
@@ -29,21 +29,26 @@ import com.google.gerrit.server.cache.serialize.ProtoCacheSerializers;
 import com.google.gerrit.server.cache.serialize.ProtoCacheSerializers.ObjectIdConverter;
 import java.util.Collection;
 
-/** Cache value containing all external IDs. */
+/**
+ * Cache value containing all external IDs.
+ *
+ * <p>The indexes are {@link PersistentSetMultimap}s, so {@link #update(Collection, Collection)}
+ * shares all unmodified entries with the previous value instead of copying them.
+ */
 @AutoValue
 public abstract class AllExternalIds {
-  static AllExternalIds create(SetMultimap<Account.Id, ExternalId> byAccount) {
+  static AllExternalIds create(Collection<ExternalId> externalIds) {
     return new AutoValue_AllExternalIds(
-        ImmutableSetMultimap.copyOf(byAccount), byEmailCopy(byAccount.values()));
+        PersistentSetMultimap.copyOf(byAccount(externalIds)),
+        PersistentSetMultimap.copyOf(byEmail(externalIds)));
   }
 
-  static AllExternalIds create(Collection<ExternalId> externalIds) {
-    return new AutoValue_AllExternalIds(
-        externalIds.stream().collect(toImmutableSetMultimap(e -> e.accountId(), e -> e)),
-        byEmailCopy(externalIds));
+  private static ImmutableSetMultimap<Account.Id, ExternalId> byAccount(
+      Collection<ExternalId> externalIds) {
+    return externalIds.stream().collect(toImmutableSetMultimap(e -> e.accountId(), e -> e));
   }
 
-  private static ImmutableSetMultimap<String, ExternalId> byEmailCopy(
+  private static ImmutableSetMultimap<String, ExternalId> byEmail(
       Collection<ExternalId> externalIds) {
     return externalIds
         .stream()
@@ -51,9 +56,32 @@ public abstract class AllExternalIds {
         .collect(toImmutableSetMultimap(e -> e.email(), e -> e));
   }
 
-  public abstract ImmutableSetMultimap<Account.Id, ExternalId> byAccount();
+  abstract PersistentSetMultimap<Account.Id, ExternalId> byAccount();
+
+  abstract PersistentSetMultimap<String, ExternalId> byEmail();
 
-  public abstract ImmutableSetMultimap<String, ExternalId> byEmail();
+  /** Returns a copy of all external IDs as a multimap by account, built on first use. */
+  @Memoized
+  ImmutableSetMultimap<Account.Id, ExternalId> allByAccount() {
+    return byAccount().toImmutableSetMultimap();
+  }
+
+  /** Returns a copy of all external IDs as a multimap by email, built on first use. */
+  @Memoized
+  ImmutableSetMultimap<String, ExternalId> allByEmail() {
+    return byEmail().toImmutableSetMultimap();
+  }
+
+  /**
+   * Returns a new value with {@code toRemove} removed and {@code toAdd} added.
+   *
+   * <p>Only the modified entries are copied; this value is left unchanged.
+   */
+  AllExternalIds update(Collection<ExternalId> toRemove, Collection<ExternalId> toAdd) {
+    return new AutoValue_AllExternalIds(
+        byAccount().update(byAccount(toRemove), byAccount(toAdd)),
+        byEmail().update(byEmail(toRemove), byEmail(toAdd)));
+  }
 
   enum Serializer implements CacheSerializer<AllExternalIds> {
     INSTANCE;
@@ -65,7 +93,6 @@ public abstract class AllExternalIds {
       object
           .byAccount()
           .values()
-          .stream()
           .map(extId -> toProto(idConverter, extId))
           .forEach(allBuilder::addExternalId);
       return ProtoCacheSerializers.toByteArray(allBuilder.build());
@@ -18,7 +18,6 @@ import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSetMultimap;
-import com.google.common.collect.MultimapBuilder;
 import com.google.common.collect.SetMultimap;
 import com.google.common.flogger.FluentLogger;
 import com.google.gerrit.reviewdb.client.Account;
@@ -33,7 +32,7 @@ import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
-import java.util.function.Consumer;
+import java.util.function.Function;
 import org.eclipse.jgit.lib.ObjectId;
 
 /** Caches external IDs of all accounts. The external IDs are always loaded from NoteDb. */
@@ -62,18 +61,8 @@ class ExternalIdCacheImpl implements ExternalIdCache {
       ObjectId newNotesRev,
       Collection<ExternalId> toRemove,
       Collection<ExternalId> toAdd) {
-    updateCache(
-        oldNotesRev,
-        newNotesRev,
-        m -> {
-          for (ExternalId extId : toRemove) {
-            m.remove(extId.accountId(), extId);
-          }
-          for (ExternalId extId : toAdd) {
-            extId.checkThatBlobIdIsSet();
-            m.put(extId.accountId(), extId);
-          }
-        });
+    toAdd.forEach(ExternalId::checkThatBlobIdIsSet);
+    updateCache(oldNotesRev, newNotesRev, old -> old.update(toRemove, toAdd));
   }
 
   @Override
@@ -88,7 +77,7 @@ class ExternalIdCacheImpl implements ExternalIdCache {
 
   @Override
   public SetMultimap<Account.Id, ExternalId> allByAccount() throws IOException {
-    return get().byAccount();
+    return get().allByAccount();
   }
 
   @Override
@@ -103,7 +92,7 @@ class ExternalIdCacheImpl implements ExternalIdCache {
 
   @Override
   public SetMultimap<String, ExternalId> allByEmail() throws IOException {
-    return get().byEmail();
+    return get().allByEmail();
   }
 
   private AllExternalIds get() throws IOException {
@@ -118,23 +107,21 @@ class ExternalIdCacheImpl implements ExternalIdCache {
     }
   }
 
+  /**
+   * Derives the value for {@code newNotesRev} from the value for {@code oldNotesRev}.
+   *
+   * <p>Updates share all unmodified entries with the old value, so they are cheap; the lock only
+   * serializes concurrent writers. Readers never take the lock since cached values are immutable.
+   */
   private void updateCache(
-      ObjectId oldNotesRev,
-      ObjectId newNotesRev,
-      Consumer<SetMultimap<Account.Id, ExternalId>> update) {
+      ObjectId oldNotesRev, ObjectId newNotesRev, Function<AllExternalIds, AllExternalIds> update) {
     lock.lock();
     try {
-      SetMultimap<Account.Id, ExternalId> m;
-      if (!ObjectId.zeroId().equals(oldNotesRev)) {
-        m =
-            MultimapBuilder.hashKeys()
-                .hashSetValues()
-                .build(extIdsByAccount.get(oldNotesRev).byAccount());
-      } else {
-        m = MultimapBuilder.hashKeys().hashSetValues().build();
-      }
-      update.accept(m);
-      extIdsByAccount.put(newNotesRev, AllExternalIds.create(m));
+      AllExternalIds old =
+          !ObjectId.zeroId().equals(oldNotesRev)
+              ? extIdsByAccount.get(oldNotesRev)
+              : AllExternalIds.create(ImmutableSet.of());
+      extIdsByAccount.put(newNotesRev, update.apply(old));
     } catch (ExecutionException e) {
       logger.atWarning().withCause(e).log("Cannot update external IDs");
     } finally {
@@ -0,0 +1,221 @@
+// Copyright (C) 2019 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.account.externalids;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.LinkedHashMultimap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.MultimapBuilder;
+import com.google.common.collect.SetMultimap;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+
+/**
+ * Immutable set multimap whose versions share structure.
+ *
+ * <p>Keys are distributed by hash over a two-level trie with a fixed fan-out; each leaf is an
+ * {@link ImmutableSetMultimap} holding the few keys that hash to it. {@link #update(Multimap,
+ * Multimap)} returns a new version that copies only the root, the touched interior nodes and the
+ * touched leaves, and shares everything else with this version.
+ *
+ * <p>The trie has a fixed 4096 leaves, so a leaf holds about N/4096 of the N keys, and an update of
+ * d keys costs O(d * N / 4096) rather than O(N). That is a large constant factor for the number of
+ * external IDs of typical sites, but it still grows with N; very large multimaps would need a
+ * deeper trie.
+ *
+ * <p>Instances are immutable and can be read concurrently without locking.
+ */
+final class PersistentSetMultimap<K, V> {
+  private static final int BITS = 6;
+  private static final int WIDTH = 1 << BITS;
+  private static final int MASK = WIDTH - 1;
+
+  private static final PersistentSetMultimap<Object, Object> EMPTY =
+      new PersistentSetMultimap<>(new Object[WIDTH][], 0);
+
+  @SuppressWarnings("unchecked")
+  static <K, V> PersistentSetMultimap<K, V> of() {
+    return (PersistentSetMultimap<K, V>) EMPTY;
+  }
+
+  static <K, V> PersistentSetMultimap<K, V> copyOf(Multimap<K, V> m) {
+    return PersistentSetMultimap.<K, V>of().update(ImmutableSetMultimap.of(), m);
+  }
+
+  // root[i][j] is the leaf for slot (i << BITS) | j, or null if it is empty. Arrays are never
+  // modified once an instance has been published.
+  private final Object[][] root;
+  private final int size;
+
+  private PersistentSetMultimap(Object[][] root, int size) {
+    this.root = root;
+    this.size = size;
+  }
+
+  /** Returns the values for the given key, or an empty set if there are none. */
+  ImmutableSet<V> get(K key) {
+    return leaf(root, slot(key)).get(key);
+  }
+
+  /** Returns the number of key-value pairs. */
+  int size() {
+    return size;
+  }
+
+  boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Returns a new version with the entries of {@code toRemove} removed and then the entries of
+   * {@code toAdd} added. This version is not modified.
+   */
+  PersistentSetMultimap<K, V> update(
+      Multimap<? extends K, ? extends V> toRemove, Multimap<? extends K, ? extends V> toAdd) {
+    if (toRemove.isEmpty() && toAdd.isEmpty()) {
+      return this;
+    }
+
+    ListMultimap<Integer, Map.Entry<? extends K, ? extends V>> removals = bySlot(toRemove);
+    ListMultimap<Integer, Map.Entry<? extends K, ? extends V>> additions = bySlot(toAdd);
+    SortedSet<Integer> touched = new TreeSet<>(removals.keySet());
+    touched.addAll(additions.keySet());
+
+    Object[][] newRoot = root.clone();
+    int newSize = size;
+    for (int s : touched) {
+      int i = s >>> BITS;
+      if (newRoot[i] == root[i]) {
+        newRoot[i] = root[i] != null ? root[i].clone() : new Object[WIDTH];
+      }
+
+      ImmutableSetMultimap<K, V> old = leaf(root, s);
+      SetMultimap<K, V> m = LinkedHashMultimap.create(old);
+      for (Map.Entry<? extends K, ? extends V> e : removals.get(s)) {
+        m.remove(e.getKey(), e.getValue());
+      }
+      for (Map.Entry<? extends K, ? extends V> e : additions.get(s)) {
+        m.put(e.getKey(), e.getValue());
+      }
+      newSize += m.size() - old.size();
+      newRoot[i][s & MASK] = m.isEmpty() ? null : ImmutableSetMultimap.copyOf(m);
+    }
+    return new PersistentSetMultimap<>(newRoot, newSize);
+  }
+
+  /** Returns all values, without copying. */
+  Stream<V> values() {
+    return Arrays.stream(root)
+        .filter(Objects::nonNull)
+        .flatMap(Arrays::stream)
+        .filter(Objects::nonNull)
+        .flatMap(leaf -> PersistentSetMultimap.<K, V>cast(leaf).values().stream());
+  }
+
+  /**
+   * Returns all entries as a single {@link ImmutableSetMultimap}.
+   *
+   * <p>This copies every entry and should only be used for full dumps.
+   */
+  ImmutableSetMultimap<K, V> toImmutableSetMultimap() {
+    ImmutableSetMultimap.Builder<K, V> b = ImmutableSetMultimap.builder();
+    for (Object[] node : root) {
+      if (node != null) {
+        for (Object leaf : node) {
+          if (leaf != null) {
+            b.putAll(cast(leaf));
+          }
+        }
+      }
+    }
+    return b.build();
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (o == this) {
+      return true;
+    }
+    if (!(o instanceof PersistentSetMultimap)) {
+      return false;
+    }
+    PersistentSetMultimap<?, ?> other = (PersistentSetMultimap<?, ?>) o;
+    if (size != other.size) {
+      return false;
+    }
+    // Both instances distribute keys over the slots in the same way, so they are equal iff all
+    // their leaves are.
+    for (int s = 0; s < WIDTH * WIDTH; s++) {
+      if (!leaf(root, s).equals(leaf(other.root, s))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public int hashCode() {
+    // Same as the hash code of the equivalent ImmutableSetMultimap, which sums its entries.
+    int h = 0;
+    for (Object[] node : root) {
+      if (node != null) {
+        for (Object leaf : node) {
+          if (leaf != null) {
+            h += leaf.hashCode();
+          }
+        }
+      }
+    }
+    return h;
+  }
+
+  @Override
+  public String toString() {
+    return toImmutableSetMultimap().toString();
+  }
+
+  private static int slot(Object key) {
+    // Spread the hash code so that keys with sequential hash codes, like account IDs, still use
+    // the top-level fan-out.
+    return (key.hashCode() * 0x9E3779B9) >>> (Integer.SIZE - 2 * BITS);
+  }
+
+  private static <K, V> ListMultimap<Integer, Map.Entry<? extends K, ? extends V>> bySlot(
+      Multimap<? extends K, ? extends V> m) {
+    ListMultimap<Integer, Map.Entry<? extends K, ? extends V>> result =
+        MultimapBuilder.hashKeys().arrayListValues().build();
+    for (Map.Entry<? extends K, ? extends V> e : m.entries()) {
+      result.put(slot(e.getKey()), e);
+    }
+    return result;
+  }
+
+  private static <K, V> ImmutableSetMultimap<K, V> leaf(Object[][] root, int slot) {
+    Object[] node = root[slot >>> BITS];
+    Object leaf = node != null ? node[slot & MASK] : null;
+    return leaf != null ? cast(leaf) : ImmutableSetMultimap.of();
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <K, V> ImmutableSetMultimap<K, V> cast(Object leaf) {
+    return (ImmutableSetMultimap<K, V>) leaf;
+  }
+}
@@ -116,6 +116,9 @@ class ChangesImpl implements Changes {
     }
     qc.setLimit(q.getLimit());
     qc.setStart(q.getStart());
+    if (q.getSearchAfter() != null) {
+      qc.setSearchAfter(q.getSearchAfter());
+    }
     for (ListChangesOption option : q.getOptions()) {
       qc.addOption(option);
     }
@@ -0,0 +1,28 @@
+// Copyright (C) 2019 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache;
+
+/**
+ * Persistent cache backend that takes over individual caches from the default {@link
+ * PersistentCacheFactory}.
+ *
+ * <p>Backends are bound in a {@link com.google.gerrit.extensions.registration.DynamicSet}. The
+ * default factory builds a cache with the first backend that handles it, and stores all other
+ * caches itself.
+ */
+public interface PersistentCacheBackend extends PersistentCacheFactory {
+  /** Returns true if the given cache is configured to be stored by this backend. */
+  boolean handles(PersistentCacheDef<?, ?> def);
+}
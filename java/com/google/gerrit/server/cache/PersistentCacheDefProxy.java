@@ -12,21 +12,23 @@
 // See the License for the specific language governing permissions and
 // limitations under the License.
 
-package com.google.gerrit.server.cache.h2;
+package com.google.gerrit.server.cache;
 
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.Weigher;
 import com.google.gerrit.common.Nullable;
-import com.google.gerrit.server.cache.PersistentCacheDef;
-import com.google.gerrit.server.cache.h2.H2CacheImpl.ValueHolder;
 import com.google.gerrit.server.cache.serialize.CacheSerializer;
 import com.google.inject.TypeLiteral;
 import java.time.Duration;
 
-class H2CacheDefProxy<K, V> implements PersistentCacheDef<K, V> {
+/**
+ * Cache definition for the in-memory part of a persistent cache, which holds {@link ValueHolder}s
+ * instead of plain values.
+ */
+public class PersistentCacheDefProxy<K, V> implements PersistentCacheDef<K, V> {
   private final PersistentCacheDef<K, V> source;
 
-  H2CacheDefProxy(PersistentCacheDef<K, V> source) {
+  public PersistentCacheDefProxy(PersistentCacheDef<K, V> source) {
     this.source = source;
   }
 
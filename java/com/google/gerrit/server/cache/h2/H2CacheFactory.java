@@ -21,11 +21,14 @@ import com.google.common.flogger.FluentLogger;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.gerrit.extensions.events.LifecycleListener;
 import com.google.gerrit.extensions.registration.DynamicMap;
+import com.google.gerrit.extensions.registration.DynamicSet;
 import com.google.gerrit.server.cache.MemoryCacheFactory;
+import com.google.gerrit.server.cache.PersistentCacheBackend;
 import com.google.gerrit.server.cache.PersistentCacheDef;
+import com.google.gerrit.server.cache.PersistentCacheDefProxy;
 import com.google.gerrit.server.cache.PersistentCacheFactory;
+import com.google.gerrit.server.cache.ValueHolder;
 import com.google.gerrit.server.cache.h2.H2CacheImpl.SqlStore;
-import com.google.gerrit.server.cache.h2.H2CacheImpl.ValueHolder;
 import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.config.SitePaths;
 import com.google.gerrit.server.logging.LoggingContextAwareExecutorService;
@@ -51,6 +54,7 @@ class H2CacheFactory implements PersistentCacheFactory, LifecycleListener {
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
   private final MemoryCacheFactory memCacheFactory;
+  private final DynamicSet<PersistentCacheBackend> backends;
   private final Config config;
   private final Path cacheDir;
   private final List<H2CacheImpl<?, ?>> caches;
@@ -63,10 +67,12 @@ class H2CacheFactory implements PersistentCacheFactory, LifecycleListener {
   @Inject
   H2CacheFactory(
       MemoryCacheFactory memCacheFactory,
+      DynamicSet<PersistentCacheBackend> backends,
       @GerritServerConfig Config cfg,
       SitePaths site,
       DynamicMap<Cache<?, ?>> cacheMap) {
     this.memCacheFactory = memCacheFactory;
+    this.backends = backends;
     config = cfg;
     cacheDir = getCacheDir(site, cfg.getString("cache", null, "directory"));
     h2CacheSize = cfg.getLong("cache", null, "h2CacheSize", -1);
@@ -157,13 +163,18 @@ class H2CacheFactory implements PersistentCacheFactory, LifecycleListener {
   @SuppressWarnings({"unchecked"})
   @Override
   public <K, V> Cache<K, V> build(PersistentCacheDef<K, V> in) {
+    for (PersistentCacheBackend backend : backends) {
+      if (backend.handles(in)) {
+        return backend.build(in);
+      }
+    }
     long limit = config.getLong("cache", in.configKey(), "diskLimit", in.diskLimit());
 
     if (cacheDir == null || limit <= 0) {
       return memCacheFactory.build(in);
     }
 
-    H2CacheDefProxy<K, V> def = new H2CacheDefProxy<>(in);
+    PersistentCacheDefProxy<K, V> def = new PersistentCacheDefProxy<>(in);
     SqlStore<K, V> store = newSqlStore(def, limit);
     H2CacheImpl<K, V> cache =
         new H2CacheImpl<>(
@@ -177,13 +188,18 @@ class H2CacheFactory implements PersistentCacheFactory, LifecycleListener {
   @SuppressWarnings("unchecked")
   @Override
   public <K, V> LoadingCache<K, V> build(PersistentCacheDef<K, V> in, CacheLoader<K, V> loader) {
+    for (PersistentCacheBackend backend : backends) {
+      if (backend.handles(in)) {
+        return backend.build(in, loader);
+      }
+    }
     long limit = config.getLong("cache", in.configKey(), "diskLimit", in.diskLimit());
 
     if (cacheDir == null || limit <= 0) {
       return memCacheFactory.build(in, loader);
     }
 
-    H2CacheDefProxy<K, V> def = new H2CacheDefProxy<>(in);
+    PersistentCacheDefProxy<K, V> def = new PersistentCacheDefProxy<>(in);
     SqlStore<K, V> store = newSqlStore(def, limit);
     Cache<K, ValueHolder<V>> mem =
         (Cache<K, ValueHolder<V>>)
@@ -198,6 +214,9 @@ class H2CacheFactory implements PersistentCacheFactory, LifecycleListener {
 
   @Override
   public void onStop(String plugin) {
+    for (PersistentCacheBackend backend : backends) {
+      backend.onStop(plugin);
+    }
     synchronized (caches) {
       for (Map.Entry<String, Provider<Cache<?, ?>>> entry : cacheMap.byPlugin(plugin).entrySet()) {
         Cache<?, ?> cache = entry.getValue().get();
@@ -25,6 +25,7 @@ import com.google.common.flogger.FluentLogger;
 import com.google.common.hash.BloomFilter;
 import com.google.gerrit.common.Nullable;
 import com.google.gerrit.server.cache.PersistentCache;
+import com.google.gerrit.server.cache.ValueHolder;
 import com.google.gerrit.server.cache.serialize.CacheSerializer;
 import com.google.gerrit.server.logging.TraceContext;
 import com.google.gerrit.server.logging.TraceContext.TraceTimer;
@@ -214,16 +215,6 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
         service.schedule(() -> prune(service), delay, TimeUnit.MILLISECONDS);
   }
 
-  static class ValueHolder<V> {
-    final V value;
-    long created;
-    volatile boolean clean;
-
-    ValueHolder(V value) {
-      this.value = value;
-    }
-  }
-
   static class Loader<K, V> extends CacheLoader<K, ValueHolder<V>> {
     private final Executor executor;
     private final SqlStore<K, V> store;
@@ -14,9 +14,11 @@
 
 package com.google.gerrit.server.cache.h2;
 
+import com.google.gerrit.extensions.registration.DynamicSet;
 import com.google.gerrit.lifecycle.LifecycleModule;
 import com.google.gerrit.server.ModuleImpl;
 import com.google.gerrit.server.cache.CacheModule;
+import com.google.gerrit.server.cache.PersistentCacheBackend;
 import com.google.gerrit.server.cache.PersistentCacheFactory;
 
 @ModuleImpl(name = CacheModule.PERSISTENT_MODULE)
@@ -25,5 +27,6 @@ public class H2CacheModule extends LifecycleModule {
   protected void configure() {
     bind(PersistentCacheFactory.class).to(H2CacheFactory.class);
     listener().to(H2CacheFactory.class);
+    DynamicSet.setOf(binder(), PersistentCacheBackend.class);
   }
 }
@@ -0,0 +1,624 @@
+// Copyright (C) 2019 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache.logstore;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.server.cache.PersistentCache.DiskStats;
+import com.google.gerrit.server.cache.ValueHolder;
+import com.google.gerrit.server.cache.serialize.CacheSerializer;
+import com.google.gerrit.server.util.time.TimeUtil;
+import com.google.protobuf.ByteString;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only, segmented key-value store backing {@link LogCacheImpl}.
+ *
+ * <p>Entries are appended to the active segment file. Once a segment reaches its size limit it is
+ * sealed, and a hint file listing its keys and record locations is written next to it. On startup
+ * the in-memory index is rebuilt from the hint files, only scanning record headers for segments
+ * without one, so no value is read and no bloom filter has to be built. Lookups are a single hash
+ * probe followed by one positional read.
+ *
+ * <p>The store is bounded by evicting the oldest sealed segment whenever the total size on disk
+ * exceeds the configured limit. Entries of the evicted segment that are still held by the in-memory
+ * cache are copied forward into the active segment while they fit within the limit; all other
+ * entries are dropped. Invalidations are recorded as tombstone records so they survive restarts.
+ */
+class LogStore<K, V> {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private static final String DATA_SUFFIX = ".data";
+  private static final String HINT_SUFFIX = ".hint";
+
+  /** Record header: crc, version, created, key length, value length. */
+  @VisibleForTesting static final int HEADER_SIZE = 4 + 4 + 8 + 4 + 4;
+
+  private static final int TOMBSTONE = -1;
+  private static final long MIN_SEGMENT_SIZE = 64 * 1024;
+  private static final long MAX_SEGMENT_SIZE = 128 * 1024 * 1024;
+
+  private final Path dir;
+  private final CacheSerializer<K> keySerializer;
+  private final CacheSerializer<V> valueSerializer;
+  private final int version;
+  private final long maxSize;
+  private final long segmentSize;
+  @Nullable private final Duration expireAfterWrite;
+  private final Map<ByteString, Location> index = new ConcurrentHashMap<>();
+  private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+  private final AtomicLong space = new AtomicLong();
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+
+  private volatile boolean opened;
+  private Segment active;
+
+  LogStore(
+      Path dir,
+      CacheSerializer<K> keySerializer,
+      CacheSerializer<V> valueSerializer,
+      int version,
+      long maxSize,
+      @Nullable Duration expireAfterWrite) {
+    this.dir = dir;
+    this.keySerializer = keySerializer;
+    this.valueSerializer = valueSerializer;
+    this.version = version;
+    this.maxSize = maxSize;
+    this.segmentSize = Math.max(MIN_SEGMENT_SIZE, Math.min(MAX_SEGMENT_SIZE, maxSize / 16));
+    this.expireAfterWrite = expireAfterWrite;
+  }
+
+  synchronized void open() {
+    if (opened) {
+      return;
+    }
+    try {
+      Files.createDirectories(dir);
+      List<Long> ids = new ArrayList<>();
+      try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "*" + DATA_SUFFIX)) {
+        for (Path p : ds) {
+          String n = p.getFileName().toString();
+          try {
+            ids.add(Long.parseLong(n.substring(0, n.length() - DATA_SUFFIX.length())));
+          } catch (NumberFormatException e) {
+            logger.atWarning().log("Ignoring unexpected file %s in %s", n, dir);
+          }
+        }
+      }
+      ids.sort(null);
+      for (long id : ids) {
+        Segment s = Segment.open(dir, id);
+        segments.put(id, s);
+        space.addAndGet(s.size);
+        for (Entry e : readEntries(s)) {
+          if (e.tombstone) {
+            index.remove(e.key);
+          } else if (e.location.version == version) {
+            index.put(e.key, e.location);
+          }
+        }
+      }
+      active = newSegment();
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Cannot open cache store %s", dir);
+      closeSegments();
+      index.clear();
+      space.set(0);
+    }
+    opened = true;
+  }
+
+  synchronized void close() {
+    if (active != null) {
+      try {
+        if (active.size == 0) {
+          delete(active);
+        } else {
+          seal(active);
+        }
+      } catch (IOException e) {
+        logger.atWarning().withCause(e).log("Cannot seal segment %d of %s", active.id, dir);
+      }
+      active = null;
+    }
+    closeSegments();
+    index.clear();
+    opened = false;
+  }
+
+  private void ensureOpen() {
+    if (!opened) {
+      open();
+    }
+  }
+
+  @Nullable
+  ValueHolder<V> getIfPresent(K key) {
+    ensureOpen();
+    ByteString k = ByteString.copyFrom(keySerializer.serialize(key));
+    Location loc = index.get(k);
+    if (loc == null) {
+      missCount.incrementAndGet();
+      return null;
+    }
+    if (expired(loc.created)) {
+      invalidate(key);
+      missCount.incrementAndGet();
+      return null;
+    }
+
+    Segment s = segments.get(loc.segment);
+    try {
+      Record r = s != null ? s.read(loc) : null;
+      if (r == null || !r.key.equals(k) || r.value == null) {
+        missCount.incrementAndGet();
+        return null;
+      }
+      ValueHolder<V> h = new ValueHolder<>(valueSerializer.deserialize(r.value));
+      h.created = loc.created;
+      h.clean = true;
+      hitCount.incrementAndGet();
+      return h;
+    } catch (IOException e) {
+      // The segment may have been evicted concurrently; treat as a miss.
+      logger.atFine().withCause(e).log("Cannot read cache %s for %s", dir, key);
+      missCount.incrementAndGet();
+      return null;
+    } catch (RuntimeException e) {
+      logger.atWarning().withCause(e).log("Cannot deserialize cache %s for %s", dir, key);
+      index.remove(k, loc);
+      missCount.incrementAndGet();
+      return null;
+    }
+  }
+
+  void put(K key, ValueHolder<V> holder) {
+    if (holder.clean) {
+      return;
+    }
+    ensureOpen();
+    try {
+      ByteString k = ByteString.copyFrom(keySerializer.serialize(key));
+      append(k, holder.created, valueSerializer.serialize(holder.value));
+      holder.clean = true;
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Cannot put into cache %s", dir);
+    }
+  }
+
+  void invalidate(K key) {
+    ensureOpen();
+    ByteString k = ByteString.copyFrom(keySerializer.serialize(key));
+    if (!index.containsKey(k)) {
+      return;
+    }
+    try {
+      append(k, TimeUtil.nowMs(), null);
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Cannot invalidate cache %s", dir);
+    }
+  }
+
+  boolean mightContain(K key) {
+    ensureOpen();
+    return index.containsKey(ByteString.copyFrom(keySerializer.serialize(key)));
+  }
+
+  synchronized void invalidateAll() {
+    ensureOpen();
+    index.clear();
+    for (Segment s : segments.values()) {
+      delete(s);
+    }
+    try {
+      active = newSegment();
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Cannot invalidate cache %s", dir);
+      active = null;
+    }
+  }
+
+  /**
+   * Evicts whole segments, oldest first, until the store fits within its size limit.
+   *
+   * <p>Only segments sealed before the call are evicted, so a single call never revisits the
+   * entries it copied forward. Live entries that are still present in {@code mem} and have not
+   * expired are copied into the active segment before the old segment is deleted, as long as the
+   * copies fit within the size limit; once they don't, the remaining entries are dropped.
+   */
+  synchronized void prune(Cache<K, ?> mem) {
+    ensureOpen();
+    if (active == null) {
+      return;
+    }
+    long limit = active.id;
+    long surviving = active.size;
+    while (space.get() > maxSize) {
+      Map.Entry<Long, Segment> oldest = segments.firstEntry();
+      if (oldest == null || oldest.getKey() >= limit) {
+        return;
+      }
+      Segment s = oldest.getValue();
+      int kept = 0;
+      int dropped = 0;
+      try {
+        for (Entry e : readEntries(s)) {
+          if (e.tombstone || !e.location.equals(index.get(e.key))) {
+            continue;
+          }
+          K key = keySerializer.deserialize(e.key.toByteArray());
+          if (surviving + e.location.length <= maxSize
+              && mem.getIfPresent(key) != null
+              && !expired(e.location.created)) {
+            Record r = s.read(e.location);
+            if (r != null && r.value != null) {
+              append(e.key, e.location.created, r.value);
+              surviving += e.location.length;
+              kept++;
+              continue;
+            }
+          }
+          index.remove(e.key, e.location);
+          dropped++;
+        }
+      } catch (IOException | RuntimeException e) {
+        logger.atWarning().withCause(e).log("Cannot prune segment %d of %s", s.id, dir);
+        removeEntriesOf(s);
+      }
+      delete(s);
+      logger.atFine().log(
+          "Evicted segment %d from %s (%d entries kept, %d dropped)", s.id, dir, kept, dropped);
+    }
+  }
+
+  DiskStats diskStats() {
+    ensureOpen();
+    return new DiskStats(index.size(), space.get(), hitCount.get(), missCount.get());
+  }
+
+  private synchronized void append(ByteString key, long created, @Nullable byte[] value)
+      throws IOException {
+    if (active == null) {
+      throw new IOException("cache store " + dir + " is not writable");
+    }
+    byte[] rec = encode(version, created, key, value);
+    if (active.size > 0 && active.size + rec.length > segmentSize) {
+      seal(active);
+      active = newSegment();
+    }
+    Location loc = active.append(rec, version, created);
+    space.addAndGet(rec.length);
+    active.entries.add(new Entry(key, loc, value == null));
+    if (value == null) {
+      index.remove(key);
+    } else {
+      index.put(key, loc);
+    }
+  }
+
+  private Segment newSegment() throws IOException {
+    long id = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+    Segment s = Segment.open(dir, id);
+    segments.put(id, s);
+    return s;
+  }
+
+  private void seal(Segment s) throws IOException {
+    if (s.entries.isEmpty()) {
+      return;
+    }
+    Path tmp = dir.resolve(s.id + HINT_SUFFIX + ".tmp");
+    try (OutputStream os = Files.newOutputStream(tmp);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os))) {
+      for (Entry e : s.entries) {
+        out.writeInt(e.key.size());
+        e.key.writeTo(out);
+        out.writeLong(e.location.offset);
+        out.writeInt(e.location.length);
+        out.writeInt(e.location.version);
+        out.writeLong(e.location.created);
+        out.writeBoolean(e.tombstone);
+      }
+    }
+    Files.move(tmp, hintFile(dir, s.id), StandardCopyOption.ATOMIC_MOVE);
+    s.entries.clear();
+  }
+
+  private List<Entry> readEntries(Segment s) throws IOException {
+    if (s == active) {
+      return new ArrayList<>(s.entries);
+    }
+    Path hint = hintFile(dir, s.id);
+    if (Files.exists(hint)) {
+      try {
+        return readHint(s.id, hint);
+      } catch (IOException e) {
+        logger.atWarning().withCause(e).log("Ignoring corrupt hint file %s", hint);
+      }
+    }
+    List<Entry> entries = s.scan();
+    s.entries.addAll(entries);
+    seal(s);
+    return entries;
+  }
+
+  private static List<Entry> readHint(long segment, Path hint) throws IOException {
+    List<Entry> entries = new ArrayList<>();
+    try (InputStream is = Files.newInputStream(hint);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(is))) {
+      while (true) {
+        int keyLen;
+        try {
+          keyLen = in.readInt();
+        } catch (EOFException e) {
+          break;
+        }
+        byte[] key = new byte[keyLen];
+        in.readFully(key);
+        long offset = in.readLong();
+        int length = in.readInt();
+        int version = in.readInt();
+        long created = in.readLong();
+        boolean tombstone = in.readBoolean();
+        entries.add(
+            new Entry(
+                ByteString.copyFrom(key),
+                new Location(segment, offset, length, version, created),
+                tombstone));
+      }
+    }
+    return entries;
+  }
+
+  private void removeEntriesOf(Segment s) {
+    index.values().removeIf(loc -> loc.segment == s.id);
+  }
+
+  private void delete(Segment s) {
+    segments.remove(s.id);
+    space.addAndGet(-s.size);
+    s.close();
+    try {
+      Files.deleteIfExists(hintFile(dir, s.id));
+      Files.deleteIfExists(dataFile(dir, s.id));
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Cannot delete segment %d of %s", s.id, dir);
+    }
+  }
+
+  private void closeSegments() {
+    for (Segment s : segments.values()) {
+      s.close();
+    }
+    segments.clear();
+    space.set(0);
+  }
+
+  private boolean expired(long created) {
+    if (expireAfterWrite == null) {
+      return false;
+    }
+    return TimeUtil.nowMs() - created > expireAfterWrite.toMillis();
+  }
+
+  private static Path dataFile(Path dir, long id) {
+    return dir.resolve(id + DATA_SUFFIX);
+  }
+
+  private static Path hintFile(Path dir, long id) {
+    return dir.resolve(id + HINT_SUFFIX);
+  }
+
+  @VisibleForTesting
+  static byte[] encode(int version, long created, ByteString key, @Nullable byte[] value) {
+    int valueLen = value != null ? value.length : 0;
+    ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE + key.size() + valueLen);
+    buf.putInt(0);
+    buf.putInt(version);
+    buf.putLong(created);
+    buf.putInt(key.size());
+    buf.putInt(value != null ? value.length : TOMBSTONE);
+    key.copyTo(buf);
+    if (value != null) {
+      buf.put(value);
+    }
+    buf.putInt(0, checksum(buf.array()));
+    return buf.array();
+  }
+
+  private static int checksum(byte[] rec) {
+    CRC32 crc = new CRC32();
+    crc.update(rec, 4, rec.length - 4);
+    return (int) crc.getValue();
+  }
+
+  private static class Segment {
+    static Segment open(Path dir, long id) throws IOException {
+      FileChannel ch = FileChannel.open(dataFile(dir, id), CREATE, READ, WRITE);
+      return new Segment(id, ch);
+    }
+
+    final long id;
+    final FileChannel channel;
+    final List<Entry> entries = new ArrayList<>();
+    volatile long size;
+
+    private Segment(long id, FileChannel channel) throws IOException {
+      this.id = id;
+      this.channel = channel;
+      this.size = channel.size();
+    }
+
+    Location append(byte[] rec, int version, long created) throws IOException {
+      long offset = size;
+      ByteBuffer buf = ByteBuffer.wrap(rec);
+      while (buf.hasRemaining()) {
+        channel.write(buf, offset + buf.position());
+      }
+      size = offset + rec.length;
+      return new Location(id, offset, rec.length, version, created);
+    }
+
+    @Nullable
+    Record read(Location loc) throws IOException {
+      ByteBuffer buf = ByteBuffer.allocate(loc.length);
+      readFully(buf, loc.offset);
+      byte[] rec = buf.array();
+      if (buf.getInt(0) != checksum(rec)) {
+        return null;
+      }
+      int keyLen = buf.getInt(16);
+      int valueLen = buf.getInt(20);
+      ByteString key = ByteString.copyFrom(rec, HEADER_SIZE, keyLen);
+      byte[] value = null;
+      if (valueLen != TOMBSTONE) {
+        value = new byte[valueLen];
+        System.arraycopy(rec, HEADER_SIZE + keyLen, value, 0, valueLen);
+      }
+      return new Record(key, value);
+    }
+
+    /** Scans record headers, truncating a partially written tail record. */
+    List<Entry> scan() throws IOException {
+      List<Entry> result = new ArrayList<>();
+      ByteBuffer hdr = ByteBuffer.allocate(HEADER_SIZE);
+      long pos = 0;
+      while (pos + HEADER_SIZE <= size) {
+        hdr.clear();
+        readFully(hdr, pos);
+        int ver = hdr.getInt(4);
+        long created = hdr.getLong(8);
+        int keyLen = hdr.getInt(16);
+        int valueLen = hdr.getInt(20);
+        long len = (long) HEADER_SIZE + keyLen + Math.max(valueLen, 0);
+        if (keyLen < 0 || valueLen < TOMBSTONE || pos + len > size) {
+          break;
+        }
+        ByteBuffer key = ByteBuffer.allocate(keyLen);
+        readFully(key, pos + HEADER_SIZE);
+        key.flip();
+        result.add(
+            new Entry(
+                ByteString.copyFrom(key),
+                new Location(id, pos, (int) len, ver, created),
+                valueLen == TOMBSTONE));
+        pos += len;
+      }
+      if (pos < size) {
+        logger.atWarning().log("Truncating segment %d at %d (was %d bytes)", id, pos, size);
+        channel.truncate(pos);
+        size = pos;
+      }
+      return result;
+    }
+
+    private void readFully(ByteBuffer buf, long position) throws IOException {
+      while (buf.hasRemaining()) {
+        if (channel.read(buf, position + buf.position()) < 0) {
+          throw new EOFException("segment " + id + " truncated at " + position);
+        }
+      }
+    }
+
+    void close() {
+      try {
+        channel.close();
+      } catch (IOException e) {
+        logger.atWarning().withCause(e).log("Cannot close segment %d", id);
+      }
+    }
+  }
+
+  private static class Location {
+    final long segment;
+    final long offset;
+    final int length;
+    final int version;
+    final long created;
+
+    Location(long segment, long offset, int length, int version, long created) {
+      this.segment = segment;
+      this.offset = offset;
+      this.length = length;
+      this.version = version;
+      this.created = created;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Location)) {
+        return false;
+      }
+      Location l = (Location) o;
+      return segment == l.segment && offset == l.offset;
+    }
+
+    @Override
+    public int hashCode() {
+      return Long.hashCode(segment) * 31 + Long.hashCode(offset);
+    }
+  }
+
+  private static class Entry {
+    final ByteString key;
+    final Location location;
+    final boolean tombstone;
+
+    Entry(ByteString key, Location location, boolean tombstone) {
+      this.key = key;
+      this.location = location;
+      this.tombstone = tombstone;
+    }
+  }
+
+  private static class Record {
+    final ByteString key;
+    @Nullable final byte[] value;
+
+    Record(ByteString key, @Nullable byte[] value) {
+      this.key = key;
+      this.value = value;
+    }
+  }
+}
@@ -392,6 +392,7 @@ public class ChangeJson {
 
   private void ensureLoaded(Iterable<ChangeData> all) throws OrmException {
     if (lazyLoad) {
+      ChangeData.ensureNotesLoaded(all);
       ChangeData.ensureChangeLoaded(all);
       if (has(ALL_REVISIONS)) {
         ChangeData.ensureAllPatchSetsLoaded(all);
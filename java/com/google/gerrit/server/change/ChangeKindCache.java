@@ -21,6 +21,7 @@ import com.google.gerrit.reviewdb.client.PatchSet;
 import com.google.gerrit.reviewdb.client.Project;
 import com.google.gerrit.reviewdb.server.ReviewDb;
 import com.google.gerrit.server.query.change.ChangeData;
+import java.util.Map;
 import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.revwalk.RevWalk;
@@ -43,4 +44,28 @@ public interface ChangeKindCache {
 
   ChangeKind getChangeKind(
       @Nullable RevWalk rw, @Nullable Config repoConfig, ChangeData cd, PatchSet patch);
+
+  /**
+   * Get the kinds of all patch sets of a change at once.
+   *
+   * <p>Kinds that are not cached yet are computed together, so this is cheaper than asking for each
+   * patch set separately when all revisions of a change are needed.
+   *
+   * @param cd change.
+   * @return kind of each patch set of the change, in patch set order; empty if the patch sets could
+   *     not be read.
+   */
+  Map<PatchSet.Id, ChangeKind> getChangeKinds(ChangeData cd);
+
+  /**
+   * Get the kinds of all patch sets of a change at once, using an already open repository.
+   *
+   * @param rw walk over the change's repository, or null to open it.
+   * @param repoConfig config of the change's repository; must be null if {@code rw} is.
+   * @param cd change.
+   * @return kind of each patch set of the change, in patch set order; empty if the patch sets could
+   *     not be read.
+   */
+  Map<PatchSet.Id, ChangeKind> getChangeKinds(
+      @Nullable RevWalk rw, @Nullable Config repoConfig, ChangeData cd);
 }
@@ -15,12 +15,16 @@
 package com.google.gerrit.server.change;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Comparator.comparingInt;
 
 import com.google.auto.value.AutoValue;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.cache.Cache;
 import com.google.common.cache.Weigher;
 import com.google.common.collect.FluentIterable;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
 import com.google.common.flogger.FluentLogger;
 import com.google.gerrit.common.Nullable;
 import com.google.gerrit.extensions.client.ChangeKind;
@@ -28,6 +32,7 @@ import com.google.gerrit.reviewdb.client.Change;
 import com.google.gerrit.reviewdb.client.PatchSet;
 import com.google.gerrit.reviewdb.client.Project;
 import com.google.gerrit.reviewdb.server.ReviewDb;
+import com.google.gerrit.server.FanOutExecutor;
 import com.google.gerrit.server.cache.CacheModule;
 import com.google.gerrit.server.cache.proto.Cache.ChangeKindKeyProto;
 import com.google.gerrit.server.cache.serialize.CacheSerializer;
@@ -39,22 +44,32 @@ import com.google.gerrit.server.git.GitRepositoryManager;
 import com.google.gerrit.server.git.InMemoryInserter;
 import com.google.gerrit.server.git.MergeUtil;
 import com.google.gerrit.server.query.change.ChangeData;
+import com.google.gerrit.server.util.FanOut;
 import com.google.gwtorm.server.OrmException;
 import com.google.inject.Inject;
 import com.google.inject.Module;
 import com.google.inject.name.Named;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import org.eclipse.jgit.errors.LargeObjectException;
 import org.eclipse.jgit.lib.AnyObjectId;
 import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.merge.ThreeWayMerger;
 import org.eclipse.jgit.revwalk.RevCommit;
@@ -123,6 +138,26 @@ public class ChangeKindCacheImpl implements ChangeKindCache {
         @Nullable RevWalk rw, @Nullable Config repoConfig, ChangeData cd, PatchSet patch) {
       return getChangeKindInternal(this, rw, repoConfig, cd, patch);
     }
+
+    @Override
+    public Map<PatchSet.Id, ChangeKind> getChangeKinds(ChangeData cd) {
+      return getChangeKinds(null, null, cd);
+    }
+
+    @Override
+    public Map<PatchSet.Id, ChangeKind> getChangeKinds(
+        @Nullable RevWalk rw, @Nullable Config repoConfig, ChangeData cd) {
+      Map<PatchSet.Id, ChangeKind> kinds = new LinkedHashMap<>();
+      for (Map.Entry<PatchSet, PatchSet> e : priorPatchSets(cd).entrySet()) {
+        PatchSet prior = e.getValue();
+        kinds.put(
+            e.getKey().getId(),
+            prior != null
+                ? getChangeKind(cd.project(), rw, repoConfig, commit(prior), commit(e.getKey()))
+                : ChangeKind.REWORK);
+      }
+      return kinds;
+    }
   }
 
   @AutoValue
@@ -320,17 +355,20 @@ public class ChangeKindCacheImpl implements ChangeKindCache {
   private final boolean useRecursiveMerge;
   private final ChangeData.Factory changeDataFactory;
   private final GitRepositoryManager repoManager;
+  private final ExecutorService executor;
 
   @Inject
   ChangeKindCacheImpl(
       @GerritServerConfig Config serverConfig,
       @Named(ID_CACHE) Cache<Key, ChangeKind> cache,
       ChangeData.Factory changeDataFactory,
-      GitRepositoryManager repoManager) {
+      GitRepositoryManager repoManager,
+      @FanOutExecutor ExecutorService executor) {
     this.cache = cache;
     this.useRecursiveMerge = MergeUtil.useRecursiveMerge(serverConfig);
     this.changeDataFactory = changeDataFactory;
     this.repoManager = repoManager;
+    this.executor = executor;
   }
 
   @Override
@@ -361,6 +399,145 @@ public class ChangeKindCacheImpl implements ChangeKindCache {
     return getChangeKindInternal(this, rw, repoConfig, cd, patch);
   }
 
+  @Override
+  public Map<PatchSet.Id, ChangeKind> getChangeKinds(ChangeData cd) {
+    return getChangeKinds(null, null, cd);
+  }
+
+  @Override
+  public Map<PatchSet.Id, ChangeKind> getChangeKinds(
+      @Nullable RevWalk rw, @Nullable Config repoConfig, ChangeData cd) {
+    Map<PatchSet.Id, ChangeKind> kinds = new LinkedHashMap<>();
+    Map<PatchSet.Id, Key> missing = new LinkedHashMap<>();
+    for (Map.Entry<PatchSet, PatchSet> e : priorPatchSets(cd).entrySet()) {
+      PatchSet.Id id = e.getKey().getId();
+      PatchSet prior = e.getValue();
+      if (prior == null) {
+        kinds.put(id, ChangeKind.REWORK);
+        continue;
+      }
+      Key key = Key.create(commit(prior), commit(e.getKey()), useRecursiveMerge);
+      ChangeKind kind = cache.getIfPresent(key);
+      kinds.put(id, kind); // Keeps the patch set order; missing kinds are filled in below.
+      if (kind == null) {
+        missing.put(id, key);
+      }
+    }
+    if (!missing.isEmpty()) {
+      kinds.putAll(load(cd.project(), rw, repoConfig, missing));
+    }
+    return kinds;
+  }
+
+  /**
+   * Computes the kinds of several patch sets of a change within one repository.
+   *
+   * <p>The repository is opened at most once. If more than one kind is missing, the trial merges
+   * run in parallel on the fan-out executor; as {@link RevWalk} is not thread-safe, each of them
+   * reads through its own walk over a reader on the same repository.
+   */
+  private Map<PatchSet.Id, ChangeKind> load(
+      Project.NameKey project,
+      @Nullable RevWalk rw,
+      @Nullable Config repoConfig,
+      Map<PatchSet.Id, Key> keys) {
+    if (rw == null) {
+      try (Repository repo = repoManager.openRepository(project);
+          RevWalk repoRw = new RevWalk(repo)) {
+        return load(project, repoRw, repo.getConfig(), keys);
+      } catch (IOException e) {
+        logger.atWarning().withCause(e).log(
+            "Cannot check trivial rebase of patch sets %s in %s", keys.keySet(), project);
+        return Maps.transformValues(keys, k -> ChangeKind.REWORK);
+      }
+    }
+
+    if (keys.size() == 1) {
+      Map.Entry<PatchSet.Id, Key> e = Iterables.getOnlyElement(keys.entrySet());
+      return ImmutableMap.of(e.getKey(), load(project, rw, repoConfig, e.getKey(), e.getValue()));
+    }
+
+    List<Callable<ChangeKind>> callables = new ArrayList<>(keys.size());
+    for (Map.Entry<PatchSet.Id, Key> e : keys.entrySet()) {
+      callables.add(
+          () -> {
+            try (ObjectReader reader = rw.getObjectReader().newReader();
+                RevWalk taskRw = new RevWalk(reader)) {
+              return load(project, taskRw, repoConfig, e.getKey(), e.getValue());
+            }
+          });
+    }
+
+    Map<PatchSet.Id, ChangeKind> kinds = new HashMap<>();
+    List<Future<ChangeKind>> futures;
+    try {
+      // Not ExecutorService#invokeAll: this may run on a thread of the fan-out executor itself.
+      futures = FanOut.invokeAll(executor, callables);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      logger.atWarning().withCause(e).log(
+          "Cannot check trivial rebase of patch sets %s in %s", keys.keySet(), project);
+      return Maps.transformValues(keys, k -> ChangeKind.REWORK);
+    }
+    Iterator<PatchSet.Id> ids = keys.keySet().iterator();
+    for (Future<ChangeKind> f : futures) {
+      PatchSet.Id id = ids.next();
+      try {
+        kinds.put(id, f.get());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        logger.atWarning().withCause(e).log(
+            "Cannot check trivial rebase of patch set %s in %s", id, project);
+        kinds.put(id, ChangeKind.REWORK);
+      } catch (ExecutionException e) {
+        logger.atWarning().withCause(e).log(
+            "Cannot check trivial rebase of patch set %s in %s", id, project);
+        kinds.put(id, ChangeKind.REWORK);
+      }
+    }
+    return kinds;
+  }
+
+  private ChangeKind load(
+      Project.NameKey project, RevWalk rw, Config repoConfig, PatchSet.Id id, Key key) {
+    try {
+      return cache.get(key, new Loader(key, repoManager, project, rw, repoConfig));
+    } catch (ExecutionException e) {
+      logger.atWarning().withCause(e).log(
+          "Cannot check trivial rebase of patch set %s in %s", id, project);
+      return ChangeKind.REWORK;
+    }
+  }
+
+  /**
+   * Pairs each patch set of a change with the patch set preceding it.
+   *
+   * @return map of patch set to its predecessor in patch set order, or null for the first patch
+   *     set; empty if the patch sets could not be read.
+   */
+  private static Map<PatchSet, PatchSet> priorPatchSets(ChangeData cd) {
+    List<PatchSet> patchSets;
+    try {
+      patchSets = new ArrayList<>(cd.patchSets());
+    } catch (OrmException e) {
+      logger.atWarning().withCause(e).log(
+          "Unable to get change kinds for patch sets of change %s", cd.getId());
+      return ImmutableMap.of();
+    }
+    patchSets.sort(comparingInt(ps -> ps.getId().get()));
+    Map<PatchSet, PatchSet> result = new LinkedHashMap<>();
+    PatchSet prior = null;
+    for (PatchSet ps : patchSets) {
+      result.put(ps, prior);
+      prior = ps;
+    }
+    return result;
+  }
+
+  private static ObjectId commit(PatchSet ps) {
+    return ObjectId.fromString(ps.getRevision().get());
+  }
+
   private static ChangeKind getChangeKindInternal(
       ChangeKindCache cache,
       @Nullable RevWalk rw,
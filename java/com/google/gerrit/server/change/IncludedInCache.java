@@ -0,0 +1,412 @@
+// Copyright (C) 2019 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.change;
+
+import static com.google.common.collect.ImmutableSortedSet.toImmutableSortedSet;
+import static java.util.Comparator.naturalOrder;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.gerrit.reviewdb.client.Project;
+import com.google.gerrit.server.cache.CacheModule;
+import com.google.gerrit.server.cache.proto.Cache.IncludedInEntryProto;
+import com.google.gerrit.server.cache.proto.Cache.IncludedInKeyProto;
+import com.google.gerrit.server.cache.proto.Cache.IncludedInRefTableProto;
+import com.google.gerrit.server.cache.proto.Cache.IncludedInRefTableProto.SlotProto;
+import com.google.gerrit.server.cache.serialize.CacheSerializer;
+import com.google.gerrit.server.cache.serialize.ProtoCacheSerializers;
+import com.google.gerrit.server.cache.serialize.ProtoCacheSerializers.ObjectIdConverter;
+import com.google.gerrit.server.cache.serialize.StringCacheSerializer;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import com.google.protobuf.ByteString;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.IntStream;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefDatabase;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+/**
+ * Reachability index answering in which branches and tags a commit is included.
+ *
+ * <p>For every project, a {@link RefTable} assigns a bit to each branch and tag and remembers the
+ * table version at which the ref was created or last moved. For every looked up commit, an {@link
+ * Entry} stores a bitmap of the refs that include the commit, together with the table version it
+ * was computed at. A later lookup only walks the history of refs that were created or moved since
+ * then and takes the answer for all other refs from the bitmap. In repositories with many tags,
+ * where new tags are added and branches advance but old tags never move, a repeated lookup thus
+ * walks from a handful of tips instead of all of them.
+ *
+ * <p>The ref table is brought up to date on every lookup by comparing it to the current refs of the
+ * repository, so it doesn't need to be notified of ref updates.
+ */
+@Singleton
+public class IncludedInCache {
+  private static final String CACHE_NAME = "included_in";
+  private static final String REFS_CACHE_NAME = "included_in_refs";
+
+  public static Module module() {
+    return new CacheModule() {
+      @Override
+      protected void configure() {
+        persist(REFS_CACHE_NAME, String.class, RefTable.class)
+            .version(1)
+            .keySerializer(StringCacheSerializer.INSTANCE)
+            .valueSerializer(RefTable.Serializer.INSTANCE);
+        persist(CACHE_NAME, Key.class, Entry.class)
+            .maximumWeight(10 << 20)
+            .weigher(EntryWeigher.class)
+            .version(1)
+            .keySerializer(Key.Serializer.INSTANCE)
+            .valueSerializer(Entry.Serializer.INSTANCE);
+        bind(IncludedInCache.class);
+      }
+    };
+  }
+
+  private final Cache<String, RefTable> refTables;
+  private final Cache<Key, Entry> entries;
+
+  @Inject
+  IncludedInCache(
+      @Named(REFS_CACHE_NAME) Cache<String, RefTable> refTables,
+      @Named(CACHE_NAME) Cache<Key, Entry> entries) {
+    this.refTables = refTables;
+    this.entries = entries;
+  }
+
+  /**
+   * Resolve in which branches and tags a commit is included.
+   *
+   * @param project name of the project.
+   * @param repo repository of the project.
+   * @param rw walk to use for walking the history, must not be used concurrently.
+   * @param commit commit to look up, parsed by {@code rw}.
+   * @return branches and tags including {@code commit}.
+   */
+  public IncludedInResolver.Result get(
+      Project.NameKey project, Repository repo, RevWalk rw, RevCommit commit) throws IOException {
+    RefDatabase refDb = repo.getRefDatabase();
+    List<Ref> refs = new ArrayList<>();
+    for (Ref ref : refDb.getRefsByPrefix(Constants.R_HEADS)) {
+      if (ref.getObjectId() != null) {
+        refs.add(ref);
+      }
+    }
+    int branchCount = refs.size();
+    for (Ref ref : refDb.getRefsByPrefix(Constants.R_TAGS)) {
+      if (ref.getObjectId() != null) {
+        refs.add(ref);
+      }
+    }
+
+    RefTable table = refTable(project);
+    RefTable.Snapshot snapshot = table.update(refs);
+    if (snapshot.changed()) {
+      // Store the table again to persist the changes.
+      refTables.put(project.get(), table);
+    }
+
+    Key key = Key.create(project, commit);
+    Entry old = entries.getIfPresent(key);
+    BitSet included = new BitSet();
+    List<Integer> dirty = new ArrayList<>();
+    for (int i = 0; i < refs.size(); i++) {
+      RefTable.Slot slot = snapshot.slots().get(i);
+      if (old != null && old.tableId == snapshot.id() && slot.updatedAt <= old.version) {
+        if (old.included.get(slot.flag)) {
+          included.set(slot.flag);
+        }
+      } else {
+        dirty.add(i);
+      }
+    }
+
+    if (old == null || !dirty.isEmpty()) {
+      List<Ref> dirtyRefs = new ArrayList<>(dirty.size());
+      dirty.forEach(i -> dirtyRefs.add(refs.get(i)));
+      Set<String> matching = IncludedInResolver.includedIn(repo, rw, commit, dirtyRefs);
+      for (int i : dirty) {
+        if (matching.contains(refs.get(i).getName())) {
+          included.set(snapshot.slots().get(i).flag);
+        }
+      }
+      entries.put(key, new Entry(snapshot.id(), snapshot.version(), included));
+    }
+
+    return new AutoValue_IncludedInResolver_Result(
+        shortNames(refs, snapshot, included, 0, branchCount),
+        shortNames(refs, snapshot, included, branchCount, refs.size()));
+  }
+
+  private static ImmutableSortedSet<String> shortNames(
+      List<Ref> refs, RefTable.Snapshot snapshot, BitSet included, int from, int to) {
+    return IntStream.range(from, to)
+        .filter(i -> included.get(snapshot.slots().get(i).flag))
+        .mapToObj(i -> Repository.shortenRefName(refs.get(i).getName()))
+        .collect(toImmutableSortedSet(naturalOrder()));
+  }
+
+  private RefTable refTable(Project.NameKey project) {
+    try {
+      return refTables.get(project.get(), RefTable::new);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /** Assignment of bits to the branches and tags of a project. */
+  @VisibleForTesting
+  static class RefTable {
+    /**
+     * Number of bits of removed refs to tolerate before reassigning all bits.
+     *
+     * <p>Bits of removed refs are never reused, so that bitmaps computed before the removal can't
+     * be mistaken for bitmaps of the ref that gets the bit next. Reassigning all bits invalidates
+     * all bitmaps of the project.
+     */
+    private static final int MAX_UNUSED_FLAGS = 1024;
+
+    static class Slot {
+      final int flag;
+      final ObjectId tip;
+      final long updatedAt;
+
+      Slot(int flag, ObjectId tip, long updatedAt) {
+        this.flag = flag;
+        this.tip = tip;
+        this.updatedAt = updatedAt;
+      }
+    }
+
+    /** Slots of a list of refs, as of one version of the table. */
+    @AutoValue
+    abstract static class Snapshot {
+      abstract long id();
+
+      abstract long version();
+
+      abstract boolean changed();
+
+      abstract ImmutableList<Slot> slots();
+    }
+
+    private final Map<String, Slot> refs;
+    private long id;
+    private long version;
+    private int nextFlag;
+
+    RefTable() {
+      this(newId(), 0, 0, new HashMap<>());
+    }
+
+    private RefTable(long id, long version, int nextFlag, Map<String, Slot> refs) {
+      this.id = id;
+      this.version = version;
+      this.nextFlag = nextFlag;
+      this.refs = refs;
+    }
+
+    private static long newId() {
+      return ThreadLocalRandom.current().nextLong();
+    }
+
+    /**
+     * Update the table to the given refs.
+     *
+     * <p>Refs that are new or point to a different object than before get the next version of the
+     * table, refs that are not in the list are removed.
+     *
+     * @param current all current branches and tags.
+     * @return slots of {@code current}, in the same order.
+     */
+    synchronized Snapshot update(List<Ref> current) {
+      long v = version + 1;
+      boolean changed = false;
+      Set<String> names = Sets.newHashSetWithExpectedSize(current.size());
+      for (Ref ref : current) {
+        names.add(ref.getName());
+      }
+      if (refs.keySet().retainAll(names)) {
+        changed = true;
+      }
+      if (nextFlag - refs.size() > MAX_UNUSED_FLAGS) {
+        id = newId();
+        nextFlag = 0;
+        refs.clear();
+        changed = true;
+      }
+
+      ImmutableList.Builder<Slot> slots = ImmutableList.builderWithExpectedSize(current.size());
+      for (Ref ref : current) {
+        Slot slot = refs.get(ref.getName());
+        if (slot == null || !slot.tip.equals(ref.getObjectId())) {
+          slot = new Slot(slot != null ? slot.flag : nextFlag++, ref.getObjectId().copy(), v);
+          refs.put(ref.getName(), slot);
+          changed = true;
+        }
+        slots.add(slot);
+      }
+      if (changed) {
+        version = v;
+      }
+      return new AutoValue_IncludedInCache_RefTable_Snapshot(id, version, changed, slots.build());
+    }
+
+    enum Serializer implements CacheSerializer<RefTable> {
+      INSTANCE;
+
+      @Override
+      public byte[] serialize(RefTable object) {
+        ObjectIdConverter idConverter = ObjectIdConverter.create();
+        IncludedInRefTableProto.Builder b = IncludedInRefTableProto.newBuilder();
+        synchronized (object) {
+          b.setId(object.id).setVersion(object.version).setNextFlag(object.nextFlag);
+          object.refs.forEach(
+              (n, s) ->
+                  b.putRef(
+                      n,
+                      SlotProto.newBuilder()
+                          .setFlag(s.flag)
+                          .setTip(idConverter.toByteString(s.tip))
+                          .setUpdatedAt(s.updatedAt)
+                          .build()));
+        }
+        return ProtoCacheSerializers.toByteArray(b.build());
+      }
+
+      @Override
+      public RefTable deserialize(byte[] in) {
+        IncludedInRefTableProto proto =
+            ProtoCacheSerializers.parseUnchecked(IncludedInRefTableProto.parser(), in);
+        ObjectIdConverter idConverter = ObjectIdConverter.create();
+        Map<String, Slot> refs = Maps.newHashMapWithExpectedSize(proto.getRefCount());
+        proto
+            .getRefMap()
+            .forEach(
+                (n, s) ->
+                    refs.put(
+                        n,
+                        new Slot(
+                            s.getFlag(),
+                            idConverter.fromByteString(s.getTip()),
+                            s.getUpdatedAt())));
+        return new RefTable(proto.getId(), proto.getVersion(), proto.getNextFlag(), refs);
+      }
+    }
+  }
+
+  @AutoValue
+  abstract static class Key {
+    static Key create(Project.NameKey project, ObjectId commit) {
+      return new AutoValue_IncludedInCache_Key(project, commit.copy());
+    }
+
+    abstract Project.NameKey project();
+
+    abstract ObjectId commit();
+
+    enum Serializer implements CacheSerializer<Key> {
+      INSTANCE;
+
+      @Override
+      public byte[] serialize(Key object) {
+        return ProtoCacheSerializers.toByteArray(
+            IncludedInKeyProto.newBuilder()
+                .setProject(object.project().get())
+                .setCommit(ObjectIdConverter.create().toByteString(object.commit()))
+                .build());
+      }
+
+      @Override
+      public Key deserialize(byte[] in) {
+        IncludedInKeyProto proto =
+            ProtoCacheSerializers.parseUnchecked(IncludedInKeyProto.parser(), in);
+        return create(
+            new Project.NameKey(proto.getProject()),
+            ObjectIdConverter.create().fromByteString(proto.getCommit()));
+      }
+    }
+  }
+
+  /** Refs including a commit, as of one version of the {@link RefTable}. */
+  static class Entry {
+    final long tableId;
+    final long version;
+    final BitSet included;
+
+    Entry(long tableId, long version, BitSet included) {
+      this.tableId = tableId;
+      this.version = version;
+      this.included = included;
+    }
+
+    enum Serializer implements CacheSerializer<Entry> {
+      INSTANCE;
+
+      @Override
+      public byte[] serialize(Entry object) {
+        return ProtoCacheSerializers.toByteArray(
+            IncludedInEntryProto.newBuilder()
+                .setTableId(object.tableId)
+                .setVersion(object.version)
+                .setIncluded(ByteString.copyFrom(object.included.toByteArray()))
+                .build());
+      }
+
+      @Override
+      public Entry deserialize(byte[] in) {
+        IncludedInEntryProto proto =
+            ProtoCacheSerializers.parseUnchecked(IncludedInEntryProto.parser(), in);
+        return new Entry(
+            proto.getTableId(),
+            proto.getVersion(),
+            BitSet.valueOf(proto.getIncluded().asReadOnlyByteBuffer()));
+      }
+    }
+  }
+
+  public static class EntryWeigher implements Weigher<Key, Entry> {
+    @Override
+    public int weigh(Key key, Entry value) {
+      return 16
+          + 2 * 8 // Size of Key, 64-bit JVM.
+          + 20 // Commit.
+          + 16
+          + 3 * 8 // Size of Entry.
+          + value.included.size() / 8;
+    }
+  }
+}
@@ -69,6 +69,26 @@ public class IncludedInResolver {
     }
   }
 
+  /**
+   * Resolve which of the given refs include a commit.
+   *
+   * @return names of the refs in {@code refs} that include {@code commit}.
+   */
+  static Set<String> includedIn(Repository repo, RevWalk rw, RevCommit commit, Collection<Ref> refs)
+      throws IOException {
+    if (refs.isEmpty()) {
+      return Collections.emptySet();
+    }
+    RevFlag flag = newFlag(rw);
+    try {
+      IncludedInResolver resolver = new IncludedInResolver(repo, rw, commit, flag);
+      resolver.parseCommits(refs);
+      return resolver.includedIn(resolver.tipsByCommitTime, 0);
+    } finally {
+      rw.disposeFlag(flag);
+    }
+  }
+
   private static RevFlag newFlag(RevWalk rw) {
     return rw.newFlag("CONTAINS_TARGET");
   }
@@ -0,0 +1,343 @@
+// Copyright (C) 2019 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.change;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.gerrit.server.query.change.ChangeData.asChanges;
+import static java.util.Comparator.comparing;
+import static java.util.Comparator.reverseOrder;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.MoreObjects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.extensions.events.GitReferenceUpdatedListener;
+import com.google.gerrit.reviewdb.client.Branch;
+import com.google.gerrit.reviewdb.client.Change;
+import com.google.gerrit.reviewdb.client.Project;
+import com.google.gerrit.reviewdb.client.RefNames;
+import com.google.gerrit.reviewdb.server.ReviewDb;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.gerrit.server.index.change.ChangeIndexer;
+import com.google.gerrit.server.notedb.ChangeNotes;
+import com.google.gerrit.server.project.NoSuchChangeException;
+import com.google.gerrit.server.query.change.InternalChangeQuery;
+import com.google.gerrit.server.util.ManualRequestContext;
+import com.google.gerrit.server.util.OneOffRequestContext;
+import com.google.gerrit.server.util.time.TimeUtil;
+import com.google.gwtorm.server.OrmException;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import com.google.inject.Singleton;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.eclipse.jgit.lib.Config;
+
+/**
+ * Computes the mergeability of open changes in the background when their destination branch moves.
+ *
+ * <p>Every update of a branch makes the cached mergeability of all open changes on it obsolete.
+ * This service reindexes these changes on a dedicated executor, which computes their mergeability
+ * against the new branch tip and stores it in both the {@link MergeabilityCache} and the change
+ * index, so that users don't have to wait for trial merges when they next load a dashboard.
+ *
+ * <p>The open changes of a branch are reindexed in batches, so that their staleness is checked with
+ * a single batch check per batch. Changes are sorted by the time they were last viewed, most recent
+ * first, then by last update, and batches with recently viewed changes go first. Repeated updates
+ * of a branch are coalesced: batches queued for an update of the branch that has since been
+ * superseded are dropped, and the open changes of the branch are listed again only for the latest
+ * update.
+ *
+ * <p>While enabled, {@link com.google.gerrit.server.index.change.ReindexAfterRefUpdate} leaves
+ * branch updates to this service.
+ */
+@Singleton
+public class MergeabilityPrecomputer implements GitReferenceUpdatedListener {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  /** Maximum number of changes for which the time of the last view is remembered. */
+  private static final int MAX_VIEWS = 100_000;
+
+  /** Number of changes reindexed by a single task, as in {@code ReindexAfterRefUpdate}. */
+  @VisibleForTesting static final int BATCH_SIZE = 100;
+
+  /** Most recently viewed changes first, then most recently updated ones. */
+  private static final Comparator<Candidate> CANDIDATE_ORDER =
+      comparing((Candidate c) -> c.lastViewed, reverseOrder())
+          .thenComparing(c -> c.lastUpdated, reverseOrder());
+
+  /** Listing the changes of a branch goes first, then the batches with the most urgent changes. */
+  @VisibleForTesting
+  static final Comparator<Item> ORDER =
+      comparing((Item i) -> i.changes != null)
+          .thenComparing(i -> i.lastViewed, reverseOrder())
+          .thenComparing(i -> i.lastUpdated, reverseOrder());
+
+  public static boolean isEnabled(Config cfg) {
+    return threads(cfg) > 0;
+  }
+
+  private static int threads(Config cfg) {
+    return cfg.getInt("change", "mergeabilityPrecomputationThreads", 0);
+  }
+
+  private final OneOffRequestContext requestContext;
+  private final Provider<InternalChangeQuery> queryProvider;
+  private final ChangeIndexer indexer;
+  private final ChangeNotes.Factory notesFactory;
+  private final Executor executor;
+  private final Map<Branch.NameKey, Generation> generations = new ConcurrentHashMap<>();
+  private final PriorityBlockingQueue<Item> queue = new PriorityBlockingQueue<>(64, ORDER);
+  private final Cache<Change.Id, Long> lastViewed =
+      CacheBuilder.newBuilder().maximumSize(MAX_VIEWS).build();
+
+  @Inject
+  MergeabilityPrecomputer(
+      @GerritServerConfig Config cfg,
+      WorkQueue workQueue,
+      OneOffRequestContext requestContext,
+      Provider<InternalChangeQuery> queryProvider,
+      ChangeIndexer indexer,
+      ChangeNotes.Factory notesFactory) {
+    this(
+        isEnabled(cfg) ? workQueue.createQueue(threads(cfg), "MergeabilityPrecomputation") : null,
+        requestContext,
+        queryProvider,
+        indexer,
+        notesFactory);
+  }
+
+  @VisibleForTesting
+  MergeabilityPrecomputer(
+      @Nullable Executor executor,
+      OneOffRequestContext requestContext,
+      Provider<InternalChangeQuery> queryProvider,
+      ChangeIndexer indexer,
+      ChangeNotes.Factory notesFactory) {
+    this.requestContext = requestContext;
+    this.queryProvider = queryProvider;
+    this.indexer = indexer;
+    this.notesFactory = notesFactory;
+    this.executor = executor;
+  }
+
+  /**
+   * Record that a change was viewed, moving it to the front of future precomputations.
+   *
+   * @param id change that was viewed.
+   */
+  public void recordView(Change.Id id) {
+    if (executor != null) {
+      lastViewed.put(id, TimeUtil.nowMs());
+    }
+  }
+
+  @Override
+  public void onGitReferenceUpdated(Event event) {
+    if (executor == null
+        || event.isDelete()
+        || !event.getRefName().startsWith(RefNames.REFS_HEADS)) {
+      return;
+    }
+    Branch.NameKey branch = new Branch.NameKey(event.getProjectName(), event.getRefName());
+    Generation generation = new Generation();
+    generations.put(branch, generation);
+    enqueue(new Item(branch, generation, null, 0, 0));
+  }
+
+  /** Returns the number of branches with pending work. */
+  @VisibleForTesting
+  int pendingBranches() {
+    return generations.size();
+  }
+
+  /**
+   * Returns the open changes of a branch.
+   *
+   * @param branch the branch.
+   * @return open changes of the branch.
+   * @throws Exception if the changes can't be queried.
+   */
+  @VisibleForTesting
+  List<Change> openChanges(Branch.NameKey branch) throws Exception {
+    try (ManualRequestContext ctx = requestContext.open()) {
+      return asChanges(queryProvider.get().byBranchNew(branch));
+    }
+  }
+
+  /**
+   * Reindexes a batch of changes, which computes their mergeability against the current tip of
+   * their branch and stores it in the cache.
+   *
+   * @param project project of the changes.
+   * @param ids changes to reindex.
+   * @throws Exception if a change can't be reindexed.
+   */
+  @VisibleForTesting
+  void reindex(Project.NameKey project, List<Change.Id> ids) throws Exception {
+    try (ManualRequestContext ctx = requestContext.open()) {
+      // Reload changes, as some time may have passed since they were listed.
+      ReviewDb db = ctx.getReviewDbProvider().get();
+      List<Change> changes = new ArrayList<>(ids.size());
+      for (Change.Id id : ids) {
+        try {
+          changes.add(notesFactory.createChecked(db, project, id).getChange());
+        } catch (NoSuchChangeException e) {
+          indexer.delete(id);
+        } catch (OrmException | RuntimeException e) {
+          // Don't let one change keep the rest of the batch from being indexed.
+          logger.atWarning().withCause(e).log("Failed to load change %s of %s", id, project);
+        }
+      }
+      indexer.index(db, project, changes);
+    }
+  }
+
+  private void enqueue(Item item) {
+    item.generation.pending.incrementAndGet();
+    queue.add(item);
+    executor.execute(new Worker());
+  }
+
+  private boolean isCurrent(Item item) {
+    return generations.get(item.branch) == item.generation;
+  }
+
+  private void done(Item item) {
+    if (item.generation.pending.decrementAndGet() == 0) {
+      // Only removes the generation if the branch wasn't updated again in the meantime.
+      generations.remove(item.branch, item.generation);
+    }
+  }
+
+  private void listChanges(Item item) throws Exception {
+    List<Candidate> candidates = new ArrayList<>();
+    for (Change c : openChanges(item.branch)) {
+      Long viewed = lastViewed.getIfPresent(c.getId());
+      candidates.add(
+          new Candidate(c.getId(), viewed != null ? viewed : 0, c.getLastUpdatedOn().getTime()));
+    }
+    candidates.sort(CANDIDATE_ORDER);
+    for (List<Candidate> batch : Lists.partition(candidates, BATCH_SIZE)) {
+      Candidate first = batch.get(0);
+      enqueue(
+          new Item(
+              item.branch,
+              item.generation,
+              batch.stream().map(c -> c.id).collect(toImmutableList()),
+              first.lastViewed,
+              first.lastUpdated));
+    }
+    logger.atFine().log(
+        "Queued %d changes of %s for mergeability precomputation", candidates.size(), item);
+  }
+
+  /** Open change of a branch, with the times used to prioritize it. */
+  private static class Candidate {
+    final Change.Id id;
+    final long lastViewed;
+    final long lastUpdated;
+
+    Candidate(Change.Id id, long lastViewed, long lastUpdated) {
+      this.id = id;
+      this.lastViewed = lastViewed;
+      this.lastUpdated = lastUpdated;
+    }
+  }
+
+  /** An update of a branch. Work for a generation is dropped once the branch is updated again. */
+  @VisibleForTesting
+  static class Generation {
+    /** Number of items of this generation that are queued or being processed. */
+    final AtomicInteger pending = new AtomicInteger();
+  }
+
+  /** Pending work: listing the open changes of a branch, or reindexing a batch of them. */
+  @VisibleForTesting
+  static class Item {
+    final Branch.NameKey branch;
+    final Generation generation;
+    @Nullable final ImmutableList<Change.Id> changes;
+    final long lastViewed;
+    final long lastUpdated;
+
+    Item(
+        Branch.NameKey branch,
+        Generation generation,
+        @Nullable ImmutableList<Change.Id> changes,
+        long lastViewed,
+        long lastUpdated) {
+      this.branch = branch;
+      this.generation = generation;
+      this.changes = changes;
+      this.lastViewed = lastViewed;
+      this.lastUpdated = lastUpdated;
+    }
+
+    @Override
+    public String toString() {
+      return MoreObjects.toStringHelper(this)
+          .add("branch", branch)
+          .add("changes", changes != null ? changes.size() : null)
+          .toString();
+    }
+  }
+
+  /**
+   * Processes the most urgent pending item.
+   *
+   * <p>One worker is submitted per queued item, but a worker doesn't necessarily process the item
+   * it was submitted for.
+   */
+  private class Worker implements Runnable {
+    @Override
+    public void run() {
+      Item item = queue.poll();
+      if (item == null) {
+        return;
+      }
+      try {
+        if (!isCurrent(item)) {
+          return; // Superseded by a later update of the branch.
+        }
+        if (item.changes == null) {
+          listChanges(item);
+        } else {
+          reindex(item.branch.getParentKey(), item.changes);
+        }
+      } catch (Exception e) {
+        logger.atWarning().withCause(e).log("Failed to precompute mergeability for %s", item);
+      } finally {
+        done(item);
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "precompute-mergeability";
+    }
+  }
+}
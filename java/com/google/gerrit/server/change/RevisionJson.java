@@ -32,6 +32,7 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
 import com.google.common.flogger.FluentLogger;
 import com.google.gerrit.common.Nullable;
+import com.google.gerrit.extensions.client.ChangeKind;
 import com.google.gerrit.extensions.client.ListChangesOption;
 import com.google.gerrit.extensions.common.ChangeInfo;
 import com.google.gerrit.extensions.common.CommitInfo;
@@ -161,7 +162,7 @@ public class RevisionJson {
     AccountLoader accountLoader = accountLoaderFactory.create(has(DETAILED_ACCOUNTS));
     try (Repository repo = openRepoIfNecessary(cd.project());
         RevWalk rw = newRevWalk(repo)) {
-      RevisionInfo rev = toRevisionInfo(accountLoader, cd, in, repo, rw, true, null);
+      RevisionInfo rev = toRevisionInfo(accountLoader, cd, in, repo, rw, true, null, null);
       accountLoader.fill();
       return rev;
     }
@@ -219,6 +220,10 @@ public class RevisionJson {
     Map<String, RevisionInfo> res = new LinkedHashMap<>();
     try (Repository repo = openRepoIfNecessary(cd.project());
         RevWalk rw = newRevWalk(repo)) {
+      Map<PatchSet.Id, ChangeKind> kinds =
+          has(ALL_REVISIONS) && map.size() > 1
+              ? changeKindCache.getChangeKinds(rw, repo != null ? repo.getConfig() : null, cd)
+              : null;
       for (PatchSet in : map.values()) {
         PatchSet.Id id = in.getId();
         boolean want;
@@ -232,7 +237,7 @@ public class RevisionJson {
         if (want) {
           res.put(
               in.getRevision().get(),
-              toRevisionInfo(accountLoader, cd, in, repo, rw, false, changeInfo));
+              toRevisionInfo(accountLoader, cd, in, repo, rw, false, changeInfo, kinds));
         }
       }
       return res;
@@ -275,7 +280,8 @@ public class RevisionJson {
       @Nullable Repository repo,
       @Nullable RevWalk rw,
       boolean fillCommit,
-      @Nullable ChangeInfo changeInfo)
+      @Nullable ChangeInfo changeInfo,
+      @Nullable Map<PatchSet.Id, ChangeKind> kinds)
       throws PatchListNotAvailableException, GpgException, OrmException, IOException,
           PermissionBackendException {
     Change c = cd.change();
@@ -286,7 +292,11 @@ public class RevisionJson {
     out.created = in.getCreatedOn();
     out.uploader = accountLoader.get(in.getUploader());
     out.fetch = makeFetchMap(cd, in);
-    out.kind = changeKindCache.getChangeKind(rw, repo != null ? repo.getConfig() : null, cd, in);
+    ChangeKind kind = kinds != null ? kinds.get(in.getId()) : null;
+    out.kind =
+        kind != null
+            ? kind
+            : changeKindCache.getChangeKind(rw, repo != null ? repo.getConfig() : null, cd, in);
     out.description = in.getDescription();
 
     boolean setCommit = has(ALL_COMMITS) || (out.isCurrent && has(CURRENT_COMMIT));
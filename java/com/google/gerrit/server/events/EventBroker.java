@@ -14,16 +14,22 @@
 
 package com.google.gerrit.server.events;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.common.Nullable;
 import com.google.gerrit.extensions.registration.DynamicItem;
 import com.google.gerrit.extensions.restapi.AuthException;
 import com.google.gerrit.lifecycle.LifecycleModule;
+import com.google.gerrit.reviewdb.client.Account;
 import com.google.gerrit.reviewdb.client.Branch;
 import com.google.gerrit.reviewdb.client.Change;
 import com.google.gerrit.reviewdb.client.PatchSet;
 import com.google.gerrit.reviewdb.client.Project;
 import com.google.gerrit.reviewdb.server.ReviewDb;
 import com.google.gerrit.server.CurrentUser;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.git.WorkQueue;
 import com.google.gerrit.server.notedb.ChangeNotes;
 import com.google.gerrit.server.permissions.ChangePermission;
 import com.google.gerrit.server.permissions.PermissionBackend;
@@ -35,10 +41,15 @@ import com.google.gerrit.server.plugincontext.PluginSetEntryContext;
 import com.google.gerrit.server.project.NoSuchChangeException;
 import com.google.gerrit.server.project.ProjectCache;
 import com.google.gerrit.server.project.ProjectState;
+import com.google.gerrit.server.util.ManualRequestContext;
+import com.google.gerrit.server.util.OneOffRequestContext;
 import com.google.gwtorm.server.OrmException;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
 import com.google.inject.Singleton;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.lib.Config;
 
 /** Distributes Events to listeners if they are allowed to see them */
 @Singleton
@@ -50,6 +61,7 @@ public class EventBroker implements EventDispatcher {
     protected void configure() {
       DynamicItem.itemOf(binder(), EventDispatcher.class);
       DynamicItem.bind(binder(), EventDispatcher.class).to(EventBroker.class);
+      install(new EventJournal.Module());
     }
   }
 
@@ -66,7 +78,16 @@ public class EventBroker implements EventDispatcher {
 
   protected final Provider<ReviewDb> dbProvider;
 
-  @Inject
+  @Nullable private final OneOffRequestContext requestContext;
+  @Nullable private final ListenerDispatcher dispatcher;
+
+  /**
+   * Visibility of recently read journal entries by sequence number. Entries expire quickly so that
+   * permission changes take effect.
+   */
+  private final Cache<Long, JournalEntryVisibility> journalVisibility =
+      CacheBuilder.newBuilder().maximumSize(1024).expireAfterWrite(1, TimeUnit.MINUTES).build();
+
   public EventBroker(
       PluginSetContext<UserScopedEventListener> listeners,
       PluginSetContext<EventListener> unrestrictedListeners,
@@ -74,12 +95,43 @@ public class EventBroker implements EventDispatcher {
       ProjectCache projectCache,
       ChangeNotes.Factory notesFactory,
       Provider<ReviewDb> dbProvider) {
+    this(
+        listeners,
+        unrestrictedListeners,
+        permissionBackend,
+        projectCache,
+        notesFactory,
+        dbProvider,
+        null,
+        null,
+        new Config());
+  }
+
+  @Inject
+  public EventBroker(
+      PluginSetContext<UserScopedEventListener> listeners,
+      PluginSetContext<EventListener> unrestrictedListeners,
+      PermissionBackend permissionBackend,
+      ProjectCache projectCache,
+      ChangeNotes.Factory notesFactory,
+      Provider<ReviewDb> dbProvider,
+      OneOffRequestContext requestContext,
+      WorkQueue workQueue,
+      @GerritServerConfig Config cfg) {
     this.listeners = listeners;
     this.unrestrictedListeners = unrestrictedListeners;
     this.permissionBackend = permissionBackend;
     this.projectCache = projectCache;
     this.notesFactory = notesFactory;
     this.dbProvider = dbProvider;
+    this.requestContext = requestContext;
+    int threads = cfg.getInt("event", null, "dispatchThreadPoolSize", 0);
+    this.dispatcher =
+        threads > 0
+            ? new ListenerDispatcher(
+                workQueue.createQueue(threads, "EventDispatch", true),
+                cfg.getInt("event", null, "dispatchQueueSize", 1000))
+            : null;
   }
 
   @Override
@@ -105,14 +157,29 @@ public class EventBroker implements EventDispatcher {
   }
 
   protected void fireEventForUnrestrictedListeners(Event event) {
-    unrestrictedListeners.runEach(l -> l.onEvent(event));
+    if (dispatcher == null) {
+      unrestrictedListeners.runEach(l -> l.onEvent(event));
+      return;
+    }
+    for (PluginSetEntryContext<EventListener> c : unrestrictedListeners) {
+      dispatcher.execute(c.get(), () -> c.run(l -> l.onEvent(event)));
+    }
   }
 
   protected void fireEvent(Change change, ChangeEvent event)
       throws OrmException, PermissionBackendException {
+    VisibilityMemo memo = new VisibilityMemo();
     for (PluginSetEntryContext<UserScopedEventListener> c : listeners) {
       CurrentUser user = c.call(l -> l.getUser());
-      if (isVisibleTo(change, user)) {
+      if (dispatcher != null) {
+        dispatch(c, event, memo, user, () -> isVisibleTo(change, user));
+        continue;
+      }
+      Boolean visible = memo.get(accountId(user));
+      if (visible == null) {
+        visible = memo.put(accountId(user), isVisibleTo(change, user));
+      }
+      if (visible) {
         c.run(l -> l.onEvent(event));
       }
     }
@@ -120,9 +187,18 @@ public class EventBroker implements EventDispatcher {
   }
 
   protected void fireEvent(Project.NameKey project, ProjectEvent event) {
+    VisibilityMemo memo = new VisibilityMemo();
     for (PluginSetEntryContext<UserScopedEventListener> c : listeners) {
       CurrentUser user = c.call(l -> l.getUser());
-      if (isVisibleTo(project, user)) {
+      if (dispatcher != null) {
+        dispatch(c, event, memo, user, () -> isVisibleTo(project, user));
+        continue;
+      }
+      Boolean visible = memo.get(accountId(user));
+      if (visible == null) {
+        visible = memo.put(accountId(user), isVisibleTo(project, user));
+      }
+      if (visible) {
         c.run(l -> l.onEvent(event));
       }
     }
@@ -131,9 +207,18 @@ public class EventBroker implements EventDispatcher {
 
   protected void fireEvent(Branch.NameKey branchName, RefEvent event)
       throws PermissionBackendException {
+    VisibilityMemo memo = new VisibilityMemo();
     for (PluginSetEntryContext<UserScopedEventListener> c : listeners) {
       CurrentUser user = c.call(l -> l.getUser());
-      if (isVisibleTo(branchName, user)) {
+      if (dispatcher != null) {
+        dispatch(c, event, memo, user, () -> isVisibleTo(branchName, user));
+        continue;
+      }
+      Boolean visible = memo.get(accountId(user));
+      if (visible == null) {
+        visible = memo.put(accountId(user), isVisibleTo(branchName, user));
+      }
+      if (visible) {
         c.run(l -> l.onEvent(event));
       }
     }
@@ -141,15 +226,128 @@ public class EventBroker implements EventDispatcher {
   }
 
   protected void fireEvent(Event event) throws OrmException, PermissionBackendException {
+    VisibilityMemo memo = new VisibilityMemo();
     for (PluginSetEntryContext<UserScopedEventListener> c : listeners) {
       CurrentUser user = c.call(l -> l.getUser());
-      if (isVisibleTo(event, user)) {
+      if (dispatcher != null) {
+        dispatch(c, event, memo, user, () -> isVisibleTo(event, user));
+        continue;
+      }
+      Boolean visible = memo.get(accountId(user));
+      if (visible == null) {
+        visible = memo.put(accountId(user), isVisibleTo(event, user));
+      }
+      if (visible) {
         c.run(l -> l.onEvent(event));
       }
     }
     fireEventForUnrestrictedListeners(event);
   }
 
+  @FunctionalInterface
+  private interface VisibilityCheck {
+    boolean isVisible() throws OrmException, PermissionBackendException;
+  }
+
+  /**
+   * Checks visibility and notifies a listener on the dispatch thread pool.
+   *
+   * <p>Events reach each listener in the order they were posted, see {@link ListenerDispatcher}.
+   * Visibility is checked in a one-off request context, which is only opened if the result isn't
+   * known yet for the listener's account.
+   */
+  private void dispatch(
+      PluginSetEntryContext<UserScopedEventListener> c,
+      Event event,
+      VisibilityMemo memo,
+      CurrentUser user,
+      VisibilityCheck check) {
+    dispatcher.execute(
+        c.get(),
+        () -> {
+          try {
+            Account.Id accountId = accountId(user);
+            Boolean visible = memo.get(accountId);
+            if (visible == null) {
+              try (ManualRequestContext ctx = requestContext.open()) {
+                visible = memo.put(accountId, check.isVisible());
+              }
+            }
+            if (visible) {
+              c.run(l -> l.onEvent(event));
+            }
+          } catch (OrmException | PermissionBackendException | RuntimeException e) {
+            logger.atWarning().withCause(e).log("Failed to dispatch %s event", event.type);
+          }
+        });
+  }
+
+  @Nullable
+  private static Account.Id accountId(CurrentUser user) {
+    return user.isIdentifiedUser() ? user.getAccountId() : null;
+  }
+
+  /** Visibility of a journal entry, shared by all sessions reading the entry. */
+  private static class JournalEntryVisibility {
+    final VisibilityMemo memo = new VisibilityMemo();
+
+    /** The change the entry is about, once loaded; absent if it doesn't exist anymore. */
+    volatile Optional<Change> change;
+  }
+
+  /**
+   * Checks whether an event read from the {@link EventJournal} is visible to a user.
+   *
+   * <p>All {@code stream-events} sessions read the same entries, so results are remembered per
+   * entry for a short time, like {@link #fireEvent(Event)} does while an event is fired. The change
+   * an entry is about is only loaded once.
+   *
+   * <p>Must be called within a request context.
+   */
+  public boolean isVisibleTo(EventJournal.Entry entry, CurrentUser user)
+      throws OrmException, PermissionBackendException {
+    if (entry.project() == null) {
+      return true;
+    }
+    JournalEntryVisibility v =
+        journalVisibility.asMap().computeIfAbsent(entry.seq(), k -> new JournalEntryVisibility());
+    Account.Id accountId = accountId(user);
+    Boolean visible = v.memo.get(accountId);
+    if (visible == null) {
+      visible = v.memo.put(accountId, checkVisible(entry, v, user));
+    }
+    return visible;
+  }
+
+  private boolean checkVisible(EventJournal.Entry entry, JournalEntryVisibility v, CurrentUser user)
+      throws OrmException, PermissionBackendException {
+    if (entry.changeId() != null) {
+      Optional<Change> change = v.change;
+      if (change == null) {
+        try {
+          change =
+              Optional.of(
+                  notesFactory
+                      .createChecked(dbProvider.get(), entry.project(), entry.changeId())
+                      .getChange());
+        } catch (NoSuchChangeException e) {
+          logger.atFine().log(
+              "Change %s cannot be found, falling back on ref visibility check",
+              entry.changeId().get());
+          change = Optional.empty();
+        }
+        v.change = change;
+      }
+      if (change.isPresent()) {
+        return isVisibleTo(change.get(), user);
+      }
+    }
+    if (entry.ref() != null) {
+      return isVisibleTo(new Branch.NameKey(entry.project(), entry.ref()), user);
+    }
+    return isVisibleTo(entry.project(), user);
+  }
+
   protected boolean isVisibleTo(Project.NameKey project, CurrentUser user) {
     try {
       ProjectState state = projectCache.get(project);
@@ -0,0 +1,573 @@
+// Copyright (C) 2019 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.events;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.base.Strings;
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.extensions.registration.DynamicSet;
+import com.google.gerrit.extensions.registration.RegistrationHandle;
+import com.google.gerrit.lifecycle.LifecycleModule;
+import com.google.gerrit.reviewdb.client.Change;
+import com.google.gerrit.reviewdb.client.PatchSet;
+import com.google.gerrit.reviewdb.client.Project;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.config.SitePaths;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.eclipse.jgit.lib.Config;
+
+/**
+ * Append-only journal of all events, stored in {@code $site_path/data/events}.
+ *
+ * <p>Every event in the journal has a sequence number, so that {@code stream-events} clients can
+ * resume after the last event they received, and slow clients read events from disk rather than
+ * losing them.
+ *
+ * <p>The journal consists of memory-mapped segment files of a fixed size, named after the sequence
+ * number of their first event. Once the segments exceed the configured maximum size, the oldest
+ * segments are deleted.
+ *
+ * <p>Each record in a segment starts with its length, which is written after the rest of the
+ * record. A record that was only partially written before the server stopped is therefore ignored
+ * when the journal is opened again.
+ *
+ * <p>Segments are reference counted. A segment that is dropped from the journal is unmapped and
+ * deleted once the last {@link Reader} on it moved on or was closed.
+ */
+@Singleton
+public class EventJournal implements EventListener, LifecycleListener {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private static final String SUFFIX = ".journal";
+
+  static final Gson GSON =
+      new GsonBuilder()
+          .registerTypeAdapter(Supplier.class, new SupplierSerializer())
+          .registerTypeAdapter(Project.NameKey.class, new ProjectNameKeySerializer())
+          .create();
+
+  public static class Module extends LifecycleModule {
+    @Override
+    protected void configure() {
+      DynamicSet.bind(binder(), EventListener.class).to(EventJournal.class);
+      listener().to(EventJournal.class);
+    }
+  }
+
+  /** An event read from the journal. */
+  @AutoValue
+  public abstract static class Entry {
+    public abstract long seq();
+
+    public abstract String type();
+
+    /** Project the event is about, if any. */
+    @Nullable
+    public abstract Project.NameKey project();
+
+    /** Ref the event is about, if any. */
+    @Nullable
+    public abstract String ref();
+
+    /** Change the event is about, if any. */
+    @Nullable
+    public abstract Change.Id changeId();
+
+    /** The event, serialized as JSON. */
+    public abstract String json();
+  }
+
+  @Nullable private final Path dir;
+  private final int segmentSize;
+  private final long maxSize;
+  private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+
+  /** Segments of the journal, oldest first; null if the journal is not open. */
+  @Nullable private volatile ImmutableList<Segment> segments;
+
+  private long nextSeq = 1;
+
+  @Inject
+  EventJournal(SitePaths site, @GerritServerConfig Config cfg) {
+    this(
+        cfg.getBoolean("event", null, "journalEnabled", false)
+            ? site.data_dir.resolve("events")
+            : null,
+        cfg.getLong("event", null, "journalSegmentSize", 16 << 20),
+        cfg.getLong("event", null, "journalMaxSize", 1 << 30));
+  }
+
+  EventJournal(@Nullable Path dir, long segmentSize, long maxSize) {
+    this.dir = dir;
+    this.segmentSize = (int) Math.min(segmentSize, Integer.MAX_VALUE);
+    this.maxSize = maxSize;
+  }
+
+  @Override
+  public synchronized void start() {
+    if (dir == null) {
+      return;
+    }
+    try {
+      Files.createDirectories(dir);
+      List<Path> files = new ArrayList<>();
+      try (DirectoryStream<Path> s = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+        s.forEach(files::add);
+      }
+      // Names are fixed-width hex numbers, so sorting by name sorts by sequence number.
+      files.sort(null);
+      List<Segment> open = new ArrayList<>(files.size());
+      for (Path p : files) {
+        open.add(Segment.open(p));
+      }
+      if (!open.isEmpty()) {
+        nextSeq = Iterables.getLast(open).lastSeq + 1;
+      }
+      segments = ImmutableList.copyOf(open);
+      logger.atInfo().log("Opened event journal in %s, next event is %d", dir, nextSeq);
+    } catch (IOException | RuntimeException e) {
+      logger.atSevere().withCause(e).log("Cannot open event journal in %s", dir);
+    }
+  }
+
+  @Override
+  public synchronized void stop() {
+    ImmutableList<Segment> s = segments;
+    segments = null;
+    if (s == null) {
+      return;
+    }
+    if (!s.isEmpty()) {
+      Iterables.getLast(s).buf.force();
+    }
+    for (Segment segment : s) {
+      segment.release();
+    }
+  }
+
+  /** Returns whether the journal is enabled and open. */
+  public boolean isOpen() {
+    return segments != null;
+  }
+
+  /** Returns the sequence number of the last event in the journal, or 0 if there is none. */
+  public synchronized long lastSeq() {
+    return nextSeq - 1;
+  }
+
+  /**
+   * Registers a callback invoked after each event appended to the journal.
+   *
+   * @param listener callback; must be cheap, as it runs on the thread firing the event.
+   * @return handle to remove the callback again.
+   */
+  public RegistrationHandle addListener(Runnable listener) {
+    listeners.add(listener);
+    return () -> listeners.remove(listener);
+  }
+
+  /**
+   * Opens a reader on the journal. The reader must be closed when it is no longer needed.
+   *
+   * @param fromSeq sequence number of the first event to read. If that event was already deleted,
+   *     the reader starts with the oldest event still in the journal.
+   */
+  public Reader reader(long fromSeq) {
+    return new Reader(fromSeq);
+  }
+
+  @Override
+  public void onEvent(Event event) {
+    if (segments == null) {
+      return;
+    }
+    Project.NameKey project = null;
+    String ref = null;
+    Change.Id changeId = null;
+    if (event instanceof ProjectEvent) {
+      project = ((ProjectEvent) event).getProjectNameKey();
+    }
+    if (event instanceof RefEvent) {
+      ref = ((RefEvent) event).getRefName();
+      if (PatchSet.isChangeRef(ref)) {
+        changeId = PatchSet.Id.fromRef(ref).getParentKey();
+      }
+    }
+    if (event instanceof ChangeEvent && ((ChangeEvent) event).change != null) {
+      changeId = new Change.Id(((ChangeEvent) event).change.get().number);
+    }
+
+    try {
+      append(event.getType(), project, ref, changeId, GSON.toJson(event));
+    } catch (IOException | RuntimeException e) {
+      logger.atSevere().withCause(e).log("Cannot append %s event to journal", event.getType());
+    }
+  }
+
+  long append(
+      String type,
+      @Nullable Project.NameKey project,
+      @Nullable String ref,
+      @Nullable Change.Id changeId,
+      String json)
+      throws IOException {
+    long seq;
+    synchronized (this) {
+      ImmutableList<Segment> s = segments;
+      if (s == null) {
+        throw new IOException("event journal is not open");
+      }
+      seq = nextSeq;
+      byte[] record = encode(seq, type, project, ref, changeId, json.getBytes(UTF_8));
+      Segment current = s.isEmpty() ? null : Iterables.getLast(s);
+      if (current == null || !current.hasRoom(record.length)) {
+        current = roll(s, current, Math.max(segmentSize, Integer.BYTES + record.length));
+      }
+      current.append(seq, record);
+      nextSeq++;
+    }
+    for (Runnable l : listeners) {
+      l.run();
+    }
+    return seq;
+  }
+
+  private Segment roll(List<Segment> current, @Nullable Segment last, int capacity)
+      throws IOException {
+    if (last != null) {
+      last.buf.force();
+    }
+    Segment next = Segment.create(dir.resolve(fileName(nextSeq)), nextSeq, capacity);
+    List<Segment> all = new ArrayList<>(current);
+    all.add(next);
+    long size = 0;
+    for (Segment s : all) {
+      size += s.buf.capacity();
+    }
+    List<Segment> dropped = new ArrayList<>();
+    while (all.size() > 1 && size > maxSize) {
+      Segment old = all.remove(0);
+      size -= old.buf.capacity();
+      dropped.add(old);
+    }
+    segments = ImmutableList.copyOf(all);
+    for (Segment old : dropped) {
+      old.delete();
+    }
+    return next;
+  }
+
+  private static String fileName(long firstSeq) {
+    return Strings.padStart(Long.toHexString(firstSeq), 16, '0') + SUFFIX;
+  }
+
+  private static byte[] encode(
+      long seq,
+      String type,
+      @Nullable Project.NameKey project,
+      @Nullable String ref,
+      @Nullable Change.Id changeId,
+      byte[] json) {
+    byte[] t = type.getBytes(UTF_8);
+    byte[] p = (project != null ? project.get() : "").getBytes(UTF_8);
+    byte[] r = Strings.nullToEmpty(ref).getBytes(UTF_8);
+    ByteBuffer b =
+        ByteBuffer.allocate(
+            Long.BYTES + 5 * Integer.BYTES + t.length + p.length + r.length + json.length);
+    b.putLong(seq);
+    b.putInt(changeId != null ? changeId.get() : 0);
+    put(b, t);
+    put(b, p);
+    put(b, r);
+    put(b, json);
+    return b.array();
+  }
+
+  private static void put(ByteBuffer b, byte[] bytes) {
+    b.putInt(bytes.length);
+    b.put(bytes);
+  }
+
+  private static String getString(ByteBuffer b) {
+    byte[] bytes = new byte[b.getInt()];
+    b.get(bytes);
+    return new String(bytes, UTF_8);
+  }
+
+  /**
+   * Unmaps a buffer right away, rather than when it is garbage collected.
+   *
+   * <p>The JDK has no public API for this, so the cleaner is invoked reflectively; if that fails
+   * the buffer is left to the garbage collector. The buffer must not be accessed afterwards.
+   */
+  private static void unmap(MappedByteBuffer buf) {
+    try {
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      Method invokeCleaner;
+      try {
+        invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+      } catch (NoSuchMethodException e) {
+        // Java 8: DirectByteBuffer.cleaner().clean()
+        Method cleaner = buf.getClass().getMethod("cleaner");
+        cleaner.setAccessible(true);
+        Object c = cleaner.invoke(buf);
+        c.getClass().getMethod("clean").invoke(c);
+        return;
+      }
+      Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+      theUnsafe.setAccessible(true);
+      invokeCleaner.invoke(theUnsafe.get(null), buf);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      logger.atFine().withCause(e).log("Cannot unmap event journal segment");
+    }
+  }
+
+  /** Reads events from the journal in order. Not thread-safe. */
+  public class Reader implements AutoCloseable {
+    private long next;
+    private Segment segment;
+    private int pos;
+    private boolean closed;
+
+    private Reader(long next) {
+      this.next = next;
+    }
+
+    /**
+     * Returns the next event, or null if the reader caught up with the journal.
+     *
+     * <p>The sequence number of the returned event may be larger than expected if events were
+     * deleted from the journal before they could be read.
+     */
+    @Nullable
+    public Entry next() {
+      while (!closed) {
+        ImmutableList<Segment> all = segments;
+        if (all == null || all.isEmpty()) {
+          return null;
+        }
+        if (segment == null) {
+          Segment found = find(all, next);
+          if (!found.retain()) {
+            // Dropped from the journal since the list was read.
+            continue;
+          }
+          segment = found;
+          pos = 0;
+        }
+        if (pos < segment.limit) {
+          Entry e = segment.read(pos);
+          pos += Integer.BYTES + segment.buf.getInt(pos);
+          if (e.seq() < next) {
+            continue;
+          }
+          next = e.seq() + 1;
+          return e;
+        }
+        Segment after = after(all, segment);
+        if (after == null) {
+          return null;
+        }
+        // The segment is complete once a later one exists. Check again to be sure to see its
+        // final records.
+        if (pos >= segment.limit) {
+          segment.release();
+          segment = null;
+          if (after.retain()) {
+            segment = after;
+            pos = 0;
+          }
+        }
+      }
+      return null;
+    }
+
+    /** Releases the segment this reader is positioned on. */
+    @Override
+    public void close() {
+      closed = true;
+      if (segment != null) {
+        segment.release();
+        segment = null;
+      }
+    }
+
+    private Segment find(List<Segment> all, long seq) {
+      Segment found = all.get(0);
+      for (Segment s : all) {
+        if (s.firstSeq <= seq) {
+          found = s;
+        }
+      }
+      return found;
+    }
+
+    @Nullable
+    private Segment after(List<Segment> all, Segment current) {
+      for (Segment s : all) {
+        if (s.firstSeq > current.firstSeq) {
+          return s;
+        }
+      }
+      return null;
+    }
+  }
+
+  private static class Segment {
+    static Segment create(Path path, long firstSeq, int capacity) throws IOException {
+      try (FileChannel ch =
+          FileChannel.open(
+              path,
+              StandardOpenOption.CREATE_NEW,
+              StandardOpenOption.READ,
+              StandardOpenOption.WRITE)) {
+        return new Segment(
+            path, firstSeq, ch.map(FileChannel.MapMode.READ_WRITE, 0, capacity), 0, firstSeq - 1);
+      }
+    }
+
+    static Segment open(Path path) throws IOException {
+      String name = path.getFileName().toString();
+      long firstSeq = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()), 16);
+      try (FileChannel ch =
+          FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+        MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_WRITE, 0, ch.size());
+        int pos = 0;
+        long lastSeq = firstSeq - 1;
+        while (pos + Integer.BYTES <= buf.capacity()) {
+          int len = buf.getInt(pos);
+          if (len <= 0 || pos + Integer.BYTES + len > buf.capacity()) {
+            break;
+          }
+          lastSeq = buf.getLong(pos + Integer.BYTES);
+          pos += Integer.BYTES + len;
+        }
+        return new Segment(path, firstSeq, buf, pos, lastSeq);
+      }
+    }
+
+    final Path path;
+    final long firstSeq;
+    final MappedByteBuffer buf;
+
+    /** End of the records in this segment; only advanced after a record is fully written. */
+    volatile int limit;
+
+    long lastSeq;
+
+    /**
+     * Number of users of {@link #buf}: the journal itself while it lists the segment, and readers.
+     */
+    private int refs = 1;
+
+    private boolean deleted;
+
+    private Segment(Path path, long firstSeq, MappedByteBuffer buf, int limit, long lastSeq) {
+      this.path = path;
+      this.firstSeq = firstSeq;
+      this.buf = buf;
+      this.limit = limit;
+      this.lastSeq = lastSeq;
+    }
+
+    /** Returns false if the segment was already released and must not be read anymore. */
+    synchronized boolean retain() {
+      if (refs == 0) {
+        return false;
+      }
+      refs++;
+      return true;
+    }
+
+    void release() {
+      synchronized (this) {
+        if (--refs > 0) {
+          return;
+        }
+      }
+      unmap(buf);
+      if (deleted) {
+        try {
+          Files.deleteIfExists(path);
+          logger.atFine().log("Deleted event journal segment %s", path);
+        } catch (IOException e) {
+          logger.atWarning().withCause(e).log("Cannot delete event journal segment %s", path);
+        }
+      }
+    }
+
+    /** Drops the journal's reference and deletes the file once all readers are done with it. */
+    void delete() {
+      synchronized (this) {
+        deleted = true;
+      }
+      release();
+    }
+
+    boolean hasRoom(int len) {
+      return limit + Integer.BYTES + len <= buf.capacity();
+    }
+
+    void append(long seq, byte[] record) {
+      ByteBuffer b = buf.duplicate();
+      b.position(limit + Integer.BYTES);
+      b.put(record);
+      buf.putInt(limit, record.length);
+      lastSeq = seq;
+      limit += Integer.BYTES + record.length;
+    }
+
+    Entry read(int pos) {
+      ByteBuffer b = buf.duplicate();
+      b.position(pos + Integer.BYTES);
+      long seq = b.getLong();
+      int changeId = b.getInt();
+      String type = getString(b);
+      String project = getString(b);
+      String ref = getString(b);
+      String json = getString(b);
+      return new AutoValue_EventJournal_Entry(
+          seq,
+          type,
+          project.isEmpty() ? null : new Project.NameKey(project),
+          Strings.emptyToNull(ref),
+          changeId != 0 ? new Change.Id(changeId) : null,
+          json);
+    }
+  }
+}
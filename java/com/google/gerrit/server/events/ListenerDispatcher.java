@@ -0,0 +1,76 @@
+// Copyright (C) 2019 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.events;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Runs tasks on a shared thread pool, one listener at a time.
+ *
+ * <p>Each listener gets its own queue. Tasks for the same listener run one after another, in the
+ * order they were submitted, while tasks for different listeners run in parallel. A listener's
+ * queue holds at most {@code maxQueueSize} tasks. When it is full, {@link #execute(Object,
+ * Runnable)} blocks until the listener caught up, which slows down the callers posting events
+ * without reordering them.
+ */
+class ListenerDispatcher {
+  private final LoadingCache<Object, ListenerQueue> queues;
+
+  ListenerDispatcher(Executor executor, int maxQueueSize) {
+    this.queues =
+        CacheBuilder.newBuilder()
+            // Use weakKeys so that queues of unregistered listeners are released, and to compare
+            // listeners by identity.
+            .weakKeys()
+            .build(CacheLoader.from(() -> new ListenerQueue(executor, maxQueueSize)));
+  }
+
+  /** Runs a task for a listener after all tasks previously submitted for this listener. */
+  void execute(Object listener, Runnable task) {
+    queues.getUnchecked(listener).execute(task);
+  }
+
+  private static class ListenerQueue {
+    private final Executor executor;
+    private final Semaphore available;
+
+    ListenerQueue(Executor executor, int maxQueueSize) {
+      this.executor = MoreExecutors.newSequentialExecutor(executor);
+      this.available = new Semaphore(Math.max(maxQueueSize, 1));
+    }
+
+    void execute(Runnable task) {
+      available.acquireUninterruptibly();
+      try {
+        executor.execute(
+            () -> {
+              try {
+                task.run();
+              } finally {
+                available.release();
+              }
+            });
+      } catch (RuntimeException e) {
+        available.release();
+        throw e;
+      }
+    }
+  }
+}
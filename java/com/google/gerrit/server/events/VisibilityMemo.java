@@ -0,0 +1,46 @@
+// Copyright (C) 2019 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.events;
+
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.reviewdb.client.Account;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers visibility results while an event is fired.
+ *
+ * <p>Several {@code stream-events} sessions of the same account see the same events, so the
+ * visibility of an event is only checked once per account. Results are never shared between
+ * accounts, as private changes and access sections with {@code ${username}} depend on the account
+ * itself. Users without an account are checked every time.
+ */
+class VisibilityMemo {
+  private final Map<Account.Id, Boolean> results = new ConcurrentHashMap<>();
+
+  /** Returns the remembered result for an account, or null if it still needs to be checked. */
+  @Nullable
+  Boolean get(@Nullable Account.Id accountId) {
+    return accountId != null ? results.get(accountId) : null;
+  }
+
+  /** Remembers the result for an account and returns it. */
+  boolean put(@Nullable Account.Id accountId, boolean visible) {
+    if (accountId != null) {
+      results.put(accountId, visible);
+    }
+    return visible;
+  }
+}
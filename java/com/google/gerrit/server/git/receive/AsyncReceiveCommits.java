@@ -68,10 +68,13 @@ import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.transport.AdvertiseRefsHook;
 import org.eclipse.jgit.transport.AdvertiseRefsHookChain;
+import org.eclipse.jgit.transport.BaseReceivePack;
 import org.eclipse.jgit.transport.PreReceiveHook;
 import org.eclipse.jgit.transport.ReceiveCommand;
 import org.eclipse.jgit.transport.ReceiveCommand.Result;
 import org.eclipse.jgit.transport.ReceivePack;
+import org.eclipse.jgit.transport.ServiceMayNotContinueException;
+import org.eclipse.jgit.transport.UploadPack;
 
 /**
  * Hook that delegates to {@link ReceiveCommits} in a worker thread.
@@ -126,6 +129,7 @@ public class AsyncReceiveCommits implements PreReceiveHook {
     @Override
     public void run() {
       receiveCommits.processCommands(commands, progress);
+      timeline.record(metrics.phaseLatency);
     }
 
     @Override
@@ -175,10 +179,31 @@ public class AsyncReceiveCommits implements PreReceiveHook {
     }
   }
 
+  private class TimedAdvertiseRefsHook implements AdvertiseRefsHook {
+    private final AdvertiseRefsHook delegate;
+
+    private TimedAdvertiseRefsHook(AdvertiseRefsHook delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public void advertiseRefs(UploadPack uploadPack) throws ServiceMayNotContinueException {
+      delegate.advertiseRefs(uploadPack);
+    }
+
+    @Override
+    public void advertiseRefs(BaseReceivePack receivePack) throws ServiceMayNotContinueException {
+      try (PushTimeline.Timer timer = timeline.start(PushTimeline.Phase.ADVERTISE_REFS)) {
+        delegate.advertiseRefs(receivePack);
+      }
+    }
+  }
+
   @Singleton
   private static class Metrics {
     private final Histogram1<ResultChangeIds.Key> changes;
     private final Timer1<String> latencyPerChange;
+    private final Timer1<PushTimeline.Phase> phaseLatency;
     private final Counter0 timeouts;
 
     @Inject
@@ -199,6 +224,14 @@ public class AsyncReceiveCommits implements PreReceiveHook {
                   .setCumulative(),
               Field.ofString("type", "type of update (create/replace, autoclose)"));
 
+      phaseLatency =
+          metricMaker.newTimer(
+              "receivecommits/phase_latency",
+              new Description("time spent in each phase of a push")
+                  .setUnit(Units.MILLISECONDS)
+                  .setCumulative(),
+              Field.ofEnum(PushTimeline.Phase.class, "phase", "phase of the push"));
+
       timeouts =
           metricMaker.newCounter(
               "receivecommits/timeout", new Description("rate of push timeouts").setRate());
@@ -219,6 +252,7 @@ public class AsyncReceiveCommits implements PreReceiveHook {
   private final IdentifiedUser user;
   private final Repository repo;
   private final AllRefsWatcher allRefsWatcher;
+  private final PushTimeline timeline;
 
   @Inject
   AsyncReceiveCommits(
@@ -247,6 +281,7 @@ public class AsyncReceiveCommits implements PreReceiveHook {
     this.user = user;
     this.repo = repo;
     this.metrics = metrics;
+    this.timeline = new PushTimeline();
 
     Project.NameKey projectName = projectState.getNameKey();
     receivePack = new ReceivePack(repo);
@@ -280,12 +315,19 @@ public class AsyncReceiveCommits implements PreReceiveHook {
         new DefaultAdvertiseRefsHook(perm, RefFilterOptions.builder().setFilterMeta(true).build()));
     advHooks.add(new ReceiveCommitsAdvertiseRefsHook(queryProvider, projectName));
     advHooks.add(new HackPushNegotiateHook());
-    receivePack.setAdvertiseRefsHook(AdvertiseRefsHookChain.newChain(advHooks));
+    receivePack.setAdvertiseRefsHook(
+        new TimedAdvertiseRefsHook(AdvertiseRefsHookChain.newChain(advHooks)));
 
     resultChangeIds = new ResultChangeIds();
     receiveCommits =
         factory.create(
-            projectState, user, receivePack, allRefsWatcher, messageSender, resultChangeIds);
+            projectState,
+            user,
+            receivePack,
+            allRefsWatcher,
+            messageSender,
+            resultChangeIds,
+            timeline);
     receiveCommits.init();
   }
 
@@ -317,6 +359,7 @@ public class AsyncReceiveCommits implements PreReceiveHook {
       return;
     }
 
+    timeline.packReceived();
     long startNanos = System.nanoTime();
     Worker w = new Worker(commands);
     try {
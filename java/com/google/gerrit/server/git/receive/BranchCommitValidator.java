@@ -16,13 +16,21 @@ package com.google.gerrit.server.git.receive;
 
 import static org.eclipse.jgit.transport.ReceiveCommand.Result.REJECTED_OTHER_REASON;
 
+import com.google.auto.value.AutoValue;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
 import com.google.common.flogger.FluentLogger;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.gerrit.common.Nullable;
 import com.google.gerrit.reviewdb.client.Branch;
 import com.google.gerrit.reviewdb.client.Change;
 import com.google.gerrit.reviewdb.client.Project;
 import com.google.gerrit.reviewdb.client.RevId;
 import com.google.gerrit.server.IdentifiedUser;
+import com.google.gerrit.server.config.CommitValidationExecutor;
+import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.events.CommitReceivedEvent;
 import com.google.gerrit.server.git.validators.CommitValidationException;
 import com.google.gerrit.server.git.validators.CommitValidationMessage;
@@ -31,11 +39,17 @@ import com.google.gerrit.server.git.validators.ValidationMessage;
 import com.google.gerrit.server.permissions.PermissionBackend;
 import com.google.gerrit.server.project.ProjectState;
 import com.google.gerrit.server.ssh.SshInfo;
+import com.google.gerrit.server.util.RequestScopePropagator;
 import com.google.inject.Inject;
 import com.google.inject.assistedinject.Assisted;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.notes.NoteMap;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.transport.ReceiveCommand;
@@ -45,11 +59,17 @@ public class BranchCommitValidator {
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
   private final CommitValidators.Factory commitValidatorsFactory;
+  private final CommitValidationCache cache;
+  private final ListeningExecutorService executor;
+  private final RequestScopePropagator requestScopePropagator;
+  private final boolean parallel;
   private final IdentifiedUser user;
+  private final PermissionBackend permissionBackend;
   private final PermissionBackend.ForProject permissions;
   private final Project project;
   private final Branch.NameKey branch;
   private final SshInfo sshInfo;
+  @Nullable private final CommitValidationCache.Context cacheContext;
 
   interface Factory {
     BranchCommitValidator create(
@@ -59,6 +79,10 @@ public class BranchCommitValidator {
   @Inject
   BranchCommitValidator(
       CommitValidators.Factory commitValidatorsFactory,
+      CommitValidationCache cache,
+      @CommitValidationExecutor ListeningExecutorService executor,
+      RequestScopePropagator requestScopePropagator,
+      @GerritServerConfig Config cfg,
       PermissionBackend permissionBackend,
       SshInfo sshInfo,
       @Assisted ProjectState projectState,
@@ -68,8 +92,14 @@ public class BranchCommitValidator {
     this.user = user;
     this.branch = branch;
     this.commitValidatorsFactory = commitValidatorsFactory;
+    this.cache = cache;
+    this.executor = executor;
+    this.requestScopePropagator = requestScopePropagator;
+    this.parallel = cfg.getInt("receive", null, "commitValidationThreads", 1) > 1;
+    this.permissionBackend = permissionBackend;
     project = projectState.getProject();
     permissions = permissionBackend.user(user).project(project.getNameKey());
+    cacheContext = cache.context(projectState, branch, user);
   }
 
   /**
@@ -90,6 +120,114 @@ public class BranchCommitValidator {
       NoteMap rejectCommits,
       @Nullable Change change)
       throws IOException {
+    return apply(
+        validate(objectReader, cmd, commit, isMerged, rejectCommits, change, permissions),
+        cmd,
+        messages);
+  }
+
+  /**
+   * Validates several commits that don't depend on each other.
+   *
+   * <p>If {@code receive.commitValidationThreads} is larger than 1 the commits are validated in
+   * parallel. Either way, messages and the rejection of the command are reported as if {@link
+   * #validCommit} was called for each commit in order, stopping at the first invalid commit.
+   *
+   * @param repo the repository, used to open an object reader for each parallel validation.
+   * @param objectReader the object reader to use on the calling thread.
+   * @param cmd the ReceiveCommand executing the push.
+   * @param commits the commits being validated, in the order in which errors are reported.
+   * @param isMerged whether these are merge commits created by magicBranch --merge option
+   * @return whether all commits are valid.
+   */
+  public boolean validCommits(
+      Repository repo,
+      ObjectReader objectReader,
+      ReceiveCommand cmd,
+      List<RevCommit> commits,
+      boolean isMerged,
+      List<ValidationMessage> messages,
+      NoteMap rejectCommits)
+      throws IOException {
+    if (!parallel || commits.size() < 2) {
+      for (RevCommit c : commits) {
+        if (!validCommit(objectReader, cmd, c, isMerged, messages, rejectCommits, null)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    List<ListenableFuture<Result>> results = new ArrayList<>(commits.size());
+    try {
+      for (RevCommit c : commits) {
+        ListenableFuture<Result> f;
+        if (rejectCommits.contains(c)) {
+          // NoteMap is not thread-safe, so banned commits are rejected on this thread.
+          f =
+              Futures.immediateFuture(
+                  validate(objectReader, cmd, c, isMerged, rejectCommits, null, permissions));
+        } else {
+          f =
+              executor.submit(
+                  requestScopePropagator.wrap(
+                      () -> {
+                        try (ObjectReader reader = repo.newObjectReader()) {
+                          return validate(
+                              reader,
+                              cmd,
+                              c,
+                              isMerged,
+                              NoteMap.newEmptyMap(),
+                              null,
+                              permissionBackend.user(user).project(project.getNameKey()));
+                        }
+                      }));
+        }
+        results.add(f);
+        if (f.isDone() && !Futures.getDone(f).valid()) {
+          break;
+        }
+      }
+
+      for (ListenableFuture<Result> f : results) {
+        if (!apply(f.get(), cmd, messages)) {
+          return false;
+        }
+      }
+      return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while validating commits");
+    } catch (ExecutionException e) {
+      Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new IOException(e.getCause());
+    } finally {
+      results.forEach(f -> f.cancel(false));
+    }
+  }
+
+  private Result validate(
+      ObjectReader objectReader,
+      ReceiveCommand cmd,
+      RevCommit commit,
+      boolean isMerged,
+      NoteMap rejectCommits,
+      @Nullable Change change,
+      PermissionBackend.ForProject permissions)
+      throws IOException {
+    CommitValidationCache.Key key = null;
+    if (cacheContext != null && change == null && !rejectCommits.contains(commit)) {
+      key = cacheContext.key(commit, cmd.getRefName(), isMerged);
+      ImmutableList<CommitValidationMessage> cached = cache.getIfPresent(key);
+      if (cached != null) {
+        logger.atFine().log("Commit %s was already validated", commit.name());
+        return Result.valid(cached);
+      }
+    }
+
+    List<CommitValidationMessage> messages = new ArrayList<>();
     try (CommitReceivedEvent receiveEvent =
         new CommitReceivedEvent(cmd, project, branch.get(), objectReader, commit, user)) {
       CommitValidators validators;
@@ -120,7 +258,19 @@ public class BranchCommitValidator {
         messages.add(
             new CommitValidationMessage(messageForCommit(commit, m.getMessage()), m.getType()));
       }
-      cmd.setResult(REJECTED_OTHER_REASON, messageForCommit(commit, e.getMessage()));
+      return Result.invalid(messages, messageForCommit(commit, e.getMessage()));
+    }
+    if (key != null) {
+      cache.put(key, messages);
+    }
+    return Result.valid(messages);
+  }
+
+  private static boolean apply(
+      Result result, ReceiveCommand cmd, List<ValidationMessage> messages) {
+    messages.addAll(result.messages());
+    if (!result.valid()) {
+      cmd.setResult(REJECTED_OTHER_REASON, result.rejection());
       return false;
     }
     return true;
@@ -129,4 +279,24 @@ public class BranchCommitValidator {
   private String messageForCommit(RevCommit c, String msg) {
     return String.format("commit %s: %s", c.abbreviate(RevId.ABBREV_LEN).name(), msg);
   }
+
+  /** Outcome of validating a single commit, applied to the push on the receiving thread. */
+  @AutoValue
+  abstract static class Result {
+    static Result valid(List<CommitValidationMessage> messages) {
+      return new AutoValue_BranchCommitValidator_Result(true, ImmutableList.copyOf(messages), null);
+    }
+
+    static Result invalid(List<CommitValidationMessage> messages, String rejection) {
+      return new AutoValue_BranchCommitValidator_Result(
+          false, ImmutableList.copyOf(messages), rejection);
+    }
+
+    abstract boolean valid();
+
+    abstract ImmutableList<CommitValidationMessage> messages();
+
+    @Nullable
+    abstract String rejection();
+  }
 }
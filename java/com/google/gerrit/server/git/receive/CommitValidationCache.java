@@ -0,0 +1,148 @@
+// Copyright (C) 2019 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.git.receive;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.cache.Cache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.extensions.registration.PluginName;
+import com.google.gerrit.reviewdb.client.Account;
+import com.google.gerrit.reviewdb.client.Branch;
+import com.google.gerrit.server.IdentifiedUser;
+import com.google.gerrit.server.cache.CacheModule;
+import com.google.gerrit.server.git.validators.CommitValidationListener;
+import com.google.gerrit.server.git.validators.CommitValidationMessage;
+import com.google.gerrit.server.plugincontext.PluginSetContext;
+import com.google.gerrit.server.plugincontext.PluginSetEntryContext;
+import com.google.gerrit.server.project.ProjectState;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.TypeLiteral;
+import com.google.inject.name.Named;
+import java.time.Duration;
+import java.util.List;
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * Caches successful commit validations, so that pushing the same commits again (e.g. a re-push of a
+ * long series after amending its tip) skips commits that were already validated.
+ *
+ * <p>A validation result of the built-in validators depends on the commit, the pushed ref
+ * (validators behave differently for magic branches and direct pushes), the pushing user and the
+ * configuration of the project and its parents. The key captures all of these except the group
+ * memberships of the user, which may include external groups that can't be enumerated, so entries
+ * are keyed by account and expire after {@link #EXPIRE_AFTER_WRITE}. Failed validations are never
+ * cached, and banned commits must be checked by the caller before consulting the cache.
+ *
+ * <p>Commit validation listeners from plugins may depend on anything, e.g. the state of an issue
+ * tracker, so nothing is cached while a plugin provides one.
+ */
+@Singleton
+class CommitValidationCache {
+  static final String CACHE_NAME = "commit_validation";
+  static final Duration EXPIRE_AFTER_WRITE = Duration.ofMinutes(10);
+
+  static class Module extends CacheModule {
+    @Override
+    protected void configure() {
+      cache(CACHE_NAME, Key.class, new TypeLiteral<ImmutableList<CommitValidationMessage>>() {})
+          .maximumWeight(1 << 16)
+          .expireAfterWrite(EXPIRE_AFTER_WRITE);
+    }
+  }
+
+  /** State shared by all commits validated for the same branch and user. */
+  @AutoValue
+  abstract static class Context {
+    abstract Branch.NameKey branch();
+
+    abstract Account.Id accountId();
+
+    @Nullable
+    abstract String accountMetaId();
+
+    abstract ImmutableSet<String> emails();
+
+    /** Config revisions of the project and all its parents, starting with the project itself. */
+    abstract ImmutableList<ObjectId> configRevisions();
+
+    Key key(ObjectId commit, String refName, boolean merged) {
+      return new AutoValue_CommitValidationCache_Key(this, commit.copy(), refName, merged);
+    }
+  }
+
+  @AutoValue
+  abstract static class Key {
+    abstract Context context();
+
+    abstract ObjectId commit();
+
+    /** Name of the pushed ref, e.g. {@code refs/for/master} or {@code refs/heads/master}. */
+    abstract String refName();
+
+    abstract boolean merged();
+  }
+
+  private final Cache<Key, ImmutableList<CommitValidationMessage>> cache;
+  private final PluginSetContext<CommitValidationListener> validators;
+
+  @Inject
+  CommitValidationCache(
+      @Named(CACHE_NAME) Cache<Key, ImmutableList<CommitValidationMessage>> cache,
+      PluginSetContext<CommitValidationListener> validators) {
+    this.cache = cache;
+    this.validators = validators;
+  }
+
+  /**
+   * Returns the context for validating commits of a push, or null if the results can't be cached.
+   */
+  @Nullable
+  Context context(ProjectState projectState, Branch.NameKey branch, IdentifiedUser user) {
+    for (PluginSetEntryContext<CommitValidationListener> v : validators) {
+      if (!PluginName.GERRIT.equals(v.getPluginName())) {
+        return null;
+      }
+    }
+
+    ImmutableList.Builder<ObjectId> configRevisions = ImmutableList.builder();
+    for (ProjectState p : projectState.tree()) {
+      ObjectId rev = p.getConfig().getRevision();
+      if (rev == null) {
+        return null;
+      }
+      configRevisions.add(rev.copy());
+    }
+    return new AutoValue_CommitValidationCache_Context(
+        branch,
+        user.getAccountId(),
+        user.getAccount().getMetaId(),
+        user.getEmailAddresses(),
+        configRevisions.build());
+  }
+
+  /** Returns the messages of a previous successful validation, or null if there was none. */
+  @Nullable
+  ImmutableList<CommitValidationMessage> getIfPresent(Key key) {
+    return cache.getIfPresent(key);
+  }
+
+  /** Records a successful validation. */
+  void put(Key key, List<CommitValidationMessage> messages) {
+    cache.put(key, ImmutableList.copyOf(messages));
+  }
+}
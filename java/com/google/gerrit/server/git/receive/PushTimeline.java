@@ -0,0 +1,181 @@
+// Copyright (C) 2019 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.git.receive;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.gerrit.metrics.Timer1;
+import com.google.gerrit.server.update.BatchUpdateListener;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Timeline of the phases of a single push.
+ *
+ * <p>Phases may be entered several times during a push, e.g. once per command; their durations are
+ * summed up. Phases may also nest: {@link Phase#VALIDATE_COMMITS} is part of {@link
+ * Phase#FIND_CHANGES} when pushing for review, and of {@link Phase#PARSE_COMMANDS} when pushing
+ * directly to a branch.
+ */
+class PushTimeline {
+  enum Phase {
+    /** Computing the refs advertised to the client. */
+    ADVERTISE_REFS,
+
+    /** From the end of the ref advertisement until the commands are handed to Gerrit. */
+    RECEIVE_PACK,
+
+    /** Parsing the received commands and push options. */
+    PARSE_COMMANDS,
+
+    /** Walking the pushed commits to find new and replaced changes. */
+    FIND_CHANGES,
+
+    /** Running the commit validators. */
+    VALIDATE_COMMITS,
+
+    /** Executing BatchUpdate repo operations, e.g. creating patch set refs. */
+    UPDATE_REPOS,
+
+    /** Writing the NoteDb (or ReviewDb) updates of the changes. */
+    UPDATE_CHANGES,
+
+    /** Reindexing the changes, firing events and sending emails after the update. */
+    POST_UPDATE,
+
+    /** Closing changes that were merged by pushing directly to a branch. */
+    AUTO_CLOSE
+  }
+
+  /** Measures a single entry into a phase. */
+  class Timer implements AutoCloseable {
+    private final Phase phase;
+    private final long start;
+
+    private Timer(Phase phase) {
+      this.phase = phase;
+      this.start = ticker.read();
+    }
+
+    @Override
+    public void close() {
+      long end = ticker.read();
+      add(phase, end - start);
+      if (phase == Phase.ADVERTISE_REFS) {
+        advertised(end);
+      }
+    }
+  }
+
+  /**
+   * Times the phases of a BatchUpdate: {@link Phase#UPDATE_REPOS} and {@link Phase#UPDATE_CHANGES}
+   * through the listener callbacks, {@link Phase#POST_UPDATE} until the timer is closed.
+   */
+  class BatchUpdateTimer implements BatchUpdateListener, AutoCloseable {
+    private Phase phase = Phase.UPDATE_REPOS;
+    private long start = ticker.read();
+
+    private BatchUpdateTimer() {}
+
+    @Override
+    public void afterUpdateRepos() {
+      next(Phase.UPDATE_CHANGES);
+    }
+
+    @Override
+    public void afterUpdateChanges() {
+      next(Phase.POST_UPDATE);
+    }
+
+    @Override
+    public void close() {
+      add(phase, ticker.read() - start);
+    }
+
+    private void next(Phase next) {
+      long now = ticker.read();
+      add(phase, now - start);
+      phase = next;
+      start = now;
+    }
+  }
+
+  private final Ticker ticker;
+  private final long created;
+  private final Map<Phase, Long> nanos = new EnumMap<>(Phase.class);
+  private long advertisedAt = -1;
+
+  PushTimeline() {
+    this(Ticker.systemTicker());
+  }
+
+  PushTimeline(Ticker ticker) {
+    this.ticker = ticker;
+    this.created = ticker.read();
+  }
+
+  Timer start(Phase phase) {
+    return new Timer(phase);
+  }
+
+  BatchUpdateTimer startBatchUpdate() {
+    return new BatchUpdateTimer();
+  }
+
+  synchronized void add(Phase phase, long elapsedNanos) {
+    nanos.merge(phase, elapsedNanos, Long::sum);
+  }
+
+  private synchronized void advertised(long at) {
+    advertisedAt = at;
+  }
+
+  /**
+   * Records the time since the refs were advertised as {@link Phase#RECEIVE_PACK}. Nothing is
+   * recorded if no refs were advertised by this push.
+   */
+  synchronized void packReceived() {
+    if (advertisedAt >= 0) {
+      add(Phase.RECEIVE_PACK, ticker.read() - advertisedAt);
+      advertisedAt = -1;
+    }
+  }
+
+  synchronized long get(Phase phase) {
+    return nanos.getOrDefault(phase, 0L);
+  }
+
+  /** Records the duration of each phase that was entered during the push. */
+  synchronized void record(Timer1<Phase> timer) {
+    nanos.forEach((phase, n) -> timer.record(phase, n, NANOSECONDS));
+  }
+
+  /** Formats the timeline as messages for the client, in the order of the phases. */
+  synchronized ImmutableList<String> format() {
+    ImmutableList.Builder<String> lines = ImmutableList.builder();
+    lines.add("PUSH_TIMING:");
+    nanos.forEach((phase, n) -> lines.add(line(phase.name(), n)));
+    lines.add(line("TOTAL", ticker.read() - created));
+    return lines.build();
+  }
+
+  private static String line(String name, long nanos) {
+    return String.format(
+        "  %-16s %6d ms", name.toLowerCase(Locale.US), NANOSECONDS.toMillis(nanos));
+  }
+}
@@ -234,7 +234,8 @@ class ReceiveCommits {
         ReceivePack receivePack,
         AllRefsWatcher allRefsWatcher,
         MessageSender messageSender,
-        ResultChangeIds resultChangeIds);
+        ResultChangeIds resultChangeIds,
+        PushTimeline timeline);
   }
 
   private class ReceivePackMessageSender implements MessageSender {
@@ -359,6 +360,7 @@ class ReceiveCommits {
 
   private MessageSender messageSender;
   private ResultChangeIds resultChangeIds;
+  private final PushTimeline timeline;
 
   @Inject
   ReceiveCommits(
@@ -401,7 +403,8 @@ class ReceiveCommits {
       @Assisted ReceivePack rp,
       @Assisted AllRefsWatcher allRefsWatcher,
       @Nullable @Assisted MessageSender messageSender,
-      @Assisted ResultChangeIds resultChangeIds)
+      @Assisted ResultChangeIds resultChangeIds,
+      @Assisted PushTimeline timeline)
       throws IOException {
     // Injected fields.
     this.accountResolver = accountResolver;
@@ -469,6 +472,7 @@ class ReceiveCommits {
     // Handles for outputting back over the wire to the end user.
     this.messageSender = messageSender != null ? messageSender : new ReceivePackMessageSender();
     this.resultChangeIds = resultChangeIds;
+    this.timeline = timeline;
   }
 
   void init() {
@@ -509,6 +513,9 @@ class ReceiveCommits {
     commands = commands.stream().map(c -> wrapReceiveCommand(c, commandProgress)).collect(toList());
     processCommandsUnsafe(commands, progress);
     rejectRemaining(commands, "internal server error");
+    if (tracePushOption != null && tracePushOption.isPresent()) {
+      timeline.format().forEach(this::addMessage);
+    }
 
     // This sends error messages before the 'done' string of the progress monitor is sent.
     // Currently, the test framework relies on this ordering to understand if pushes completed
@@ -573,17 +580,19 @@ class ReceiveCommits {
           return;
         }
 
-        for (ReceiveCommand cmd : directPatchSetPushCommands) {
-          parseDirectChangesPush(cmd);
-        }
+        try (PushTimeline.Timer timer = timeline.start(PushTimeline.Phase.PARSE_COMMANDS)) {
+          for (ReceiveCommand cmd : directPatchSetPushCommands) {
+            parseDirectChangesPush(cmd);
+          }
 
-        boolean first = true;
-        for (ReceiveCommand cmd : magicCommands) {
-          if (first) {
-            parseMagicBranch(cmd);
-            first = false;
-          } else {
-            reject(cmd, "duplicate request");
+          boolean first = true;
+          for (ReceiveCommand cmd : magicCommands) {
+            if (first) {
+              parseMagicBranch(cmd);
+              first = false;
+            } else {
+              reject(cmd, "duplicate request");
+            }
           }
         }
       } catch (PermissionBackendException | NoSuchProjectException | IOException err) {
@@ -596,7 +605,9 @@ class ReceiveCommits {
 
       List<CreateRequest> newChanges = Collections.emptyList();
       if (magicBranch != null && magicBranch.cmd.getResult() == NOT_ATTEMPTED) {
-        newChanges = selectNewAndReplacedChangesFromMagicBranch(newProgress);
+        try (PushTimeline.Timer timer = timeline.start(PushTimeline.Phase.FIND_CHANGES)) {
+          newChanges = selectNewAndReplacedChangesFromMagicBranch(newProgress);
+        }
       }
 
       // Commit validation has already happened, so any changes without Change-Id are for the
@@ -631,8 +642,10 @@ class ReceiveCommits {
 
   private void handleRegularCommands(List<ReceiveCommand> cmds, MultiProgressMonitor progress)
       throws PermissionBackendException, IOException, NoSuchProjectException {
-    for (ReceiveCommand cmd : cmds) {
-      parseRegularCommand(cmd);
+    try (PushTimeline.Timer timer = timeline.start(PushTimeline.Phase.PARSE_COMMANDS)) {
+      for (ReceiveCommand cmd : cmds) {
+        parseRegularCommand(cmd);
+      }
     }
 
     try (BatchUpdate bu =
@@ -652,7 +665,9 @@ class ReceiveCommits {
         }
       }
       logger.atFine().log("Added %d additional ref updates", added);
-      bu.execute();
+      try (PushTimeline.BatchUpdateTimer timer = timeline.startBatchUpdate()) {
+        bu.execute(timer);
+      }
     } catch (UpdateException | RestApiException e) {
       rejectRemaining(cmds, "internal server error");
       logger.atFine().withCause(e).log("update failed:");
@@ -672,7 +687,9 @@ class ReceiveCommits {
           case UPDATE:
           case UPDATE_NONFASTFORWARD:
             Task closeProgress = progress.beginSubTask("closed", UNKNOWN);
-            autoCloseChanges(c, closeProgress);
+            try (PushTimeline.Timer timer = timeline.start(PushTimeline.Phase.AUTO_CLOSE)) {
+              autoCloseChanges(c, closeProgress);
+            }
             closeProgress.end();
             branches.add(new Branch.NameKey(project.getNameKey(), c.getRefName()));
             break;
@@ -806,8 +823,8 @@ class ReceiveCommits {
       updateGroups.forEach(r -> r.addOps(bu));
 
       logger.atFine().log("Executing batch");
-      try {
-        bu.execute();
+      try (PushTimeline.BatchUpdateTimer timer = timeline.startBatchUpdate()) {
+        bu.execute(timer);
       } catch (UpdateException e) {
         throw INSERT_EXCEPTION.apply(e);
       }
@@ -1908,7 +1925,7 @@ class ReceiveCommits {
 
     BranchCommitValidator validator =
         commitValidatorFactory.create(projectState, changeEnt.getDest(), user);
-    try {
+    try (PushTimeline.Timer timer = timeline.start(PushTimeline.Phase.VALIDATE_COMMITS)) {
       if (validator.validCommit(
           receivePack.getRevWalk().getObjectReader(),
           cmd,
@@ -2003,6 +2020,7 @@ class ReceiveCommits {
         mergedParents = null;
       }
 
+      List<RevCommit> toValidate = new ArrayList<>();
       for (; ; ) {
         RevCommit c = receivePack.getRevWalk().next();
         if (c == null) {
@@ -2075,32 +2093,41 @@ class ReceiveCommits {
           logger.atFine().log("Creating new change for %s even though it is already tracked", name);
         }
 
-        if (!validator.validCommit(
+        toValidate.add(c);
+        if (idList.isEmpty()) {
+          newChanges.add(new CreateRequest(c, magicBranch.dest.get(), newProgress));
+          continue;
+        }
+      }
+
+      try (PushTimeline.Timer timer = timeline.start(PushTimeline.Phase.VALIDATE_COMMITS)) {
+        // Results are applied in walk order, stopping at the first invalid commit.
+        if (!validator.validCommits(
+            repo,
             receivePack.getRevWalk().getObjectReader(),
             magicBranch.cmd,
-            c,
+            toValidate,
             magicBranch.merged,
             messages,
-            rejectCommits,
-            null)) {
+            rejectCommits)) {
           // Not a change the user can propose? Abort as early as possible.
           logger.atFine().log("Aborting early due to invalid commit");
           return Collections.emptyList();
         }
+      }
 
-        // Don't allow merges to be uploaded in commit chain via all-not-in-target
-        if (newChangeForAllNotInTarget && c.getParentCount() > 1) {
-          reject(
-              magicBranch.cmd,
-              "Pushing merges in commit chains with 'all not in target' is not allowed,\n"
-                  + "to override please set the base manually");
-          logger.atFine().log("Rejecting merge commit %s with newChangeForAllNotInTarget", name);
-          // TODO(dborowitz): Should we early return here?
-        }
-
-        if (idList.isEmpty()) {
-          newChanges.add(new CreateRequest(c, magicBranch.dest.get(), newProgress));
-          continue;
+      // Don't allow merges to be uploaded in commit chain via all-not-in-target
+      if (newChangeForAllNotInTarget) {
+        for (RevCommit c : toValidate) {
+          if (c.getParentCount() > 1) {
+            reject(
+                magicBranch.cmd,
+                "Pushing merges in commit chains with 'all not in target' is not allowed,\n"
+                    + "to override please set the base manually");
+            logger.atFine().log(
+                "Rejecting merge commit %s with newChangeForAllNotInTarget", c.name());
+            // TODO(dborowitz): Should we early return here?
+          }
         }
       }
       logger.atFine().log(
@@ -3043,7 +3070,7 @@ class ReceiveCommits {
     RevWalk walk = receivePack.getRevWalk();
     walk.reset();
     walk.sort(RevSort.NONE);
-    try {
+    try (PushTimeline.Timer timer = timeline.start(PushTimeline.Phase.VALIDATE_COMMITS)) {
       RevObject parsedObject = walk.parseAny(cmd.getNewId());
       if (!(parsedObject instanceof RevCommit)) {
         return;
@@ -3053,24 +3080,26 @@ class ReceiveCommits {
       markHeadsAsUninteresting(walk, cmd.getRefName());
       int limit = receiveConfig.maxBatchCommits;
       int n = 0;
+      List<RevCommit> toValidate = new ArrayList<>();
       for (RevCommit c; (c = walk.next()) != null; ) {
         if (++n > limit) {
           logger.atFine().log("Number of new commits exceeds limit of %d", limit);
-          reject(
-              cmd,
-              String.format(
-                  "more than %d commits, and %s not set", limit, PUSH_OPTION_SKIP_VALIDATION));
+          if (validator.validCommits(
+              repo, walk.getObjectReader(), cmd, toValidate, false, messages, rejectCommits)) {
+            reject(
+                cmd,
+                String.format(
+                    "more than %d commits, and %s not set", limit, PUSH_OPTION_SKIP_VALIDATION));
+          }
           return;
         }
         if (existing.keySet().contains(c)) {
           continue;
         }
-
-        if (!validator.validCommit(
-            walk.getObjectReader(), cmd, c, false, messages, rejectCommits, null)) {
-          break;
-        }
+        toValidate.add(c);
       }
+      validator.validCommits(
+          repo, walk.getObjectReader(), cmd, toValidate, false, messages, rejectCommits);
       logger.atFine().log("Validated %d new commits", n);
     } catch (IOException err) {
       cmd.setResult(REJECTED_MISSING_OBJECT);
@@ -19,38 +19,50 @@ import static com.google.common.util.concurrent.Futures.successfulAsList;
 import static com.google.common.util.concurrent.Futures.transform;
 import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
 import static com.google.gerrit.server.git.QueueProvider.QueueType.BATCH;
+import static java.util.Comparator.comparingInt;
+import static java.util.Comparator.reverseOrder;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.stream.Collectors.toList;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Stopwatch;
-import com.google.common.collect.ComparisonChain;
 import com.google.common.flogger.FluentLogger;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.gerrit.common.Nullable;
 import com.google.gerrit.index.SiteIndexer;
 import com.google.gerrit.reviewdb.client.Change;
 import com.google.gerrit.reviewdb.client.Project;
-import com.google.gerrit.reviewdb.client.RefNames;
 import com.google.gerrit.reviewdb.server.ReviewDb;
+import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.git.GitRepositoryManager;
 import com.google.gerrit.server.git.MultiProgressMonitor;
 import com.google.gerrit.server.git.MultiProgressMonitor.Task;
 import com.google.gerrit.server.index.IndexExecutor;
+import com.google.gerrit.server.index.change.ReindexCheckpoint.Slice;
 import com.google.gerrit.server.notedb.ChangeNotes;
 import com.google.gerrit.server.notedb.ChangeNotes.Factory.ChangeNotesResult;
+import com.google.gerrit.server.notedb.ChangeNotes.Factory.ScanResult;
+import com.google.gerrit.server.notedb.ChangeNotesSnapshot;
 import com.google.gerrit.server.project.ProjectCache;
 import com.google.gerrit.server.query.change.ChangeData;
 import com.google.gwtorm.server.SchemaFactory;
 import com.google.inject.Inject;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Objects;
-import java.util.SortedSet;
-import java.util.TreeSet;
+import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import org.eclipse.jgit.errors.RepositoryNotFoundException;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.NullProgressMonitor;
 import org.eclipse.jgit.lib.ProgressMonitor;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.lib.TextProgressMonitor;
@@ -58,6 +70,8 @@ import org.eclipse.jgit.lib.TextProgressMonitor;
 public class AllChangesIndexer extends SiteIndexer<Change.Id, ChangeData, ChangeIndex> {
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
+  private static final int DEFAULT_SLICE_SIZE = 10_000;
+
   private final SchemaFactory<ReviewDb> schemaFactory;
   private final ChangeData.Factory changeDataFactory;
   private final GitRepositoryManager repoManager;
@@ -65,6 +79,10 @@ public class AllChangesIndexer extends SiteIndexer<Change.Id, ChangeData, Change
   private final ChangeIndexer.Factory indexerFactory;
   private final ChangeNotes.Factory notesFactory;
   private final ProjectCache projectCache;
+  private final int sliceSize;
+
+  private ChangeNotesSnapshot.Writer changeNotesSnapshot;
+  private ReindexCheckpoint checkpoint;
 
   @Inject
   AllChangesIndexer(
@@ -74,7 +92,8 @@ public class AllChangesIndexer extends SiteIndexer<Change.Id, ChangeData, Change
       @IndexExecutor(BATCH) ListeningExecutorService executor,
       ChangeIndexer.Factory indexerFactory,
       ChangeNotes.Factory notesFactory,
-      ProjectCache projectCache) {
+      ProjectCache projectCache,
+      @GerritServerConfig Config cfg) {
     this.schemaFactory = schemaFactory;
     this.changeDataFactory = changeDataFactory;
     this.repoManager = repoManager;
@@ -82,24 +101,34 @@ public class AllChangesIndexer extends SiteIndexer<Change.Id, ChangeData, Change
     this.indexerFactory = indexerFactory;
     this.notesFactory = notesFactory;
     this.projectCache = projectCache;
+    this.sliceSize = Math.max(1, cfg.getInt("index", null, "reindexSliceSize", DEFAULT_SLICE_SIZE));
+  }
+
+  /** Adds the notes of every change read for indexing to the given snapshot. */
+  public void setChangeNotesSnapshot(@Nullable ChangeNotesSnapshot.Writer snapshot) {
+    changeNotesSnapshot = snapshot;
   }
 
-  private static class ProjectHolder implements Comparable<ProjectHolder> {
-    final Project.NameKey name;
-    private final long size;
+  /** Skips the slices completed by a previous run and records the slices completed by this one. */
+  public void setCheckpoint(@Nullable ReindexCheckpoint checkpoint) {
+    this.checkpoint = checkpoint;
+  }
+
+  /** Progress of the slices of a single project. */
+  private static class ProjectProgress {
+    private final AtomicInteger remainingSlices = new AtomicInteger();
+    private final AtomicInteger changes = new AtomicInteger();
+    private final AtomicLong startNanos = new AtomicLong();
+    private int size;
 
-    ProjectHolder(Project.NameKey name, long size) {
-      this.name = name;
-      this.size = size;
+    void start() {
+      startNanos.compareAndSet(0, System.nanoTime());
     }
 
-    @Override
-    public int compareTo(ProjectHolder other) {
-      // Sort projects based on size first to maximize utilization of threads early on.
-      return ComparisonChain.start()
-          .compare(other.size, size)
-          .compare(other.name.get(), name.get())
-          .result();
+    /** Returns whether this was the last slice of the project. */
+    boolean finish(int indexed) {
+      changes.addAndGet(indexed);
+      return remainingSlices.decrementAndGet() == 0;
     }
   }
 
@@ -107,19 +136,40 @@ public class AllChangesIndexer extends SiteIndexer<Change.Id, ChangeData, Change
   public Result indexAll(ChangeIndex index) {
     ProgressMonitor pm = new TextProgressMonitor();
     pm.beginTask("Collecting projects", ProgressMonitor.UNKNOWN);
-    SortedSet<ProjectHolder> projects = new TreeSet<>();
+    List<Slice> slices = new ArrayList<>();
+    Map<Slice, ScanResult> scans = new HashMap<>();
     int changeCount = 0;
+    int skippedSlices = 0;
+    int skippedChanges = 0;
     Stopwatch sw = Stopwatch.createStarted();
+    int projectsCollected = 0;
     int projectsFailed = 0;
     for (Project.NameKey name : projectCache.all()) {
       try (Repository repo = repoManager.openRepository(name)) {
-        long size = estimateSize(repo);
-        changeCount += size;
-        projects.add(new ProjectHolder(name, size));
+        // Scan the refs only once per project; each slice loads the changes of its own IDs.
+        ScanResult sr = ChangeNotes.Factory.scanChangeIds(repo);
+        int[] ids = sr.all().stream().mapToInt(Change.Id::get).sorted().toArray();
+        int offset = 0;
+        for (Slice slice : slice(name, ids)) {
+          int end = offset + slice.size();
+          if (checkpoint != null && checkpoint.isDone(slice)) {
+            skippedSlices++;
+            skippedChanges += slice.size();
+          } else {
+            changeCount += slice.size();
+            slices.add(slice);
+            scans.put(
+                slice,
+                sr.subset(
+                    Arrays.stream(ids, offset, end).mapToObj(Change.Id::new).collect(toList())));
+          }
+          offset = end;
+        }
+        projectsCollected++;
       } catch (IOException e) {
         logger.atSevere().withCause(e).log("Error collecting project %s", name);
         projectsFailed++;
-        if (projectsFailed > projects.size() / 2) {
+        if (projectsFailed > projectsCollected / 2) {
           logger.atSevere().log("Over 50%% of the projects could not be collected: aborted");
           return new Result(sw, false, 0, 0);
         }
@@ -127,24 +177,56 @@ public class AllChangesIndexer extends SiteIndexer<Change.Id, ChangeData, Change
       pm.update(1);
     }
     pm.endTask();
+    if (skippedSlices > 0) {
+      logger.atInfo().log(
+          "Skipping %d slices with %d changes reindexed by a previous run",
+          skippedSlices, skippedChanges);
+    }
     setTotalWork(changeCount);
-    return indexAll(index, projects);
+
+    // Sort slices based on size first to maximize utilization of threads early on. Since large
+    // projects are split into slices of equal size, no single project becomes a long straggler;
+    // idle threads pick up the remaining slices of large projects from the shared queue.
+    slices.sort(
+        comparingInt(Slice::size)
+            .reversed()
+            .thenComparing(s -> s.project().get(), reverseOrder())
+            .thenComparingInt(Slice::from));
+    return indexAll(index, slices, scans);
   }
 
-  private long estimateSize(Repository repo) throws IOException {
-    // Estimate size based on IDs that show up in ref names. This is not perfect, since patch set
-    // refs may exist for changes whose metadata was never successfully stored. But that's ok, as
-    // the estimate is just used as a heuristic for sorting projects.
-    return repo.getRefDatabase()
-        .getRefsByPrefix(RefNames.REFS_CHANGES)
-        .stream()
-        .map(r -> Change.Id.fromRef(r.getName()))
-        .filter(Objects::nonNull)
-        .distinct()
-        .count();
+  /**
+   * Splits the changes of a project into slices of at most {@code index.reindexSliceSize} changes.
+   * Slice {@code i} starts at {@code ids[i * sliceSize]}; the first and the last slice are
+   * open-ended.
+   *
+   * @param ids sorted, distinct change IDs of the project.
+   */
+  @VisibleForTesting
+  static List<Slice> slice(Project.NameKey project, int[] ids, int sliceSize) {
+    int n = Math.max(1, (ids.length + sliceSize - 1) / sliceSize);
+    List<Slice> slices = new ArrayList<>(n);
+    for (int i = 0; i < n; i++) {
+      int from = i == 0 ? 0 : ids[i * sliceSize];
+      int to = i == n - 1 ? Integer.MAX_VALUE : ids[(i + 1) * sliceSize];
+      slices.add(Slice.create(project, from, to, Math.min(sliceSize, ids.length - i * sliceSize)));
+    }
+    return slices;
   }
 
-  private SiteIndexer.Result indexAll(ChangeIndex index, SortedSet<ProjectHolder> projects) {
+  private List<Slice> slice(Project.NameKey project, int[] ids) {
+    return slice(project, ids, sliceSize);
+  }
+
+  private SiteIndexer.Result indexAll(
+      ChangeIndex index, List<Slice> slices, Map<Slice, ScanResult> scans) {
+    Map<Project.NameKey, ProjectProgress> projects = new HashMap<>();
+    for (Slice slice : slices) {
+      ProjectProgress p = projects.computeIfAbsent(slice.project(), k -> new ProjectProgress());
+      p.remainingSlices.incrementAndGet();
+      p.size += slice.size();
+    }
+
     Stopwatch sw = Stopwatch.createStarted();
     MultiProgressMonitor mpm = new MultiProgressMonitor(progressOut, "Reindexing changes");
     Task projTask = mpm.beginSubTask("projects", projects.size());
@@ -155,12 +237,35 @@ public class AllChangesIndexer extends SiteIndexer<Change.Id, ChangeData, Change
     List<ListenableFuture<?>> futures = new ArrayList<>();
     AtomicBoolean ok = new AtomicBoolean(true);
 
-    for (ProjectHolder project : projects) {
+    for (Slice slice : slices) {
+      ProjectProgress p = projects.get(slice.project());
+      ProjectIndexer indexer =
+          new ProjectIndexer(
+              indexerFactory.create(executor, index),
+              slice.project(),
+              scans.remove(slice),
+              doneTask,
+              failedTask);
       ListenableFuture<?> future =
           executor.submit(
-              reindexProject(
-                  indexerFactory.create(executor, index), project.name, doneTask, failedTask));
-      addErrorListener(future, "project " + project.name, projTask, ok);
+              () -> {
+                p.start();
+                try {
+                  indexer.call();
+                  if (indexer.failures == 0) {
+                    checkpoint(index, slice);
+                  }
+                } finally {
+                  if (p.finish(indexer.indexed)) {
+                    synchronized (projTask) {
+                      projTask.update(1);
+                    }
+                    report(slice.project(), p, sw, doneTask, failedTask);
+                  }
+                }
+                return null;
+              });
+      addErrorListener(future, "project " + slice.project(), NullProgressMonitor.INSTANCE, ok);
       futures.add(future);
     }
 
@@ -177,6 +282,9 @@ public class AllChangesIndexer extends SiteIndexer<Change.Id, ChangeData, Change
       logger.atSevere().withCause(e).log("Error in batch indexer");
       ok.set(false);
     }
+    if (checkpoint != null) {
+      commitCheckpoint(index);
+    }
     // If too many changes failed, maybe there was a bug in the indexer. Don't
     // trust the results. This is not an exact percentage since we bump the same
     // failure counter if a project can't be read, but close enough.
@@ -193,24 +301,72 @@ public class AllChangesIndexer extends SiteIndexer<Change.Id, ChangeData, Change
     return new Result(sw, ok.get(), nDone, nFailed);
   }
 
+  private void checkpoint(ChangeIndex index, Slice slice) {
+    if (checkpoint != null && checkpoint.add(slice)) {
+      commitCheckpoint(index);
+    }
+  }
+
+  private void commitCheckpoint(ChangeIndex index) {
+    try {
+      checkpoint.commit(index);
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Failed to write reindex checkpoint");
+    }
+  }
+
+  private void report(
+      Project.NameKey project, ProjectProgress p, Stopwatch sw, Task done, Task failed) {
+    double secs = (System.nanoTime() - p.startNanos.get()) / 1e9;
+    int processed = done.getCount() + failed.getCount();
+    double rate = processed / Math.max(sw.elapsed(MILLISECONDS) / 1000d, 0.001);
+    long etaSecs = rate > 0 ? Math.round(Math.max(totalWork - processed, 0) / rate) : 0;
+    String msg =
+        String.format(
+            "Reindexed %d changes of project %s in %.1fs (%.1f changes/s);"
+                + " %d of %d changes done, ETA %dh%02dm%02ds",
+            p.changes.get(),
+            project,
+            secs,
+            p.changes.get() / Math.max(secs, 0.001),
+            processed,
+            totalWork,
+            etaSecs / 3600,
+            (etaSecs / 60) % 60,
+            etaSecs % 60);
+    // Only large projects, i.e. those split into several slices, are worth mentioning by default.
+    if (p.size >= sliceSize) {
+      logger.atInfo().log(msg);
+    } else {
+      logger.atFine().log(msg);
+    }
+  }
+
   public Callable<Void> reindexProject(
       ChangeIndexer indexer, Project.NameKey project, Task done, Task failed) {
-    return new ProjectIndexer(indexer, project, done, failed);
+    return new ProjectIndexer(indexer, project, null, done, failed);
   }
 
   private class ProjectIndexer implements Callable<Void> {
     private final ChangeIndexer indexer;
     private final Project.NameKey project;
+    @Nullable private final ScanResult scan;
     private final ProgressMonitor done;
     private final ProgressMonitor failed;
 
+    // Only accessed by the thread running this indexer, or after it completed.
+    private int indexed;
+    private int failures;
+
     private ProjectIndexer(
         ChangeIndexer indexer,
         Project.NameKey project,
+        @Nullable ScanResult scan,
         ProgressMonitor done,
         ProgressMonitor failed) {
       this.indexer = indexer;
       this.project = project;
+      this.scan = scan;
       this.done = done;
       this.failed = failed;
     }
@@ -224,7 +380,8 @@ public class AllChangesIndexer extends SiteIndexer<Change.Id, ChangeData, Change
         // It does mean that reindexing after invalidating the DiffSummary cache will be expensive,
         // but the goal is to invalidate that cache as infrequently as we possibly can. And besides,
         // we don't have concrete proof that improving packfile locality would help.
-        notesFactory.scan(repo, db, project).forEach(r -> index(db, r));
+        (scan != null ? notesFactory.scan(db, project, scan) : notesFactory.scan(repo, db, project))
+            .forEach(r -> index(db, r));
       } catch (RepositoryNotFoundException rnfe) {
         logger.atSevere().log(rnfe.getMessage());
       }
@@ -238,7 +395,11 @@ public class AllChangesIndexer extends SiteIndexer<Change.Id, ChangeData, Change
       }
       try {
         indexer.index(changeDataFactory.create(db, r.notes()));
+        if (changeNotesSnapshot != null) {
+          changeNotesSnapshot.add(r.notes());
+        }
         done.update(1);
+        indexed++;
         verboseWriter.println("Reindexed change " + r.id());
       } catch (RejectedExecutionException e) {
         // Server shutdown, don't spam the logs.
@@ -251,6 +412,7 @@ public class AllChangesIndexer extends SiteIndexer<Change.Id, ChangeData, Change
     private void fail(String error, boolean failed, Exception e) {
       if (failed) {
         this.failed.update(1);
+        failures++;
       }
 
       logger.atWarning().withCause(e).log(error);
@@ -259,6 +421,7 @@ public class AllChangesIndexer extends SiteIndexer<Change.Id, ChangeData, Change
 
     private void failSilently() {
       this.failed.update(1);
+      failures++;
     }
 
     @Override
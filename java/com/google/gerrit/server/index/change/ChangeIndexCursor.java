@@ -0,0 +1,65 @@
+// Copyright (C) 2019 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.index.change;
+
+import com.google.auto.value.AutoValue;
+import com.google.gerrit.index.query.QueryParseException;
+import com.google.gerrit.server.query.change.ChangeData;
+import com.google.gwtorm.server.OrmException;
+
+/**
+ * Position of a change in the results of a change index query, for search-after pagination.
+ *
+ * <p>Change queries are sorted by descending {@link ChangeField#UPDATED} and then by descending
+ * {@link ChangeField#LEGACY_ID}, so these two values identify the position of a change. A query
+ * resumed from a cursor returns the changes that sort strictly after it.
+ *
+ * <p>Cursors are passed to and from clients in a compact, opaque string form.
+ */
+@AutoValue
+public abstract class ChangeIndexCursor {
+  private static final int LENGTH = 24;
+
+  public static ChangeIndexCursor create(long updated, int changeId) {
+    return new AutoValue_ChangeIndexCursor(updated, changeId);
+  }
+
+  public static ChangeIndexCursor create(ChangeData cd) throws OrmException {
+    return create(cd.change().getLastUpdatedOn().getTime(), cd.getId().get());
+  }
+
+  public static ChangeIndexCursor parse(String str) throws QueryParseException {
+    if (str.length() != LENGTH) {
+      throw new QueryParseException("Invalid search-after cursor: " + str);
+    }
+    try {
+      return create(
+          Long.parseUnsignedLong(str.substring(0, 16), 16),
+          Integer.parseUnsignedInt(str.substring(16), 16));
+    } catch (NumberFormatException e) {
+      throw new QueryParseException("Invalid search-after cursor: " + str, e);
+    }
+  }
+
+  /** Last update time of the change, in milliseconds since the epoch. */
+  public abstract long updated();
+
+  public abstract int changeId();
+
+  /** Returns the string form of this cursor, as accepted by {@link #parse(String)}. */
+  public String format() {
+    return String.format("%016x%08x", updated(), changeId());
+  }
+}
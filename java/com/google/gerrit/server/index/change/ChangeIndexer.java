@@ -16,6 +16,8 @@ package com.google.gerrit.server.index.change;
 
 import static com.google.gerrit.server.git.QueueProvider.QueueType.BATCH;
 
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
 import com.google.common.flogger.FluentLogger;
 import com.google.common.util.concurrent.Atomics;
 import com.google.common.util.concurrent.Futures;
@@ -52,7 +54,9 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicReference;
@@ -243,6 +247,42 @@ public class ChangeIndexer {
     index(newChangeData(db, change));
   }
 
+  /**
+   * Synchronously index multiple changes of one project.
+   *
+   * <p>Like calling {@link #index(ReviewDb, Change)} for each change, except that the changes are
+   * double-checked for staleness with a single batch check after all of them have been indexed. A
+   * change that fails to index doesn't keep the remaining changes from being indexed; the first
+   * failure is rethrown once all changes have been processed.
+   *
+   * @param db review database.
+   * @param project the project to which the changes belong.
+   * @param changes changes to index.
+   */
+  public void index(ReviewDb db, Project.NameKey project, Collection<Change> changes)
+      throws IOException, OrmException {
+    List<Change.Id> indexed = new ArrayList<>(changes.size());
+    Exception failure = null;
+    for (Change change : changes) {
+      try {
+        indexImpl(newChangeData(db, change));
+        indexed.add(change.getId());
+      } catch (IOException | OrmException | RuntimeException e) {
+        if (failure == null) {
+          failure = e;
+        } else {
+          failure.addSuppressed(e);
+        }
+      }
+    }
+    autoReindexIfStale(project, indexed);
+    if (failure != null) {
+      Throwables.throwIfInstanceOf(failure, OrmException.class);
+      Throwables.throwIfUnchecked(failure);
+      throw (IOException) failure;
+    }
+  }
+
   /**
    * Synchronously index a change.
    *
@@ -291,6 +331,24 @@ public class ChangeIndexer {
     return submit(new ReindexIfStaleTask(project, id), batchExecutor);
   }
 
+  /**
+   * Asynchronously check if changes are stale, and reindex those that are.
+   *
+   * <p>Like {@link #reindexIfStale(Project.NameKey, Change.Id)}, but checks all changes with one
+   * {@link StalenessChecker#staleChanges(Collection)} call. Always run on the batch executor, even
+   * if this indexer instance is configured to use a different executor.
+   *
+   * @param project the project to which the changes belong.
+   * @param ids IDs of the changes to index.
+   * @return future for reindexing the changes; returns the IDs of the changes that were stale and
+   *     got reindexed.
+   */
+  @SuppressWarnings("deprecation")
+  public com.google.common.util.concurrent.CheckedFuture<Set<Change.Id>, IOException>
+      reindexIfStale(Project.NameKey project, Collection<Change.Id> ids) {
+    return submit(new ReindexIfStaleBatchTask(project, ids), batchExecutor);
+  }
+
   private void autoReindexIfStale(ChangeData cd) {
     autoReindexIfStale(cd.project(), cd.getId());
   }
@@ -303,6 +361,14 @@ public class ChangeIndexer {
     }
   }
 
+  private void autoReindexIfStale(Project.NameKey project, Collection<Change.Id> ids) {
+    if (autoReindexIfStale && !ids.isEmpty()) {
+      // Don't retry indefinitely; if this fails the changes will be stale.
+      @SuppressWarnings("unused")
+      Future<?> possiblyIgnoredError = reindexIfStale(project, ids);
+    }
+  }
+
   private Collection<ChangeIndex> getWriteIndexes() {
     return indexes != null ? indexes.getWriteIndexes() : Collections.singleton(index);
   }
@@ -322,11 +388,9 @@ public class ChangeIndexer {
 
   private abstract class AbstractIndexTask<T> implements Callable<T> {
     protected final Project.NameKey project;
-    protected final Change.Id id;
 
-    protected AbstractIndexTask(Project.NameKey project, Change.Id id) {
+    protected AbstractIndexTask(Project.NameKey project) {
       this.project = project;
-      this.id = id;
     }
 
     protected abstract T callImpl(Provider<ReviewDb> db) throws Exception;
@@ -377,8 +441,11 @@ public class ChangeIndexer {
   }
 
   private class IndexTask extends AbstractIndexTask<Void> {
+    private final Change.Id id;
+
     private IndexTask(Project.NameKey project, Change.Id id) {
-      super(project, id);
+      super(project);
+      this.id = id;
     }
 
     @Override
@@ -421,8 +488,11 @@ public class ChangeIndexer {
   }
 
   private class ReindexIfStaleTask extends AbstractIndexTask<Boolean> {
+    private final Change.Id id;
+
     private ReindexIfStaleTask(Project.NameKey project, Change.Id id) {
-      super(project, id);
+      super(project);
+      this.id = id;
     }
 
     @Override
@@ -451,6 +521,41 @@ public class ChangeIndexer {
     }
   }
 
+  private class ReindexIfStaleBatchTask extends AbstractIndexTask<Set<Change.Id>> {
+    private final ImmutableList<Change.Id> ids;
+
+    private ReindexIfStaleBatchTask(Project.NameKey project, Collection<Change.Id> ids) {
+      super(project);
+      this.ids = ImmutableList.copyOf(ids);
+    }
+
+    @Override
+    public Set<Change.Id> callImpl(Provider<ReviewDb> db) throws Exception {
+      Set<Change.Id> reindexed = new HashSet<>();
+      for (Change.Id id : stalenessChecker.staleChanges(ids)) {
+        try {
+          indexImpl(newChangeData(db.get(), project, id));
+          reindexed.add(id);
+        } catch (NoSuchChangeException nsce) {
+          logger.atFine().log("Change %s was deleted, aborting reindexing the change.", id.get());
+        } catch (Exception e) {
+          if (!isCausedByRepositoryNotFoundException(e)) {
+            throw e;
+          }
+          logger.atFine().log(
+              "Project %s was deleted, aborting reindexing its changes.", project.get());
+          break;
+        }
+      }
+      return reindexed;
+    }
+
+    @Override
+    public String toString() {
+      return "reindex-if-stale-changes-" + ids.size() + "-of-" + project.get();
+    }
+  }
+
   private boolean isCausedByRepositoryNotFoundException(Throwable throwable) {
     while (throwable != null) {
       if (throwable instanceof RepositoryNotFoundException) {
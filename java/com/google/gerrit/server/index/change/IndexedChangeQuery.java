@@ -29,6 +29,7 @@ import com.google.gerrit.index.query.IndexPredicate;
 import com.google.gerrit.index.query.Matchable;
 import com.google.gerrit.index.query.Predicate;
 import com.google.gerrit.index.query.QueryParseException;
+import com.google.gerrit.index.query.SearchAfterResultSet;
 import com.google.gerrit.reviewdb.client.Change;
 import com.google.gerrit.server.query.change.ChangeData;
 import com.google.gerrit.server.query.change.ChangeDataSource;
@@ -69,7 +70,8 @@ public class IndexedChangeQuery extends IndexedQuery<Change.Id, ChangeData>
   static QueryOptions convertOptions(QueryOptions opts) {
     opts = opts.convertForBackend();
     return IndexedChangeQuery.createOptions(
-        opts.config(), opts.start(), opts.limit(), opts.fields());
+            opts.config(), opts.start(), opts.limit(), opts.fields())
+        .withSearchAfter(opts.searchAfter());
   }
 
   private final Map<ChangeData, DataSource<ChangeData>> fromSource;
@@ -85,7 +87,7 @@ public class IndexedChangeQuery extends IndexedQuery<Change.Id, ChangeData>
     final DataSource<ChangeData> currSource = source;
     final ResultSet<ChangeData> rs = currSource.read();
 
-    return new ResultSet<ChangeData>() {
+    return new SearchAfterResultSet<ChangeData>() {
       @Override
       public Iterator<ChangeData> iterator() {
         return Iterables.transform(
@@ -106,6 +108,11 @@ public class IndexedChangeQuery extends IndexedQuery<Change.Id, ChangeData>
         return r;
       }
 
+      @Override
+      public Object searchAfter() {
+        return SearchAfterResultSet.searchAfter(rs);
+      }
+
       @Override
       public void close() {
         rs.close();
@@ -16,7 +16,9 @@ package com.google.gerrit.server.index.change;
 
 import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
 import static com.google.gerrit.server.query.change.ChangeData.asChanges;
+import static java.util.stream.Collectors.toList;
 
+import com.google.common.collect.Lists;
 import com.google.common.flogger.FluentLogger;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
@@ -29,6 +31,7 @@ import com.google.gerrit.reviewdb.client.Project;
 import com.google.gerrit.reviewdb.client.RefNames;
 import com.google.gerrit.reviewdb.server.ReviewDb;
 import com.google.gerrit.server.account.AccountCache;
+import com.google.gerrit.server.change.MergeabilityPrecomputer;
 import com.google.gerrit.server.config.AllUsersName;
 import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.git.QueueProvider.QueueType;
@@ -44,6 +47,7 @@ import com.google.gwtorm.server.OrmException;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Future;
@@ -52,6 +56,14 @@ import org.eclipse.jgit.lib.Config;
 public class ReindexAfterRefUpdate implements GitReferenceUpdatedListener {
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
+  /**
+   * Number of changes reindexed by a single task.
+   *
+   * <p>Large enough to make the staleness check after indexing cheap, small enough to spread the
+   * changes of a busy branch over all batch indexing threads.
+   */
+  private static final int BATCH_SIZE = 100;
+
   private final OneOffRequestContext requestContext;
   private final Provider<InternalChangeQuery> queryProvider;
   private final ChangeIndexer.Factory indexerFactory;
@@ -62,6 +74,7 @@ public class ReindexAfterRefUpdate implements GitReferenceUpdatedListener {
   private final Provider<AccountIndexer> indexer;
   private final ListeningExecutorService executor;
   private final boolean enabled;
+  private final boolean precomputeMergeability;
 
   @Inject
   ReindexAfterRefUpdate(
@@ -85,6 +98,7 @@ public class ReindexAfterRefUpdate implements GitReferenceUpdatedListener {
     this.indexer = indexer;
     this.executor = executor;
     this.enabled = cfg.getBoolean("index", null, "reindexAfterRefUpdate", true);
+    this.precomputeMergeability = MergeabilityPrecomputer.isEnabled(cfg);
   }
 
   @Override
@@ -107,15 +121,21 @@ public class ReindexAfterRefUpdate implements GitReferenceUpdatedListener {
         || event.getRefName().startsWith(RefNames.REFS_USERS)) {
       return;
     }
+    if (precomputeMergeability && event.getRefName().startsWith(RefNames.REFS_HEADS)) {
+      // MergeabilityPrecomputer reindexes the open changes of updated branches.
+      return;
+    }
     Futures.addCallback(
         executor.submit(new GetChanges(event)),
         new FutureCallback<List<Change>>() {
           @Override
           public void onSuccess(List<Change> changes) {
-            for (Change c : changes) {
+            for (List<Change> batch : Lists.partition(changes, BATCH_SIZE)) {
               // Don't retry indefinitely; if this fails changes may be stale.
               @SuppressWarnings("unused")
-              Future<?> possiblyIgnoredError = executor.submit(new Index(event, c.getId()));
+              Future<?> possiblyIgnoredError =
+                  executor.submit(
+                      new Index(event, batch.stream().map(Change::getId).collect(toList())));
             }
           }
 
@@ -172,32 +192,40 @@ public class ReindexAfterRefUpdate implements GitReferenceUpdatedListener {
   }
 
   private class Index extends Task<Void> {
-    private final Change.Id id;
+    private final List<Change.Id> ids;
 
-    Index(Event event, Change.Id id) {
+    Index(Event event, List<Change.Id> ids) {
       super(event);
-      this.id = id;
+      this.ids = ids;
     }
 
     @Override
     protected Void impl(RequestContext ctx) throws OrmException, IOException {
-      // Reload change, as some time may have passed since GetChanges.
+      // Reload changes, as some time may have passed since GetChanges.
       ReviewDb db = ctx.getReviewDbProvider().get();
-      try {
-        Change c =
-            notesFactory
-                .createChecked(db, new Project.NameKey(event.getProjectName()), id)
-                .getChange();
-        indexerFactory.create(executor, indexes).index(db, c);
-      } catch (NoSuchChangeException e) {
-        indexerFactory.create(executor, indexes).delete(id);
+      Project.NameKey project = new Project.NameKey(event.getProjectName());
+      ChangeIndexer indexer = indexerFactory.create(executor, indexes);
+      List<Change> changes = new ArrayList<>(ids.size());
+      for (Change.Id id : ids) {
+        try {
+          changes.add(notesFactory.createChecked(db, project, id).getChange());
+        } catch (NoSuchChangeException e) {
+          indexer.delete(id);
+        } catch (OrmException | RuntimeException e) {
+          // Don't let one change keep the rest of the batch from being indexed.
+          logger.atWarning().withCause(e).log("Failed to load change %s of %s", id, project);
+        }
       }
+      indexer.index(db, project, changes);
       return null;
     }
 
     @Override
     public String toString() {
-      return "Index change " + id.get() + " of project " + event.getProjectName();
+      if (ids.size() == 1) {
+        return "Index change " + ids.get(0).get() + " of project " + event.getProjectName();
+      }
+      return "Index " + ids.size() + " changes of project " + event.getProjectName();
     }
   }
 }
@@ -0,0 +1,235 @@
+// Copyright (C) 2019 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.index.change;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Splitter;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.index.Index;
+import com.google.gerrit.reviewdb.client.Change;
+import com.google.gerrit.reviewdb.client.Project;
+import com.google.gerrit.server.config.SitePaths;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Record of the changes already reindexed by an offline reindex, used to resume it after a crash.
+ *
+ * <p>{@link AllChangesIndexer} reindexes the changes of each project in slices of consecutive
+ * change IDs. A slice is added to the checkpoint once all its changes were indexed without
+ * failures. The index is flushed before the completed slices are appended to the checkpoint file,
+ * which happens every few minutes, so the file never lists a slice whose documents may still be
+ * lost.
+ *
+ * <p>The file has one line per completed slice: project name, first change ID, end change ID
+ * (exclusive) and number of changes, separated by tabs.
+ */
+public class ReindexCheckpoint implements AutoCloseable {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private static final long COMMIT_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(5);
+
+  /** Range of change IDs of a project that is reindexed as one unit. */
+  @AutoValue
+  public abstract static class Slice {
+    static Slice create(Project.NameKey project, int from, int to, int size) {
+      return new AutoValue_ReindexCheckpoint_Slice(project, from, to, size);
+    }
+
+    public abstract Project.NameKey project();
+
+    /** First change ID of the slice. */
+    public abstract int from();
+
+    /** End of the slice, exclusive. */
+    public abstract int to();
+
+    /** Number of changes in the slice when it was created. */
+    public abstract int size();
+
+    boolean contains(Change.Id id) {
+      return id.get() >= from() && id.get() < to();
+    }
+  }
+
+  /** Returns the location of the checkpoint of reindexing an index version. */
+  public static Path getPath(SitePaths site, String indexName, int version) {
+    return site.index_dir.resolve(String.format("reindex_%s_%04d.checkpoint", indexName, version));
+  }
+
+  /**
+   * Opens a checkpoint.
+   *
+   * @param path location of the checkpoint file.
+   * @param resume whether to keep the slices completed by a previous run. If false, an existing
+   *     file is truncated.
+   * @return the checkpoint.
+   * @throws IOException if the file can't be read or created.
+   */
+  public static ReindexCheckpoint open(Path path, boolean resume) throws IOException {
+    return open(path, resume, Ticker.systemTicker());
+  }
+
+  @VisibleForTesting
+  static ReindexCheckpoint open(Path path, boolean resume, Ticker ticker) throws IOException {
+    Set<Slice> done = new HashSet<>();
+    FileChannel out = FileChannel.open(path, CREATE, WRITE);
+    try {
+      long valid = 0;
+      if (resume) {
+        byte[] content = Files.readAllBytes(path);
+        for (int start = 0, end; (end = indexOf(content, '\n', start)) >= 0; start = end + 1) {
+          String line = new String(content, start, end - start, UTF_8);
+          Slice slice = parse(line);
+          if (slice != null) {
+            done.add(slice);
+          } else {
+            logger.atWarning().log("Ignoring invalid line in %s: %s", path, line);
+          }
+          valid = end + 1;
+        }
+      }
+      // Drop everything after the last complete line, e.g. a line torn by a crash.
+      out.truncate(valid);
+      out.position(valid);
+    } catch (IOException e) {
+      out.close();
+      throw e;
+    }
+    return new ReindexCheckpoint(path, done, out, ticker);
+  }
+
+  private static int indexOf(byte[] b, char c, int start) {
+    for (int i = start; i < b.length; i++) {
+      if (b[i] == c) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  @Nullable
+  private static Slice parse(String line) {
+    List<String> parts = Splitter.on('\t').splitToList(line);
+    if (parts.size() != 4) {
+      return null;
+    }
+    try {
+      return Slice.create(
+          new Project.NameKey(parts.get(0)),
+          Integer.parseInt(parts.get(1)),
+          Integer.parseInt(parts.get(2)),
+          Integer.parseInt(parts.get(3)));
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  private final Path path;
+  private final ImmutableSet<Slice> done;
+  private final int resumedChanges;
+  private final FileChannel out;
+  private final Ticker ticker;
+  private final List<Slice> pending = new ArrayList<>();
+  private long lastCommit;
+
+  private ReindexCheckpoint(Path path, Set<Slice> done, FileChannel out, Ticker ticker) {
+    this.path = path;
+    this.done = ImmutableSet.copyOf(done);
+    this.resumedChanges = done.stream().mapToInt(Slice::size).sum();
+    this.out = out;
+    this.ticker = ticker;
+    this.lastCommit = ticker.read();
+  }
+
+  /** Returns the number of slices completed by a previous run. */
+  public int resumedSlices() {
+    return done.size();
+  }
+
+  /** Returns the number of changes in the slices completed by a previous run. */
+  public int resumedChanges() {
+    return resumedChanges;
+  }
+
+  boolean isDone(Slice slice) {
+    return done.contains(slice);
+  }
+
+  /**
+   * Adds a completed slice.
+   *
+   * @return whether the checkpoint should be committed.
+   */
+  synchronized boolean add(Slice slice) {
+    pending.add(slice);
+    return ticker.read() - lastCommit >= COMMIT_INTERVAL_NANOS;
+  }
+
+  /**
+   * Flushes the index and then appends the slices completed since the last commit to the file.
+   *
+   * @param index index that the slices were written to.
+   * @throws IOException if the index can't be flushed or the file can't be written.
+   */
+  synchronized void commit(Index<?, ?> index) throws IOException {
+    lastCommit = ticker.read();
+    if (pending.isEmpty()) {
+      return;
+    }
+    index.flush();
+    StringBuilder b = new StringBuilder();
+    for (Slice s : pending) {
+      b.append(s.project().get())
+          .append('\t')
+          .append(s.from())
+          .append('\t')
+          .append(s.to())
+          .append('\t')
+          .append(s.size())
+          .append('\n');
+    }
+    Channels.newOutputStream(out).write(b.toString().getBytes(UTF_8));
+    out.force(false);
+    pending.clear();
+  }
+
+  /** Deletes the checkpoint file, e.g. after the reindex completed successfully. */
+  public synchronized void delete() throws IOException {
+    out.close();
+    Files.deleteIfExists(path);
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    out.close();
+  }
+}
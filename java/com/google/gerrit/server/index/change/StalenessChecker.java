@@ -15,14 +15,19 @@
 package com.google.gerrit.server.index.change;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Objects.requireNonNull;
 import static java.util.stream.Collectors.joining;
+import static java.util.stream.Collectors.toList;
 
 import com.google.auto.value.AutoValue;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.ListMultimap;
 import com.google.common.collect.MultimapBuilder;
 import com.google.common.collect.SetMultimap;
@@ -32,10 +37,14 @@ import com.google.common.flogger.FluentLogger;
 import com.google.gerrit.common.Nullable;
 import com.google.gerrit.extensions.restapi.Url;
 import com.google.gerrit.index.IndexConfig;
+import com.google.gerrit.index.QueryOptions;
 import com.google.gerrit.index.RefState;
+import com.google.gerrit.index.query.Predicate;
+import com.google.gerrit.index.query.QueryParseException;
 import com.google.gerrit.reviewdb.client.Change;
 import com.google.gerrit.reviewdb.client.Project;
 import com.google.gerrit.reviewdb.server.ReviewDb;
+import com.google.gerrit.reviewdb.server.ReviewDbUtil;
 import com.google.gerrit.server.UsedAt;
 import com.google.gerrit.server.git.GitRepositoryManager;
 import com.google.gerrit.server.notedb.ChangeNotes;
@@ -46,11 +55,17 @@ import com.google.inject.Inject;
 import com.google.inject.Provider;
 import com.google.inject.Singleton;
 import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.regex.Pattern;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefDatabase;
 import org.eclipse.jgit.lib.Repository;
 
 @Singleton
@@ -105,6 +120,68 @@ public class StalenessChecker {
         parsePatterns(cd));
   }
 
+  /**
+   * Check many changes for staleness at once.
+   *
+   * <p>Gives the same answer as calling {@link #isStale(Change.Id)} for each change, but is much
+   * cheaper for large batches: the indexed ref states are read with one index query per {@code
+   * index.maxTerms} changes, ReviewDb is read in a single batch and every repository is opened only
+   * once, resolving all refs that the changes depend on with one ref database lookup.
+   *
+   * @param ids changes to check.
+   * @return the subset of {@code ids} that are stale, in iteration order of {@code ids}.
+   */
+  public ImmutableSet<Change.Id> staleChanges(Collection<Change.Id> ids)
+      throws IOException, OrmException {
+    ChangeIndex i = indexes.getSearchIndex();
+    if (i == null || ids.isEmpty()) {
+      return ImmutableSet.of(); // No index; caller couldn't do anything if it is stale.
+    }
+    if (!i.getSchema().hasField(ChangeField.REF_STATE)
+        || !i.getSchema().hasField(ChangeField.REF_STATE_PATTERN)) {
+      return ImmutableSet.of(); // Index version not new enough for this check.
+    }
+
+    Map<Change.Id, ChangeData> indexed = readIndexedChanges(i, ids);
+    Map<Change.Id, Change> reviewDbChanges = new HashMap<>();
+    for (Change c : ReviewDbUtil.unwrapDb(db.get()).changes().get(ids)) {
+      reviewDbChanges.put(c.getId(), c);
+    }
+
+    Set<Change.Id> stale = new HashSet<>();
+    Map<Change.Id, SetMultimap<Project.NameKey, RefState>> states = new HashMap<>();
+    Map<Change.Id, ListMultimap<Project.NameKey, RefStatePattern>> patterns = new HashMap<>();
+    for (Change.Id id : ids) {
+      ChangeData cd = indexed.get(id);
+      if (cd == null || reviewDbChangeIsStale(cd.change(), reviewDbChanges.get(id))) {
+        stale.add(id);
+      } else {
+        states.put(id, parseStates(cd));
+        patterns.put(id, parsePatterns(cd));
+      }
+    }
+    stale.addAll(refsAreStale(repoManager, states, patterns));
+    return ids.stream().filter(stale::contains).collect(toImmutableSet());
+  }
+
+  private Map<Change.Id, ChangeData> readIndexedChanges(ChangeIndex i, Collection<Change.Id> ids)
+      throws IOException, OrmException {
+    Map<Change.Id, ChangeData> result = new HashMap<>();
+    for (List<Change.Id> batch : Iterables.partition(ids, indexConfig.maxTerms())) {
+      Predicate<ChangeData> pred =
+          Predicate.or(batch.stream().map(i::keyPredicate).collect(toList()));
+      QueryOptions opts = IndexedChangeQuery.createOptions(indexConfig, 0, batch.size(), FIELDS);
+      try {
+        for (ChangeData cd : i.getSource(pred, opts).read()) {
+          result.put(cd.getId(), cd);
+        }
+      } catch (QueryParseException e) {
+        throw new IOException("Unexpected QueryParseException while checking staleness", e);
+      }
+    }
+    return result;
+  }
+
   @UsedAt(UsedAt.Project.GOOGLE)
   public static boolean isStale(
       GitRepositoryManager repoManager,
@@ -134,6 +211,105 @@ public class StalenessChecker {
     return false;
   }
 
+  /**
+   * Check the ref states of many changes.
+   *
+   * <p>Each repository is opened once, and all refs that any of the changes depend on are looked up
+   * together.
+   *
+   * @return IDs of the changes whose ref states don't match the repositories.
+   */
+  @VisibleForTesting
+  static Set<Change.Id> refsAreStale(
+      GitRepositoryManager repoManager,
+      Map<Change.Id, SetMultimap<Project.NameKey, RefState>> states,
+      Map<Change.Id, ListMultimap<Project.NameKey, RefStatePattern>> patterns) {
+    SetMultimap<Project.NameKey, String> refNames =
+        MultimapBuilder.hashKeys().hashSetValues().build();
+    SetMultimap<Project.NameKey, String> prefixes =
+        MultimapBuilder.hashKeys().hashSetValues().build();
+    for (SetMultimap<Project.NameKey, RefState> s : states.values()) {
+      s.forEach((p, state) -> refNames.put(p, state.ref()));
+    }
+    for (ListMultimap<Project.NameKey, RefStatePattern> s : patterns.values()) {
+      s.forEach((p, pattern) -> prefixes.put(p, pattern.prefix()));
+    }
+
+    // Projects that fail to load are left out, which makes all changes depending on them stale.
+    Map<Project.NameKey, RepoRefs> refs = new HashMap<>();
+    for (Project.NameKey p : Sets.union(refNames.keySet(), prefixes.keySet())) {
+      try (Repository repo = repoManager.openRepository(p)) {
+        refs.put(p, RepoRefs.read(repo, refNames.get(p), prefixes.get(p)));
+      } catch (IOException e) {
+        logger.atWarning().withCause(e).log("error checking staleness of changes in %s", p);
+      }
+    }
+
+    Set<Change.Id> stale = new HashSet<>();
+    for (Change.Id id : Sets.union(states.keySet(), patterns.keySet())) {
+      SetMultimap<Project.NameKey, RefState> s = states.get(id);
+      ListMultimap<Project.NameKey, RefStatePattern> ps = patterns.get(id);
+      if (refsAreStale(
+          refs,
+          s != null ? s : ImmutableSetMultimap.of(),
+          ps != null ? ps : ImmutableListMultimap.of())) {
+        stale.add(id);
+      }
+    }
+    return stale;
+  }
+
+  private static boolean refsAreStale(
+      Map<Project.NameKey, RepoRefs> refs,
+      SetMultimap<Project.NameKey, RefState> allStates,
+      ListMultimap<Project.NameKey, RefStatePattern> allPatterns) {
+    for (Project.NameKey p : Sets.union(allStates.keySet(), allPatterns.keySet())) {
+      RepoRefs r = refs.get(p);
+      if (r == null) {
+        return true;
+      }
+      Set<RefState> states = allStates.get(p);
+      for (RefState state : states) {
+        if (!r.match(state)) {
+          return true;
+        }
+      }
+      for (RefStatePattern pattern : allPatterns.get(p)) {
+        if (!pattern.match(r.byPrefix.get(pattern.prefix()), states)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /** Snapshot of the refs of one repository needed to check a batch of changes. */
+  private static class RepoRefs {
+    static RepoRefs read(Repository repo, Set<String> names, Set<String> prefixes)
+        throws IOException {
+      RefDatabase refDb = repo.getRefDatabase();
+      Map<String, List<Ref>> byPrefix = new HashMap<>();
+      for (String prefix : prefixes) {
+        byPrefix.put(prefix, refDb.getRefsByPrefix(prefix));
+      }
+      return new RepoRefs(refDb.exactRef(names.toArray(new String[0])), byPrefix);
+    }
+
+    private final Map<String, Ref> exact;
+    private final Map<String, List<Ref>> byPrefix;
+
+    private RepoRefs(Map<String, Ref> exact, Map<String, List<Ref>> byPrefix) {
+      this.exact = exact;
+      this.byPrefix = byPrefix;
+    }
+
+    boolean match(RefState state) {
+      Ref ref = exact.get(state.ref());
+      ObjectId expected = ref != null ? ref.getObjectId() : ObjectId.zeroId();
+      return state.id().equals(expected);
+    }
+  }
+
   @VisibleForTesting
   static boolean reviewDbChangeIsStale(Change indexChange, @Nullable Change reviewDbChange) {
     requireNonNull(indexChange);
@@ -251,7 +427,11 @@ public class StalenessChecker {
     }
 
     private boolean match(Repository repo, Set<RefState> expected) throws IOException {
-      for (Ref r : repo.getRefDatabase().getRefsByPrefix(prefix())) {
+      return match(repo.getRefDatabase().getRefsByPrefix(prefix()), expected);
+    }
+
+    private boolean match(List<Ref> refs, Set<RefState> expected) {
+      for (Ref r : refs) {
         if (!match(r.getName())) {
           continue;
         }
@@ -142,6 +142,17 @@ public abstract class AbstractChangeNotes<T> {
   }
 
   public T load() throws OrmException {
+    return load(null);
+  }
+
+  /**
+   * Loads the notes, reading from an already open repository.
+   *
+   * @param repo open repository of the project the notes belong to. If null, the repository is
+   *     opened and closed again by this method.
+   * @return this instance.
+   */
+  public T load(@Nullable Repository repo) throws OrmException {
     if (loaded) {
       return self();
     }
@@ -162,10 +173,11 @@ public abstract class AbstractChangeNotes<T> {
       throw new OrmException("Reading from NoteDb is disabled");
     }
     try (Timer1.Context timer = args.metrics.readLatency.start(CHANGES);
-        Repository repo = args.repoManager.openRepository(getProjectName());
+        Repository opened =
+            repo == null ? args.repoManager.openRepository(getProjectName()) : null;
         // Call openHandle even if reading is disabled, to trigger
         // auto-rebuilding before this object may get passed to a ChangeUpdate.
-        LoadHandle handle = openHandle(repo)) {
+        LoadHandle handle = openHandle(repo != null ? repo : opened)) {
       if (read) {
         revision = handle.id();
         onLoad(handle);
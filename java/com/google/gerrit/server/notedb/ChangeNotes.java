@@ -20,6 +20,7 @@ import static com.google.gerrit.reviewdb.client.RefNames.changeMetaRef;
 import static com.google.gerrit.server.notedb.NoteDbTable.CHANGES;
 import static java.util.Comparator.comparing;
 import static java.util.Objects.requireNonNull;
+import static java.util.stream.Collectors.toSet;
 
 import com.google.auto.value.AutoValue;
 import com.google.common.annotations.VisibleForTesting;
@@ -53,6 +54,7 @@ import com.google.gerrit.reviewdb.client.RevId;
 import com.google.gerrit.reviewdb.client.RobotComment;
 import com.google.gerrit.reviewdb.server.ReviewDb;
 import com.google.gerrit.reviewdb.server.ReviewDbUtil;
+import com.google.gerrit.server.FanOutExecutor;
 import com.google.gerrit.server.ReviewerByEmailSet;
 import com.google.gerrit.server.ReviewerSet;
 import com.google.gerrit.server.ReviewerStatusUpdate;
@@ -64,6 +66,7 @@ import com.google.gerrit.server.project.NoSuchChangeException;
 import com.google.gerrit.server.project.ProjectCache;
 import com.google.gerrit.server.query.change.ChangeData;
 import com.google.gerrit.server.query.change.InternalChangeQuery;
+import com.google.gerrit.server.util.FanOut;
 import com.google.gwtorm.server.OrmException;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
@@ -72,11 +75,16 @@ import java.io.IOException;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Predicate;
 import java.util.stream.Stream;
@@ -110,14 +118,19 @@ public class ChangeNotes extends AbstractChangeNotes<ChangeNotes> {
     private final Args args;
     private final Provider<InternalChangeQuery> queryProvider;
     private final ProjectCache projectCache;
+    private final ExecutorService executor;
 
     @VisibleForTesting
     @Inject
     public Factory(
-        Args args, Provider<InternalChangeQuery> queryProvider, ProjectCache projectCache) {
+        Args args,
+        Provider<InternalChangeQuery> queryProvider,
+        ProjectCache projectCache,
+        @FanOutExecutor ExecutorService executor) {
       this.args = args;
       this.queryProvider = queryProvider;
       this.projectCache = projectCache;
+      this.executor = executor;
     }
 
     public ChangeNotes createChecked(ReviewDb db, Change c) throws OrmException {
@@ -278,6 +291,71 @@ public class ChangeNotes extends AbstractChangeNotes<ChangeNotes> {
       return notes;
     }
 
+    /**
+     * Loads the notes of several changes of one project.
+     *
+     * <p>Unlike calling {@link #create(ReviewDb, Project.NameKey, Change.Id)} for each change, this
+     * opens the repository only once and reads the meta refs of all changes with a single ref
+     * database lookup. Changes stored in NoteDb are then parsed in parallel.
+     *
+     * <p>Changes that cannot be loaded are logged and left out of the result, so that callers can
+     * load them individually and handle the error there.
+     *
+     * @param db review database.
+     * @param project project containing the changes.
+     * @param changeIds changes to load.
+     * @return loaded notes by change ID.
+     * @throws OrmException if the repository cannot be read.
+     */
+    public Map<Change.Id, ChangeNotes> createBatch(
+        ReviewDb db, Project.NameKey project, Collection<Change.Id> changeIds) throws OrmException {
+      Map<Change.Id, ChangeNotes> result = new HashMap<>();
+      if (changeIds.isEmpty()) {
+        return result;
+      }
+      try (Repository repo = args.repoManager.openRepository(project)) {
+        Set<String> names = changeIds.stream().map(RefNames::changeMetaRef).collect(toSet());
+        Map<String, Ref> metaRefs = repo.getRefDatabase().exactRef(names.toArray(new String[0]));
+        RefCache refs =
+            name -> {
+              Ref r = names.contains(name) ? metaRefs.get(name) : repo.exactRef(name);
+              return Optional.ofNullable(r).map(Ref::getObjectId);
+            };
+
+        List<Callable<ChangeNotes>> tasks = new ArrayList<>(changeIds.size());
+        for (Change.Id changeId : changeIds) {
+          try {
+            ChangeNotes notes =
+                new ChangeNotes(args, loadChangeFromDb(db, project, changeId), true, true, refs);
+            if (notes.primaryStorage == PrimaryStorage.NOTE_DB) {
+              tasks.add(() -> notes.load(repo));
+            } else {
+              // Auto-rebuilding needs the request's database, so load on the calling thread.
+              result.put(changeId, notes.load(repo));
+            }
+          } catch (OrmException e) {
+            logger.atWarning().withCause(e).log(
+                "Failed to load change %s in %s", changeId, project);
+          }
+        }
+
+        for (Future<ChangeNotes> f : FanOut.invokeAll(executor, tasks)) {
+          try {
+            ChangeNotes notes = f.get();
+            result.put(notes.getChangeId(), notes);
+          } catch (ExecutionException e) {
+            logger.atWarning().withCause(e.getCause()).log("Failed to load change in %s", project);
+          }
+        }
+      } catch (IOException e) {
+        throw new OrmException("Failed to load changes in " + project, e);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        logger.atSevere().withCause(e).log("Interrupted loading changes in %s", project);
+      }
+      return result;
+    }
+
     public ListMultimap<Project.NameKey, ChangeNotes> create(
         ReviewDb db, Predicate<ChangeNotes> predicate) throws IOException, OrmException {
       ListMultimap<Project.NameKey, ChangeNotes> m =
@@ -285,7 +363,7 @@ public class ChangeNotes extends AbstractChangeNotes<ChangeNotes> {
       if (args.migration.readChanges()) {
         for (Project.NameKey project : projectCache.all()) {
           try (Repository repo = args.repoManager.openRepository(project)) {
-            scanNoteDb(repo, db, project)
+            scanNoteDb(db, project, scanChangeIds(repo))
                 .filter(r -> !r.error().isPresent())
                 .map(ChangeNotesResult::notes)
                 .filter(predicate)
@@ -305,16 +383,30 @@ public class ChangeNotes extends AbstractChangeNotes<ChangeNotes> {
 
     public Stream<ChangeNotesResult> scan(Repository repo, ReviewDb db, Project.NameKey project)
         throws IOException {
-      return args.migration.readChanges() ? scanNoteDb(repo, db, project) : scanReviewDb(repo, db);
+      return scan(db, project, scanChangeIds(repo));
     }
 
-    private Stream<ChangeNotesResult> scanReviewDb(Repository repo, ReviewDb db)
-        throws IOException {
+    /**
+     * Loads the changes found by a previous scan of the refs of a project.
+     *
+     * <p>This allows callers to scan the refs once and load the changes in several parts, see
+     * {@link ScanResult#subset(Iterable)}.
+     *
+     * @param db review database.
+     * @param project name of the project.
+     * @param sr change IDs found in the refs of the project.
+     * @return stream of results, one per change.
+     */
+    public Stream<ChangeNotesResult> scan(ReviewDb db, Project.NameKey project, ScanResult sr) {
+      return args.migration.readChanges() ? scanNoteDb(db, project, sr) : scanReviewDb(db, sr);
+    }
+
+    private Stream<ChangeNotesResult> scanReviewDb(ReviewDb db, ScanResult sr) {
       // Scan IDs that might exist in ReviewDb, assuming that each change has at least one patch set
       // ref. Not all changes might exist: some patch set refs might have been written where the
       // corresponding ReviewDb write failed. These will be silently filtered out by the batch get
       // call below, which is intended.
-      Set<Change.Id> ids = scanChangeIds(repo).fromPatchSetRefs();
+      Set<Change.Id> ids = sr.fromPatchSetRefs();
 
       // A batch size of N may overload get(Iterable), so use something smaller, but still >1.
       return Streams.stream(Iterators.partition(ids.iterator(), 30))
@@ -332,8 +424,7 @@ public class ChangeNotes extends AbstractChangeNotes<ChangeNotes> {
     }
 
     private Stream<ChangeNotesResult> scanNoteDb(
-        Repository repo, ReviewDb db, Project.NameKey project) throws IOException {
-      ScanResult sr = scanChangeIds(repo);
+        ReviewDb db, Project.NameKey project, ScanResult sr) {
       PrimaryStorage defaultStorage = args.migration.changePrimaryStorage();
 
       return sr.all()
@@ -425,18 +516,42 @@ public class ChangeNotes extends AbstractChangeNotes<ChangeNotes> {
       abstract ChangeNotes maybeNotes();
     }
 
+    /** Change IDs found in the refs of a project. */
     @AutoValue
-    abstract static class ScanResult {
+    public abstract static class ScanResult {
       abstract ImmutableSet<Change.Id> fromPatchSetRefs();
 
       abstract ImmutableSet<Change.Id> fromMetaRefs();
 
-      SetView<Change.Id> all() {
+      /** Returns the IDs of all changes found in the refs. */
+      public SetView<Change.Id> all() {
         return Sets.union(fromPatchSetRefs(), fromMetaRefs());
       }
+
+      /** Returns the part of this result that has the given change IDs. */
+      public ScanResult subset(Iterable<Change.Id> ids) {
+        ImmutableSet.Builder<Change.Id> fromPs = ImmutableSet.builder();
+        ImmutableSet.Builder<Change.Id> fromMeta = ImmutableSet.builder();
+        for (Change.Id id : ids) {
+          if (fromPatchSetRefs().contains(id)) {
+            fromPs.add(id);
+          }
+          if (fromMetaRefs().contains(id)) {
+            fromMeta.add(id);
+          }
+        }
+        return new AutoValue_ChangeNotes_Factory_ScanResult(fromPs.build(), fromMeta.build());
+      }
     }
 
-    private static ScanResult scanChangeIds(Repository repo) throws IOException {
+    /**
+     * Scans the refs of a project for change IDs.
+     *
+     * @param repo repository of the project.
+     * @return change IDs found in the refs.
+     * @throws IOException if the refs of the repository can't be read.
+     */
+    public static ScanResult scanChangeIds(Repository repo) throws IOException {
       ImmutableSet.Builder<Change.Id> fromPs = ImmutableSet.builder();
       ImmutableSet.Builder<Change.Id> fromMeta = ImmutableSet.builder();
       for (Ref r : repo.getRefDatabase().getRefsByPrefix(RefNames.REFS_CHANGES)) {
@@ -690,6 +805,10 @@ public class ChangeNotes extends AbstractChangeNotes<ChangeNotes> {
     state = ChangeNotesState.empty(change);
   }
 
+  ChangeNotesState getState() {
+    return state;
+  }
+
   @Override
   public Project.NameKey getProjectName() {
     return change.getProject();
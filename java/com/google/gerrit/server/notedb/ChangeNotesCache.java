@@ -17,6 +17,7 @@ package com.google.gerrit.server.notedb;
 import com.google.auto.value.AutoValue;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Table;
 import com.google.common.flogger.FluentLogger;
 import com.google.gerrit.common.Nullable;
@@ -34,6 +35,7 @@ import com.google.gerrit.server.notedb.AbstractChangeNotes.Args;
 import com.google.gerrit.server.notedb.ChangeNotesCommit.ChangeNotesRevWalk;
 import com.google.inject.Inject;
 import com.google.inject.Module;
+import com.google.inject.Scopes;
 import com.google.inject.Singleton;
 import com.google.inject.name.Named;
 import java.io.IOException;
@@ -51,16 +53,24 @@ public class ChangeNotesCache {
 
   @VisibleForTesting static final String CACHE_NAME = "change_notes";
 
+  /** Version of the serialized values, shared by the persistent cache and the snapshot. */
+  static final int VERSION = 1;
+
+  private static final int MAX_LATEST_META_IDS = 1 << 16;
+
   public static Module module() {
     return new CacheModule() {
       @Override
       protected void configure() {
         bind(ChangeNotesCache.class);
+        bind(ChangeNotesSnapshot.class)
+            .toProvider(ChangeNotesSnapshot.SnapshotProvider.class)
+            .in(Scopes.SINGLETON);
         persist(CACHE_NAME, Key.class, ChangeNotesState.class)
             .weigher(Weigher.class)
             .maximumWeight(10 << 20)
             .diskLimit(-1)
-            .version(1)
+            .version(VERSION)
             .keySerializer(Key.Serializer.INSTANCE)
             .valueSerializer(ChangeNotesState.Serializer.INSTANCE);
       }
@@ -348,31 +358,79 @@ public class ChangeNotesCache {
 
     @Override
     public ChangeNotesState call() throws ConfigInvalidException, IOException {
+      ChangeNotesState snapshotted = snapshot.get(key.changeId(), key.id());
+      if (snapshotted != null) {
+        logger.atFine().log(
+            "Found change notes for change %s of project %s in snapshot",
+            key.changeId(), key.project());
+        return snapshotted;
+      }
+
       logger.atFine().log(
           "Load change notes for change %s of project %s", key.changeId(), key.project());
-      ChangeNotesParser parser =
-          new ChangeNotesParser(
-              key.changeId(),
-              key.id(),
-              rw,
-              args.changeNoteJson,
-              args.legacyChangeNoteRead,
-              args.metrics);
-      ChangeNotesState result = parser.parseAll();
+      ChangeNotesParser parser = newParser();
+      ChangeNotesState result = null;
+      ChangeNotesState base = getBase(key);
+      if (base != null) {
+        result = parser.parseFrom(base);
+        if (result == null) {
+          // Parsers can only be used once.
+          parser = newParser();
+        }
+      }
+      if (result == null) {
+        result = parser.parseAll();
+      }
+      latestMetaIds.put(key.changeId(), key.id());
       // This assignment only happens if call() was actually called, which only
       // happens when Cache#get(K, Callable<V>) incurs a cache miss.
       revisionNoteMap = parser.getRevisionNoteMap();
       return result;
     }
+
+    private ChangeNotesParser newParser() {
+      return new ChangeNotesParser(
+          key.changeId(),
+          key.id(),
+          rw,
+          args.changeNoteJson,
+          args.legacyChangeNoteRead,
+          args.metrics);
+    }
+  }
+
+  /**
+   * Returns an earlier parsed state of the same change, which the parser can bring up to date by
+   * only applying the commits after it.
+   */
+  @Nullable
+  private ChangeNotesState getBase(Key key) {
+    ObjectId latest = latestMetaIds.getIfPresent(key.changeId());
+    if (latest != null) {
+      ChangeNotesState s = cache.getIfPresent(Key.create(key.project(), key.changeId(), latest));
+      if (s != null) {
+        return s;
+      }
+    }
+    return snapshot.get(key.changeId());
   }
 
   private final Cache<Key, ChangeNotesState> cache;
   private final Args args;
+  private final ChangeNotesSnapshot snapshot;
+
+  // Most recently loaded meta ref value per change, to find a base state for incremental parsing.
+  private final Cache<Change.Id, ObjectId> latestMetaIds =
+      CacheBuilder.newBuilder().maximumSize(MAX_LATEST_META_IDS).build();
 
   @Inject
-  ChangeNotesCache(@Named(CACHE_NAME) Cache<Key, ChangeNotesState> cache, Args args) {
+  ChangeNotesCache(
+      @Named(CACHE_NAME) Cache<Key, ChangeNotesState> cache,
+      Args args,
+      ChangeNotesSnapshot snapshot) {
     this.cache = cache;
     this.args = args;
+    this.snapshot = snapshot;
   }
 
   Value get(Project.NameKey project, Change.Id changeId, ObjectId metaId, ChangeNotesRevWalk rw)
@@ -22,6 +22,7 @@ import com.google.gerrit.server.git.InMemoryInserter;
 import com.google.gerrit.server.git.InsertedObject;
 import java.io.IOException;
 import java.util.List;
+import java.util.Set;
 import org.eclipse.jgit.errors.IncorrectObjectTypeException;
 import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.lib.AnyObjectId;
@@ -115,6 +116,15 @@ public class ChangeNotesCommit extends RevCommit {
   }
 
   public List<String> getFooterLineValues(FooterKey key) {
+    return footerLines().get(key.getName().toLowerCase());
+  }
+
+  /** Returns the keys of all footers in this commit, in lower case. */
+  public Set<String> getFooterKeys() {
+    return footerLines().keySet();
+  }
+
+  private ListMultimap<String, String> footerLines() {
     if (footerLines == null) {
       List<FooterLine> src = getFooterLines();
       footerLines = MultimapBuilder.hashKeys(src.size()).arrayListValues(1).build();
@@ -122,6 +132,6 @@ public class ChangeNotesCommit extends RevCommit {
         footerLines.put(fl.getKey().toLowerCase(), fl.getValue());
       }
     }
-    return footerLines.get(key.getName().toLowerCase());
+    return footerLines;
   }
 }
@@ -15,6 +15,7 @@
 package com.google.gerrit.server.notedb;
 
 import static com.google.common.base.MoreObjects.firstNonNull;
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.gerrit.server.notedb.ChangeNoteUtil.FOOTER_ASSIGNEE;
 import static com.google.gerrit.server.notedb.ChangeNoteUtil.FOOTER_BRANCH;
 import static com.google.gerrit.server.notedb.ChangeNoteUtil.FOOTER_CHANGE_ID;
@@ -44,6 +45,7 @@ import com.google.auto.value.AutoValue;
 import com.google.common.base.Enums;
 import com.google.common.base.Splitter;
 import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableTable;
 import com.google.common.collect.ListMultimap;
@@ -54,6 +56,7 @@ import com.google.common.collect.Table;
 import com.google.common.collect.Tables;
 import com.google.common.flogger.FluentLogger;
 import com.google.common.primitives.Ints;
+import com.google.gerrit.common.Nullable;
 import com.google.gerrit.common.data.LabelType;
 import com.google.gerrit.common.data.SubmitRecord;
 import com.google.gerrit.mail.Address;
@@ -73,6 +76,7 @@ import com.google.gerrit.server.ReviewerByEmailSet;
 import com.google.gerrit.server.ReviewerSet;
 import com.google.gerrit.server.ReviewerStatusUpdate;
 import com.google.gerrit.server.notedb.ChangeNotesCommit.ChangeNotesRevWalk;
+import com.google.gerrit.server.notedb.ChangeNotesState.ChangeColumns;
 import com.google.gerrit.server.util.LabelVote;
 import java.io.IOException;
 import java.nio.charset.Charset;
@@ -109,6 +113,33 @@ class ChangeNotesParser {
   // the parser does not yet know its commit SHA-1.
   private static final RevId PARTIAL_PATCH_SET = new RevId("INVALID PARTIAL PATCH SET");
 
+  // Footers that can be applied on top of a previously parsed state. None of them affect patch
+  // sets, status or other change columns whose value depends on the full history.
+  private static final ImmutableSet<String> INCREMENTAL_FOOTERS = incrementalFooters();
+
+  // Maximum number of new commits to apply on top of a previously parsed state; beyond this a full
+  // parse isn't much more expensive.
+  private static final int MAX_INCREMENTAL_COMMITS = 100;
+
+  private static ImmutableSet<String> incrementalFooters() {
+    ImmutableSet.Builder<String> b = ImmutableSet.builder();
+    for (FooterKey k :
+        ImmutableList.of(
+            FOOTER_HASHTAGS,
+            FOOTER_LABEL,
+            FOOTER_PATCH_SET,
+            FOOTER_REAL_USER,
+            FOOTER_TAG,
+            FOOTER_TOPIC)) {
+      b.add(k.getName().toLowerCase());
+    }
+    for (ReviewerStateInternal state : ReviewerStateInternal.values()) {
+      b.add(state.getFooterKey().getName().toLowerCase());
+      b.add(state.getByEmailFooterKey().getName().toLowerCase());
+    }
+    return b.build();
+  }
+
   @AutoValue
   abstract static class ApprovalKey {
     abstract PatchSet.Id psId();
@@ -233,6 +264,174 @@ class ChangeNotesParser {
     return buildState();
   }
 
+  /**
+   * Parses the notes by applying only the commits after an earlier parsed state.
+   *
+   * <p>This avoids replaying the full history of a change when only a few commits were added since
+   * {@code base} was parsed, such as votes, messages and reviewer updates on an existing patch set.
+   * Commits that touch patch sets, the status or other columns of the change can't be applied
+   * incrementally. Comments are always read from the tip.
+   *
+   * <p>Like {@link #parseAll()}, this method may only be called once per parser.
+   *
+   * @param base state of the same change at an earlier meta commit.
+   * @return the state at the tip, or null if {@code base} is not a recent ancestor of the tip or
+   *     the new commits can't be applied incrementally. In that case a new parser must be used to
+   *     parse the full history.
+   */
+  @Nullable
+  ChangeNotesState parseFrom(ChangeNotesState base) throws ConfigInvalidException, IOException {
+    checkArgument(base.changeId().equals(id), "state of %s can't be used for %s", base, id);
+    ChangeColumns cols = base.columns();
+    if (cols == null || base.metaId() == null) {
+      return null;
+    }
+    List<ChangeNotesCommit> commits = walkTo(base.metaId());
+    if (commits == null) {
+      return null;
+    } else if (commits.isEmpty()) {
+      return base;
+    }
+
+    try (Timer1.Context timer = metrics.parseLatency.start(CHANGES)) {
+      for (Map.Entry<PatchSet.Id, PatchSet> e : base.patchSets()) {
+        patchSets.put(e.getKey(), e.getValue());
+      }
+      for (ChangeNotesCommit commit : commits) {
+        if (!canApply(commit)) {
+          return null;
+        }
+        parse(commit);
+      }
+
+      // Votes of reviewers removed before the base were dropped from it, so if such a reviewer is
+      // added back the full history is needed. Likewise for the reviewers snapshotted when the
+      // change was last moved to WIP.
+      for (Table.Cell<Account.Id, ReviewerStateInternal, Timestamp> c : reviewers.cellSet()) {
+        if (c.getColumnKey() != ReviewerStateInternal.REMOVED
+            && base.allPastReviewers().contains(c.getRowKey())
+            && !base.reviewers().all().contains(c.getRowKey())) {
+          return null;
+        }
+      }
+      if (cols.workInProgress() && !(reviewers.isEmpty() && reviewersByEmail.isEmpty())) {
+        return null;
+      }
+
+      // The status of the base is the most recent status of the change, so new approvals on a
+      // merged change are post-submit.
+      if (cols.status() == Change.Status.MERGED) {
+        for (PatchSetApproval psa : bufferedApprovals) {
+          if (!psa.isLegacySubmit()) {
+            psa.setPostSubmit(true);
+          }
+        }
+      }
+      for (Map.Entry<PatchSet.Id, PatchSetApproval> e : base.approvals()) {
+        PatchSetApproval psa = e.getValue();
+        approvals.putIfAbsent(
+            ApprovalKey.create(psa.getPatchSetId(), psa.getAccountId(), psa.getLabel()), psa);
+      }
+
+      allPastReviewers.addAll(reviewers.rowKeySet());
+      for (Account.Id accountId : base.allPastReviewers()) {
+        if (!allPastReviewers.contains(accountId)) {
+          allPastReviewers.add(accountId);
+        }
+      }
+      for (Table.Cell<ReviewerStateInternal, Account.Id, Timestamp> c :
+          base.reviewers().asTable().cellSet()) {
+        if (!reviewers.containsRow(c.getColumnKey())) {
+          reviewers.put(c.getColumnKey(), c.getRowKey(), c.getValue());
+        }
+      }
+      for (Table.Cell<ReviewerStateInternal, Address, Timestamp> c :
+          base.reviewersByEmail().asTable().cellSet()) {
+        if (!reviewersByEmail.containsRow(c.getColumnKey())) {
+          reviewersByEmail.put(c.getColumnKey(), c.getRowKey(), c.getValue());
+        }
+      }
+      pruneReviewers();
+      pruneReviewersByEmail();
+
+      // Patch sets are shared with the base, so don't let parseNotes() touch them. Push
+      // certificates are only added along with new patch sets, which aren't applied incrementally.
+      readNotes();
+      comments
+          .values()
+          .removeIf(c -> !patchSets.containsKey(new PatchSet.Id(id, c.key.patchSetId)));
+
+      List<ChangeMessage> changeMessages = new ArrayList<>(base.changeMessages());
+      changeMessages.addAll(buildAllMessages());
+
+      metrics.incrementalParseCount.increment(CHANGES);
+      return ChangeNotesState.create(
+          tip.copy(),
+          id,
+          cols.changeKey(),
+          cols.createdOn(),
+          lastUpdatedOn.after(cols.lastUpdatedOn()) ? lastUpdatedOn : cols.lastUpdatedOn(),
+          cols.owner(),
+          cols.branch(),
+          cols.currentPatchSetId(),
+          cols.subject(),
+          topic != null ? topic : cols.topic(),
+          cols.originalSubject(),
+          cols.submissionId(),
+          cols.assignee(),
+          cols.status(),
+          base.pastAssignees(),
+          hashtags != null ? hashtags : base.hashtags(),
+          patchSets,
+          buildApprovals(),
+          ReviewerSet.fromTable(Tables.transpose(reviewers)),
+          ReviewerByEmailSet.fromTable(Tables.transpose(reviewersByEmail)),
+          base.pendingReviewers(),
+          base.pendingReviewersByEmail(),
+          allPastReviewers,
+          buildReviewerUpdates(base.reviewerUpdates(), cols.owner()),
+          base.submitRecords(),
+          changeMessages,
+          comments,
+          base.readOnlyUntil(),
+          cols.isPrivate(),
+          cols.workInProgress(),
+          cols.reviewStarted(),
+          cols.revertOf());
+    }
+  }
+
+  /**
+   * Walks from the tip to {@code base}.
+   *
+   * @return the commits after {@code base}, newest first, or null if {@code base} wasn't found
+   *     within {@link #MAX_INCREMENTAL_COMMITS} commits.
+   */
+  @Nullable
+  private List<ChangeNotesCommit> walkTo(ObjectId base) throws IOException {
+    walk.reset();
+    walk.markStart(walk.parseCommit(tip));
+    List<ChangeNotesCommit> commits = new ArrayList<>();
+    ChangeNotesCommit commit;
+    while ((commit = walk.next()) != null) {
+      if (commit.equals(base)) {
+        return commits;
+      } else if (commit.getParentCount() != 1 || commits.size() == MAX_INCREMENTAL_COMMITS) {
+        return null;
+      }
+      commits.add(commit);
+    }
+    return null;
+  }
+
+  private boolean canApply(ChangeNotesCommit commit) throws ConfigInvalidException {
+    if (!INCREMENTAL_FOOTERS.containsAll(commit.getFooterKeys())
+        || parsePatchSetState(commit) != null) {
+      return false;
+    }
+    return patchSets.containsKey(parsePatchSetId(commit));
+  }
+
   RevisionNoteMap<ChangeRevisionNote> getRevisionNoteMap() {
     return revisionNoteMap;
   }
@@ -301,8 +500,16 @@ class ChangeNotesParser {
   }
 
   private List<ReviewerStatusUpdate> buildReviewerUpdates() {
-    List<ReviewerStatusUpdate> result = new ArrayList<>();
+    return buildReviewerUpdates(ImmutableList.of(), ownerId);
+  }
+
+  private List<ReviewerStatusUpdate> buildReviewerUpdates(
+      List<ReviewerStatusUpdate> previous, Account.Id ownerId) {
+    List<ReviewerStatusUpdate> result = new ArrayList<>(previous);
     HashMap<Account.Id, ReviewerStateInternal> lastState = new HashMap<>();
+    for (ReviewerStatusUpdate u : previous) {
+      lastState.put(u.reviewer(), u.state());
+    }
     for (ReviewerStatusUpdate u : Lists.reverse(reviewerUpdates)) {
       if (!Objects.equals(ownerId, u.reviewer()) && lastState.get(u.reviewer()) != u.state()) {
         result.add(u);
@@ -719,6 +926,17 @@ class ChangeNotesParser {
   }
 
   private void parseNotes() throws IOException, ConfigInvalidException {
+    readNotes();
+    Map<RevId, ChangeRevisionNote> rns = revisionNoteMap.revisionNotes;
+    for (PatchSet ps : patchSets.values()) {
+      ChangeRevisionNote rn = rns.get(ps.getRevision());
+      if (rn != null && rn.getPushCert() != null) {
+        ps.setPushCertificate(rn.getPushCert());
+      }
+    }
+  }
+
+  private void readNotes() throws IOException, ConfigInvalidException {
     ObjectReader reader = walk.getObjectReader();
     ChangeNotesCommit tipCommit = walk.parseCommit(tip);
     revisionNoteMap =
@@ -736,13 +954,6 @@ class ChangeNotesParser {
         comments.put(e.getKey(), c);
       }
     }
-
-    for (PatchSet ps : patchSets.values()) {
-      ChangeRevisionNote rn = rns.get(ps.getRevision());
-      if (rn != null && rn.getPushCert() != null) {
-        ps.setPushCertificate(rn.getPushCert());
-      }
-    }
   }
 
   private void parseApproval(
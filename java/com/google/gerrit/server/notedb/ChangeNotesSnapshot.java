@@ -0,0 +1,414 @@
+// Copyright (C) 2019 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.notedb;
+
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.Comparator.comparingInt;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.reviewdb.client.Change;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.config.SitePaths;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * Read-only snapshot of parsed {@link ChangeNotesState}s, keyed by change ID and meta ref SHA-1.
+ *
+ * <p>Snapshots are written by the offline {@code reindex} and {@code SnapshotChangeNotes} programs
+ * and memory-mapped when the server starts. {@link ChangeNotesCache} consults the snapshot before
+ * parsing a change's meta ref, so a restarted server doesn't have to replay the NoteDb history of
+ * every change it touches. An entry is only used if its meta SHA-1 matches the current meta ref, so
+ * entries of changes updated after the snapshot was written are simply ignored.
+ *
+ * <p>File layout, with all numbers big-endian:
+ *
+ * <pre>
+ *   header: magic, format version, value serializer version, entry count (4 bytes each)
+ *   index:  one entry per change, sorted by change ID: change ID (4 bytes),
+ *           meta SHA-1 (20 bytes), value offset (8 bytes), value length (4 bytes)
+ *   data:   serialized {@link ChangeNotesState} values
+ * </pre>
+ */
+public class ChangeNotesSnapshot {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  public static final String FILE_NAME = "change_notes.snapshot";
+
+  private static final int MAGIC = 0x474e5353; // "GNSS"
+  private static final int FORMAT_VERSION = 1;
+  private static final int HEADER_SIZE = 4 * 4;
+  private static final int ENTRY_SIZE = 4 + Constants.OBJECT_ID_LENGTH + 8 + 4;
+  private static final int OFFSET_POS = 4 + Constants.OBJECT_ID_LENGTH;
+  private static final int LENGTH_POS = OFFSET_POS + 8;
+
+  // A single mapping is limited to 2 GiB, so the data section is mapped in segments.
+  private static final long SEGMENT_SIZE = 1 << 30;
+
+  private static final ChangeNotesSnapshot EMPTY =
+      new ChangeNotesSnapshot(0, ByteBuffer.allocate(0), new ByteBuffer[0], 0);
+
+  /** Returns a snapshot without any entries. */
+  public static ChangeNotesSnapshot empty() {
+    return EMPTY;
+  }
+
+  /**
+   * Returns the location of the snapshot for a site.
+   *
+   * @return path of the snapshot file, or null if the site has no {@code cache.directory}.
+   */
+  @Nullable
+  public static Path getPath(SitePaths site, Config cfg) {
+    String dir = cfg.getString("cache", null, "directory");
+    return dir != null ? site.resolve(dir).resolve(FILE_NAME) : null;
+  }
+
+  /**
+   * Maps an existing snapshot.
+   *
+   * @param path location of the snapshot.
+   * @return the snapshot.
+   * @throws IOException if the file can't be read, is corrupt or was written with a different
+   *     version of the value serializer.
+   */
+  public static ChangeNotesSnapshot open(Path path) throws IOException {
+    try (FileChannel ch = FileChannel.open(path, READ)) {
+      long size = ch.size();
+      if (size < HEADER_SIZE) {
+        throw new IOException("truncated snapshot " + path);
+      }
+      ByteBuffer header = ch.map(READ_ONLY, 0, HEADER_SIZE);
+      if (header.getInt() != MAGIC) {
+        throw new IOException("not a change notes snapshot: " + path);
+      }
+      int format = header.getInt();
+      int version = header.getInt();
+      if (format != FORMAT_VERSION || version != ChangeNotesCache.VERSION) {
+        throw new IOException(
+            String.format("snapshot %s has unsupported version %d.%d", path, format, version));
+      }
+      int count = header.getInt();
+      long indexSize = (long) count * ENTRY_SIZE;
+      if (count < 0 || indexSize > Integer.MAX_VALUE || HEADER_SIZE + indexSize > size) {
+        throw new IOException("corrupt snapshot " + path);
+      }
+      ByteBuffer index = ch.map(READ_ONLY, HEADER_SIZE, indexSize);
+
+      long dataStart = HEADER_SIZE + indexSize;
+      long dataSize = size - dataStart;
+      ByteBuffer[] data = new ByteBuffer[(int) ((dataSize + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+      for (int i = 0; i < data.length; i++) {
+        long start = i * SEGMENT_SIZE;
+        data[i] = ch.map(READ_ONLY, dataStart + start, Math.min(SEGMENT_SIZE, dataSize - start));
+      }
+      return new ChangeNotesSnapshot(count, index, data, dataSize);
+    }
+  }
+
+  /**
+   * Starts writing a new snapshot.
+   *
+   * <p>The new snapshot replaces the file at {@code path} atomically when {@link Writer#commit()}
+   * is called. Servers that have already mapped the old snapshot keep using it until restarted.
+   */
+  public static Writer newWriter(Path path) throws IOException {
+    return new Writer(path);
+  }
+
+  private final int count;
+  private final ByteBuffer index;
+  private final ByteBuffer[] data;
+  private final long dataSize;
+
+  private ChangeNotesSnapshot(int count, ByteBuffer index, ByteBuffer[] data, long dataSize) {
+    this.count = count;
+    this.index = index;
+    this.data = data;
+    this.dataSize = dataSize;
+  }
+
+  /** Returns the number of changes in this snapshot. */
+  public int size() {
+    return count;
+  }
+
+  /**
+   * Looks up the state of a change.
+   *
+   * @param changeId change to look up.
+   * @param metaId current value of the change's meta ref.
+   * @return the state of the change at {@code metaId}, or null if the snapshot contains no state
+   *     for the change or a state for a different meta ref value.
+   */
+  @Nullable
+  ChangeNotesState get(Change.Id changeId, ObjectId metaId) {
+    int pos = find(changeId.get());
+    if (pos < 0 || !metaId.equals(metaIdAt(pos))) {
+      return null;
+    }
+    return read(changeId, pos);
+  }
+
+  /**
+   * Looks up the state of a change at whichever meta ref value it was snapshotted.
+   *
+   * @param changeId change to look up.
+   * @return the snapshotted state, or null if the snapshot doesn't contain the change.
+   */
+  @Nullable
+  ChangeNotesState get(Change.Id changeId) {
+    int pos = find(changeId.get());
+    return pos >= 0 ? read(changeId, pos) : null;
+  }
+
+  @Nullable
+  private ChangeNotesState read(Change.Id changeId, int pos) {
+    long offset = index.getLong(pos + OFFSET_POS);
+    int length = index.getInt(pos + LENGTH_POS);
+    if (offset < 0 || length < 0 || offset + length > dataSize) {
+      logger.atWarning().log("Ignoring corrupt snapshot entry for change %s", changeId);
+      return null;
+    }
+    try {
+      return ChangeNotesState.Serializer.INSTANCE.deserialize(read(offset, length));
+    } catch (RuntimeException e) {
+      logger.atWarning().withCause(e).log(
+          "Ignoring corrupt snapshot entry for change %s", changeId);
+      return null;
+    }
+  }
+
+  private int find(int changeId) {
+    int lo = 0;
+    int hi = count - 1;
+    while (lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      int pos = mid * ENTRY_SIZE;
+      int id = index.getInt(pos);
+      if (id < changeId) {
+        lo = mid + 1;
+      } else if (id > changeId) {
+        hi = mid - 1;
+      } else {
+        return pos;
+      }
+    }
+    return -1;
+  }
+
+  private ObjectId metaIdAt(int pos) {
+    int[] raw = new int[Constants.OBJECT_ID_LENGTH / 4];
+    for (int i = 0; i < raw.length; i++) {
+      raw[i] = index.getInt(pos + 4 + 4 * i);
+    }
+    return ObjectId.fromRaw(raw);
+  }
+
+  private byte[] read(long offset, int length) {
+    byte[] buf = new byte[length];
+    int done = 0;
+    while (done < length) {
+      long p = offset + done;
+      // Use a duplicate, the shared buffers must not have their position modified.
+      ByteBuffer segment = data[(int) (p / SEGMENT_SIZE)].duplicate();
+      segment.position((int) (p % SEGMENT_SIZE));
+      int n = Math.min(length - done, segment.remaining());
+      segment.get(buf, done, n);
+      done += n;
+    }
+    return buf;
+  }
+
+  /**
+   * Writer for a new snapshot.
+   *
+   * <p>Changes can be added concurrently from multiple threads and in any order; values are spooled
+   * to a temporary file and the index is sorted when the snapshot is committed.
+   */
+  public static class Writer implements AutoCloseable {
+    private final Path path;
+    private final Path dataFile;
+    private final OutputStream data;
+    private final List<IndexEntry> entries = new ArrayList<>();
+
+    private long dataSize;
+    private IOException error;
+    private boolean closed;
+
+    private Writer(Path path) throws IOException {
+      this.path = path;
+      Files.createDirectories(path.getParent());
+      dataFile = Files.createTempFile(path.getParent(), FILE_NAME, ".data");
+      data = new BufferedOutputStream(Files.newOutputStream(dataFile), 64 << 10);
+    }
+
+    /**
+     * Adds the loaded state of a change.
+     *
+     * <p>Changes that don't exist in NoteDb are skipped. Write errors are reported by {@link
+     * #commit()}.
+     */
+    public void add(ChangeNotes notes) {
+      add(notes.getState());
+    }
+
+    @VisibleForTesting
+    void add(@Nullable ChangeNotesState state) {
+      if (state == null || state.metaId() == null || state.columns() == null) {
+        return;
+      }
+      byte[] value = ChangeNotesState.Serializer.INSTANCE.serialize(state);
+      synchronized (this) {
+        if (closed || error != null) {
+          return;
+        }
+        try {
+          data.write(value);
+        } catch (IOException e) {
+          error = e;
+          return;
+        }
+        entries.add(
+            new IndexEntry(state.changeId().get(), state.metaId().copy(), dataSize, value.length));
+        dataSize += value.length;
+      }
+    }
+
+    /**
+     * Writes the index and replaces the existing snapshot, if any.
+     *
+     * @return number of changes in the new snapshot.
+     * @throws IOException if any change couldn't be written.
+     */
+    public synchronized int commit() throws IOException {
+      closed = true;
+      data.close();
+      if (error != null) {
+        throw error;
+      }
+
+      // The sort is stable, so if a change was added more than once the last state wins.
+      entries.sort(comparingInt(e -> e.changeId));
+      List<IndexEntry> unique = new ArrayList<>(entries.size());
+      for (int i = 0; i < entries.size(); i++) {
+        if (i + 1 == entries.size() || entries.get(i + 1).changeId != entries.get(i).changeId) {
+          unique.add(entries.get(i));
+        }
+      }
+
+      ByteBuffer head = ByteBuffer.allocate(HEADER_SIZE + unique.size() * ENTRY_SIZE);
+      head.putInt(MAGIC);
+      head.putInt(FORMAT_VERSION);
+      head.putInt(ChangeNotesCache.VERSION);
+      head.putInt(unique.size());
+      byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+      for (IndexEntry e : unique) {
+        e.metaId.copyRawTo(raw, 0);
+        head.putInt(e.changeId);
+        head.put(raw);
+        head.putLong(e.offset);
+        head.putInt(e.length);
+      }
+      head.flip();
+
+      Path tmp = Files.createTempFile(path.getParent(), FILE_NAME, ".tmp");
+      try {
+        try (FileChannel out = FileChannel.open(tmp, WRITE);
+            FileChannel in = FileChannel.open(dataFile, READ)) {
+          while (head.hasRemaining()) {
+            out.write(head);
+          }
+          for (long pos = 0; pos < dataSize; ) {
+            pos += in.transferTo(pos, dataSize - pos, out);
+          }
+          out.force(true);
+        }
+        Files.move(tmp, path, ATOMIC_MOVE, REPLACE_EXISTING);
+      } finally {
+        Files.deleteIfExists(tmp);
+      }
+      return unique.size();
+    }
+
+    /** Discards the spooled values; the snapshot is left untouched unless committed. */
+    @Override
+    public synchronized void close() throws IOException {
+      closed = true;
+      try {
+        data.close();
+      } finally {
+        Files.deleteIfExists(dataFile);
+      }
+    }
+  }
+
+  private static class IndexEntry {
+    final int changeId;
+    final ObjectId metaId;
+    final long offset;
+    final int length;
+
+    IndexEntry(int changeId, ObjectId metaId, long offset, int length) {
+      this.changeId = changeId;
+      this.metaId = metaId;
+      this.offset = offset;
+      this.length = length;
+    }
+  }
+
+  /** Maps the site's snapshot, if one exists, falling back to an empty snapshot. */
+  static class SnapshotProvider implements Provider<ChangeNotesSnapshot> {
+    private final Path path;
+
+    @Inject
+    SnapshotProvider(SitePaths site, @GerritServerConfig Config cfg) {
+      path = getPath(site, cfg);
+    }
+
+    @Override
+    public ChangeNotesSnapshot get() {
+      if (path == null || !Files.exists(path)) {
+        return EMPTY;
+      }
+      try {
+        ChangeNotesSnapshot snapshot = open(path);
+        logger.atInfo().log("Mapped %d changes from %s", snapshot.size(), path);
+        return snapshot;
+      } catch (IOException e) {
+        logger.atWarning().withCause(e).log("Ignoring change notes snapshot %s", path);
+        return EMPTY;
+      }
+    }
+  }
+}
@@ -44,6 +44,9 @@ class NoteDbMetrics {
    */
   final Timer1<NoteDbTable> parseLatency;
 
+  /** Count of parses that only applied new commits to an earlier parsed state. */
+  final Counter1<NoteDbTable> incrementalParseCount;
+
   /**
    * Latency due to auto-rebuilding entities when out of date.
    *
@@ -90,6 +93,13 @@ class NoteDbMetrics {
                 .setUnit(Units.MICROSECONDS),
             view);
 
+    incrementalParseCount =
+        metrics.newCounter(
+            "notedb/incremental_parse_count",
+            new Description("NoteDb parses resumed from an earlier parsed state by table")
+                .setCumulative(),
+            view);
+
     autoRebuildLatency =
         metrics.newTimer(
             "notedb/auto_rebuild_latency",
@@ -107,6 +107,7 @@ public class NoteDbModule extends FactoryModule {
                   // Do nothing.
                 }
               });
+      bind(ChangeNotesSnapshot.class).toInstance(ChangeNotesSnapshot.empty());
       bind(new TypeLiteral<Cache<ChangeNotesCache.Key, ChangeNotesState>>() {})
           .annotatedWith(Names.named(ChangeNotesCache.CACHE_NAME))
           .toInstance(CacheBuilder.newBuilder().<ChangeNotesCache.Key, ChangeNotesState>build());
@@ -30,7 +30,9 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.CharMatcher;
 import com.google.common.base.Predicates;
 import com.google.common.base.Throwables;
+import com.google.common.base.Ticker;
 import com.google.common.collect.ImmutableList;
+import com.google.common.flogger.FluentLogger;
 import com.google.common.primitives.Ints;
 import com.google.common.util.concurrent.Runnables;
 import com.google.gerrit.common.Nullable;
@@ -43,9 +45,14 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Lock;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.ReentrantLock;
 import org.eclipse.jgit.errors.IncorrectObjectTypeException;
 import org.eclipse.jgit.lib.ObjectId;
@@ -67,13 +74,54 @@ import org.eclipse.jgit.transport.ReceiveCommand;
  * processes can increment the counter by a larger number and hand out numbers from that range in
  * memory until they run out. This means concurrent processes will hand out somewhat non-monotonic
  * numbers.
+ *
+ * <p>Numbers are claimed from the current range with a compare-and-set, so callers only take a lock
+ * when the range is exhausted and a new one has to be acquired. Optionally the sequence can:
+ *
+ * <ul>
+ *   <li>grow its batch size up to a maximum while ranges are used up quickly or threads are waiting
+ *       for a new range, and shrink it back when demand goes down;
+ *   <li>acquire the next range on a background executor once half of the current range has been
+ *       handed out, so that callers rarely wait for a ref update.
+ * </ul>
  */
 public class RepoSequence {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
   @FunctionalInterface
   public interface Seed {
     int get() throws OrmException;
   }
 
+  /** Receives statistics about the ranges used by a sequence. */
+  public interface Listener {
+    Listener NONE =
+        new Listener() {
+          @Override
+          public void onAcquire(int count, long elapsedNanos) {}
+
+          @Override
+          public void onDiscard(int count) {}
+        };
+
+    /** Called after a range of {@code count} numbers was acquired from the ref. */
+    void onAcquire(int count, long elapsedNanos);
+
+    /** Called when {@code count} acquired numbers are dropped without being handed out. */
+    void onDiscard(int count);
+  }
+
+  /** Batch sizes grow if a range was used up within this interval. */
+  private static final long GROW_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  /** Batch sizes shrink if a range lasted longer than this interval. */
+  private static final long SHRINK_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+  /** Longest time to wait for a prefetch, in case its executor was shut down before running it. */
+  private static final long PREFETCH_TIMEOUT_SECONDS = 30;
+
+  private static final int EXHAUSTED = -1;
+
   @VisibleForTesting
   static RetryerBuilder<RefUpdate.Result> retryerBuilder() {
     return RetryerBuilder.<RefUpdate.Result>newBuilder()
@@ -94,14 +142,25 @@ public class RepoSequence {
   private final Seed seed;
   private final int floor;
   private final int batchSize;
+  private final int maxBatchSize;
+  @Nullable private final Executor prefetchExecutor;
+  private final Listener listener;
   private final Runnable afterReadRef;
   private final Retryer<RefUpdate.Result> retryer;
+  private final Ticker ticker;
 
-  // Protects all non-final fields.
-  private final Lock counterLock;
+  // Current range [counter, limit), packed by range(int, int).
+  private final AtomicLong range = new AtomicLong();
 
-  private int limit;
-  private int counter;
+  // Range acquired ahead of time by the prefetch executor, packed like range.
+  private final AtomicReference<CompletableFuture<Long>> prefetched = new AtomicReference<>();
+
+  private volatile int currentBatchSize;
+
+  // Serializes acquiring new ranges, and protects the fields below.
+  private final ReentrantLock counterLock;
+
+  private long lastAcquire;
 
   @VisibleForTesting int acquireCount;
 
@@ -144,6 +203,42 @@ public class RepoSequence {
         floor);
   }
 
+  /**
+   * Creates a sequence with an adaptive batch size and optional prefetching.
+   *
+   * @param batchSize minimum and initial number of IDs acquired at once.
+   * @param maxBatchSize maximum number of IDs acquired at once; if equal to {@code batchSize} the
+   *     batch size is fixed.
+   * @param prefetchExecutor executor to acquire the next range in the background, or null to only
+   *     acquire ranges when the current one is exhausted.
+   * @param listener receives statistics about acquired and discarded ranges.
+   */
+  public RepoSequence(
+      GitRepositoryManager repoManager,
+      GitReferenceUpdated gitRefUpdated,
+      Project.NameKey projectName,
+      String name,
+      Seed seed,
+      int batchSize,
+      int maxBatchSize,
+      @Nullable Executor prefetchExecutor,
+      Listener listener) {
+    this(
+        repoManager,
+        gitRefUpdated,
+        projectName,
+        name,
+        seed,
+        batchSize,
+        maxBatchSize,
+        prefetchExecutor,
+        listener,
+        Runnables.doNothing(),
+        RETRYER,
+        0,
+        Ticker.systemTicker());
+  }
+
   @VisibleForTesting
   RepoSequence(
       GitRepositoryManager repoManager,
@@ -167,6 +262,37 @@ public class RepoSequence {
       Runnable afterReadRef,
       Retryer<RefUpdate.Result> retryer,
       int floor) {
+    this(
+        repoManager,
+        gitRefUpdated,
+        projectName,
+        name,
+        seed,
+        batchSize,
+        batchSize,
+        null,
+        Listener.NONE,
+        afterReadRef,
+        retryer,
+        floor,
+        Ticker.systemTicker());
+  }
+
+  @VisibleForTesting
+  RepoSequence(
+      GitRepositoryManager repoManager,
+      GitReferenceUpdated gitRefUpdated,
+      Project.NameKey projectName,
+      String name,
+      Seed seed,
+      int batchSize,
+      int maxBatchSize,
+      @Nullable Executor prefetchExecutor,
+      Listener listener,
+      Runnable afterReadRef,
+      Retryer<RefUpdate.Result> retryer,
+      int floor,
+      Ticker ticker) {
     this.repoManager = requireNonNull(repoManager, "repoManager");
     this.gitRefUpdated = requireNonNull(gitRefUpdated, "gitRefUpdated");
     this.projectName = requireNonNull(projectName, "projectName");
@@ -183,20 +309,35 @@ public class RepoSequence {
     this.floor = floor;
 
     checkArgument(batchSize > 0, "expected batchSize > 0, got: %s", batchSize);
+    checkArgument(
+        maxBatchSize >= batchSize,
+        "expected maxBatchSize >= batchSize, got: %s < %s",
+        maxBatchSize,
+        batchSize);
     this.batchSize = batchSize;
+    this.maxBatchSize = maxBatchSize;
+    this.currentBatchSize = batchSize;
+    this.prefetchExecutor = prefetchExecutor;
+    this.listener = requireNonNull(listener, "listener");
     this.afterReadRef = requireNonNull(afterReadRef, "afterReadRef");
     this.retryer = requireNonNull(retryer, "retryer");
+    this.ticker = requireNonNull(ticker, "ticker");
 
     counterLock = new ReentrantLock(true);
   }
 
   public int next() throws OrmException {
+    int id = claim();
+    if (id != EXHAUSTED) {
+      return id;
+    }
+
     counterLock.lock();
     try {
-      if (counter >= limit) {
-        acquire(batchSize);
+      while ((id = claim()) == EXHAUSTED) {
+        refill(1);
       }
-      return counter++;
+      return id;
     } finally {
       counterLock.unlock();
     }
@@ -210,15 +351,13 @@ public class RepoSequence {
     counterLock.lock();
     try {
       List<Integer> ids = new ArrayList<>(count);
-      while (counter < limit) {
-        ids.add(counter++);
-        if (ids.size() == count) {
-          return ImmutableList.copyOf(ids);
-        }
-      }
-      acquire(Math.max(count - ids.size(), batchSize));
       while (ids.size() < count) {
-        ids.add(counter++);
+        int id = claim();
+        if (id != EXHAUSTED) {
+          ids.add(id);
+        } else {
+          refill(count - ids.size());
+        }
       }
       return ImmutableList.copyOf(ids);
     } finally {
@@ -235,7 +374,7 @@ public class RepoSequence {
       try (Repository repo = repoManager.openRepository(projectName);
           RevWalk rw = new RevWalk(repo)) {
         checkResult(store(repo, rw, null, val));
-        counter = limit;
+        discardAll();
       } catch (IOException e) {
         throw new OrmException(e);
       }
@@ -251,7 +390,7 @@ public class RepoSequence {
           RevWalk rw = new RevWalk(repo)) {
         TryIncreaseTo attempt = new TryIncreaseTo(repo, rw, val);
         checkResult(retryer.call(attempt));
-        counter = limit;
+        discardAll();
       } catch (ExecutionException | RetryException e) {
         if (e.getCause() != null) {
           Throwables.throwIfInstanceOf(e.getCause(), OrmException.class);
@@ -265,14 +404,122 @@ public class RepoSequence {
     }
   }
 
-  private void acquire(int count) throws OrmException {
+  /**
+   * Claims the next number of the current range without locking.
+   *
+   * @return the claimed number, or {@link #EXHAUSTED} if the current range is used up.
+   */
+  private int claim() {
+    while (true) {
+      long r = range.get();
+      int counter = counter(r);
+      int limit = limit(r);
+      if (counter >= limit) {
+        return EXHAUSTED;
+      }
+      if (range.compareAndSet(r, range(counter + 1, limit))) {
+        if (limit - counter - 1 <= currentBatchSize / 2) {
+          prefetch();
+        }
+        return counter;
+      }
+    }
+  }
+
+  /** Replaces the exhausted current range by one with at least {@code count} numbers. */
+  private void refill(int count) throws OrmException {
+    adaptBatchSize();
+    CompletableFuture<Long> f = prefetched.getAndSet(null);
+    if (f != null) {
+      try {
+        range.set(f.get(PREFETCH_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        acquireCount++;
+        return;
+      } catch (ExecutionException e) {
+        logger.atWarning().withCause(e.getCause()).log("Failed to prefetch %s", refName);
+      } catch (TimeoutException e) {
+        // The executor may have been shut down before running the task.
+        logger.atWarning().log("Timed out waiting for prefetch of %s", refName);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new OrmException("Interrupted while waiting for " + refName, e);
+      }
+    }
+    range.set(acquire(Math.max(count, currentBatchSize)));
+    acquireCount++;
+  }
+
+  private void adaptBatchSize() {
+    long now = ticker.read();
+    if (maxBatchSize > batchSize && acquireCount > 0) {
+      long elapsed = now - lastAcquire;
+      if (elapsed < GROW_INTERVAL_NANOS || counterLock.hasQueuedThreads()) {
+        currentBatchSize = (int) Math.min((long) currentBatchSize * 2, maxBatchSize);
+      } else if (elapsed > SHRINK_INTERVAL_NANOS) {
+        currentBatchSize = Math.max(currentBatchSize / 2, batchSize);
+      }
+    }
+    lastAcquire = now;
+  }
+
+  private void prefetch() {
+    if (prefetchExecutor == null) {
+      return;
+    }
+    CompletableFuture<Long> f = new CompletableFuture<>();
+    if (!prefetched.compareAndSet(null, f)) {
+      return;
+    }
+    int count = currentBatchSize;
+    try {
+      prefetchExecutor.execute(
+          () -> {
+            try {
+              f.complete(acquire(count));
+            } catch (Throwable t) {
+              f.completeExceptionally(t);
+            }
+          });
+    } catch (RejectedExecutionException e) {
+      prefetched.compareAndSet(f, null);
+      f.completeExceptionally(e);
+    }
+  }
+
+  /**
+   * Drops the current and the prefetched range, e.g. because the ref was moved past them.
+   *
+   * <p>A prefetch that is still running may have read the ref before it was moved, so it is waited
+   * for and its range dropped as well.
+   */
+  private void discardAll() {
+    long r = range.getAndSet(0);
+    int discarded = limit(r) - counter(r);
+    CompletableFuture<Long> f = prefetched.getAndSet(null);
+    if (f != null) {
+      try {
+        r = f.get(PREFETCH_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        discarded += limit(r) - counter(r);
+      } catch (ExecutionException | TimeoutException e) {
+        // Nothing was acquired, or nobody will ever use it.
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    if (discarded > 0) {
+      listener.onDiscard(discarded);
+    }
+  }
+
+  /** Acquires a new range of {@code count} numbers from the ref, returned packed. */
+  private long acquire(int count) throws OrmException {
+    long start = ticker.read();
     try (Repository repo = repoManager.openRepository(projectName);
         RevWalk rw = new RevWalk(repo)) {
       TryAcquire attempt = new TryAcquire(repo, rw, count);
       checkResult(retryer.call(attempt));
-      counter = attempt.next;
-      limit = counter + count;
-      acquireCount++;
+      listener.onAcquire(count, ticker.read() - start);
+      return range(attempt.next, attempt.next + count);
     } catch (ExecutionException | RetryException e) {
       if (e.getCause() != null) {
         Throwables.throwIfInstanceOf(e.getCause(), OrmException.class);
@@ -283,6 +530,18 @@ public class RepoSequence {
     }
   }
 
+  private static long range(int counter, int limit) {
+    return ((long) limit << 32) | (counter & 0xffffffffL);
+  }
+
+  private static int counter(long range) {
+    return (int) range;
+  }
+
+  private static int limit(long range) {
+    return (int) (range >>> 32);
+  }
+
   private void checkResult(RefUpdate.Result result) throws OrmException {
     if (!refUpdated(result) && result != Result.NO_CHANGE) {
       throw new OrmException("failed to update " + refName + ": " + result);
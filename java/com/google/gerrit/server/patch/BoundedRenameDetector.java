@@ -0,0 +1,563 @@
+// Copyright (C) 2019 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import static java.util.Comparator.comparing;
+import static java.util.Comparator.reverseOrder;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.eclipse.jgit.lib.Constants.OBJ_BLOB;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.MultimapBuilder;
+import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.metrics.Counter0;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Description.Units;
+import com.google.gerrit.metrics.Histogram0;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.metrics.Timer0;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.DiffEntry.ChangeType;
+import org.eclipse.jgit.lib.AbbreviatedObjectId;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
+
+/**
+ * Detects renamed and copied files in a tree diff at bounded cost.
+ *
+ * <p>JGit's rename detection compares the content of every added file with the content of every
+ * deleted file. On large refactorings this either exceeds the rename limit, so that no renames are
+ * found at all, or keeps a core busy for seconds. This detector instead:
+ *
+ * <ol>
+ *   <li>pairs added and deleted files with identical blob IDs, which covers moved files without
+ *       reading any content;
+ *   <li>summarizes the content of the remaining files in a 64-bit SimHash signature, computed in
+ *       parallel on the {@link DiffExecutor};
+ *   <li>compares the content of each added file only with the few deleted files whose signatures
+ *       are closest, using a line-based similarity score like JGit's.
+ * </ol>
+ *
+ * <p>If the last two steps don't finish within the diff timeout, the files that are not paired by
+ * blob ID are reported as added and deleted.
+ */
+class BoundedRenameDetector {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  /** Default number of deleted files compared with each added file. */
+  static final int DEFAULT_CANDIDATES = 10;
+
+  /** Minimum similarity of a rename or copy, in percent; same as JGit's default. */
+  @VisibleForTesting static final int RENAME_SCORE = 60;
+
+  /** Files larger than this are only paired by blob ID. */
+  private static final int MAX_FILE_SIZE = 8 << 20;
+
+  /** Lines longer than this are hashed in several chunks, so that binary files can be compared. */
+  private static final int MAX_CHUNK_SIZE = 64;
+
+  /** Number of files summarized or matched by one task on the diff executor. */
+  private static final int BATCH_SIZE = 128;
+
+  /** Same order as JGit's rename detection: by path, deletions before additions. */
+  private static final Comparator<DiffEntry> ORDER =
+      comparing(BoundedRenameDetector::pathOf).thenComparingInt(e -> sortOf(e.getChangeType()));
+
+  @Singleton
+  static class Metrics {
+    final Timer0 latency;
+    final Histogram0 comparedPairs;
+    final Counter0 timeoutCount;
+
+    @Inject
+    Metrics(MetricMaker metricMaker) {
+      latency =
+          metricMaker.newTimer(
+              "diff/rename_detection/latency",
+              new Description("Latency for detecting renamed and copied files of a diff")
+                  .setCumulative()
+                  .setUnit(Units.MILLISECONDS));
+      comparedPairs =
+          metricMaker.newHistogram(
+              "diff/rename_detection/compared_pairs",
+              new Description("Number of file pairs compared by content to detect renames")
+                  .setCumulative()
+                  .setUnit("pairs"));
+      timeoutCount =
+          metricMaker.newCounter(
+              "diff/rename_detection/timeout_count",
+              new Description("Rename detections that were cut short by the diff timeout")
+                  .setRate());
+    }
+  }
+
+  private final ExecutorService executor;
+  private final Metrics metrics;
+  private final int maxCandidates;
+  private final long timeoutMillis;
+
+  BoundedRenameDetector(
+      ExecutorService executor, Metrics metrics, int maxCandidates, long timeoutMillis) {
+    this.executor = executor;
+    this.metrics = metrics;
+    this.maxCandidates = maxCandidates;
+    this.timeoutMillis = timeoutMillis;
+  }
+
+  /**
+   * Pairs added and deleted files of a tree diff into renames and copies.
+   *
+   * @param reader reader for the blobs of the diff.
+   * @param entries entries of the diff, as scanned without rename detection.
+   * @return entries including renames and copies, in the same order as with JGit's rename
+   *     detection.
+   * @throws IOException if a blob cannot be read, or the thread was interrupted.
+   */
+  List<DiffEntry> compute(ObjectReader reader, List<DiffEntry> entries) throws IOException {
+    List<DiffEntry> added = new ArrayList<>();
+    List<DiffEntry> deleted = new ArrayList<>();
+    List<DiffEntry> result = new ArrayList<>(entries.size());
+    for (DiffEntry e : entries) {
+      if (e.getChangeType() == ChangeType.ADD && isFile(e.getNewMode())) {
+        added.add(e);
+      } else if (e.getChangeType() == ChangeType.DELETE && isFile(e.getOldMode())) {
+        deleted.add(e);
+      } else {
+        result.add(e);
+      }
+    }
+    if (added.isEmpty() || deleted.isEmpty()) {
+      return entries;
+    }
+
+    try (Timer0.Context ctx = metrics.latency.start()) {
+      findExactRenames(added, deleted, result);
+      if (maxCandidates > 0 && !added.isEmpty() && !deleted.isEmpty()) {
+        findSimilarRenames(reader, added, deleted, result);
+      }
+    }
+    result.addAll(added);
+    result.addAll(deleted);
+    result.sort(ORDER);
+    return result;
+  }
+
+  private static void findExactRenames(
+      List<DiffEntry> added, List<DiffEntry> deleted, List<DiffEntry> result) {
+    ListMultimap<AbbreviatedObjectId, Integer> deletedById =
+        MultimapBuilder.hashKeys().arrayListValues().build();
+    for (int s = 0; s < deleted.size(); s++) {
+      deletedById.put(deleted.get(s).getOldId(), s);
+    }
+
+    boolean[] sourceUsed = new boolean[deleted.size()];
+    boolean[] targetUsed = new boolean[added.size()];
+    for (int t = 0; t < added.size(); t++) {
+      DiffEntry target = added.get(t);
+      int best = -1;
+      int bestPreference = -1;
+      for (int s : deletedById.get(target.getNewId())) {
+        DiffEntry source = deleted.get(s);
+        if (!sameType(source.getOldMode(), target.getNewMode())) {
+          continue;
+        }
+        // Rename unused sources before copying used ones, and prefer files with the same name.
+        int preference = (sourceUsed[s] ? 0 : 2) + (sameFileName(source, target) ? 1 : 0);
+        if (preference > bestPreference) {
+          best = s;
+          bestPreference = preference;
+        }
+      }
+      if (best >= 0) {
+        targetUsed[t] = true;
+        result.add(pair(sourceUsed[best], deleted.get(best), target, 100));
+        sourceUsed[best] = true;
+      }
+    }
+    removeUsed(added, targetUsed);
+    removeUsed(deleted, sourceUsed);
+  }
+
+  private void findSimilarRenames(
+      ObjectReader reader, List<DiffEntry> added, List<DiffEntry> deleted, List<DiffEntry> result)
+      throws IOException {
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    List<Future<Void>> signatureTasks = new ArrayList<>();
+    List<Future<List<Match>>> matchTasks = new ArrayList<>();
+    AtomicLong compared = new AtomicLong();
+    List<Match> matches = new ArrayList<>();
+    try {
+      Signature[] sources = signatures(reader, deleted, true, deadline, signatureTasks);
+      Signature[] targets = signatures(reader, added, false, deadline, signatureTasks);
+      await(signatureTasks, deadline);
+
+      for (int start = 0; start < targets.length; start += BATCH_SIZE) {
+        int from = start;
+        int to = Math.min(start + BATCH_SIZE, targets.length);
+        matchTasks.add(executor.submit(() -> match(sources, targets, from, to, compared)));
+      }
+      for (List<Match> m : await(matchTasks, deadline)) {
+        matches.addAll(m);
+      }
+    } catch (InterruptedException e) {
+      signatureTasks.forEach(f -> f.cancel(true));
+      matchTasks.forEach(f -> f.cancel(true));
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while detecting renames");
+    } catch (TimeoutException e) {
+      signatureTasks.forEach(f -> f.cancel(true));
+      matchTasks.forEach(f -> f.cancel(true));
+      metrics.timeoutCount.increment();
+      logger.atWarning().log(
+          "%s ms timeout reached while detecting renames among %d added and %d deleted files",
+          timeoutMillis, added.size(), deleted.size());
+      return;
+    } finally {
+      metrics.comparedPairs.record(compared.get());
+    }
+
+    // Assign the most similar pairs first. A deleted file can be the source of several added
+    // files, the first of them is a rename and the others are copies.
+    matches.sort(
+        comparing((Match m) -> m.score, reverseOrder())
+            .thenComparing(m -> !sameFileName(deleted.get(m.source), added.get(m.target))));
+    boolean[] sourceUsed = new boolean[deleted.size()];
+    boolean[] targetUsed = new boolean[added.size()];
+    for (Match m : matches) {
+      if (targetUsed[m.target]) {
+        continue;
+      }
+      targetUsed[m.target] = true;
+      result.add(pair(sourceUsed[m.source], deleted.get(m.source), added.get(m.target), m.score));
+      sourceUsed[m.source] = true;
+    }
+    removeUsed(added, targetUsed);
+    removeUsed(deleted, sourceUsed);
+  }
+
+  /**
+   * Computes the signatures of files on the diff executor.
+   *
+   * <p>The blobs are read on the calling thread, as object readers are not thread-safe.
+   */
+  private Signature[] signatures(
+      ObjectReader reader,
+      List<DiffEntry> entries,
+      boolean old,
+      long deadline,
+      List<Future<Void>> tasks)
+      throws IOException, TimeoutException {
+    Signature[] signatures = new Signature[entries.size()];
+    for (int start = 0; start < entries.size(); start += BATCH_SIZE) {
+      int from = start;
+      byte[][] contents = new byte[Math.min(BATCH_SIZE, entries.size() - start)][];
+      for (int i = 0; i < contents.length; i++) {
+        if (System.nanoTime() > deadline) {
+          throw new TimeoutException();
+        }
+        DiffEntry e = entries.get(from + i);
+        // Symbolic links are only paired by blob ID.
+        if (sameType(old ? e.getOldMode() : e.getNewMode(), FileMode.REGULAR_FILE)) {
+          contents[i] = read(reader, old ? e.getOldId() : e.getNewId());
+        }
+      }
+      tasks.add(
+          executor.submit(
+              () -> {
+                for (int i = 0; i < contents.length; i++) {
+                  if (contents[i] != null) {
+                    signatures[from + i] = Signature.create(contents[i]);
+                  }
+                }
+                return null;
+              }));
+    }
+    return signatures;
+  }
+
+  private List<Match> match(
+      Signature[] sources, Signature[] targets, int from, int to, AtomicLong compared) {
+    List<Match> matches = new ArrayList<>();
+    for (int t = from; t < to; t++) {
+      Signature target = targets[t];
+      if (target == null) {
+        continue;
+      }
+      for (int s : target.nearest(sources, maxCandidates)) {
+        compared.incrementAndGet();
+        int score = target.score(sources[s]);
+        if (score >= RENAME_SCORE) {
+          matches.add(new Match(s, t, score));
+        }
+      }
+    }
+    return matches;
+  }
+
+  private static <T> List<T> await(List<Future<T>> futures, long deadline)
+      throws IOException, InterruptedException, TimeoutException {
+    List<T> results = new ArrayList<>(futures.size());
+    for (Future<T> f : futures) {
+      try {
+        results.add(f.get(Math.max(0, deadline - System.nanoTime()), NANOSECONDS));
+      } catch (ExecutionException e) {
+        Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+        Throwables.throwIfUnchecked(e.getCause());
+        throw new IOException(e.getMessage(), e.getCause());
+      }
+    }
+    return results;
+  }
+
+  @Nullable
+  private static byte[] read(ObjectReader reader, AbbreviatedObjectId id) throws IOException {
+    ObjectLoader loader = reader.open(id.toObjectId(), OBJ_BLOB);
+    if (loader.getSize() > MAX_FILE_SIZE) {
+      return null;
+    }
+    return loader.getCachedBytes(MAX_FILE_SIZE);
+  }
+
+  private static void removeUsed(List<DiffEntry> entries, boolean[] used) {
+    int n = 0;
+    for (int i = 0; i < used.length; i++) {
+      if (!used[i]) {
+        entries.set(n++, entries.get(i));
+      }
+    }
+    entries.subList(n, entries.size()).clear();
+  }
+
+  private static DiffEntry pair(boolean copy, DiffEntry source, DiffEntry target, int score) {
+    return new Pair(copy ? ChangeType.COPY : ChangeType.RENAME, source, target, score);
+  }
+
+  private static boolean isFile(FileMode mode) {
+    int type = mode.getBits() & FileMode.TYPE_MASK;
+    return type == FileMode.TYPE_FILE || type == FileMode.TYPE_SYMLINK;
+  }
+
+  private static boolean sameType(FileMode a, FileMode b) {
+    return (a.getBits() & FileMode.TYPE_MASK) == (b.getBits() & FileMode.TYPE_MASK);
+  }
+
+  private static boolean sameFileName(DiffEntry source, DiffEntry target) {
+    return fileName(source.getOldPath()).equals(fileName(target.getNewPath()));
+  }
+
+  private static String fileName(String path) {
+    return path.substring(path.lastIndexOf('/') + 1);
+  }
+
+  private static String pathOf(DiffEntry e) {
+    return e.getChangeType() == ChangeType.DELETE ? e.getOldPath() : e.getNewPath();
+  }
+
+  private static int sortOf(ChangeType changeType) {
+    switch (changeType) {
+      case DELETE:
+        return 1;
+      case ADD:
+        return 2;
+      case COPY:
+      case MODIFY:
+      case RENAME:
+      default:
+        return 10;
+    }
+  }
+
+  /** Rename or copy; JGit has no public way to create one. */
+  private static class Pair extends DiffEntry {
+    Pair(ChangeType changeType, DiffEntry source, DiffEntry target, int score) {
+      this.changeType = changeType;
+      this.oldId = source.getOldId();
+      this.oldPath = source.getOldPath();
+      this.oldMode = source.getOldMode();
+      this.newId = target.getNewId();
+      this.newPath = target.getNewPath();
+      this.newMode = target.getNewMode();
+      this.score = score;
+    }
+  }
+
+  private static class Match {
+    final int source;
+    final int target;
+    final int score;
+
+    Match(int source, int target, int score) {
+      this.source = source;
+      this.target = target;
+      this.score = score;
+    }
+  }
+
+  /**
+   * Summary of the content of a file.
+   *
+   * <p>The content is split into lines, and each distinct line is kept as its hash and the number
+   * of bytes it makes up. The SimHash combines the line hashes weighted by these byte counts, so
+   * that files sharing most of their content have signatures differing in few bits.
+   */
+  @VisibleForTesting
+  static class Signature {
+    static Signature create(byte[] content) {
+      long[] lines = new long[16];
+      int n = 0;
+      int start = 0;
+      for (int i = 0; i < content.length; i++) {
+        if (content[i] == '\n' || i + 1 - start == MAX_CHUNK_SIZE || i + 1 == content.length) {
+          if (n == lines.length) {
+            lines = Arrays.copyOf(lines, 2 * n);
+          }
+          lines[n++] = ((long) hash(content, start, i + 1) << 32) | (i + 1 - start);
+          start = i + 1;
+        }
+      }
+
+      // Sorting by the packed value groups equal hashes, which are then merged.
+      Arrays.sort(lines, 0, n);
+      int m = 0;
+      for (int i = 0; i < n; i++) {
+        if (m > 0 && key(lines[m - 1]) == key(lines[i])) {
+          lines[m - 1] += count(lines[i]);
+        } else {
+          lines[m++] = lines[i];
+        }
+      }
+      lines = Arrays.copyOf(lines, m);
+
+      long[] weights = new long[64];
+      for (long line : lines) {
+        long h = mix(key(line));
+        int w = count(line);
+        for (int b = 0; b < 64; b++) {
+          weights[b] += ((h >>> b) & 1) != 0 ? w : -w;
+        }
+      }
+      long simHash = 0;
+      for (int b = 0; b < 64; b++) {
+        if (weights[b] > 0) {
+          simHash |= 1L << b;
+        }
+      }
+      return new Signature(simHash, content.length, lines);
+    }
+
+    private static int hash(byte[] content, int from, int to) {
+      int h = 0x811c9dc5;
+      for (int i = from; i < to; i++) {
+        h = (h ^ (content[i] & 0xff)) * 0x01000193;
+      }
+      return h;
+    }
+
+    private static long mix(int key) {
+      long x = key * 0x9e3779b97f4a7c15L;
+      x = (x ^ (x >>> 33)) * 0xff51afd7ed558ccdL;
+      x = (x ^ (x >>> 33)) * 0xc4ceb9fe1a85ec53L;
+      return x ^ (x >>> 33);
+    }
+
+    private static int key(long line) {
+      return (int) (line >>> 32);
+    }
+
+    private static int count(long line) {
+      return (int) line;
+    }
+
+    final long simHash;
+    final long size;
+    private final long[] lines;
+
+    private Signature(long simHash, long size, long[] lines) {
+      this.simHash = simHash;
+      this.size = size;
+      this.lines = lines;
+    }
+
+    /**
+     * Finds the candidates whose SimHash is closest to this one.
+     *
+     * @param candidates signatures to choose from; null entries are skipped.
+     * @param limit maximum number of candidates to return.
+     * @return indexes of the closest candidates that can reach the rename score by their size.
+     */
+    int[] nearest(Signature[] candidates, int limit) {
+      // Max-heap of distance and index, so that the farthest of the closest is replaced first.
+      PriorityQueue<Long> closest = new PriorityQueue<>(limit + 1, reverseOrder());
+      for (int i = 0; i < candidates.length; i++) {
+        Signature c = candidates[i];
+        if (c == null || Math.min(size, c.size) * 100 < RENAME_SCORE * Math.max(size, c.size)) {
+          continue;
+        }
+        long entry = ((long) Long.bitCount(simHash ^ c.simHash) << 32) | i;
+        if (closest.size() < limit) {
+          closest.add(entry);
+        } else if (entry < closest.peek()) {
+          closest.poll();
+          closest.add(entry);
+        }
+      }
+      return closest.stream().mapToInt(e -> (int) (long) e).toArray();
+    }
+
+    /** Returns the percentage of content shared with another file, as in JGit. */
+    int score(Signature other) {
+      long max = Math.max(size, other.size);
+      if (max == 0) {
+        return 100;
+      }
+      long common = 0;
+      int i = 0;
+      int j = 0;
+      while (i < lines.length && j < other.lines.length) {
+        int a = key(lines[i]);
+        int b = key(other.lines[j]);
+        if (a < b) {
+          i++;
+        } else if (a > b) {
+          j++;
+        } else {
+          common += Math.min(count(lines[i]), count(other.lines[j]));
+          i++;
+          j++;
+        }
+      }
+      return (int) (common * 100 / max);
+    }
+  }
+}
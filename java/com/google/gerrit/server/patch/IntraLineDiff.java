@@ -41,7 +41,13 @@ public class IntraLineDiff implements Serializable {
     EDIT_LIST('e'),
     DISABLED('D'),
     TIMEOUT('T'),
-    ERROR('E');
+    ERROR('E'),
+
+    /**
+     * Edit list in which only some of the modified hunks have intraline differences, because the
+     * timeout was reached before all of them were computed.
+     */
+    PARTIAL('p');
 
     private final char code;
 
@@ -64,7 +70,11 @@ public class IntraLineDiff implements Serializable {
   }
 
   IntraLineDiff(List<Edit> edits) {
-    this.status = Status.EDIT_LIST;
+    this(Status.EDIT_LIST, edits);
+  }
+
+  IntraLineDiff(Status status, List<Edit> edits) {
+    this.status = status;
     this.edits = ImmutableList.copyOf(edits);
   }
 
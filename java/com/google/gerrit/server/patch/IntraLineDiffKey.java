@@ -17,14 +17,20 @@ package com.google.gerrit.server.patch;
 import com.google.auto.value.AutoValue;
 import com.google.gerrit.extensions.client.DiffPreferencesInfo.Whitespace;
 import java.io.Serializable;
+import org.eclipse.jgit.diff.DiffAlgorithm.SupportedAlgorithm;
 import org.eclipse.jgit.lib.ObjectId;
 
 @AutoValue
 public abstract class IntraLineDiffKey implements Serializable {
-  public static final long serialVersionUID = 13L;
+  public static final long serialVersionUID = 14L;
 
   public static IntraLineDiffKey create(ObjectId aId, ObjectId bId, Whitespace whitespace) {
-    return new AutoValue_IntraLineDiffKey(aId, bId, whitespace);
+    return create(aId, bId, whitespace, SupportedAlgorithm.MYERS);
+  }
+
+  public static IntraLineDiffKey create(
+      ObjectId aId, ObjectId bId, Whitespace whitespace, SupportedAlgorithm algorithm) {
+    return new AutoValue_IntraLineDiffKey(aId, bId, whitespace, algorithm);
   }
 
   public abstract ObjectId getBlobA();
@@ -32,4 +38,7 @@ public abstract class IntraLineDiffKey implements Serializable {
   public abstract ObjectId getBlobB();
 
   public abstract Whitespace getWhitespace();
+
+  /** Algorithm used to compute the differences within modified lines. */
+  public abstract SupportedAlgorithm getAlgorithm();
 }
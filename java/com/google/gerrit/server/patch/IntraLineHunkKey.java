@@ -0,0 +1,37 @@
+// Copyright (C) 2019 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import com.google.auto.value.AutoValue;
+import org.eclipse.jgit.diff.Edit;
+
+/** Identifies the intraline differences of a single modified hunk of a file. */
+@AutoValue
+public abstract class IntraLineHunkKey {
+  static IntraLineHunkKey create(IntraLineDiffKey fileKey, Edit hunk) {
+    return new AutoValue_IntraLineHunkKey(
+        fileKey, hunk.getBeginA(), hunk.getEndA(), hunk.getBeginB(), hunk.getEndB());
+  }
+
+  public abstract IntraLineDiffKey getFileKey();
+
+  public abstract int getBeginA();
+
+  public abstract int getEndA();
+
+  public abstract int getBeginB();
+
+  public abstract int getEndB();
+}
@@ -16,6 +16,7 @@
 package com.google.gerrit.server.patch;
 
 import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.flogger.FluentLogger;
@@ -23,17 +24,22 @@ import com.google.gerrit.server.config.ConfigUtil;
 import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.inject.Inject;
 import com.google.inject.assistedinject.Assisted;
+import com.google.inject.name.Named;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
+import org.eclipse.jgit.diff.DiffAlgorithm;
+import org.eclipse.jgit.diff.DiffAlgorithm.SupportedAlgorithm;
 import org.eclipse.jgit.diff.Edit;
-import org.eclipse.jgit.diff.MyersDiff;
 import org.eclipse.jgit.diff.ReplaceEdit;
 import org.eclipse.jgit.lib.Config;
 
@@ -50,6 +56,7 @@ class IntraLineLoader implements Callable<IntraLineDiff> {
   private static final Pattern CONTROL_BLOCK_START_RE = Pattern.compile("[{:][ \\t]*$");
 
   private final ExecutorService diffExecutor;
+  private final Cache<IntraLineHunkKey, IntraLineDiff> hunkCache;
   private final long timeoutMillis;
   private final IntraLineDiffKey key;
   private final IntraLineDiffArgs args;
@@ -57,10 +64,12 @@ class IntraLineLoader implements Callable<IntraLineDiff> {
   @Inject
   IntraLineLoader(
       @DiffExecutor ExecutorService diffExecutor,
+      @Named(PatchListCacheImpl.INTRA_HUNK_NAME) Cache<IntraLineHunkKey, IntraLineDiff> hunkCache,
       @GerritServerConfig Config cfg,
       @Assisted IntraLineDiffKey key,
       @Assisted IntraLineDiffArgs args) {
     this.diffExecutor = diffExecutor;
+    this.hunkCache = hunkCache;
     timeoutMillis =
         ConfigUtil.getTimeUnit(
             cfg,
@@ -75,25 +84,80 @@ class IntraLineLoader implements Callable<IntraLineDiff> {
 
   @Override
   public IntraLineDiff call() throws Exception {
-    Future<IntraLineDiff> result =
+    List<Edit> edits = new ArrayList<>(args.edits());
+    combineLineEdits(edits, args.editsDueToRebase(), args.aText(), args.bText());
+
+    // Hunks computed by earlier requests are reused, even if those requests timed out before all
+    // hunks of the file were done.
+    Map<Integer, IntraLineDiff> hunks = new ConcurrentHashMap<>();
+    List<Integer> missing = new ArrayList<>();
+    for (int i = 0; i < edits.size(); i++) {
+      Edit e = edits.get(i);
+      if (e.getType() == Edit.Type.REPLACE) {
+        IntraLineDiff hunk = hunkCache.getIfPresent(IntraLineHunkKey.create(key, e));
+        if (hunk != null) {
+          hunks.put(i, hunk);
+        } else {
+          missing.add(i);
+        }
+      }
+    }
+    if (!missing.isEmpty()) {
+      computeHunks(edits, missing, hunks);
+    }
+    return combine(edits, hunks);
+  }
+
+  /**
+   * Computes the missing hunks in order, until all are done or the timeout is reached.
+   *
+   * <p>On timeout the hunk that was being computed is recorded as timed out if it was the first one
+   * of this request, as it used up the whole timeout on its own. The next request for the file
+   * continues with the hunks after it.
+   */
+  private void computeHunks(
+      List<Edit> edits, List<Integer> missing, Map<Integer, IntraLineDiff> hunks) throws Exception {
+    AtomicInteger current = new AtomicInteger(-1);
+    Future<?> result =
         diffExecutor.submit(
-            () ->
-                IntraLineLoader.compute(
-                    args.aText(), args.bText(), args.edits(), args.editsDueToRebase()));
+            () -> {
+              for (int i : missing) {
+                if (Thread.currentThread().isInterrupted()) {
+                  return null;
+                }
+                current.set(i);
+                Edit e = edits.get(i);
+                IntraLineDiff hunk =
+                    new IntraLineDiff(
+                        computeHunk(key.getAlgorithm(), args.aText(), args.bText(), e));
+                hunkCache.put(IntraLineHunkKey.create(key, e), hunk);
+                hunks.put(i, hunk);
+              }
+              return null;
+            });
     try {
-      return result.get(timeoutMillis, TimeUnit.MILLISECONDS);
+      result.get(timeoutMillis, TimeUnit.MILLISECONDS);
     } catch (InterruptedException | TimeoutException e) {
       logger.atWarning().log(
           "%s ms timeout reached for IntraLineDiff"
-              + " in project %s on commit %s for path %s comparing %s..%s",
+              + " in project %s on commit %s for path %s comparing %s..%s"
+              + " after %d of %d missing hunks",
           timeoutMillis,
           args.project(),
           args.commit().name(),
           args.path(),
           key.getBlobA().name(),
-          key.getBlobB().name());
+          key.getBlobB().name(),
+          Math.max(0, missing.indexOf(current.get())),
+          missing.size());
       result.cancel(true);
-      return new IntraLineDiff(IntraLineDiff.Status.TIMEOUT);
+      int i = current.get();
+      if (i == missing.get(0)) {
+        // The hunk may have been finished just before the computation was cancelled.
+        IntraLineDiff timeout = new IntraLineDiff(IntraLineDiff.Status.TIMEOUT);
+        hunkCache.asMap().putIfAbsent(IntraLineHunkKey.create(key, edits.get(i)), timeout);
+        hunks.putIfAbsent(i, timeout);
+      }
     } catch (ExecutionException e) {
       // If there was an error computing the result, carry it
       // up to the caller so the cache knows this key is invalid.
@@ -102,6 +166,27 @@ class IntraLineLoader implements Callable<IntraLineDiff> {
     }
   }
 
+  private static IntraLineDiff combine(List<Edit> edits, Map<Integer, IntraLineDiff> hunks) {
+    List<Edit> result = new ArrayList<>(edits.size());
+    boolean complete = true;
+    for (int i = 0; i < edits.size(); i++) {
+      Edit e = edits.get(i);
+      if (e.getType() != Edit.Type.REPLACE) {
+        result.add(e);
+        continue;
+      }
+      IntraLineDiff hunk = hunks.get(i);
+      if (hunk != null && hunk.getStatus() == IntraLineDiff.Status.EDIT_LIST) {
+        result.add(new ReplaceEdit(e, new ArrayList<>(hunk.getEdits())));
+      } else {
+        result.add(e);
+        complete = false;
+      }
+    }
+    return new IntraLineDiff(
+        complete ? IntraLineDiff.Status.EDIT_LIST : IntraLineDiff.Status.PARTIAL, result);
+  }
+
   static IntraLineDiff compute(
       Text aText,
       Text bText,
@@ -112,149 +197,147 @@ class IntraLineLoader implements Callable<IntraLineDiff> {
 
     for (int i = 0; i < edits.size(); i++) {
       Edit e = edits.get(i);
-
       if (e.getType() == Edit.Type.REPLACE) {
-        CharText a = new CharText(aText, e.getBeginA(), e.getEndA());
-        CharText b = new CharText(bText, e.getBeginB(), e.getEndB());
-        CharTextComparator cmp = new CharTextComparator();
-
-        List<Edit> wordEdits = MyersDiff.INSTANCE.diff(cmp, a, b);
-
-        // Combine edits that are really close together. If they are
-        // just a few characters apart we tend to get better results
-        // by joining them together and taking the whole span.
-        //
-        for (int j = 0; j < wordEdits.size() - 1; ) {
-          Edit c = wordEdits.get(j);
-          Edit n = wordEdits.get(j + 1);
-
-          if (n.getBeginA() - c.getEndA() <= 5 || n.getBeginB() - c.getEndB() <= 5) {
-            int ab = c.getBeginA();
-            int ae = n.getEndA();
-
-            int bb = c.getBeginB();
-            int be = n.getEndB();
-
-            if (canCoalesce(a, c.getEndA(), n.getBeginA())
-                && canCoalesce(b, c.getEndB(), n.getBeginB())) {
-              wordEdits.set(j, new Edit(ab, ae, bb, be));
-              wordEdits.remove(j + 1);
-              continue;
-            }
-          }
+        edits.set(i, new ReplaceEdit(e, computeHunk(SupportedAlgorithm.MYERS, aText, bText, e)));
+      }
+    }
 
-          j++;
+    return new IntraLineDiff(edits);
+  }
+
+  /** Computes the differences within the lines of a single replaced hunk. */
+  static List<Edit> computeHunk(SupportedAlgorithm algorithm, Text aText, Text bText, Edit e) {
+    CharText a = new CharText(aText, e.getBeginA(), e.getEndA());
+    CharText b = new CharText(bText, e.getBeginB(), e.getEndB());
+    CharTextComparator cmp = new CharTextComparator();
+
+    List<Edit> wordEdits = DiffAlgorithm.getAlgorithm(algorithm).diff(cmp, a, b);
+
+    // Combine edits that are really close together. If they are
+    // just a few characters apart we tend to get better results
+    // by joining them together and taking the whole span.
+    //
+    for (int j = 0; j < wordEdits.size() - 1; ) {
+      Edit c = wordEdits.get(j);
+      Edit n = wordEdits.get(j + 1);
+
+      if (n.getBeginA() - c.getEndA() <= 5 || n.getBeginB() - c.getEndB() <= 5) {
+        int ab = c.getBeginA();
+        int ae = n.getEndA();
+
+        int bb = c.getBeginB();
+        int be = n.getEndB();
+
+        if (canCoalesce(a, c.getEndA(), n.getBeginA())
+            && canCoalesce(b, c.getEndB(), n.getBeginB())) {
+          wordEdits.set(j, new Edit(ab, ae, bb, be));
+          wordEdits.remove(j + 1);
+          continue;
         }
+      }
 
-        // Apply some simple rules to fix up some of the edits. Our
-        // logic above, along with our per-character difference tends
-        // to produce some crazy stuff.
-        //
-        for (int j = 0; j < wordEdits.size(); j++) {
-          Edit c = wordEdits.get(j);
-          int ab = c.getBeginA();
-          int ae = c.getEndA();
-
-          int bb = c.getBeginB();
-          int be = c.getEndB();
-
-          // Sometimes the diff generator produces an INSERT or DELETE
-          // right up against a REPLACE, but we only find this after
-          // we've also played some shifting games on the prior edit.
-          // If that happened to us, coalesce them together so we can
-          // correct this mess for the user. If we don't we wind up
-          // with silly stuff like "es" -> "es = Addresses".
-          //
-          if (1 < j) {
-            Edit p = wordEdits.get(j - 1);
-            if (p.getEndA() == ab || p.getEndB() == bb) {
-              if (p.getEndA() == ab && p.getBeginA() < p.getEndA()) {
-                ab = p.getBeginA();
-              }
-              if (p.getEndB() == bb && p.getBeginB() < p.getEndB()) {
-                bb = p.getBeginB();
-              }
-              wordEdits.remove(--j);
-            }
-          }
+      j++;
+    }
 
-          // We sometimes collapsed an edit together in a strange way,
-          // such that the edges of each text is identical. Fix by
-          // by dropping out that incorrectly replaced region.
-          //
-          while (ab < ae && bb < be && cmp.equals(a, ab, b, bb)) {
-            ab++;
-            bb++;
+    // Apply some simple rules to fix up some of the edits. Our
+    // logic above, along with our per-character difference tends
+    // to produce some crazy stuff.
+    //
+    for (int j = 0; j < wordEdits.size(); j++) {
+      Edit c = wordEdits.get(j);
+      int ab = c.getBeginA();
+      int ae = c.getEndA();
+
+      int bb = c.getBeginB();
+      int be = c.getEndB();
+
+      // Sometimes the diff generator produces an INSERT or DELETE
+      // right up against a REPLACE, but we only find this after
+      // we've also played some shifting games on the prior edit.
+      // If that happened to us, coalesce them together so we can
+      // correct this mess for the user. If we don't we wind up
+      // with silly stuff like "es" -> "es = Addresses".
+      //
+      if (1 < j) {
+        Edit p = wordEdits.get(j - 1);
+        if (p.getEndA() == ab || p.getEndB() == bb) {
+          if (p.getEndA() == ab && p.getBeginA() < p.getEndA()) {
+            ab = p.getBeginA();
           }
-          while (ab < ae && bb < be && cmp.equals(a, ae - 1, b, be - 1)) {
-            ae--;
-            be--;
+          if (p.getEndB() == bb && p.getBeginB() < p.getEndB()) {
+            bb = p.getBeginB();
           }
+          wordEdits.remove(--j);
+        }
+      }
 
-          // The leading part of an edit and its trailing part in the same
-          // text might be identical. Slide down that edit and use the tail
-          // rather than the leading bit.
-          //
-          while (0 < ab
-              && ab < ae
-              && a.charAt(ab - 1) != '\n'
-              && cmp.equals(a, ab - 1, a, ae - 1)) {
-            ab--;
-            ae--;
-          }
-          if (!a.isLineStart(ab) || !a.contains(ab, ae, '\n')) {
-            while (ab < ae && ae < a.size() && cmp.equals(a, ab, a, ae)) {
-              ab++;
-              ae++;
-              if (a.charAt(ae - 1) == '\n') {
-                break;
-              }
-            }
-          }
+      // We sometimes collapsed an edit together in a strange way,
+      // such that the edges of each text is identical. Fix by
+      // by dropping out that incorrectly replaced region.
+      //
+      while (ab < ae && bb < be && cmp.equals(a, ab, b, bb)) {
+        ab++;
+        bb++;
+      }
+      while (ab < ae && bb < be && cmp.equals(a, ae - 1, b, be - 1)) {
+        ae--;
+        be--;
+      }
 
-          while (0 < bb
-              && bb < be
-              && b.charAt(bb - 1) != '\n'
-              && cmp.equals(b, bb - 1, b, be - 1)) {
-            bb--;
-            be--;
-          }
-          if (!b.isLineStart(bb) || !b.contains(bb, be, '\n')) {
-            while (bb < be && be < b.size() && cmp.equals(b, bb, b, be)) {
-              bb++;
-              be++;
-              if (b.charAt(be - 1) == '\n') {
-                break;
-              }
-            }
+      // The leading part of an edit and its trailing part in the same
+      // text might be identical. Slide down that edit and use the tail
+      // rather than the leading bit.
+      //
+      while (0 < ab && ab < ae && a.charAt(ab - 1) != '\n' && cmp.equals(a, ab - 1, a, ae - 1)) {
+        ab--;
+        ae--;
+      }
+      if (!a.isLineStart(ab) || !a.contains(ab, ae, '\n')) {
+        while (ab < ae && ae < a.size() && cmp.equals(a, ab, a, ae)) {
+          ab++;
+          ae++;
+          if (a.charAt(ae - 1) == '\n') {
+            break;
           }
+        }
+      }
 
-          // If most of a line was modified except the LF was common, make
-          // the LF part of the modification region. This is easier to read.
-          //
-          if (ab < ae //
-              && (ab == 0 || a.charAt(ab - 1) == '\n') //
-              && ae < a.size()
-              && a.charAt(ae - 1) != '\n'
-              && a.charAt(ae) == '\n') {
-            ae++;
-          }
-          if (bb < be //
-              && (bb == 0 || b.charAt(bb - 1) == '\n') //
-              && be < b.size()
-              && b.charAt(be - 1) != '\n'
-              && b.charAt(be) == '\n') {
-            be++;
+      while (0 < bb && bb < be && b.charAt(bb - 1) != '\n' && cmp.equals(b, bb - 1, b, be - 1)) {
+        bb--;
+        be--;
+      }
+      if (!b.isLineStart(bb) || !b.contains(bb, be, '\n')) {
+        while (bb < be && be < b.size() && cmp.equals(b, bb, b, be)) {
+          bb++;
+          be++;
+          if (b.charAt(be - 1) == '\n') {
+            break;
           }
-
-          wordEdits.set(j, new Edit(ab, ae, bb, be));
         }
+      }
 
-        edits.set(i, new ReplaceEdit(e, wordEdits));
+      // If most of a line was modified except the LF was common, make
+      // the LF part of the modification region. This is easier to read.
+      //
+      if (ab < ae //
+          && (ab == 0 || a.charAt(ab - 1) == '\n') //
+          && ae < a.size()
+          && a.charAt(ae - 1) != '\n'
+          && a.charAt(ae) == '\n') {
+        ae++;
+      }
+      if (bb < be //
+          && (bb == 0 || b.charAt(bb - 1) == '\n') //
+          && be < b.size()
+          && b.charAt(be - 1) != '\n'
+          && b.charAt(be) == '\n') {
+        be++;
       }
+
+      wordEdits.set(j, new Edit(ab, ae, bb, be));
     }
 
-    return new IntraLineDiff(edits);
+    return wordEdits;
   }
 
   private static void combineLineEdits(
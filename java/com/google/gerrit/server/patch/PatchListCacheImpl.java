@@ -38,6 +38,7 @@ import org.eclipse.jgit.lib.ObjectId;
 public class PatchListCacheImpl implements PatchListCache {
   static final String FILE_NAME = "diff";
   static final String INTRA_NAME = "diff_intraline";
+  static final String INTRA_HUNK_NAME = "diff_intraline_hunk";
   static final String DIFF_SUMMARY = "diff_summary";
 
   public static Module module() {
@@ -53,6 +54,9 @@ public class PatchListCacheImpl implements PatchListCache {
         persist(INTRA_NAME, IntraLineDiffKey.class, IntraLineDiff.class)
             .maximumWeight(10 << 20)
             .weigher(IntraLineWeigher.class);
+        cache(INTRA_HUNK_NAME, IntraLineHunkKey.class, IntraLineDiff.class)
+            .maximumWeight(10 << 20)
+            .weigher(IntraLineHunkWeigher.class);
 
         factory(DiffSummaryLoader.Factory.class);
         persist(DIFF_SUMMARY, DiffSummaryKey.class, DiffSummary.class)
@@ -148,9 +152,22 @@ public class PatchListCacheImpl implements PatchListCache {
   @Override
   public IntraLineDiff getIntraLineDiff(IntraLineDiffKey key, IntraLineDiffArgs args) {
     if (computeIntraline) {
+      IntraLineLoader loader = intraLoaderFactory.create(key, args);
       try {
-        return intraCache.get(key, intraLoaderFactory.create(key, args));
+        return intraCache.get(
+            key,
+            () -> {
+              IntraLineDiff d = loader.call();
+              if (d.getStatus() == IntraLineDiff.Status.PARTIAL) {
+                // Not stored, so that the next request continues with the missing hunks.
+                throw new PartialIntraLineDiffException(d);
+              }
+              return d;
+            });
       } catch (ExecutionException | LargeObjectException e) {
+        if (e.getCause() instanceof PartialIntraLineDiffException) {
+          return ((PartialIntraLineDiffException) e.getCause()).diff;
+        }
         IntraLineLoader.logger.atWarning().withCause(e).log("Error computing %s", key);
         return new IntraLineDiff(IntraLineDiff.Status.ERROR);
       }
@@ -175,6 +192,18 @@ public class PatchListCacheImpl implements PatchListCache {
     }
   }
 
+  /** Carries a partial intraline diff out of the loader, so that it isn't cached. */
+  private static class PartialIntraLineDiffException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    private final IntraLineDiff diff;
+
+    PartialIntraLineDiffException(IntraLineDiff diff) {
+      super("partial intraline diff", null, false, false);
+      this.diff = diff;
+    }
+  }
+
   /** Used to cache negative results in {@code fileCache}. */
   @VisibleForTesting
   public static class LargeObjectTombstone extends PatchList {
@@ -92,6 +92,7 @@ public class PatchListLoader implements Callable<PatchList> {
   private final Project.NameKey project;
   private final long timeoutMillis;
   private final boolean save;
+  private final BoundedRenameDetector renameDetector;
 
   @Inject
   PatchListLoader(
@@ -100,6 +101,7 @@ public class PatchListLoader implements Callable<PatchList> {
       @GerritServerConfig Config cfg,
       @DiffExecutor ExecutorService de,
       AutoMerger am,
+      BoundedRenameDetector.Metrics renameMetrics,
       @Assisted PatchListKey k,
       @Assisted Project.NameKey p) {
     repoManager = mgr;
@@ -118,6 +120,16 @@ public class PatchListLoader implements Callable<PatchList> {
             TimeUnit.MILLISECONDS.convert(5, TimeUnit.SECONDS),
             TimeUnit.MILLISECONDS);
     save = AutoMerger.cacheAutomerge(cfg);
+    renameDetector =
+        new BoundedRenameDetector(
+            de,
+            renameMetrics,
+            cfg.getInt(
+                "cache",
+                PatchListCacheImpl.FILE_NAME,
+                "renameCandidates",
+                BoundedRenameDetector.DEFAULT_CANDIDATES),
+            timeoutMillis);
   }
 
   @Override
@@ -182,8 +194,7 @@ public class PatchListLoader implements Callable<PatchList> {
 
       df.setReader(reader, repo.getConfig());
       df.setDiffComparator(cmp);
-      df.setDetectRenames(true);
-      List<DiffEntry> diffEntries = df.scan(aTree, bTree);
+      List<DiffEntry> diffEntries = renameDetector.compute(reader, df.scan(aTree, bTree));
 
       EditsDueToRebaseResult editsDueToRebaseResult =
           determineEditsDueToRebase(aCommit, b, diffEntries, df, rw);
@@ -296,7 +307,8 @@ public class PatchListLoader implements Callable<PatchList> {
     rw.parseBody(parentCommitA);
     RevCommit parentCommitB = commitB.getParent(0);
     rw.parseBody(parentCommitB);
-    List<DiffEntry> parentDiffEntries = df.scan(parentCommitA, parentCommitB);
+    List<DiffEntry> parentDiffEntries =
+        renameDetector.compute(rw.getObjectReader(), df.scan(parentCommitA, parentCommitB));
     // TODO(aliceks): Find a way to not construct a PatchListEntry as it contains many unnecessary
     // details and we don't fill all of them properly.
     List<PatchListEntry> parentPatchListEntries =
@@ -30,6 +30,8 @@ import com.google.gerrit.reviewdb.client.Comment;
 import com.google.gerrit.reviewdb.client.Patch;
 import com.google.gerrit.reviewdb.client.Project;
 import com.google.gerrit.server.mime.FileTypeRegistry;
+import com.google.gerrit.server.project.ProjectCache;
+import com.google.gerrit.server.project.ProjectState;
 import com.google.inject.Inject;
 import eu.medsea.mimeutil.MimeType;
 import eu.medsea.mimeutil.MimeUtil2;
@@ -38,6 +40,7 @@ import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Optional;
+import org.eclipse.jgit.diff.DiffAlgorithm.SupportedAlgorithm;
 import org.eclipse.jgit.diff.Edit;
 import org.eclipse.jgit.errors.CorruptObjectException;
 import org.eclipse.jgit.errors.IncorrectObjectTypeException;
@@ -72,14 +75,16 @@ class PatchScriptBuilder {
   private List<Edit> edits;
   private final FileTypeRegistry registry;
   private final PatchListCache patchListCache;
+  private final ProjectCache projectCache;
   private int context;
 
   @Inject
-  PatchScriptBuilder(FileTypeRegistry ftr, PatchListCache plc) {
+  PatchScriptBuilder(FileTypeRegistry ftr, PatchListCache plc, ProjectCache pc) {
     a = new Side();
     b = new Side();
     registry = ftr;
     patchListCache = plc;
+    projectCache = pc;
   }
 
   void setRepository(Repository r, Project.NameKey projectKey) {
@@ -138,7 +143,7 @@ class PatchScriptBuilder {
     } else if (diffPrefs.intralineDifference) {
       IntraLineDiff d =
           patchListCache.getIntraLineDiff(
-              IntraLineDiffKey.create(a.id, b.id, diffPrefs.ignoreWhitespace),
+              IntraLineDiffKey.create(a.id, b.id, diffPrefs.ignoreWhitespace, intralineAlgorithm()),
               IntraLineDiffArgs.create(
                   a.src, b.src, edits, editsDueToRebase, projectKey, bId, b.path));
       if (d != null) {
@@ -160,6 +165,11 @@ class PatchScriptBuilder {
             intralineDifferenceIsPossible = false;
             intralineTimeout = true;
             break;
+
+          case PARTIAL:
+            edits = new ArrayList<>(d.getEdits());
+            intralineTimeout = true;
+            break;
         }
       } else {
         intralineDifferenceIsPossible = false;
@@ -274,6 +284,11 @@ class PatchScriptBuilder {
     }
   }
 
+  private SupportedAlgorithm intralineAlgorithm() throws IOException {
+    ProjectState state = projectCache.checkedGet(projectKey);
+    return state != null ? state.getIntralineAlgorithm() : SupportedAlgorithm.MYERS;
+  }
+
   private void correctForDifferencesInNewlineAtEnd() {
     // a.src.size() is the size ignoring a newline at the end whereas a.size() considers it.
     int aSize = a.src.size();
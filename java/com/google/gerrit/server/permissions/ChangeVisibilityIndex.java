@@ -0,0 +1,355 @@
+// Copyright (C) 2019 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.permissions;
+
+import com.google.common.cache.Cache;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.flogger.FluentLogger;
+import com.google.common.primitives.Ints;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.extensions.events.GitReferenceUpdatedListener;
+import com.google.gerrit.extensions.registration.DynamicSet;
+import com.google.gerrit.reviewdb.client.Branch;
+import com.google.gerrit.reviewdb.client.Change;
+import com.google.gerrit.reviewdb.client.Project;
+import com.google.gerrit.reviewdb.client.RefNames;
+import com.google.gerrit.reviewdb.server.ReviewDb;
+import com.google.gerrit.server.cache.CacheModule;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.logging.TraceContext;
+import com.google.gerrit.server.logging.TraceContext.TraceTimer;
+import com.google.gerrit.server.notedb.ChangeNotes;
+import com.google.gerrit.server.notedb.ChangeNotes.Factory.ChangeNotesResult;
+import com.google.gerrit.server.notedb.NotesMigration;
+import com.google.gerrit.server.project.NoSuchChangeException;
+import com.google.gwtorm.server.OrmException;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import com.google.inject.util.Providers;
+import com.googlecode.javaewah.EWAHCompressedBitmap;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Stream;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.Repository;
+
+/**
+ * Per-project index of changes grouped by visibility class.
+ *
+ * <p>Unless a change is private, whether a user can see it depends only on whether the user can
+ * read its destination branch. The index stores, for each branch of a project, a compressed bitmap
+ * of the numbers of the non-private changes on that branch and a second bitmap of the private ones.
+ * {@link DefaultRefFilter} checks read permission once per branch and takes the matching bitmaps,
+ * so the cost of filtering change refs grows with the number of branches rather than the number of
+ * changes. Only private changes are still checked one by one.
+ *
+ * <p>An entry is built by scanning the project's changes once and is then maintained incrementally:
+ * each update of a ref below {@code refs/changes/} marks that change as pending, and pending
+ * changes are re-read from NoteDb the next time the entry is used. Permissions are not part of the
+ * index, they are evaluated for the calling user on every use, so updates of the project
+ * configuration don't have to invalidate it.
+ *
+ * <p>Like the {@code changes} cache this index relies on seeing every ref update, so it is disabled
+ * by default and must not be enabled when several servers write to the same repositories.
+ */
+@Singleton
+public class ChangeVisibilityIndex implements GitReferenceUpdatedListener {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  static final String CACHE_NAME = "change_visibility";
+
+  public static class Module extends CacheModule {
+    private final boolean slave;
+
+    public Module() {
+      this(false);
+    }
+
+    public Module(boolean slave) {
+      this.slave = slave;
+    }
+
+    @Override
+    protected void configure() {
+      if (slave) {
+        bind(ChangeVisibilityIndex.class).toProvider(Providers.<ChangeVisibilityIndex>of(null));
+      } else {
+        cache(CACHE_NAME, Project.NameKey.class, Entry.class).maximumWeight(0);
+
+        bind(ChangeVisibilityIndex.class);
+        DynamicSet.bind(binder(), GitReferenceUpdatedListener.class)
+            .to(ChangeVisibilityIndex.class);
+      }
+    }
+  }
+
+  private final Cache<Project.NameKey, Entry> cache;
+  private final ChangeNotes.Factory changeNotesFactory;
+  private final NotesMigration migration;
+  private final boolean enabled;
+
+  @Inject
+  ChangeVisibilityIndex(
+      @Named(CACHE_NAME) Cache<Project.NameKey, Entry> cache,
+      ChangeNotes.Factory changeNotesFactory,
+      NotesMigration migration,
+      @GerritServerConfig Config cfg) {
+    this.cache = cache;
+    this.changeNotesFactory = changeNotesFactory;
+    this.migration = migration;
+    this.enabled = cfg.getLong("cache", CACHE_NAME, "memoryLimit", 0) > 0;
+  }
+
+  /**
+   * Returns whether the index can be used.
+   *
+   * <p>The index is only used when change data is read from NoteDb, as that is the only storage
+   * where every change update is also a ref update.
+   */
+  public boolean isEnabled() {
+    return enabled && migration.readChanges();
+  }
+
+  /**
+   * Returns the changes of a project grouped by visibility class.
+   *
+   * @param db database handle, used to read changes.
+   * @param repo open repository of the project.
+   * @param project name of the project.
+   * @return current snapshot of the project's changes.
+   * @throws IOException if the repository could not be scanned.
+   * @throws OrmException if a pending change could not be read.
+   */
+  public Snapshot get(ReviewDb db, Repository repo, Project.NameKey project)
+      throws IOException, OrmException {
+    Entry entry;
+    try {
+      entry = cache.get(project, Entry::new);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException(e);
+    }
+    return entry.get(changeNotesFactory, db, repo, project);
+  }
+
+  @Override
+  public void onGitReferenceUpdated(GitReferenceUpdatedListener.Event event) {
+    if (!event.getRefName().startsWith(RefNames.REFS_CHANGES)) {
+      return;
+    }
+    Project.NameKey project = new Project.NameKey(event.getProjectName());
+    Entry entry = cache.getIfPresent(project);
+    if (entry == null) {
+      return;
+    }
+    Change.Id id = Change.Id.fromRef(event.getRefName());
+    if (id != null) {
+      entry.pending.add(id);
+    } else {
+      cache.invalidate(project);
+    }
+  }
+
+  /**
+   * Changes of one project grouped by visibility class.
+   *
+   * <p>Snapshots are immutable; updates to the index replace the snapshot of the project.
+   */
+  public static class Snapshot {
+    private final ImmutableMap<Branch.NameKey, EWAHCompressedBitmap> changes;
+    private final ImmutableMap<Branch.NameKey, EWAHCompressedBitmap> privateChanges;
+
+    private Snapshot(
+        ImmutableMap<Branch.NameKey, EWAHCompressedBitmap> changes,
+        ImmutableMap<Branch.NameKey, EWAHCompressedBitmap> privateChanges) {
+      this.changes = changes;
+      this.privateChanges = privateChanges;
+    }
+
+    /** Returns the destination branches of all changes in the snapshot. */
+    public ImmutableSet<Branch.NameKey> branches() {
+      return ImmutableSet.<Branch.NameKey>builder()
+          .addAll(changes.keySet())
+          .addAll(privateChanges.keySet())
+          .build();
+    }
+
+    /** Returns the numbers of the non-private changes on the branch. */
+    public EWAHCompressedBitmap changes(Branch.NameKey branch) {
+      return changes.getOrDefault(branch, EWAHCompressedBitmap.bitmapOf());
+    }
+
+    /** Returns the numbers of the private changes on the branch. */
+    public EWAHCompressedBitmap privateChanges(Branch.NameKey branch) {
+      return privateChanges.getOrDefault(branch, EWAHCompressedBitmap.bitmapOf());
+    }
+
+    /** Returns the destination branch of the change, or null if the change is not known. */
+    @Nullable
+    public Branch.NameKey branch(Change.Id id) {
+      Branch.NameKey branch = find(changes, id);
+      return branch != null ? branch : find(privateChanges, id);
+    }
+
+    private static Branch.NameKey find(
+        Map<Branch.NameKey, EWAHCompressedBitmap> bitmaps, Change.Id id) {
+      for (Map.Entry<Branch.NameKey, EWAHCompressedBitmap> e : bitmaps.entrySet()) {
+        if (e.getValue().get(id.get())) {
+          return e.getKey();
+        }
+      }
+      return null;
+    }
+
+    /**
+     * Returns a new snapshot in which {@code updated} replace all changes with the same numbers.
+     * Numbers listed in {@code removed} are dropped.
+     */
+    private Snapshot update(List<Change> updated, List<Change.Id> removed) {
+      List<Integer> ids = new ArrayList<>(updated.size() + removed.size());
+      updated.forEach(c -> ids.add(c.getId().get()));
+      removed.forEach(id -> ids.add(id.get()));
+      EWAHCompressedBitmap mask = Builder.toBitmap(ids);
+
+      Builder b = new Builder();
+      updated.forEach(b::add);
+      return new Snapshot(
+          merge(changes, mask, b.changes), merge(privateChanges, mask, b.privateChanges));
+    }
+
+    private static ImmutableMap<Branch.NameKey, EWAHCompressedBitmap> merge(
+        Map<Branch.NameKey, EWAHCompressedBitmap> old,
+        EWAHCompressedBitmap mask,
+        Map<Branch.NameKey, List<Integer>> added) {
+      Map<Branch.NameKey, EWAHCompressedBitmap> result = new HashMap<>(old);
+      for (Map.Entry<Branch.NameKey, EWAHCompressedBitmap> e : old.entrySet()) {
+        if (e.getValue().intersects(mask)) {
+          result.put(e.getKey(), e.getValue().andNot(mask));
+        }
+      }
+      for (Map.Entry<Branch.NameKey, List<Integer>> e : added.entrySet()) {
+        EWAHCompressedBitmap bits = Builder.toBitmap(e.getValue());
+        result.merge(e.getKey(), bits, (a, b) -> a.or(b));
+      }
+      result.values().removeIf(b -> b.cardinality() == 0);
+      return ImmutableMap.copyOf(result);
+    }
+  }
+
+  private static class Builder {
+    private final Map<Branch.NameKey, List<Integer>> changes = new HashMap<>();
+    private final Map<Branch.NameKey, List<Integer>> privateChanges = new HashMap<>();
+
+    void add(Change c) {
+      (c.isPrivate() ? privateChanges : changes)
+          .computeIfAbsent(c.getDest(), k -> new ArrayList<>())
+          .add(c.getId().get());
+    }
+
+    Snapshot build() {
+      return new Snapshot(toBitmaps(changes), toBitmaps(privateChanges));
+    }
+
+    private static ImmutableMap<Branch.NameKey, EWAHCompressedBitmap> toBitmaps(
+        Map<Branch.NameKey, List<Integer>> ids) {
+      ImmutableMap.Builder<Branch.NameKey, EWAHCompressedBitmap> b = ImmutableMap.builder();
+      ids.forEach((branch, list) -> b.put(branch, toBitmap(list)));
+      return b.build();
+    }
+
+    private static EWAHCompressedBitmap toBitmap(List<Integer> ids) {
+      int[] sorted = Ints.toArray(ids);
+      Arrays.sort(sorted);
+      return EWAHCompressedBitmap.bitmapOf(sorted);
+    }
+  }
+
+  /** Cached state of a project; loaded on first use and then updated incrementally. */
+  static class Entry {
+    private final Set<Change.Id> pending = ConcurrentHashMap.newKeySet();
+    private volatile Snapshot snapshot;
+
+    Snapshot get(
+        ChangeNotes.Factory changeNotesFactory,
+        ReviewDb db,
+        Repository repo,
+        Project.NameKey project)
+        throws IOException, OrmException {
+      Snapshot s = snapshot;
+      if (s != null && pending.isEmpty()) {
+        return s;
+      }
+      synchronized (this) {
+        if (snapshot == null) {
+          // Changes updated while scanning are read again below, so they are never missed.
+          pending.clear();
+          snapshot = load(changeNotesFactory, db, repo, project);
+        }
+        if (!pending.isEmpty()) {
+          snapshot = applyPending(changeNotesFactory, db, project);
+        }
+        return snapshot;
+      }
+    }
+
+    private static Snapshot load(
+        ChangeNotes.Factory changeNotesFactory,
+        ReviewDb db,
+        Repository repo,
+        Project.NameKey project)
+        throws IOException {
+      try (TraceTimer timer =
+              TraceContext.newTimer("Loading change visibility index of project %s", project);
+          Stream<ChangeNotesResult> changes = changeNotesFactory.scan(repo, db, project)) {
+        Builder b = new Builder();
+        changes.forEach(
+            r -> {
+              if (r.error().isPresent()) {
+                logger.atWarning().withCause(r.error().get()).log(
+                    "Failed to load change %s in %s", r.id(), project);
+              } else {
+                b.add(r.notes().getChange());
+              }
+            });
+        return b.build();
+      }
+    }
+
+    private Snapshot applyPending(
+        ChangeNotes.Factory changeNotesFactory, ReviewDb db, Project.NameKey project)
+        throws OrmException {
+      List<Change.Id> ids = new ArrayList<>(pending);
+      List<Change> updated = new ArrayList<>(ids.size());
+      List<Change.Id> removed = new ArrayList<>();
+      for (Change.Id id : ids) {
+        try {
+          updated.add(changeNotesFactory.create(db, project, id).getChange());
+        } catch (NoSuchChangeException e) {
+          removed.add(id);
+        }
+      }
+      pending.removeAll(ids);
+      return snapshot.update(updated, removed);
+    }
+  }
+}
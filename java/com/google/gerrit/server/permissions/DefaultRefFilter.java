@@ -54,8 +54,10 @@ import com.google.gwtorm.server.OrmException;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
 import com.google.inject.assistedinject.Assisted;
+import com.googlecode.javaewah.IntIterator;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -76,6 +78,7 @@ class DefaultRefFilter {
   private final TagCache tagCache;
   private final ChangeNotes.Factory changeNotesFactory;
   @Nullable private final SearchingChangeCacheImpl changeCache;
+  @Nullable private final ChangeVisibilityIndex visibilityIndex;
   private final Provider<ReviewDb> db;
   private final GroupCache groupCache;
   private final PermissionBackend permissionBackend;
@@ -87,13 +90,14 @@ class DefaultRefFilter {
   private final Counter0 skipFilterCount;
   private final boolean skipFullRefEvaluationIfAllRefsAreVisible;
 
-  private Map<Change.Id, Branch.NameKey> visibleChanges;
+  private VisibleChanges visibleChanges;
 
   @Inject
   DefaultRefFilter(
       TagCache tagCache,
       ChangeNotes.Factory changeNotesFactory,
       @Nullable SearchingChangeCacheImpl changeCache,
+      @Nullable ChangeVisibilityIndex visibilityIndex,
       Provider<ReviewDb> db,
       GroupCache groupCache,
       PermissionBackend permissionBackend,
@@ -103,6 +107,7 @@ class DefaultRefFilter {
     this.tagCache = tagCache;
     this.changeNotesFactory = changeNotesFactory;
     this.changeCache = changeCache;
+    this.visibilityIndex = visibilityIndex;
     this.db = db;
     this.groupCache = groupCache;
     this.permissionBackend = permissionBackend;
@@ -277,14 +282,17 @@ class DefaultRefFilter {
   }
 
   private boolean visible(Repository repo, Change.Id changeId) throws PermissionBackendException {
+    if (visibleChanges == null && visibilityIndex != null && visibilityIndex.isEnabled()) {
+      visibleChanges = visibleChangesByIndex(repo);
+    }
     if (visibleChanges == null) {
       if (changeCache == null) {
-        visibleChanges = visibleChangesByScan(repo);
+        visibleChanges = VisibleChanges.of(visibleChangesByScan(repo));
       } else {
-        visibleChanges = visibleChangesBySearch();
+        visibleChanges = VisibleChanges.of(visibleChangesBySearch());
       }
     }
-    return visibleChanges.containsKey(changeId);
+    return visibleChanges.contains(changeId);
   }
 
   private boolean visibleEdit(Repository repo, String name) throws PermissionBackendException {
@@ -301,11 +309,11 @@ class DefaultRefFilter {
         && visible(repo, id)) {
       return true;
     }
-    if (visibleChanges.containsKey(id)) {
+    if (visibleChanges.contains(id)) {
       try {
         // Default to READ_PRIVATE_CHANGES as there is no special permission for reading edits.
         permissionBackendForProject
-            .ref(visibleChanges.get(id).get())
+            .ref(visibleChanges.branch(id).get())
             .check(RefPermission.READ_PRIVATE_CHANGES);
         return true;
       } catch (AuthException e) {
@@ -315,6 +323,71 @@ class DefaultRefFilter {
     return false;
   }
 
+  /**
+   * Computes the visible changes from the {@link ChangeVisibilityIndex}.
+   *
+   * <p>Read permission is checked once per destination branch; only private changes are checked
+   * individually.
+   *
+   * @return visible changes, or null if the index could not be read.
+   */
+  @Nullable
+  private VisibleChanges visibleChangesByIndex(Repository repo) throws PermissionBackendException {
+    Project.NameKey p = projectState.getNameKey();
+    ChangeVisibilityIndex.Snapshot snapshot;
+    try {
+      snapshot = visibilityIndex.get(db.get(), repo, p);
+    } catch (IOException | OrmException e) {
+      logger.atWarning().withCause(e).log(
+          "Cannot read change visibility index of project %s, falling back to full evaluation", p);
+      return null;
+    }
+
+    BitSet visible = new BitSet();
+    for (Branch.NameKey branch : snapshot.branches()) {
+      if (!canReadRef(branch.get())) {
+        continue;
+      }
+      for (IntIterator it = snapshot.changes(branch).intIterator(); it.hasNext(); ) {
+        visible.set(it.next());
+      }
+      for (IntIterator it = snapshot.privateChanges(branch).intIterator(); it.hasNext(); ) {
+        int id = it.next();
+        if (privateChangeVisible(new Change.Id(id))) {
+          visible.set(id);
+        }
+      }
+    }
+    return new VisibleChanges() {
+      @Override
+      boolean contains(Change.Id id) {
+        return visible.get(id.get());
+      }
+
+      @Override
+      Branch.NameKey branch(Change.Id id) {
+        return snapshot.branch(id);
+      }
+    };
+  }
+
+  private boolean privateChangeVisible(Change.Id id) throws PermissionBackendException {
+    ChangeNotes notes;
+    try {
+      notes = changeNotesFactory.create(db.get(), projectState.getNameKey(), id);
+    } catch (OrmException e) {
+      logger.atWarning().withCause(e).log(
+          "Failed to load change %s in %s", id, projectState.getName());
+      return false;
+    }
+    try {
+      permissionBackendForProject.change(notes).check(ChangePermission.READ);
+      return true;
+    } catch (AuthException e) {
+      return false;
+    }
+  }
+
   private Map<Change.Id, Branch.NameKey> visibleChangesBySearch()
       throws PermissionBackendException {
     Project.NameKey project = projectState.getNameKey();
@@ -383,6 +456,28 @@ class DefaultRefFilter {
     return null;
   }
 
+  /** Changes of the project that are visible to the user. */
+  private abstract static class VisibleChanges {
+    static VisibleChanges of(Map<Change.Id, Branch.NameKey> changes) {
+      return new VisibleChanges() {
+        @Override
+        boolean contains(Change.Id id) {
+          return changes.containsKey(id);
+        }
+
+        @Override
+        Branch.NameKey branch(Change.Id id) {
+          return changes.get(id);
+        }
+      };
+    }
+
+    abstract boolean contains(Change.Id id);
+
+    /** Returns the destination branch of a visible change. */
+    abstract Branch.NameKey branch(Change.Id id);
+  }
+
   private boolean isMetadata(String name) {
     return name.startsWith(REFS_CHANGES) || RefNames.isRefsEdit(name);
   }
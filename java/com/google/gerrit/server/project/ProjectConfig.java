@@ -77,6 +77,7 @@ import java.util.Optional;
 import java.util.Set;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
+import org.eclipse.jgit.diff.DiffAlgorithm.SupportedAlgorithm;
 import org.eclipse.jgit.errors.ConfigInvalidException;
 import org.eclipse.jgit.lib.CommitBuilder;
 import org.eclipse.jgit.lib.Config;
@@ -163,6 +164,9 @@ public class ProjectConfig extends VersionedMetaData implements ValidationError.
   private static final String EXTENSION_PANELS = "extension-panels";
   private static final String KEY_PANEL = "panel";
 
+  private static final String DIFF = "diff";
+  private static final String KEY_INTRALINE_ALGORITHM = "intralineAlgorithm";
+
   private static final Pattern EXCLUSIVE_PERMISSIONS_SPLIT_PATTERN = Pattern.compile("[, \t]{1,}");
 
   private Project project;
@@ -170,6 +174,7 @@ public class ProjectConfig extends VersionedMetaData implements ValidationError.
   private GroupList groupList;
   private Map<String, AccessSection> accessSections;
   private BranchOrderSection branchOrderSection;
+  private SupportedAlgorithm intralineAlgorithm;
   private Map<String, ContributorAgreement> contributorAgreements;
   private Map<String, NotifyConfig> notifySections;
   private Map<String, LabelType> labelSections;
@@ -296,6 +301,12 @@ public class ProjectConfig extends VersionedMetaData implements ValidationError.
     return branchOrderSection;
   }
 
+  /** Returns the configured intraline diff algorithm, or null if it is inherited. */
+  @Nullable
+  public SupportedAlgorithm getIntralineAlgorithm() {
+    return intralineAlgorithm;
+  }
+
   public Map<Project.NameKey, SubscribeSection> getSubscribeSections() {
     return subscribeSections;
   }
@@ -550,6 +561,7 @@ public class ProjectConfig extends VersionedMetaData implements ValidationError.
     loadContributorAgreements(rc);
     loadAccessSections(rc);
     loadBranchOrderSection(rc);
+    loadDiffSection(rc);
     loadNotifySections(rc);
     loadLabelSections(rc);
     loadCommentLinkSections(rc);
@@ -753,6 +765,15 @@ public class ProjectConfig extends VersionedMetaData implements ValidationError.
     }
   }
 
+  private void loadDiffSection(Config rc) {
+    try {
+      intralineAlgorithm =
+          rc.getEnum(SupportedAlgorithm.values(), DIFF, null, KEY_INTRALINE_ALGORITHM, null);
+    } catch (IllegalArgumentException err) {
+      error(new ValidationError(PROJECT_CONFIG, err.getMessage()));
+    }
+  }
+
   private ImmutableList<PermissionRule> loadPermissionRules(
       Config rc,
       String section,
@@ -71,6 +71,7 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import org.eclipse.jgit.diff.DiffAlgorithm.SupportedAlgorithm;
 import org.eclipse.jgit.errors.ConfigInvalidException;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
@@ -546,6 +547,17 @@ public class ProjectState {
     return null;
   }
 
+  /** Returns the intraline diff algorithm of the project, inherited from its parents. */
+  public SupportedAlgorithm getIntralineAlgorithm() {
+    for (ProjectState s : tree()) {
+      SupportedAlgorithm algorithm = s.getConfig().getIntralineAlgorithm();
+      if (algorithm != null) {
+        return algorithm;
+      }
+    }
+    return SupportedAlgorithm.MYERS;
+  }
+
   public Collection<SubscribeSection> getSubscribeSections(Branch.NameKey branch) {
     Collection<SubscribeSection> ret = new ArrayList<>();
     for (ProjectState s : tree()) {
@@ -0,0 +1,222 @@
+// Copyright (C) 2019 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.project;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.cache.Cache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.common.data.SubmitRecord;
+import com.google.gerrit.extensions.registration.DynamicSet;
+import com.google.gerrit.reviewdb.client.Project;
+import com.google.gerrit.reviewdb.client.RefNames;
+import com.google.gerrit.server.cache.CacheModule;
+import com.google.gerrit.server.git.GitRepositoryManager;
+import com.google.gerrit.server.notedb.NotesMigration;
+import com.google.gerrit.server.query.change.ChangeData;
+import com.google.gerrit.server.rules.DefaultSubmitRule;
+import com.google.gerrit.server.rules.IgnoreSelfApprovalRule;
+import com.google.gerrit.server.rules.PredicateProvider;
+import com.google.gerrit.server.rules.PrologRule;
+import com.google.gerrit.server.rules.SubmitRule;
+import com.google.gwtorm.server.OrmException;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.TypeLiteral;
+import com.google.inject.name.Named;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+
+/**
+ * Caches the submit records computed by {@link SubmitRuleEvaluator}.
+ *
+ * <p>The records of the built-in submit rules only depend on the state of the change and the
+ * configuration (including {@code rules.pl}) of its project and all parent projects. The key
+ * captures both, so cached records never have to be invalidated explicitly: any update to the
+ * change or to a project config results in a different key.
+ *
+ * <p>Rules and Prolog predicates from plugins may depend on anything, so nothing is cached while a
+ * plugin provides either of them. Changes read from ReviewDb are not cached either, since they have
+ * no revision to key on.
+ */
+@Singleton
+public class SubmitRecordCache {
+  static final String CACHE_NAME = "submit_records";
+
+  public static class Module extends CacheModule {
+    @Override
+    protected void configure() {
+      cache(CACHE_NAME, Key.class, new TypeLiteral<ImmutableList<SubmitRecord>>() {})
+          .maximumWeight(1 << 14);
+    }
+  }
+
+  @AutoValue
+  abstract static class Key {
+    abstract Project.NameKey project();
+
+    abstract ObjectId metaId();
+
+    /** Config revisions of the project and all its parents, starting with the project itself. */
+    abstract ImmutableList<ObjectId> configRevisions();
+
+    abstract SubmitRuleOptions options();
+  }
+
+  /** Submit rules whose records only depend on the change and the project configs. */
+  private static final ImmutableSet<Class<?>> CACHEABLE_RULES =
+      ImmutableSet.of(DefaultSubmitRule.class, IgnoreSelfApprovalRule.class, PrologRule.class);
+
+  private final Cache<Key, ImmutableList<SubmitRecord>> cache;
+  private final NotesMigration notesMigration;
+  private final GitRepositoryManager repoManager;
+  private final DynamicSet<SubmitRule> submitRules;
+  private final DynamicSet<PredicateProvider> predicateProviders;
+
+  @Inject
+  SubmitRecordCache(
+      @Named(CACHE_NAME) Cache<Key, ImmutableList<SubmitRecord>> cache,
+      NotesMigration notesMigration,
+      GitRepositoryManager repoManager,
+      DynamicSet<SubmitRule> submitRules,
+      DynamicSet<PredicateProvider> predicateProviders) {
+    this.cache = cache;
+    this.notesMigration = notesMigration;
+    this.repoManager = repoManager;
+    this.submitRules = submitRules;
+    this.predicateProviders = predicateProviders;
+  }
+
+  /**
+   * Returns the cached submit records for the change, or evaluates and caches them.
+   *
+   * <p>Records containing a {@link SubmitRecord.Status#RULE_ERROR} are not cached, as the error may
+   * be transient.
+   *
+   * @param cd change to get the submit records for.
+   * @param projectState state of the change's project.
+   * @param opts options of the evaluation.
+   * @param evaluator computes the submit records on a cache miss.
+   * @return submit records owned by the caller.
+   */
+  List<SubmitRecord> get(
+      ChangeData cd,
+      ProjectState projectState,
+      SubmitRuleOptions opts,
+      Supplier<List<SubmitRecord>> evaluator) {
+    Key key = key(cd, projectState, opts);
+    if (key == null) {
+      return evaluator.get();
+    }
+
+    ImmutableList<SubmitRecord> cached = cache.getIfPresent(key);
+    if (cached != null) {
+      return copy(cached);
+    }
+
+    List<SubmitRecord> records = evaluator.get();
+    if (records.stream().noneMatch(r -> r.status == SubmitRecord.Status.RULE_ERROR)
+        && evaluatedAt(cd, key.metaId())) {
+      cache.put(key, ImmutableList.copyOf(copy(records)));
+    }
+    return records;
+  }
+
+  /**
+   * Returns whether the rules saw the change at the given meta revision. The key is read from the
+   * repository, so it may be newer than the notes the change data had already loaded.
+   */
+  private static boolean evaluatedAt(ChangeData cd, ObjectId metaId) {
+    try {
+      return metaId.equals(cd.notes().getRevision());
+    } catch (OrmException e) {
+      return false;
+    }
+  }
+
+  @Nullable
+  private Key key(ChangeData cd, ProjectState projectState, SubmitRuleOptions opts) {
+    if (opts.rule() != null || !notesMigration.readChanges() || !onlyCacheableRules()) {
+      return null;
+    }
+
+    // Read the meta ref rather than the change notes, so that a cache hit doesn't have to load
+    // them.
+    ObjectId metaId;
+    try (Repository repo = repoManager.openRepository(cd.project())) {
+      Ref ref = repo.exactRef(RefNames.changeMetaRef(cd.getId()));
+      if (ref == null) {
+        return null;
+      }
+      metaId = ref.getObjectId();
+    } catch (IOException e) {
+      return null;
+    }
+
+    ImmutableList.Builder<ObjectId> configRevisions = ImmutableList.builder();
+    for (ProjectState p : projectState.tree()) {
+      ObjectId rev = p.getConfig().getRevision();
+      if (rev == null) {
+        return null;
+      }
+      configRevisions.add(rev.copy());
+    }
+
+    return new AutoValue_SubmitRecordCache_Key(
+        cd.project(), metaId.copy(), configRevisions.build(), opts);
+  }
+
+  private boolean onlyCacheableRules() {
+    if (predicateProviders.iterator().hasNext()) {
+      return false;
+    }
+    for (SubmitRule rule : submitRules) {
+      if (!CACHEABLE_RULES.contains(rule.getClass())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static List<SubmitRecord> copy(List<SubmitRecord> records) {
+    List<SubmitRecord> result = new ArrayList<>(records.size());
+    for (SubmitRecord r : records) {
+      SubmitRecord c = new SubmitRecord();
+      c.status = r.status;
+      c.errorMessage = r.errorMessage;
+      if (r.labels != null) {
+        c.labels = new ArrayList<>(r.labels.size());
+        for (SubmitRecord.Label l : r.labels) {
+          SubmitRecord.Label cl = new SubmitRecord.Label();
+          cl.label = l.label;
+          cl.status = l.status;
+          cl.appliedBy = l.appliedBy;
+          c.labels.add(cl);
+        }
+      }
+      if (r.requirements != null) {
+        c.requirements = new ArrayList<>(r.requirements);
+      }
+      result.add(c);
+    }
+    return result;
+  }
+}
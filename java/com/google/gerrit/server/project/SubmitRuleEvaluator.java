@@ -43,6 +43,7 @@ public class SubmitRuleEvaluator {
   private final ProjectCache projectCache;
   private final PrologRule prologRule;
   private final PluginSetContext<SubmitRule> submitRules;
+  private final SubmitRecordCache submitRecordCache;
   private final SubmitRuleOptions opts;
 
   public interface Factory {
@@ -55,10 +56,12 @@ public class SubmitRuleEvaluator {
       ProjectCache projectCache,
       PrologRule prologRule,
       PluginSetContext<SubmitRule> submitRules,
+      SubmitRecordCache submitRecordCache,
       @Assisted SubmitRuleOptions options) {
     this.projectCache = projectCache;
     this.prologRule = prologRule;
     this.submitRules = submitRules;
+    this.submitRecordCache = submitRecordCache;
 
     this.opts = options;
   }
@@ -110,10 +113,15 @@ public class SubmitRuleEvaluator {
 
     // We evaluate all the plugin-defined evaluators,
     // and then we collect the results in one list.
-    return Streams.stream(submitRules)
-        .map(c -> c.call(s -> s.evaluate(cd, opts)))
-        .flatMap(Collection::stream)
-        .collect(Collectors.toList());
+    return submitRecordCache.get(
+        cd,
+        projectState,
+        opts,
+        () ->
+            Streams.stream(submitRules)
+                .map(c -> c.call(s -> s.evaluate(cd, opts)))
+                .flatMap(Collection::stream)
+                .collect(Collectors.toList()));
   }
 
   private List<SubmitRecord> ruleError(String err, Exception e) {
@@ -30,6 +30,7 @@ import com.google.common.collect.Iterables;
 import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.MultimapBuilder;
 import com.google.gerrit.common.Nullable;
 import com.google.gerrit.common.data.LabelTypes;
 import com.google.gerrit.common.data.SubmitRecord;
@@ -118,6 +119,50 @@ public class ChangeData {
     return changes.stream().collect(toMap(ChangeData::getId, Function.identity()));
   }
 
+  /**
+   * Loads the notes of all changes that don't have them yet.
+   *
+   * <p>Changes are grouped by project, and the notes of each project are read in one batch; see
+   * {@link ChangeNotes.Factory#createBatch(ReviewDb, Project.NameKey, Collection)}. Calling this
+   * before the other {@code ensure*Loaded} methods avoids loading the notes one change at a time
+   * when NoteDb is used. Changes that fail to load in a batch are left alone, and load lazily as
+   * before.
+   *
+   * @param changes changes to load.
+   */
+  public static void ensureNotesLoaded(Iterable<ChangeData> changes) throws OrmException {
+    ChangeData first = Iterables.getFirst(changes, null);
+    if (first == null || !first.notesMigration.readChanges()) {
+      return;
+    }
+
+    ListMultimap<Project.NameKey, ChangeData> missing =
+        MultimapBuilder.hashKeys().arrayListValues().build();
+    for (ChangeData cd : changes) {
+      if (cd.notes == null && cd.lazyLoad) {
+        missing.put(cd.project(), cd);
+      }
+    }
+    for (Project.NameKey project : missing.keySet()) {
+      List<ChangeData> cds = missing.get(project);
+      if (cds.size() < 2) {
+        continue;
+      }
+      Map<Change.Id, ChangeNotes> notes =
+          first.notesFactory.createBatch(
+              first.db, project, cds.stream().map(ChangeData::getId).collect(toList()));
+      for (ChangeData cd : cds) {
+        ChangeNotes n = notes.get(cd.getId());
+        if (n != null) {
+          cd.notes = n;
+          if (cd.change == null) {
+            cd.change = n.getChange();
+          }
+        }
+      }
+    }
+  }
+
   public static void ensureChangeLoaded(Iterable<ChangeData> changes) throws OrmException {
     ChangeData first = Iterables.getFirst(changes, null);
     if (first == null) {
@@ -17,7 +17,9 @@ package com.google.gerrit.server.query.change;
 import com.google.common.flogger.FluentLogger;
 import com.google.gerrit.extensions.restapi.AuthException;
 import com.google.gerrit.index.query.IsVisibleToPredicate;
+import com.google.gerrit.reviewdb.client.Branch;
 import com.google.gerrit.reviewdb.client.Change;
+import com.google.gerrit.reviewdb.client.Project;
 import com.google.gerrit.reviewdb.server.ReviewDb;
 import com.google.gerrit.server.AnonymousUser;
 import com.google.gerrit.server.CurrentUser;
@@ -26,11 +28,19 @@ import com.google.gerrit.server.notedb.ChangeNotes;
 import com.google.gerrit.server.permissions.ChangePermission;
 import com.google.gerrit.server.permissions.PermissionBackend;
 import com.google.gerrit.server.permissions.PermissionBackendException;
+import com.google.gerrit.server.permissions.RefPermission;
 import com.google.gerrit.server.project.ProjectCache;
 import com.google.gerrit.server.project.ProjectState;
 import com.google.gwtorm.server.OrmException;
 import com.google.inject.Provider;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import org.eclipse.jgit.errors.RepositoryNotFoundException;
 
 public class ChangeIsVisibleToPredicate extends IsVisibleToPredicate<ChangeData> {
@@ -42,6 +52,7 @@ public class ChangeIsVisibleToPredicate extends IsVisibleToPredicate<ChangeData>
   protected final PermissionBackend permissionBackend;
   protected final ProjectCache projectCache;
   private final Provider<AnonymousUser> anonymousUserProvider;
+  private final Set<Change.Id> notVisible = new HashSet<>();
 
   public ChangeIsVisibleToPredicate(
       Provider<ReviewDb> db,
@@ -64,6 +75,9 @@ public class ChangeIsVisibleToPredicate extends IsVisibleToPredicate<ChangeData>
     if (cd.fastIsVisibleTo(user)) {
       return true;
     }
+    if (notVisible.contains(cd.getId())) {
+      return false;
+    }
     Change change = cd.change();
     if (change == null) {
       return false;
@@ -85,12 +99,8 @@ public class ChangeIsVisibleToPredicate extends IsVisibleToPredicate<ChangeData>
       throw new OrmException("unable to read project state", e);
     }
 
-    PermissionBackend.WithUser withUser =
-        user.isIdentifiedUser()
-            ? permissionBackend.absentUser(user.getAccountId())
-            : permissionBackend.user(anonymousUserProvider.get());
     try {
-      withUser.indexedChange(cd, notes).database(db).check(ChangePermission.READ);
+      withUser().indexedChange(cd, notes).database(db).check(ChangePermission.READ);
     } catch (PermissionBackendException e) {
       Throwable cause = e.getCause();
       if (cause instanceof RepositoryNotFoundException) {
@@ -109,6 +119,110 @@ public class ChangeIsVisibleToPredicate extends IsVisibleToPredicate<ChangeData>
     return true;
   }
 
+  /**
+   * Checks the visibility of a batch of changes.
+   *
+   * <p>Changes are grouped by destination branch, so that the project state and the read permission
+   * on the branch are only evaluated once per branch. Only private changes not owned by the user
+   * require a change-level check, which may load the change notes to find the reviewers.
+   */
+  @Override
+  public void prepare(List<ChangeData> candidates) throws OrmException {
+    Map<Branch.NameKey, List<ChangeData>> byBranch = new LinkedHashMap<>();
+    for (ChangeData cd : candidates) {
+      if (cd.fastIsVisibleTo(user) || notVisible.contains(cd.getId())) {
+        continue;
+      }
+      Change change = cd.change();
+      if (change != null) {
+        byBranch.computeIfAbsent(change.getDest(), b -> new ArrayList<>()).add(cd);
+      }
+    }
+    if (byBranch.isEmpty()) {
+      return;
+    }
+
+    PermissionBackend.WithUser withUser = withUser();
+    Map<Project.NameKey, Boolean> readableProjects = new HashMap<>();
+    for (Map.Entry<Branch.NameKey, List<ChangeData>> e : byBranch.entrySet()) {
+      Branch.NameKey branch = e.getKey();
+      List<ChangeData> changes = e.getValue();
+      Boolean readable = readableProjects.get(branch.getParentKey());
+      if (readable == null) {
+        readable = isReadable(branch.getParentKey());
+        readableProjects.put(branch.getParentKey(), readable);
+      }
+      if (!readable) {
+        hide(changes);
+        continue;
+      }
+
+      try {
+        PermissionBackend.ForRef forRef = withUser.ref(branch).database(db);
+        if (!forRef.test(RefPermission.READ)) {
+          logger.atFine().log(
+              "Filter out %d changes on non-visible branch %s", changes.size(), branch);
+          hide(changes);
+          continue;
+        }
+        for (ChangeData cd : changes) {
+          Change change = cd.change();
+          if (change.isPrivate() && !isOwner(change)) {
+            ChangeNotes notes = notesFactory.createFromIndexedChange(change);
+            if (!forRef.indexedChange(cd, notes).database(db).test(ChangePermission.READ)) {
+              logger.atFine().log("Filter out non-visible change: %s", cd);
+              notVisible.add(cd.getId());
+              continue;
+            }
+          }
+          cd.cacheVisibleTo(user);
+        }
+      } catch (PermissionBackendException ex) {
+        if (ex.getCause() instanceof RepositoryNotFoundException) {
+          logger.atWarning().withCause(ex).log(
+              "Filter out changes of branch %s because the corresponding repository was not found",
+              branch);
+          hide(changes);
+          continue;
+        }
+        throw new OrmException("unable to check permissions on branch " + branch, ex);
+      }
+    }
+  }
+
+  private boolean isReadable(Project.NameKey project) throws OrmException {
+    try {
+      ProjectState projectState = projectCache.checkedGet(project);
+      if (projectState == null) {
+        logger.atFine().log("Filter out changes of non-existing project %s", project);
+        return false;
+      }
+      if (!projectState.statePermitsRead()) {
+        logger.atFine().log("Filter out changes of non-readable project %s", project);
+        return false;
+      }
+      return true;
+    } catch (IOException e) {
+      throw new OrmException("unable to read project state", e);
+    }
+  }
+
+  private boolean isOwner(Change change) {
+    return user.isIdentifiedUser() && user.getAccountId().equals(change.getOwner());
+  }
+
+  private void hide(List<ChangeData> changes) {
+    for (ChangeData cd : changes) {
+      notVisible.add(cd.getId());
+    }
+  }
+
+  private PermissionBackend.WithUser withUser() {
+    return user.isIdentifiedUser()
+        ? permissionBackend.absentUser(user.getAccountId())
+        : permissionBackend.user(anonymousUserProvider.get());
+  }
+
   @Override
   public int getCost() {
     return 1;
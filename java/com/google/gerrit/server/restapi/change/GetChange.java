@@ -20,6 +20,7 @@ import com.google.gerrit.extensions.restapi.Response;
 import com.google.gerrit.extensions.restapi.RestReadView;
 import com.google.gerrit.server.change.ChangeJson;
 import com.google.gerrit.server.change.ChangeResource;
+import com.google.gerrit.server.change.MergeabilityPrecomputer;
 import com.google.gerrit.server.change.RevisionResource;
 import com.google.gwtorm.server.OrmException;
 import com.google.inject.Inject;
@@ -28,6 +29,7 @@ import org.kohsuke.args4j.Option;
 
 public class GetChange implements RestReadView<ChangeResource> {
   private final ChangeJson.Factory json;
+  private final MergeabilityPrecomputer mergeabilityPrecomputer;
   private final EnumSet<ListChangesOption> options = EnumSet.noneOf(ListChangesOption.class);
 
   @Option(name = "-o", usage = "Output options")
@@ -41,16 +43,19 @@ public class GetChange implements RestReadView<ChangeResource> {
   }
 
   @Inject
-  GetChange(ChangeJson.Factory json) {
+  GetChange(ChangeJson.Factory json, MergeabilityPrecomputer mergeabilityPrecomputer) {
     this.json = json;
+    this.mergeabilityPrecomputer = mergeabilityPrecomputer;
   }
 
   @Override
   public Response<ChangeInfo> apply(ChangeResource rsrc) throws OrmException {
+    mergeabilityPrecomputer.recordView(rsrc.getId());
     return Response.withMustRevalidate(json.create(options).format(rsrc));
   }
 
   Response<ChangeInfo> apply(RevisionResource rsrc) throws OrmException {
+    mergeabilityPrecomputer.recordView(rsrc.getChange().getId());
     return Response.withMustRevalidate(json.create(options).format(rsrc));
   }
 }
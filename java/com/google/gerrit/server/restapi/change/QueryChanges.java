@@ -27,6 +27,7 @@ import com.google.gerrit.index.query.QueryRequiresAuthException;
 import com.google.gerrit.index.query.QueryResult;
 import com.google.gerrit.server.DynamicOptions;
 import com.google.gerrit.server.change.ChangeJson;
+import com.google.gerrit.server.index.change.ChangeIndexCursor;
 import com.google.gerrit.server.permissions.PermissionBackendException;
 import com.google.gerrit.server.query.change.ChangeData;
 import com.google.gerrit.server.query.change.ChangeQueryBuilder;
@@ -46,6 +47,7 @@ public class QueryChanges implements RestReadView<TopLevelResource>, DynamicOpti
   private final ChangeQueryBuilder qb;
   private final ChangeQueryProcessor imp;
   private EnumSet<ListChangesOption> options;
+  private String searchAfter;
 
   @Option(
       name = "--query",
@@ -82,6 +84,15 @@ public class QueryChanges implements RestReadView<TopLevelResource>, DynamicOpti
     imp.setStart(start);
   }
 
+  @Option(
+      name = "--search-after",
+      aliases = {"-A"},
+      metaVar = "CURSOR",
+      usage = "Return changes after the given cursor, from the _search_after field of a change")
+  public void setSearchAfter(String searchAfter) {
+    this.searchAfter = searchAfter;
+  }
+
   @Override
   public void setDynamicBean(String plugin, DynamicOptions.DynamicBean dynamicBean) {
     imp.setDynamicBean(plugin, dynamicBean);
@@ -135,13 +146,19 @@ public class QueryChanges implements RestReadView<TopLevelResource>, DynamicOpti
       throw new QueryParseException("limit of 10 queries");
     }
 
+    if (searchAfter != null) {
+      imp.setSearchAfter(ChangeIndexCursor.parse(searchAfter));
+    }
+
     int cnt = queries.size();
     List<QueryResult<ChangeData>> results = imp.query(qb.parse(queries));
     List<List<ChangeInfo>> res = json.create(options, this.imp).format(results);
     for (int n = 0; n < cnt; n++) {
       List<ChangeInfo> info = res.get(n);
       if (results.get(n).more() && !info.isEmpty()) {
-        Iterables.getLast(info)._moreChanges = true;
+        ChangeInfo last = Iterables.getLast(info);
+        last._moreChanges = true;
+        last._searchAfter = ChangeIndexCursor.create(last.updated.getTime(), last._number).format();
       }
     }
     return res;
@@ -15,10 +15,17 @@
 package com.google.gerrit.server.rules;
 
 import static com.googlecode.prolog_cafe.lang.PrologMachineCopy.save;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 
 import com.google.common.base.Joiner;
 import com.google.common.cache.Cache;
 import com.google.common.collect.ImmutableList;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Description.Units;
+import com.google.gerrit.metrics.Field;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.metrics.Timer0;
+import com.google.gerrit.metrics.Timer1;
 import com.google.gerrit.reviewdb.client.Project;
 import com.google.gerrit.reviewdb.client.RefNames;
 import com.google.gerrit.server.cache.CacheModule;
@@ -95,6 +102,8 @@ public class RulesCache {
   private final ClassLoader systemLoader;
   private final PrologMachineCopy defaultMachine;
   private final Cache<ObjectId, PrologMachineCopy> machineCache;
+  private final Timer1<String> compileLatency;
+  private final Timer0 loadWaitLatency;
 
   @Inject
   protected RulesCache(
@@ -102,7 +111,8 @@ public class RulesCache {
       SitePaths site,
       GitRepositoryManager gm,
       PluginSetContext<PredicateProvider> predicateProviders,
-      @Named(CACHE_NAME) Cache<ObjectId, PrologMachineCopy> machineCache) {
+      @Named(CACHE_NAME) Cache<ObjectId, PrologMachineCopy> machineCache,
+      MetricMaker metricMaker) {
     maxDbSize = config.getInt("rules", null, "maxPrologDatabaseSize", 256);
     maxSrcBytes = config.getInt("rules", null, "maxSourceBytes", 128 << 10);
     enableProjectRules = config.getBoolean("rules", null, "enable", true) && maxSrcBytes > 0;
@@ -112,6 +122,20 @@ public class RulesCache {
     this.predicateProviders = predicateProviders;
     this.machineCache = machineCache;
 
+    compileLatency =
+        metricMaker.newTimer(
+            "prolog/rules/compile_latency",
+            new Description("Latency for loading the Prolog rules of a project into a machine")
+                .setCumulative()
+                .setUnit(Units.MILLISECONDS),
+            Field.ofString("source"));
+    loadWaitLatency =
+        metricMaker.newTimer(
+            "prolog/rules/load_wait_latency",
+            new Description("Latency for acquiring the lock to load Prolog rules on a cache miss")
+                .setCumulative()
+                .setUnit(Units.MILLISECONDS));
+
     systemLoader = getClass().getClassLoader();
     defaultMachine = save(newEmptyMachine(systemLoader));
   }
@@ -123,15 +147,28 @@ public class RulesCache {
   /**
    * Locate a cached Prolog machine state, or create one if not available.
    *
+   * <p>Cache hits don't take any lock. Misses are loaded while holding the lock on this cache, so
+   * Prolog machines are never created concurrently.
+   *
    * @return a Prolog machine, after loading the specified rules.
    * @throws CompileException the machine cannot be created.
    */
-  public synchronized PrologMachineCopy loadMachine(Project.NameKey project, ObjectId rulesId)
+  public PrologMachineCopy loadMachine(Project.NameKey project, ObjectId rulesId)
       throws CompileException {
     if (!enableProjectRules || project == null || rulesId == null) {
       return defaultMachine;
     }
 
+    PrologMachineCopy pmc = machineCache.getIfPresent(rulesId);
+    if (pmc != null) {
+      return pmc;
+    }
+    return load(project, rulesId, System.nanoTime());
+  }
+
+  private synchronized PrologMachineCopy load(
+      Project.NameKey project, ObjectId rulesId, long missedAt) throws CompileException {
+    loadWaitLatency.record(System.nanoTime() - missedAt, NANOSECONDS);
     try {
       return machineCache.get(rulesId, () -> createMachine(project, rulesId));
     } catch (ExecutionException e) {
@@ -158,19 +195,23 @@ public class RulesCache {
     if (rulesDir != null) {
       Path jarPath = rulesDir.resolve("rules-" + rulesId.getName() + ".jar");
       if (Files.isRegularFile(jarPath)) {
-        URL[] cp = new URL[] {toURL(jarPath)};
-        return save(newEmptyMachine(URLClassLoader.newInstance(cp, systemLoader)));
+        try (Timer1.Context ignored = compileLatency.start("jar")) {
+          URL[] cp = new URL[] {toURL(jarPath)};
+          return save(newEmptyMachine(URLClassLoader.newInstance(cp, systemLoader)));
+        }
       }
     }
 
     // Dynamically consult the rules into the machine's internal database.
     //
-    String rules = read(project, rulesId);
-    PrologMachineCopy pmc = consultRules("rules.pl", new StringReader(rules));
-    if (pmc == null) {
-      throw new CompileException("Cannot consult rules of " + project);
+    try (Timer1.Context ignored = compileLatency.start("consult")) {
+      String rules = read(project, rulesId);
+      PrologMachineCopy pmc = consultRules("rules.pl", new StringReader(rules));
+      if (pmc == null) {
+        throw new CompileException("Cannot consult rules of " + project);
+      }
+      return pmc;
     }
-    return pmc;
   }
 
   private PrologMachineCopy consultRules(String name, Reader rules) throws CompileException {
@@ -163,7 +163,8 @@ public class SchemaCreator {
             GitReferenceUpdated.DISABLED,
             allProjectsName,
             allUsersName,
-            metricMaker);
+            metricMaker,
+            null);
     try (Repository allUsersRepo = repoManager.openRepository(allUsersName)) {
       createAdminsGroup(seqs, allUsersRepo, admins);
       createBatchUsersGroup(seqs, allUsersRepo, batchUsers, admins.getUUID());
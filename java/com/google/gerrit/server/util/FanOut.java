@@ -0,0 +1,84 @@
+// Copyright (C) 2019 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Runs a batch of tasks on a shared executor, with the calling thread taking part.
+ *
+ * <p>Unlike {@link java.util.concurrent.ExecutorService#invokeAll(Collection)}, the caller never
+ * waits for a task that no thread of the executor has started yet: it runs such tasks itself. This
+ * makes it safe to fan out from a thread of the same executor, e.g. the {@link
+ * com.google.gerrit.server.FanOutExecutor}, where blocking on queued tasks can deadlock once all
+ * threads of the pool are waiting.
+ */
+public final class FanOut {
+  /**
+   * Executes the given tasks and waits until all of them are done.
+   *
+   * @param executor executor to run tasks on in parallel to the calling thread.
+   * @param tasks tasks to run.
+   * @return futures of the tasks, in the order of {@code tasks}; all of them are done.
+   * @throws InterruptedException if the calling thread was interrupted while waiting. Tasks that
+   *     are not done yet are cancelled.
+   */
+  public static <T> List<Future<T>> invokeAll(
+      Executor executor, Collection<? extends Callable<T>> tasks) throws InterruptedException {
+    List<FutureTask<T>> futures = new ArrayList<>(tasks.size());
+    for (Callable<T> task : tasks) {
+      futures.add(new FutureTask<>(task));
+    }
+    try {
+      for (FutureTask<T> f : futures) {
+        executor.execute(f);
+      }
+    } catch (RejectedExecutionException e) {
+      // Tasks that could not be submitted are run by the calling thread below.
+    }
+
+    boolean done = false;
+    try {
+      for (FutureTask<T> f : futures) {
+        // Does nothing if a thread of the executor already started the task.
+        f.run();
+      }
+      for (FutureTask<T> f : futures) {
+        try {
+          f.get();
+        } catch (ExecutionException | CancellationException e) {
+          // Reported to the caller through the future.
+        }
+      }
+      done = true;
+    } finally {
+      if (!done) {
+        futures.forEach(f -> f.cancel(true));
+      }
+    }
+    return new ArrayList<>(futures);
+  }
+
+  private FanOut() {}
+}
@@ -91,6 +91,14 @@ public class Query extends SshCommand implements DynamicOptions.BeanReceiver {
     processor.setStart(start);
   }
 
+  @Option(
+      name = "--search-after",
+      metaVar = "CURSOR",
+      usage = "Return changes after the given cursor, from the searchAfter field of the stats")
+  void setSearchAfter(String cursor) {
+    processor.setSearchAfter(cursor);
+  }
+
   @Argument(
       index = 0,
       required = true,
@@ -26,16 +26,24 @@ import com.google.gerrit.reviewdb.client.Project;
 import com.google.gerrit.server.CurrentUser;
 import com.google.gerrit.server.IdentifiedUser;
 import com.google.gerrit.server.events.Event;
+import com.google.gerrit.server.events.EventBroker;
+import com.google.gerrit.server.events.EventJournal;
 import com.google.gerrit.server.events.EventTypes;
 import com.google.gerrit.server.events.ProjectNameKeySerializer;
 import com.google.gerrit.server.events.SupplierSerializer;
 import com.google.gerrit.server.events.UserScopedEventListener;
 import com.google.gerrit.server.git.WorkQueue.CancelableRunnable;
+import com.google.gerrit.server.permissions.PermissionBackendException;
+import com.google.gerrit.server.util.ManualRequestContext;
+import com.google.gerrit.server.util.OneOffRequestContext;
 import com.google.gerrit.sshd.BaseCommand;
 import com.google.gerrit.sshd.CommandMetaData;
 import com.google.gerrit.sshd.StreamCommandExecutor;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gwtorm.server.OrmException;
 import com.google.inject.Inject;
 import java.io.IOException;
 import java.io.PrintWriter;
@@ -65,15 +73,38 @@ final class StreamEvents extends BaseCommand {
       usage = "subscribe to specific stream-events")
   private List<String> subscribedToEvents = new ArrayList<>();
 
+  @Option(
+      name = "--resume-from",
+      metaVar = "SEQ",
+      usage = "resume streaming after the event with the given sequence number")
+  private Long resumeFrom;
+
   @Inject private IdentifiedUser currentUser;
 
   @Inject private DynamicSet<UserScopedEventListener> eventListeners;
 
+  @Inject private EventJournal journal;
+
+  @Inject private EventBroker eventBroker;
+
+  @Inject private OneOffRequestContext requestContext;
+
   @Inject @StreamCommandExecutor private ScheduledThreadPoolExecutor pool;
 
-  /** Queue of events to stream to the connected user. */
+  /** Queue of events to stream to the connected user, if the event journal is not used. */
   private final LinkedBlockingQueue<Event> queue = new LinkedBlockingQueue<>(MAX_EVENTS);
 
+  /**
+   * Reader on the event journal, if it is enabled.
+   *
+   * <p>Events are then read from the journal instead of {@link #queue}, so a slow client falls
+   * behind on disk rather than losing events.
+   */
+  private EventJournal.Reader reader;
+
+  /** Sequence number of the last event read from {@link #reader}. */
+  private long lastSeq;
+
   private Gson gson;
 
   private RegistrationHandle eventListenerRegistration;
@@ -95,7 +126,11 @@ final class StreamEvents extends BaseCommand {
       new CancelableRunnable() {
         @Override
         public void run() {
-          writeEvents();
+          if (reader != null) {
+            writeJournalEvents();
+          } else {
+            writeEvents();
+          }
         }
 
         @Override
@@ -117,7 +152,7 @@ final class StreamEvents extends BaseCommand {
   /** True if {@link DroppedOutputEvent} needs to be sent. */
   private volatile boolean dropped;
 
-  /** Lock to protect {@link #queue}, {@link #task}, {@link #done}. */
+  /** Lock to protect {@link #queue}, {@link #reader}, {@link #task}, {@link #done}. */
   private final Object taskLock = new Object();
 
   /** True if no more messages should be sent to the output. */
@@ -137,6 +172,9 @@ final class StreamEvents extends BaseCommand {
   public void start(Environment env) throws IOException {
     try {
       parseCommandLine();
+      if (resumeFrom != null && !journal.isOpen()) {
+        throw die("--resume-from requires the event journal to be enabled");
+      }
     } catch (UnloggedFailure e) {
       String msg = e.getMessage();
       if (!msg.endsWith("\n")) {
@@ -149,13 +187,32 @@ final class StreamEvents extends BaseCommand {
     }
 
     stdout = toPrintWriter(out);
+    gson =
+        new GsonBuilder()
+            .registerTypeAdapter(Supplier.class, new SupplierSerializer())
+            .registerTypeAdapter(Project.NameKey.class, new ProjectNameKeySerializer())
+            .create();
+
+    if (journal.isOpen()) {
+      // Register first, so that no event appended after the reader was opened goes unnoticed.
+      // Until then wakeUp() ignores the notifications.
+      eventListenerRegistration = journal.addListener(this::wakeUp);
+      long from = resumeFrom != null ? resumeFrom + 1 : journal.lastSeq() + 1;
+      synchronized (taskLock) {
+        reader = journal.reader(from);
+        lastSeq = from - 1;
+      }
+      wakeUp();
+      return;
+    }
+
     eventListenerRegistration =
         eventListeners.add(
             "gerrit",
             new UserScopedEventListener() {
               @Override
               public void onEvent(Event event) {
-                if (subscribedToEvents.isEmpty() || subscribedToEvents.contains(event.getType())) {
+                if (isSubscribed(event.getType())) {
                   offer(event);
                 }
               }
@@ -165,12 +222,6 @@ final class StreamEvents extends BaseCommand {
                 return currentUser;
               }
             });
-
-    gson =
-        new GsonBuilder()
-            .registerTypeAdapter(Supplier.class, new SupplierSerializer())
-            .registerTypeAdapter(Project.NameKey.class, new ProjectNameKeySerializer())
-            .create();
   }
 
   private void removeEventListenerRegistration() {
@@ -185,6 +236,7 @@ final class StreamEvents extends BaseCommand {
 
     synchronized (taskLock) {
       done = true;
+      closeReader();
     }
 
     super.onExit(rc);
@@ -203,6 +255,7 @@ final class StreamEvents extends BaseCommand {
         exit = !done;
       }
       done = true;
+      closeReader();
     }
     if (exit) {
       onExit(0);
@@ -221,6 +274,20 @@ final class StreamEvents extends BaseCommand {
     }
   }
 
+  private void closeReader() {
+    if (reader != null) {
+      reader.close();
+    }
+  }
+
+  private void wakeUp() {
+    synchronized (taskLock) {
+      if (reader != null && task == null && !done) {
+        task = pool.submit(writer);
+      }
+    }
+  }
+
   private Event poll() {
     synchronized (taskLock) {
       Event event = queue.poll();
@@ -273,6 +340,77 @@ final class StreamEvents extends BaseCommand {
     }
   }
 
+  private EventJournal.Entry pollJournal() {
+    synchronized (taskLock) {
+      EventJournal.Entry entry = reader.next();
+      if (entry == null) {
+        task = null;
+      }
+      return entry;
+    }
+  }
+
+  private void writeJournalEvents() {
+    int processed = 0;
+
+    try (ManualRequestContext ctx = requestContext.open()) {
+      while (processed < BATCH_SIZE) {
+        if (Thread.interrupted() || stdout.checkError()) {
+          removeEventListenerRegistration();
+          flush();
+          onExit(0);
+          return;
+        }
+
+        EventJournal.Entry entry = pollJournal();
+        if (entry == null) {
+          break;
+        }
+        if (entry.seq() > lastSeq + 1) {
+          // Events were deleted from the journal before the client could read them.
+          write(new DroppedOutputEvent());
+        }
+        lastSeq = entry.seq();
+        if (isSubscribed(entry.type()) && isVisible(entry)) {
+          JsonObject json = new JsonParser().parse(entry.json()).getAsJsonObject();
+          json.addProperty("seq", entry.seq());
+          write(json);
+        }
+        processed++;
+      }
+    } catch (OrmException e) {
+      logger.atWarning().withCause(e).log("Cannot read events from journal");
+      synchronized (taskLock) {
+        // Try again on the next event.
+        task = null;
+      }
+      flush();
+      return;
+    }
+
+    flush();
+
+    if (BATCH_SIZE <= processed) {
+      synchronized (taskLock) {
+        task = pool.submit(writer);
+      }
+    }
+  }
+
+  private boolean isSubscribed(String type) {
+    return subscribedToEvents.isEmpty() || subscribedToEvents.contains(type);
+  }
+
+  private boolean isVisible(EventJournal.Entry entry) {
+    try {
+      return eventBroker.isVisibleTo(entry, currentUser);
+    } catch (OrmException | PermissionBackendException e) {
+      logger.atWarning().withCause(e).log(
+          "Cannot check visibility of event %d, not sending it", entry.seq());
+      return false;
+    }
+  }
+
   private void write(Object message) {
     String msg = null;
     try {
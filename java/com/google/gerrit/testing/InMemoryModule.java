@@ -37,6 +37,7 @@ import com.google.gerrit.server.api.GerritApiModule;
 import com.google.gerrit.server.api.PluginApiModule;
 import com.google.gerrit.server.audit.AuditModule;
 import com.google.gerrit.server.cache.h2.H2CacheModule;
+import com.google.gerrit.server.cache.logstore.LogCacheModule;
 import com.google.gerrit.server.cache.mem.DefaultMemoryCacheModule;
 import com.google.gerrit.server.config.AllProjectsName;
 import com.google.gerrit.server.config.AllProjectsNameProvider;
@@ -77,6 +78,7 @@ import com.google.gerrit.server.notedb.GwtormChangeBundleReader;
 import com.google.gerrit.server.notedb.MutableNotesMigration;
 import com.google.gerrit.server.notedb.NotesMigration;
 import com.google.gerrit.server.patch.DiffExecutor;
+import com.google.gerrit.server.permissions.ChangeVisibilityIndex;
 import com.google.gerrit.server.permissions.DefaultPermissionBackendModule;
 import com.google.gerrit.server.plugins.ServerInformationImpl;
 import com.google.gerrit.server.project.DefaultProjectNameLockManager;
@@ -179,6 +181,7 @@ public class InMemoryModule extends FactoryModule {
     install(new PluginApiModule());
     install(new DefaultPermissionBackendModule());
     install(new SearchingChangeCacheImpl.Module());
+    install(new ChangeVisibilityIndex.Module());
     factory(GarbageCollection.Factory.class);
     install(new AuditModule());
 
@@ -240,6 +243,7 @@ public class InMemoryModule extends FactoryModule {
         });
     install(new DefaultMemoryCacheModule());
     install(new H2CacheModule());
+    install(new LogCacheModule());
     install(new FakeEmailSender.Module());
     install(new SignedTokenEmailTokenVerifier.Module());
     install(new GpgModule(cfg));
@@ -28,6 +28,7 @@ import static com.google.gerrit.server.project.testing.Util.category;
 import static com.google.gerrit.server.project.testing.Util.value;
 import static org.eclipse.jgit.lib.Constants.HEAD;
 
+import com.google.common.cache.Cache;
 import com.google.common.collect.ImmutableList;
 import com.google.gerrit.acceptance.AbstractDaemonTest;
 import com.google.gerrit.acceptance.GitUtil;
@@ -44,10 +45,19 @@ import com.google.gerrit.extensions.common.ApprovalInfo;
 import com.google.gerrit.extensions.common.ChangeInfo;
 import com.google.gerrit.extensions.common.CommitInfo;
 import com.google.gerrit.reviewdb.client.AccountGroup;
+import com.google.gerrit.reviewdb.client.Change;
+import com.google.gerrit.reviewdb.client.PatchSet;
 import com.google.gerrit.reviewdb.client.RefNames;
+import com.google.gerrit.server.change.ChangeKindCache;
+import com.google.gerrit.server.change.ChangeKindCacheImpl;
 import com.google.gerrit.server.project.testing.Util;
+import com.google.gerrit.server.query.change.ChangeData;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import java.util.ArrayList;
 import java.util.EnumSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import org.eclipse.jgit.junit.TestRepository;
 import org.eclipse.jgit.lib.ObjectId;
@@ -58,6 +68,11 @@ import org.junit.Test;
 
 @NoHttpd
 public class StickyApprovalsIT extends AbstractDaemonTest {
+  @Inject private ChangeKindCache changeKindCache;
+
+  @Inject
+  @Named("change_kind")
+  private Cache<ChangeKindCacheImpl.Key, ChangeKind> changeKinds;
 
   @Before
   public void setup() throws Exception {
@@ -359,6 +374,35 @@ public class StickyApprovalsIT extends AbstractDaemonTest {
     assertVotes(detailedChange(changeId), admin, label, 0, REWORK);
   }
 
+  @Test
+  public void changeKindsOfAllPatchSetsMatchKindsPerPatchSet() throws Exception {
+    String changeId = createChange().getChangeId();
+    noCodeChange(changeId);
+    rework(changeId);
+    trivialRebase(changeId);
+
+    ChangeData cd =
+        changeDataFactory.create(
+            db, project, new Change.Id(gApi.changes().id(changeId).get()._number));
+    List<PatchSet.Id> ids = new ArrayList<>();
+    List<ChangeKind> expected = new ArrayList<>();
+    changeKinds.invalidateAll();
+    for (PatchSet ps : cd.patchSets()) {
+      ids.add(ps.getId());
+      expected.add(changeKindCache.getChangeKind(db, cd.change(), ps));
+    }
+    assertThat(expected).containsExactly(REWORK, NO_CODE_CHANGE, REWORK, TRIVIAL_REBASE).inOrder();
+
+    // Nothing is cached, so the kinds are computed in one batch.
+    changeKinds.invalidateAll();
+    Map<PatchSet.Id, ChangeKind> kinds = changeKindCache.getChangeKinds(cd);
+    assertThat(kinds.keySet()).containsExactlyElementsIn(ids).inOrder();
+    assertThat(kinds.values()).containsExactlyElementsIn(expected).inOrder();
+
+    // Cached kinds are returned as well.
+    assertThat(changeKindCache.getChangeKinds(cd)).containsExactlyEntriesIn(kinds).inOrder();
+  }
+
   private ChangeInfo detailedChange(String changeId) throws Exception {
     return gApi.changes().id(changeId).get(DETAILED_LABELS, CURRENT_REVISION, CURRENT_COMMIT);
   }
@@ -0,0 +1,154 @@
+// Copyright (C) 2019 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.acceptance.git;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.gerrit.acceptance.GitUtil.assertPushOk;
+import static com.google.gerrit.acceptance.GitUtil.assertPushRejected;
+import static com.google.gerrit.acceptance.GitUtil.pushHead;
+
+import com.google.common.collect.ImmutableList;
+import com.google.gerrit.acceptance.AbstractDaemonTest;
+import com.google.gerrit.acceptance.GerritConfig;
+import com.google.gerrit.common.data.Permission;
+import com.google.gerrit.extensions.registration.DynamicSet;
+import com.google.gerrit.extensions.registration.RegistrationHandle;
+import com.google.gerrit.reviewdb.client.RevId;
+import com.google.gerrit.server.git.validators.CommitValidationException;
+import com.google.gerrit.server.git.validators.CommitValidationListener;
+import com.google.inject.Inject;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CommitValidationIT extends AbstractDaemonTest {
+  private static final String MASTER = "refs/heads/master";
+
+  @Inject private DynamicSet<CommitValidationListener> commitValidationListeners;
+
+  private final List<String> validated = Collections.synchronizedList(new ArrayList<>());
+  private final List<String> threads = Collections.synchronizedList(new ArrayList<>());
+  private RegistrationHandle registrationHandle;
+
+  @Before
+  public void setUp() throws Exception {
+    grant(project, "refs/heads/*", Permission.PUSH);
+    // Rejects commits whose subject starts with "reject", but only on direct pushes.
+    registrationHandle =
+        commitValidationListeners.add(
+            "gerrit",
+            event -> {
+              String subject = event.commit.getShortMessage();
+              validated.add(subject);
+              threads.add(Thread.currentThread().getName());
+              if (subject.startsWith("reject") && event.refName.startsWith("refs/heads/")) {
+                throw new CommitValidationException("rejected");
+              }
+              return ImmutableList.of();
+            });
+  }
+
+  @After
+  public void cleanup() {
+    registrationHandle.remove();
+  }
+
+  @Test
+  public void validCommitIsNotValidatedAgain() throws Exception {
+    RevCommit bad = commit("reject a", true);
+    commit("b", true);
+
+    assertPushRejected(pushHead(testRepo, MASTER, false), MASTER, rejection(bad));
+    assertThat(validated).containsExactly("b", "reject a").inOrder();
+
+    validated.clear();
+    assertPushRejected(pushHead(testRepo, MASTER, false), MASTER, rejection(bad));
+    assertThat(validated).containsExactly("reject a");
+  }
+
+  @Test
+  public void commitValidatedForDirectPushIsValidatedAgainForReview() throws Exception {
+    commit("reject a", true);
+    RevCommit withoutChangeId = commit("b", false);
+    assertThat(pushHead(testRepo, MASTER, false).getRemoteUpdate(MASTER).getMessage())
+        .contains("rejected");
+
+    String ref = "refs/for/master";
+    assertPushRejected(
+        pushHead(testRepo, ref, false),
+        ref,
+        "commit "
+            + withoutChangeId.abbreviate(RevId.ABBREV_LEN).name()
+            + ": missing Change-Id in message footer");
+  }
+
+  @Test
+  @GerritConfig(name = "receive.commitValidationThreads", value = "4")
+  public void parallelValidationAcceptsValidCommits() throws Exception {
+    List<String> subjects = ImmutableList.of("c1", "c2", "c3", "c4", "c5");
+    for (String subject : subjects) {
+      commit(subject, true);
+    }
+
+    assertPushOk(pushHead(testRepo, MASTER, false), MASTER);
+    assertThat(validated).containsExactlyElementsIn(subjects);
+  }
+
+  @Test
+  @GerritConfig(name = "receive.commitValidationThreads", value = "4")
+  public void parallelValidationReportsFirstInvalidCommitInWalkOrder() throws Exception {
+    RevCommit initial = getRemoteHead();
+    commit("c1", true);
+    commit("reject c2", true);
+    commit("c3", true);
+    // The walk visits the tip first, so this is the first invalid commit.
+    RevCommit reported = commit("reject c4", true);
+    commit("c5", true);
+
+    assertPushRejected(pushHead(testRepo, MASTER, false), MASTER, rejection(reported));
+    assertThat(getRemoteHead()).isEqualTo(initial);
+  }
+
+  @Test
+  @GerritConfig(name = "receive.commitValidationThreads", value = "4")
+  public void changesForReviewAreValidatedInParallel() throws Exception {
+    List<String> subjects = ImmutableList.of("c1", "c2", "c3", "c4", "c5");
+    for (String subject : subjects) {
+      commit(subject, true);
+    }
+
+    String ref = "refs/for/master";
+    assertPushOk(pushHead(testRepo, ref, false), ref);
+    assertThat(validated).containsExactlyElementsIn(subjects);
+    assertThat(threads).hasSize(subjects.size());
+    for (String thread : threads) {
+      assertThat(thread).startsWith("CommitValidation-");
+    }
+  }
+
+  private RevCommit commit(String subject, boolean insertChangeId) throws Exception {
+    return insertChangeId
+        ? testRepo.branch("HEAD").commit().message(subject).insertChangeId().create()
+        : testRepo.branch("HEAD").commit().message(subject).create();
+  }
+
+  private static String rejection(RevCommit c) {
+    return "commit " + c.abbreviate(RevId.ABBREV_LEN).name() + ": rejected";
+  }
+}
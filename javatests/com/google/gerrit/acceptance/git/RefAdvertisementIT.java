@@ -614,6 +614,49 @@ public class RefAdvertisementIT extends AbstractDaemonTest {
     }
   }
 
+  @Test
+  @GerritConfig(name = "cache.change_visibility.memoryLimit", value = "1024")
+  public void advertisedReferencesOmitPrivateChangesOfOtherUsersWithVisibilityIndex()
+      throws Exception {
+    assume().that(notesMigration.readChanges()).isTrue();
+    allow("refs/heads/master", Permission.READ, REGISTERED_USERS);
+
+    TestRepository<?> userTestRepository = cloneProject(project, user);
+    try (Git git = userTestRepository.git()) {
+      String change3RefName = c3.currentPatchSet().getRefName();
+      assertWithMessage("Precondition violated").that(getRefs(git)).contains(change3RefName);
+
+      gApi.changes().id(c3.getId().get()).setPrivate(true, null);
+      assertThat(getRefs(git)).doesNotContain(change3RefName);
+
+      gApi.changes().id(c3.getId().get()).setPrivate(false, null);
+      assertThat(getRefs(git)).contains(change3RefName);
+    }
+  }
+
+  @Test
+  @GerritConfig(name = "cache.change_visibility.memoryLimit", value = "1024")
+  public void advertisedReferencesIncludeNewChangesWithVisibilityIndex() throws Exception {
+    assume().that(notesMigration.readChanges()).isTrue();
+    allow("refs/heads/master", Permission.READ, REGISTERED_USERS);
+    deny("refs/heads/branch", Permission.READ, REGISTERED_USERS);
+
+    TestRepository<?> userTestRepository = cloneProject(project, user);
+    try (Git git = userTestRepository.git()) {
+      assertThat(getRefs(git)).containsAllOf(r1 + "1", r3 + "1");
+      assertThat(getRefs(git)).containsNoneOf(r2 + "1", r4 + "1");
+
+      PushOneCommit.Result mr =
+          pushFactory.create(db, admin.getIdent(), testRepo).to("refs/for/master");
+      mr.assertOkStatus();
+      PushOneCommit.Result br =
+          pushFactory.create(db, admin.getIdent(), testRepo).to("refs/for/branch");
+      br.assertOkStatus();
+      assertThat(getRefs(git)).contains(mr.getPatchSetId().toRefName());
+      assertThat(getRefs(git)).doesNotContain(br.getPatchSetId().toRefName());
+    }
+  }
+
   @Test
   public void advertisedReferencesOmitDraftCommentRefsOfOtherUsers() throws Exception {
     assume().that(notesMigration.commitChangeWrites()).isTrue();
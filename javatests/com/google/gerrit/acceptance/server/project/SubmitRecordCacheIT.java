@@ -0,0 +1,90 @@
+// Copyright (C) 2019 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.acceptance.server.project;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.gerrit.acceptance.AbstractDaemonTest;
+import com.google.gerrit.acceptance.PushOneCommit;
+import com.google.gerrit.acceptance.RestResponse;
+import com.google.gerrit.common.data.SubmitRecord;
+import com.google.gerrit.extensions.registration.DynamicSet;
+import com.google.gerrit.extensions.registration.RegistrationHandle;
+import com.google.gerrit.server.project.SubmitRuleEvaluator;
+import com.google.gerrit.server.project.SubmitRuleOptions;
+import com.google.gerrit.server.restapi.config.ListCaches.CacheInfo;
+import com.google.gerrit.server.rules.SubmitRule;
+import com.google.inject.Inject;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class SubmitRecordCacheIT extends AbstractDaemonTest {
+  @Inject private SubmitRuleEvaluator.Factory evaluatorFactory;
+  @Inject private DynamicSet<SubmitRule> submitRules;
+
+  @Test
+  public void recordsOfBuiltInRulesAreCached() throws Exception {
+    PushOneCommit.Result r = createChange();
+    List<SubmitRecord> records = evaluate(r);
+
+    assertThat(cacheEntries()).isAtLeast(1L);
+    assertThat(evaluate(r)).isEqualTo(records);
+  }
+
+  @Test
+  public void updatedChangeIsEvaluatedAgain() throws Exception {
+    PushOneCommit.Result r = createChange();
+    assertThat(Iterables.getOnlyElement(evaluate(r)).status)
+        .isEqualTo(SubmitRecord.Status.NOT_READY);
+
+    approve(r.getChangeId());
+    assertThat(Iterables.getOnlyElement(evaluate(r)).status).isEqualTo(SubmitRecord.Status.OK);
+  }
+
+  @Test
+  public void pluginRulesAreEvaluatedEveryTime() throws Exception {
+    PushOneCommit.Result r = createChange();
+    AtomicInteger calls = new AtomicInteger();
+    RegistrationHandle handle =
+        submitRules.add(
+            "my-plugin",
+            (cd, opts) -> {
+              calls.incrementAndGet();
+              return ImmutableList.of();
+            });
+    try {
+      evaluate(r);
+      evaluate(r);
+      assertThat(calls.get()).isEqualTo(2);
+    } finally {
+      handle.remove();
+    }
+  }
+
+  private List<SubmitRecord> evaluate(PushOneCommit.Result r) throws Exception {
+    return evaluatorFactory
+        .create(SubmitRuleOptions.defaults())
+        .evaluate(changeDataFactory.create(db, project, r.getChange().getId()));
+  }
+
+  private Long cacheEntries() throws Exception {
+    RestResponse r = adminRestSession.get("/config/server/caches/submit_records");
+    r.assertOK();
+    return newGson().fromJson(r.getReader(), CacheInfo.class).entries.mem;
+  }
+}
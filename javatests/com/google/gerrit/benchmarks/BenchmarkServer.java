@@ -0,0 +1,161 @@
+// Copyright (C) 2019 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.benchmarks;
+
+import com.google.gerrit.extensions.api.GerritApi;
+import com.google.gerrit.extensions.api.projects.ProjectInput;
+import com.google.gerrit.lifecycle.LifecycleManager;
+import com.google.gerrit.reviewdb.client.Account;
+import com.google.gerrit.reviewdb.client.Project;
+import com.google.gerrit.reviewdb.server.ReviewDb;
+import com.google.gerrit.server.CurrentUser;
+import com.google.gerrit.server.IdentifiedUser;
+import com.google.gerrit.server.account.AccountManager;
+import com.google.gerrit.server.account.AuthRequest;
+import com.google.gerrit.server.notedb.MutableNotesMigration;
+import com.google.gerrit.server.notedb.NotesMigrationState;
+import com.google.gerrit.server.schema.SchemaCreator;
+import com.google.gerrit.server.util.RequestContext;
+import com.google.gerrit.server.util.ThreadLocalRequestContext;
+import com.google.gerrit.testing.InMemoryDatabase;
+import com.google.gerrit.testing.InMemoryModule;
+import com.google.gerrit.testing.InMemoryRepositoryManager;
+import com.google.gerrit.testing.InMemoryRepositoryManager.Repo;
+import com.google.gwtorm.server.SchemaFactory;
+import com.google.inject.Guice;
+import com.google.inject.Inject;
+import com.google.inject.Injector;
+import com.google.inject.Provider;
+import com.google.inject.util.Providers;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.Config;
+
+/**
+ * In-memory Gerrit server used as a fixture by the benchmarks.
+ *
+ * <p>The server is set up the same way as the in-memory query tests: NoteDb, an in-memory Lucene
+ * index and in-memory repositories, so benchmarks never touch the network or the local disk. The
+ * first account created becomes an administrator; benchmarks run as a second, regular user.
+ *
+ * <p>The request context is thread-local, so benchmark states using this server must be declared
+ * with {@code Scope.Thread} to make sure setup and measurement run on the same thread.
+ */
+public class BenchmarkServer implements AutoCloseable {
+  public static BenchmarkServer start(Config cfg) throws Exception {
+    Config serverCfg = new Config(cfg);
+    InMemoryModule.setDefaults(serverCfg);
+    MutableNotesMigration notesMigration =
+        MutableNotesMigration.newDisabled().setFrom(NotesMigrationState.NOTE_DB);
+    Injector injector = Guice.createInjector(new InMemoryModule(serverCfg, notesMigration));
+    BenchmarkServer server = new BenchmarkServer(injector);
+    server.init();
+    return server;
+  }
+
+  @Inject private AccountManager accountManager;
+  @Inject private GerritApi gApi;
+  @Inject private IdentifiedUser.GenericFactory userFactory;
+  @Inject private InMemoryDatabase inMemoryDatabase;
+  @Inject private InMemoryRepositoryManager repoManager;
+  @Inject private SchemaCreator schemaCreator;
+  @Inject private SchemaFactory<ReviewDb> schemaFactory;
+  @Inject private ThreadLocalRequestContext requestContext;
+
+  private final Injector injector;
+  private final LifecycleManager lifecycle;
+  private ReviewDb db;
+  private Account.Id adminId;
+  private Account.Id userId;
+
+  private BenchmarkServer(Injector injector) {
+    this.injector = injector;
+    this.lifecycle = new LifecycleManager();
+  }
+
+  private void init() throws Exception {
+    lifecycle.add(injector);
+    injector.injectMembers(this);
+    lifecycle.start();
+    try (ReviewDb underlyingDb = inMemoryDatabase.getDatabase().open()) {
+      schemaCreator.create(underlyingDb);
+    }
+    db = schemaFactory.open();
+    adminId = accountManager.authenticate(AuthRequest.forUser("admin")).getAccountId();
+    userId = accountManager.authenticate(AuthRequest.forUser("user")).getAccountId();
+    setUser(adminId);
+  }
+
+  public <T> T getInstance(Class<T> type) {
+    return injector.getInstance(type);
+  }
+
+  public Injector injector() {
+    return injector;
+  }
+
+  public GerritApi api() {
+    return gApi;
+  }
+
+  public ReviewDb db() {
+    return db;
+  }
+
+  public Account.Id adminId() {
+    return adminId;
+  }
+
+  public Account.Id userId() {
+    return userId;
+  }
+
+  /** Sets the user for requests made on the calling thread. */
+  public CurrentUser setUser(Account.Id id) {
+    CurrentUser user = userFactory.create(id);
+    Provider<ReviewDb> dbProvider = Providers.of(db);
+    requestContext.setContext(
+        new RequestContext() {
+          @Override
+          public CurrentUser getUser() {
+            return user;
+          }
+
+          @Override
+          public Provider<ReviewDb> getReviewDbProvider() {
+            return dbProvider;
+          }
+        });
+    return user;
+  }
+
+  /** Creates a project with an initial empty commit on {@code master}. */
+  public TestRepository<Repo> createProject(String name) throws Exception {
+    ProjectInput in = new ProjectInput();
+    in.name = name;
+    in.createEmptyCommit = true;
+    gApi.projects().create(in);
+    return new TestRepository<>(repoManager.openRepository(new Project.NameKey(name)));
+  }
+
+  @Override
+  public void close() {
+    lifecycle.stop();
+    requestContext.setContext(null);
+    if (db != null) {
+      db.close();
+    }
+    InMemoryDatabase.drop(inMemoryDatabase);
+  }
+}
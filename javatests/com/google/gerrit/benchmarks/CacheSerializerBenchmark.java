@@ -0,0 +1,126 @@
+// Copyright (C) 2019 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.benchmarks;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import com.google.common.cache.Cache;
+import com.google.gerrit.extensions.api.changes.ChangeApi;
+import com.google.gerrit.extensions.client.ListChangesOption;
+import com.google.gerrit.extensions.common.ChangeInfo;
+import com.google.gerrit.extensions.common.ChangeInput;
+import com.google.gerrit.extensions.registration.DynamicMap;
+import com.google.gerrit.server.cache.PersistentCacheDef;
+import com.google.gerrit.server.cache.serialize.CacheSerializer;
+import com.google.inject.Binding;
+import com.google.inject.Key;
+import com.google.inject.TypeLiteral;
+import com.google.inject.name.Named;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.lib.Config;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures a serialize/deserialize round trip of a real entry of a persistent cache.
+ *
+ * <p>The caches are populated by exercising the REST API against the in-memory server; the
+ * serializers are those registered by the cache's {@link PersistentCacheDef}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CacheSerializerBenchmark {
+  @Param({"change_notes", "change_kind", "diff", "mergeability"})
+  String cacheName;
+
+  private BenchmarkServer server;
+  private CacheSerializer<Object> keySerializer;
+  private CacheSerializer<Object> valueSerializer;
+  private Object key;
+  private Object value;
+
+  @Setup
+  public void setUp() throws Exception {
+    server = BenchmarkServer.start(new Config());
+    server.createProject("serialize");
+    ChangeInfo info =
+        server.api().changes().create(new ChangeInput("serialize", "master", "first")).get();
+    ChangeApi change = server.api().changes().id(info._number);
+    change.setMessage("second\n\nChange-Id: " + info.changeId + "\n");
+    change.get(EnumSet.of(ListChangesOption.ALL_REVISIONS));
+    change.current().files();
+    change.current().mergeable();
+
+    PersistentCacheDef<Object, Object> def = findDef(cacheName);
+    keySerializer = def.keySerializer();
+    valueSerializer = def.valueSerializer();
+
+    @SuppressWarnings("unchecked")
+    Cache<Object, Object> cache =
+        (Cache<Object, Object>)
+            server
+                .injector()
+                .getInstance(Key.get(new TypeLiteral<DynamicMap<Cache<?, ?>>>() {}))
+                .get("gerrit", cacheName);
+    checkState(cache.size() > 0, "cache %s was not populated", cacheName);
+    Map.Entry<Object, Object> e = cache.asMap().entrySet().iterator().next();
+    key = e.getKey();
+    value = e.getValue();
+  }
+
+  @SuppressWarnings("unchecked")
+  private PersistentCacheDef<Object, Object> findDef(String name) {
+    for (Map.Entry<Key<?>, Binding<?>> e : server.injector().getAllBindings().entrySet()) {
+      Key<?> k = e.getKey();
+      if (k.getTypeLiteral().getRawType() == PersistentCacheDef.class
+          && k.getAnnotation() instanceof Named
+          && ((Named) k.getAnnotation()).value().equals(name)) {
+        return (PersistentCacheDef<Object, Object>) e.getValue().getProvider().get();
+      }
+    }
+    throw new IllegalStateException("no persistent cache named " + name);
+  }
+
+  @TearDown
+  public void tearDown() {
+    server.close();
+  }
+
+  @Benchmark
+  public Object roundTripKey() {
+    return keySerializer.deserialize(keySerializer.serialize(key));
+  }
+
+  @Benchmark
+  public Object roundTripValue() {
+    return valueSerializer.deserialize(valueSerializer.serialize(value));
+  }
+}
@@ -0,0 +1,71 @@
+// Copyright (C) 2019 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.benchmarks;
+
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.net.HttpHeaders;
+import com.google.gerrit.extensions.common.ChangeInfo;
+import com.google.gerrit.httpd.restapi.RestApiServlet;
+import com.google.gerrit.util.http.testutil.FakeHttpServletRequest;
+import com.google.gerrit.util.http.testutil.FakeHttpServletResponse;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Measures {@link RestApiServlet#replyJson} for a query result of {@link ChangeInfo}s. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ChangeJsonBenchmark {
+  @Param({"25", "500"})
+  int changes;
+
+  @Param({"1", "10"})
+  int revisions;
+
+  @Param({"false", "true"})
+  boolean gzip;
+
+  private List<ChangeInfo> result;
+
+  @Setup
+  public void setUp() {
+    result = Fixtures.changeInfos(changes, revisions);
+  }
+
+  @Benchmark
+  public long replyJson() throws Exception {
+    FakeHttpServletRequest req = new FakeHttpServletRequest();
+    req.addHeader(HttpHeaders.ACCEPT, "application/json");
+    if (gzip) {
+      req.addHeader(HttpHeaders.ACCEPT_ENCODING, "gzip");
+    }
+    return RestApiServlet.replyJson(
+        req, new FakeHttpServletResponse(), false, ImmutableListMultimap.of(), result);
+  }
+}
@@ -0,0 +1,91 @@
+// Copyright (C) 2019 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.benchmarks;
+
+import com.google.gerrit.extensions.api.changes.ReviewInput;
+import com.google.gerrit.extensions.common.ChangeInput;
+import com.google.gerrit.reviewdb.client.Change;
+import com.google.gerrit.reviewdb.client.Project;
+import com.google.gerrit.server.notedb.ChangeNotes;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.lib.Config;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures loading {@link ChangeNotes} of a change with a long NoteDb meta history.
+ *
+ * <p>The {@code change_notes} cache is disabled so each invocation runs the {@code
+ * ChangeNotesParser} over every meta commit.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ChangeNotesParserBenchmark {
+  @Param({"10", "400"})
+  int metaCommits;
+
+  private BenchmarkServer server;
+  private ChangeNotes.Factory notesFactory;
+  private Project.NameKey project;
+  private Change.Id changeId;
+
+  @Setup
+  public void setUp() throws Exception {
+    Config cfg = new Config();
+    cfg.setLong("cache", "change_notes", "memoryLimit", 0);
+    server = BenchmarkServer.start(cfg);
+    notesFactory = server.getInstance(ChangeNotes.Factory.class);
+
+    project = new Project.NameKey("notes");
+    server.createProject(project.get());
+    changeId =
+        new Change.Id(
+            server
+                .api()
+                .changes()
+                .create(new ChangeInput(project.get(), "master", "notes"))
+                .get()
+                ._number);
+    // Change creation itself writes one meta commit; each review adds another.
+    for (int i = 1; i < metaCommits; i++) {
+      ReviewInput in = i % 2 == 0 ? ReviewInput.recommend() : ReviewInput.dislike();
+      server.api().changes().id(changeId.get()).current().review(in.message("comment " + i));
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    server.close();
+  }
+
+  @Benchmark
+  public ChangeNotes load() throws Exception {
+    return notesFactory.create(server.db(), project, changeId);
+  }
+}
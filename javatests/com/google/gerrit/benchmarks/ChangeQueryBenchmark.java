@@ -0,0 +1,80 @@
+// Copyright (C) 2019 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.benchmarks;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.gerrit.index.IndexConfig;
+import com.google.gerrit.index.QueryOptions;
+import com.google.gerrit.index.query.Predicate;
+import com.google.gerrit.server.index.change.ChangeIndexRewriter;
+import com.google.gerrit.server.query.change.ChangeData;
+import com.google.gerrit.server.query.change.ChangeQueryBuilder;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.lib.Config;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Measures parsing a change query and rewriting it for the change index. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ChangeQueryBenchmark {
+  @Param({
+    "status:open",
+    "is:open owner:self -is:wip -is:ignored",
+    "is:open -owner:self -is:wip -is:ignored (reviewer:self OR assignee:self)",
+    "is:closed -is:ignored (-is:wip OR owner:self) (owner:self OR reviewer:self OR cc:self)",
+    "project:queries branch:master label:Code-Review=+2 -label:Code-Review=-2 age:1d"
+  })
+  String query;
+
+  private BenchmarkServer server;
+  private ChangeQueryBuilder queryBuilder;
+  private ChangeIndexRewriter rewriter;
+  private QueryOptions opts;
+
+  @Setup
+  public void setUp() throws Exception {
+    server = BenchmarkServer.start(new Config());
+    server.createProject("queries");
+    server.setUser(server.userId());
+    queryBuilder = server.getInstance(ChangeQueryBuilder.class);
+    rewriter = server.getInstance(ChangeIndexRewriter.class);
+    opts = QueryOptions.create(server.getInstance(IndexConfig.class), 0, 500, ImmutableSet.of());
+  }
+
+  @TearDown
+  public void tearDown() {
+    server.close();
+  }
+
+  @Benchmark
+  public Predicate<ChangeData> parseAndRewrite() throws Exception {
+    return rewriter.rewrite(queryBuilder.parse(query), opts);
+  }
+}
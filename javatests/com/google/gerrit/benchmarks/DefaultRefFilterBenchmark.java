@@ -0,0 +1,117 @@
+// Copyright (C) 2019 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.benchmarks;
+
+import com.google.gerrit.reviewdb.client.Change;
+import com.google.gerrit.reviewdb.client.PatchSet;
+import com.google.gerrit.reviewdb.client.Project;
+import com.google.gerrit.reviewdb.client.RefNames;
+import com.google.gerrit.server.CurrentUser;
+import com.google.gerrit.server.permissions.PermissionBackend;
+import com.google.gerrit.server.permissions.PermissionBackend.RefFilterOptions;
+import com.google.gerrit.testing.InMemoryRepositoryManager.Repo;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.BatchRefUpdate;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.ReceiveCommand;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures ref advertisement filtering for a regular user on a repository with many refs.
+ *
+ * <p>Nine in ten refs are patch set refs, the rest are branches plus a tag every thousand refs.
+ * {@code auth.skipFullRefEvaluationIfAllRefsAreVisible} is disabled so every ref is evaluated.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class DefaultRefFilterBenchmark {
+  @Param({"1000", "100000"})
+  int refs;
+
+  private BenchmarkServer server;
+  private PermissionBackend.ForProject perm;
+  private Repo repo;
+  private Map<String, Ref> allRefs;
+
+  @Setup
+  public void setUp() throws Exception {
+    Config cfg = new Config();
+    cfg.setBoolean("auth", null, "skipFullRefEvaluationIfAllRefsAreVisible", false);
+    server = BenchmarkServer.start(cfg);
+    Project.NameKey project = new Project.NameKey("refs");
+    TestRepository<Repo> tr = server.createProject(project.get());
+    repo = tr.getRepository();
+
+    RevCommit tip = tr.commit().message("tip").create();
+    BatchRefUpdate bru = repo.getRefDatabase().newBatchUpdate();
+    for (int i = 1; i <= refs; i++) {
+      bru.addCommand(new ReceiveCommand(ObjectId.zeroId(), tip, refName(i)));
+    }
+    try (RevWalk rw = new RevWalk(repo)) {
+      bru.execute(rw, NullProgressMonitor.INSTANCE);
+    }
+    allRefs = repo.getAllRefs();
+
+    CurrentUser user = server.setUser(server.userId());
+    perm =
+        server
+            .getInstance(PermissionBackend.class)
+            .user(user)
+            .database(server.db())
+            .project(project);
+  }
+
+  private static String refName(int i) {
+    if (i % 1000 == 0) {
+      return RefNames.REFS_TAGS + "v" + i;
+    } else if (i % 10 == 0) {
+      return RefNames.REFS_HEADS + "feature-" + i;
+    }
+    return new PatchSet.Id(new Change.Id(i), 1).toRefName();
+  }
+
+  @TearDown
+  public void tearDown() {
+    repo.close();
+    server.close();
+  }
+
+  @Benchmark
+  public Map<String, Ref> filter() throws Exception {
+    return perm.filter(allRefs, repo, RefFilterOptions.defaults());
+  }
+}
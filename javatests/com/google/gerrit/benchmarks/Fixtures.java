@@ -0,0 +1,211 @@
+// Copyright (C) 2019 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.benchmarks;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.gerrit.extensions.client.ChangeKind;
+import com.google.gerrit.extensions.client.ChangeStatus;
+import com.google.gerrit.extensions.client.ReviewerState;
+import com.google.gerrit.extensions.common.AccountInfo;
+import com.google.gerrit.extensions.common.ApprovalInfo;
+import com.google.gerrit.extensions.common.ChangeInfo;
+import com.google.gerrit.extensions.common.CommitInfo;
+import com.google.gerrit.extensions.common.FileInfo;
+import com.google.gerrit.extensions.common.LabelInfo;
+import com.google.gerrit.extensions.common.RevisionInfo;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+
+/** Generators for synthetic, deterministic benchmark input. */
+public class Fixtures {
+  private static final long SEED = 42;
+
+  /** Returns a {@code project.config} with the given number of access sections. */
+  public static String projectConfig(int sections, int groups) {
+    StringBuilder b = new StringBuilder();
+    b.append("[project]\n\tdescription = benchmark project\n");
+    b.append("[receive]\n\trequireChangeId = true\n");
+    b.append("[label \"Code-Review\"]\n")
+        .append("\tfunction = MaxWithBlock\n")
+        .append("\tcopyMinScore = true\n")
+        .append("\tvalue = -2 Do not submit\n")
+        .append("\tvalue = -1 I would prefer that you didn't submit this\n")
+        .append("\tvalue = 0 No score\n")
+        .append("\tvalue = +1 Looks good to me, but someone else must approve\n")
+        .append("\tvalue = +2 Looks good to me, approved\n");
+    for (int i = 0; i < sections; i++) {
+      String group = groupName(i % groups);
+      b.append("[access \"refs/heads/team-").append(i).append("/*\"]\n");
+      b.append("\tread = group ").append(group).append('\n');
+      b.append("\tpush = group ").append(group).append('\n');
+      b.append("\tcreate = group ").append(group).append('\n');
+      b.append("\tsubmit = group ").append(group).append('\n');
+      b.append("\tlabel-Code-Review = -2..+2 group ").append(group).append('\n');
+    }
+    return b.toString();
+  }
+
+  /** Returns the {@code groups} file matching {@link #projectConfig(int, int)}. */
+  public static String groupsFile(int groups) {
+    StringBuilder b = new StringBuilder();
+    b.append("# UUID\tGroup Name\n#\n");
+    for (int i = 0; i < groups; i++) {
+      b.append(ObjectId.fromRaw(sha1(i)).name()).append('\t').append(groupName(i)).append('\n');
+    }
+    return b.toString();
+  }
+
+  private static String groupName(int i) {
+    return "team-" + i;
+  }
+
+  private static int[] sha1(int i) {
+    return new int[] {0xcafe, 0xbabe, 0, 0, i};
+  }
+
+  /** Returns a file body with the given number of lines. */
+  public static String fileContent(int lines, long seed) {
+    Random rnd = new Random(seed);
+    StringBuilder b = new StringBuilder();
+    for (int i = 0; i < lines; i++) {
+      b.append("line ").append(i).append(' ').append(Long.toHexString(rnd.nextLong())).append('\n');
+    }
+    return b.toString();
+  }
+
+  /**
+   * Creates a parent commit with {@code files} files and a child commit that modifies every third
+   * file, renames every seventh and deletes every eleventh.
+   *
+   * @return the child commit.
+   */
+  public static <R extends Repository> RevCommit largeCommit(
+      TestRepository<R> repo, RevCommit base, int files, int linesPerFile) throws Exception {
+    TestRepository<R>.CommitBuilder parent = repo.commit().parent(base).message("base");
+    for (int i = 0; i < files; i++) {
+      parent.add(path(i), fileContent(linesPerFile, i));
+    }
+    RevCommit p = parent.create();
+
+    TestRepository<R>.CommitBuilder child = repo.commit().parent(p).message("large change");
+    for (int i = 0; i < files; i++) {
+      if (i % 11 == 0) {
+        child.rm(path(i));
+      } else if (i % 7 == 0) {
+        child.rm(path(i));
+        child.add("moved/" + path(i), fileContent(linesPerFile, i));
+      } else if (i % 3 == 0) {
+        child.add(path(i), fileContent(linesPerFile, i) + "appended " + i + "\n");
+      }
+    }
+    return repo.parseBody(child.create());
+  }
+
+  private static String path(int i) {
+    return String.format("dir%03d/file%05d.txt", i % 100, i);
+  }
+
+  /** Returns synthetic {@link ChangeInfo}s shaped like a dashboard query result. */
+  public static List<ChangeInfo> changeInfos(int count, int revisionsPerChange) {
+    Random rnd = new Random(SEED);
+    List<ChangeInfo> result = new ArrayList<>(count);
+    for (int i = 1; i <= count; i++) {
+      result.add(changeInfo(rnd, i, revisionsPerChange));
+    }
+    return result;
+  }
+
+  private static ChangeInfo changeInfo(Random rnd, int number, int revisions) {
+    Timestamp ts = new Timestamp(1_500_000_000_000L + number * 60_000L);
+    ChangeInfo c = new ChangeInfo();
+    c._number = number;
+    c.project = "platform/benchmark";
+    c.branch = "master";
+    c.changeId = "I" + ObjectId.fromRaw(new int[] {number, 0, 0, 0, 1}).name();
+    c.id = c.project.replace("/", "%2F") + "~" + c.branch + "~" + c.changeId;
+    c.subject = "Benchmark change " + number;
+    c.status = ChangeStatus.NEW;
+    c.created = ts;
+    c.updated = ts;
+    c.insertions = rnd.nextInt(1000);
+    c.deletions = rnd.nextInt(1000);
+    c.mergeable = true;
+    c.owner = account(rnd.nextInt(1000));
+    c.hashtags = ImmutableList.of("benchmark");
+
+    LabelInfo cr = new LabelInfo();
+    cr.all = new ArrayList<>();
+    for (int r = 0; r < 5; r++) {
+      ApprovalInfo a = new ApprovalInfo(1000 + r, rnd.nextInt(5) - 2, null, null, ts);
+      cr.all.add(a);
+    }
+    cr.values = ImmutableMap.of("-1", "No", " 0", "No score", "+1", "Yes");
+    cr.defaultValue = 0;
+    c.labels = ImmutableMap.of("Code-Review", cr, "Verified", new LabelInfo());
+
+    Map<ReviewerState, Collection<AccountInfo>> reviewers = new HashMap<>();
+    reviewers.put(ReviewerState.REVIEWER, ImmutableList.of(account(1001), account(1002)));
+    reviewers.put(ReviewerState.CC, ImmutableList.of(account(1003)));
+    c.reviewers = reviewers;
+
+    c.revisions = new LinkedHashMap<>();
+    for (int ps = 1; ps <= revisions; ps++) {
+      String sha = ObjectId.fromRaw(new int[] {number, ps, 0, 0, 2}).name();
+      RevisionInfo r = new RevisionInfo();
+      r._number = ps;
+      r.kind = ChangeKind.REWORK;
+      r.created = ts;
+      r.uploader = c.owner;
+      r.ref = String.format("refs/changes/%02d/%d/%d", number % 100, number, ps);
+      r.commit = new CommitInfo();
+      r.commit.commit = sha;
+      r.commit.subject = c.subject;
+      r.commit.message = c.subject + "\n\nChange-Id: " + c.changeId + "\n";
+      r.files = new LinkedHashMap<>();
+      for (int f = 0; f < 10; f++) {
+        FileInfo fi = new FileInfo();
+        fi.linesInserted = rnd.nextInt(100);
+        fi.linesDeleted = rnd.nextInt(100);
+        fi.size = rnd.nextInt(100000);
+        fi.sizeDelta = fi.linesInserted - fi.linesDeleted;
+        r.files.put("src/main/java/File" + f + ".java", fi);
+      }
+      c.revisions.put(sha, r);
+      c.currentRevision = sha;
+    }
+    return c;
+  }
+
+  private static AccountInfo account(int id) {
+    AccountInfo a = new AccountInfo(id);
+    a.name = "User " + id;
+    a.email = "user" + id + "@example.com";
+    a.username = "user" + id;
+    return a;
+  }
+
+  private Fixtures() {}
+}
@@ -0,0 +1,86 @@
+// Copyright (C) 2019 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.benchmarks;
+
+import com.google.gerrit.extensions.client.DiffPreferencesInfo.Whitespace;
+import com.google.gerrit.reviewdb.client.Project;
+import com.google.gerrit.server.patch.PatchList;
+import com.google.gerrit.server.patch.PatchListCache;
+import com.google.gerrit.server.patch.PatchListKey;
+import com.google.gerrit.testing.InMemoryRepositoryManager.Repo;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures computing the file list of a large commit with modifications, renames and deletions.
+ *
+ * <p>The {@code diff} cache is disabled so each invocation runs the {@code PatchListLoader}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class PatchListLoaderBenchmark {
+  @Param({"100", "2000"})
+  int files;
+
+  @Param({"50"})
+  int linesPerFile;
+
+  private BenchmarkServer server;
+  private PatchListCache patchListCache;
+  private Project.NameKey project;
+  private PatchListKey key;
+
+  @Setup
+  public void setUp() throws Exception {
+    Config cfg = new Config();
+    cfg.setLong("cache", "diff", "memoryLimit", 0);
+    server = BenchmarkServer.start(cfg);
+    patchListCache = server.getInstance(PatchListCache.class);
+
+    project = new Project.NameKey("diffs");
+    TestRepository<Repo> tr = server.createProject(project.get());
+    RevCommit base = tr.commit().message("root").create();
+    RevCommit commit = Fixtures.largeCommit(tr, base, files, linesPerFile);
+    key = PatchListKey.againstDefaultBase(commit, Whitespace.IGNORE_NONE);
+  }
+
+  @TearDown
+  public void tearDown() {
+    server.close();
+  }
+
+  @Benchmark
+  public PatchList load() throws Exception {
+    return patchListCache.get(key, project);
+  }
+}
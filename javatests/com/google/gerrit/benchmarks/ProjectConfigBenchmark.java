@@ -0,0 +1,73 @@
+// Copyright (C) 2019 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.benchmarks;
+
+import com.google.gerrit.reviewdb.client.Project;
+import com.google.gerrit.reviewdb.client.RefNames;
+import com.google.gerrit.server.project.GroupList;
+import com.google.gerrit.server.project.ProjectConfig;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Measures parsing of {@code project.config} and {@code groups} from {@code refs/meta/config}. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProjectConfigBenchmark {
+  private static final Project.NameKey PROJECT = new Project.NameKey("benchmark");
+
+  @Param({"10", "500"})
+  int accessSections;
+
+  private InMemoryRepository repo;
+  private RevCommit rev;
+
+  @Setup
+  public void setUp() throws Exception {
+    repo = new InMemoryRepository(new DfsRepositoryDescription(PROJECT.get()));
+    TestRepository<InMemoryRepository> tr = new TestRepository<>(repo);
+    int groups = Math.max(1, accessSections / 5);
+    rev =
+        tr.branch(RefNames.REFS_CONFIG)
+            .commit()
+            .add(ProjectConfig.PROJECT_CONFIG, Fixtures.projectConfig(accessSections, groups))
+            .add(GroupList.FILE_NAME, Fixtures.groupsFile(groups))
+            .create();
+  }
+
+  @Benchmark
+  public ProjectConfig load() throws Exception {
+    ProjectConfig cfg = new ProjectConfig(PROJECT);
+    cfg.load(repo, rev);
+    return cfg;
+  }
+}
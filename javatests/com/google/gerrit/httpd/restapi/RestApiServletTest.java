@@ -0,0 +1,131 @@
+// Copyright (C) 2019 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.httpd.restapi;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth.assert_;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+import com.google.common.net.HttpHeaders;
+import com.google.gerrit.extensions.common.ProjectInfo;
+import com.google.gerrit.server.OutputFormat;
+import com.google.gerrit.util.http.testutil.FakeHttpServletRequest;
+import com.google.gerrit.util.http.testutil.FakeHttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
+import org.junit.Test;
+
+public class RestApiServletTest {
+  private static final ListMultimap<String, String> COMPACT = ImmutableListMultimap.of("pp", "0");
+
+  @Test
+  public void smallListIsBuffered() throws Exception {
+    List<ProjectInfo> projects = projects(10);
+    FakeHttpServletResponse res = new FakeHttpServletResponse();
+    long len =
+        RestApiServlet.replyJson(new FakeHttpServletRequest(), res, false, COMPACT, projects);
+
+    assertThat(res.getActualBodyString()).isEqualTo(expected(projects));
+    assertThat(res.getHeader(HttpHeaders.CONTENT_LENGTH)).isEqualTo(Long.toString(len));
+  }
+
+  @Test
+  public void largeListIsStreamed() throws Exception {
+    List<ProjectInfo> projects = projects(500);
+    projects.add(null);
+    FakeHttpServletResponse res = new FakeHttpServletResponse();
+    long len =
+        RestApiServlet.replyJson(new FakeHttpServletRequest(), res, false, COMPACT, projects);
+
+    assertThat(res.getActualBodyString()).isEqualTo(expected(projects));
+    assertThat(res.getActualBody()).hasLength((int) len);
+    assertThat(res.getHeader(HttpHeaders.CONTENT_LENGTH)).isNull();
+  }
+
+  @Test
+  public void largeMapIsStreamedWithGzip() throws Exception {
+    Map<String, ProjectInfo> projects = new TreeMap<>();
+    for (ProjectInfo p : projects(500)) {
+      projects.put(p.name, p);
+    }
+    FakeHttpServletRequest req = new FakeHttpServletRequest();
+    req.addHeader(HttpHeaders.ACCEPT_ENCODING, "gzip");
+    FakeHttpServletResponse res = new FakeHttpServletResponse();
+    RestApiServlet.replyJson(req, res, false, COMPACT, projects);
+
+    assertThat(res.getHeader(HttpHeaders.CONTENT_ENCODING)).isEqualTo("gzip");
+    byte[] body =
+        ByteStreams.toByteArray(new GZIPInputStream(new ByteArrayInputStream(res.getActualBody())));
+    assertThat(new String(body, UTF_8)).isEqualTo(expected(projects));
+  }
+
+  @Test
+  public void largeMapKeysMatchBufferedPath() throws Exception {
+    Map<Integer, ProjectInfo> projects = new TreeMap<>();
+    int i = 0;
+    for (ProjectInfo p : projects(500)) {
+      projects.put(i++, p);
+    }
+    FakeHttpServletResponse res = new FakeHttpServletResponse();
+    RestApiServlet.replyJson(new FakeHttpServletRequest(), res, false, COMPACT, projects);
+
+    assertThat(res.getActualBodyString()).isEqualTo(expected(projects));
+  }
+
+  @Test
+  public void lazyListIsEvaluatedBeforeResponseIsCommitted() throws Exception {
+    List<ProjectInfo> projects =
+        Lists.transform(
+            projects(500),
+            p -> {
+              if (p.name.equals("project250")) {
+                throw new IllegalStateException("broken");
+              }
+              return p;
+            });
+    FakeHttpServletResponse res = new FakeHttpServletResponse();
+    try {
+      RestApiServlet.replyJson(new FakeHttpServletRequest(), res, false, COMPACT, projects);
+      assert_().fail("expected IllegalStateException");
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessageThat().isEqualTo("broken");
+    }
+    assertThat(res.isCommitted()).isFalse();
+  }
+
+  private static String expected(Object result) {
+    return ")]}'\n" + OutputFormat.JSON_COMPACT.newGson().toJson(result) + "\n";
+  }
+
+  private static List<ProjectInfo> projects(int n) {
+    List<ProjectInfo> projects = new ArrayList<>(n);
+    for (int i = 0; i < n; i++) {
+      ProjectInfo p = new ProjectInfo();
+      p.id = "project" + i;
+      p.name = "project" + i;
+      p.description = "Project <" + i + ">";
+      projects.add(p);
+    }
+    return projects;
+  }
+}
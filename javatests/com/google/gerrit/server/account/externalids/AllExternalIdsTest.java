@@ -19,6 +19,7 @@ import static com.google.common.truth.extensions.proto.ProtoTruth.assertThat;
 import static com.google.gerrit.server.cache.testing.CacheSerializerTestUtil.byteString;
 import static com.google.gerrit.server.cache.testing.SerializedClassSubject.assertThatSerializedClass;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSetMultimap;
 import com.google.gerrit.reviewdb.client.Account;
@@ -104,15 +105,34 @@ public class AllExternalIdsTest {
             .build());
   }
 
+  @Test
+  public void update() throws Exception {
+    Account.Id accountId1 = new Account.Id(1001);
+    Account.Id accountId2 = new Account.Id(1002);
+    ExternalId id1 = ExternalId.create("scheme1", "id1", accountId1);
+    ExternalId email1 = ExternalId.createEmail(accountId1, "foo@example.com");
+    ExternalId email2 = ExternalId.createEmail(accountId2, "bar@example.com");
+    AllExternalIds old = allExternalIds(id1, email1);
+
+    AllExternalIds updated = old.update(ImmutableList.of(email1), ImmutableList.of(email2));
+    assertThat(updated).isEqualTo(allExternalIds(id1, email2));
+    assertThat(updated.allByAccount())
+        .isEqualTo(ImmutableSetMultimap.of(accountId1, id1, accountId2, email2));
+    assertThat(updated.allByEmail()).isEqualTo(ImmutableSetMultimap.of("bar@example.com", email2));
+
+    assertThat(old).isEqualTo(allExternalIds(id1, email1));
+    assertThat(old.byEmail().get("foo@example.com")).containsExactly(email1);
+  }
+
   @Test
   public void allExternalIdsMethods() {
     assertThatSerializedClass(AllExternalIds.class)
         .hasAutoValueMethods(
             ImmutableMap.of(
                 "byAccount",
-                    new TypeLiteral<ImmutableSetMultimap<Account.Id, ExternalId>>() {}.getType(),
+                    new TypeLiteral<PersistentSetMultimap<Account.Id, ExternalId>>() {}.getType(),
                 "byEmail",
-                    new TypeLiteral<ImmutableSetMultimap<String, ExternalId>>() {}.getType()));
+                    new TypeLiteral<PersistentSetMultimap<String, ExternalId>>() {}.getType()));
   }
 
   @Test
@@ -0,0 +1,85 @@
+// Copyright (C) 2019 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.account.externalids;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.SetMultimap;
+import org.junit.Test;
+
+public class PersistentSetMultimapTest {
+  @Test
+  public void empty() {
+    PersistentSetMultimap<Integer, String> m = PersistentSetMultimap.of();
+    assertThat(m.isEmpty()).isTrue();
+    assertThat(m.get(1)).isEmpty();
+    assertThat(m.toImmutableSetMultimap()).isEmpty();
+    assertThat(m.values().count()).isEqualTo(0);
+  }
+
+  @Test
+  public void copyOf() {
+    SetMultimap<Integer, String> expected = HashMultimap.create();
+    for (int i = 0; i < 10000; i++) {
+      expected.put(i % 5000, "v" + i);
+    }
+    PersistentSetMultimap<Integer, String> m = PersistentSetMultimap.copyOf(expected);
+    assertThat(m.size()).isEqualTo(10000);
+    assertThat(m.get(42)).containsExactly("v42", "v5042");
+    assertThat(m.get(5000)).isEmpty();
+    assertThat(m.toImmutableSetMultimap()).isEqualTo(expected);
+    assertThat(m.values().count()).isEqualTo(10000);
+  }
+
+  @Test
+  public void updateDoesNotModifyOldVersion() {
+    PersistentSetMultimap<Integer, String> v1 =
+        PersistentSetMultimap.copyOf(ImmutableSetMultimap.of(1, "a", 1, "b", 2, "c"));
+    PersistentSetMultimap<Integer, String> v2 =
+        v1.update(ImmutableSetMultimap.of(1, "a", 2, "c"), ImmutableSetMultimap.of(3, "d"));
+
+    assertThat(v2.toImmutableSetMultimap()).isEqualTo(ImmutableSetMultimap.of(1, "b", 3, "d"));
+    assertThat(v2.size()).isEqualTo(2);
+    assertThat(v2.get(2)).isEmpty();
+
+    assertThat(v1.toImmutableSetMultimap())
+        .isEqualTo(ImmutableSetMultimap.of(1, "a", 1, "b", 2, "c"));
+    assertThat(v1.size()).isEqualTo(3);
+  }
+
+  @Test
+  public void removalsAreAppliedBeforeAdditions() {
+    PersistentSetMultimap<Integer, String> m =
+        PersistentSetMultimap.copyOf(ImmutableSetMultimap.of(1, "a"));
+    m = m.update(ImmutableSetMultimap.of(1, "a"), ImmutableSetMultimap.of(1, "a"));
+    assertThat(m.get(1)).containsExactly("a");
+  }
+
+  @Test
+  public void equalsAndHashCodeDoNotDependOnHistory() {
+    PersistentSetMultimap<Integer, String> a =
+        PersistentSetMultimap.copyOf(ImmutableSetMultimap.of(1, "a", 2, "b"));
+    PersistentSetMultimap<Integer, String> b =
+        PersistentSetMultimap.<Integer, String>of()
+            .update(ImmutableSetMultimap.of(), ImmutableSetMultimap.of(2, "b", 3, "c"))
+            .update(ImmutableSetMultimap.of(3, "c"), ImmutableSetMultimap.of(1, "a"));
+    assertThat(a).isEqualTo(b);
+    assertThat(a.hashCode()).isEqualTo(b.hashCode());
+    assertThat(a.hashCode()).isEqualTo(a.toImmutableSetMultimap().hashCode());
+    assertThat(a).isNotEqualTo(PersistentSetMultimap.of());
+  }
+}
@@ -0,0 +1,182 @@
+// Copyright (C) 2019 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache.logstore;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.gerrit.server.cache.ValueHolder;
+import com.google.gerrit.server.cache.serialize.StringCacheSerializer;
+import com.google.inject.TypeLiteral;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LogCacheTest {
+  private static final TypeLiteral<String> KEY_TYPE = new TypeLiteral<String>() {};
+  private static final int DEFAULT_VERSION = 1234;
+
+  private Path dir;
+
+  @Before
+  public void setUp() throws Exception {
+    dir = Files.createTempDirectory("gerrit_logstore_");
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    MoreFiles.deleteRecursively(dir, RecursiveDeleteOption.ALLOW_INSECURE);
+  }
+
+  private LogStore<String, String> newStore(int version, long maxSize) {
+    return new LogStore<>(
+        dir,
+        StringCacheSerializer.INSTANCE,
+        StringCacheSerializer.INSTANCE,
+        version,
+        maxSize,
+        null);
+  }
+
+  private LogCacheImpl<String, String> newCache(
+      LogStore<String, String> store, Cache<String, ValueHolder<String>> mem) {
+    LogCacheImpl<String, String> cache =
+        new LogCacheImpl<>(MoreExecutors.directExecutor(), store, KEY_TYPE, mem);
+    cache.start();
+    return cache;
+  }
+
+  @Test
+  public void get() throws ExecutionException {
+    Cache<String, ValueHolder<String>> mem = CacheBuilder.newBuilder().build();
+    LogCacheImpl<String, String> impl = newCache(newStore(DEFAULT_VERSION, 1 << 20), mem);
+
+    assertThat(impl.getIfPresent("foo")).isNull();
+
+    AtomicBoolean called = new AtomicBoolean();
+    assertThat(
+            impl.get(
+                "foo",
+                () -> {
+                  called.set(true);
+                  return "bar";
+                }))
+        .isEqualTo("bar");
+    assertThat(called.get()).named("Callable was called").isTrue();
+    assertThat(impl.getIfPresent("foo")).named("in-memory value").isEqualTo("bar");
+    mem.invalidate("foo");
+    assertThat(impl.getIfPresent("foo")).named("persistent value").isEqualTo("bar");
+
+    called.set(false);
+    assertThat(
+            impl.get(
+                "foo",
+                () -> {
+                  called.set(true);
+                  return "baz";
+                }))
+        .named("cached value")
+        .isEqualTo("bar");
+    assertThat(called.get()).named("Callable was called").isFalse();
+  }
+
+  @Test
+  public void survivesRestart() throws Exception {
+    LogCacheImpl<String, String> impl =
+        newCache(newStore(DEFAULT_VERSION, 1 << 20), disableMemCache());
+    impl.put("foo", "bar");
+    impl.put("baz", "qux");
+    impl.invalidate("baz");
+    impl.stop();
+
+    impl = newCache(newStore(DEFAULT_VERSION, 1 << 20), disableMemCache());
+    assertThat(impl.getIfPresent("foo")).isEqualTo("bar");
+    assertThat(impl.getIfPresent("baz")).isNull();
+    assertThat(impl.diskStats().size()).isEqualTo(1);
+    impl.stop();
+  }
+
+  @Test
+  public void version() throws Exception {
+    LogCacheImpl<String, String> oldImpl =
+        newCache(newStore(DEFAULT_VERSION, 1 << 20), disableMemCache());
+    oldImpl.put("key", "val");
+    assertThat(oldImpl.getIfPresent("key")).isEqualTo("val");
+    oldImpl.stop();
+
+    LogCacheImpl<String, String> newImpl =
+        newCache(newStore(DEFAULT_VERSION + 1, 1 << 20), disableMemCache());
+    assertThat(newImpl.getIfPresent("key")).isNull();
+    newImpl.put("key", "val2");
+    assertThat(newImpl.getIfPresent("key")).isEqualTo("val2");
+    assertThat(newImpl.diskStats().hitCount()).isEqualTo(1);
+    newImpl.stop();
+  }
+
+  @Test
+  public void pruneEvictsOldestSegments() throws Exception {
+    long maxSize = 1 << 18;
+    LogStore<String, String> store = newStore(DEFAULT_VERSION, maxSize);
+    Cache<String, ValueHolder<String>> mem = disableMemCache();
+    LogCacheImpl<String, String> impl = newCache(store, mem);
+    String value = Strings.repeat("x", 10 * 1024);
+    for (int i = 0; i < 100; i++) {
+      impl.put("key" + i, value);
+    }
+    assertThat(impl.diskStats().space()).isGreaterThan(maxSize);
+
+    store.prune(mem);
+    assertThat(impl.diskStats().space()).isAtMost(maxSize);
+    assertThat(impl.getIfPresent("key0")).isNull();
+    assertThat(impl.getIfPresent("key99")).isEqualTo(value);
+    impl.stop();
+  }
+
+  @Test(timeout = 30_000)
+  public void pruneDropsLiveEntriesThatDoNotFit() throws Exception {
+    long maxSize = 1 << 18;
+    LogStore<String, String> store = newStore(DEFAULT_VERSION, maxSize);
+    Cache<String, ValueHolder<String>> mem = CacheBuilder.newBuilder().build();
+    LogCacheImpl<String, String> impl = newCache(store, mem);
+    String value = Strings.repeat("x", 10 * 1024);
+    for (int i = 0; i < 100; i++) {
+      impl.put("key" + i, value);
+    }
+    assertThat(mem.size()).isEqualTo(100);
+    assertThat(impl.diskStats().space()).isGreaterThan(maxSize);
+
+    store.prune(mem);
+    assertThat(impl.diskStats().space()).isAtMost(maxSize);
+    assertThat(store.mightContain("key99")).isTrue();
+    assertThat(impl.diskStats().size()).isLessThan(100L);
+
+    store.prune(mem);
+    assertThat(impl.diskStats().space()).isAtMost(maxSize);
+    impl.stop();
+  }
+
+  private static <K, V> Cache<K, ValueHolder<V>> disableMemCache() {
+    return CacheBuilder.newBuilder().maximumSize(0).build();
+  }
+}
@@ -0,0 +1,126 @@
+// Copyright (C) 2019 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.change;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Iterables;
+import com.google.gerrit.reviewdb.client.Project;
+import com.google.gerrit.server.cache.serialize.CacheSerializer;
+import java.util.BitSet;
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.junit.Before;
+import org.junit.Test;
+
+public class IncludedInCacheTest {
+  private static final Project.NameKey PROJECT = new Project.NameKey("project");
+
+  private Cache<String, IncludedInCache.RefTable> refTables;
+  private Cache<IncludedInCache.Key, IncludedInCache.Entry> entries;
+  private IncludedInCache cache;
+  private TestRepository<InMemoryRepository> tr;
+  private RevCommit c1;
+  private RevCommit c2;
+
+  @Before
+  public void setUp() throws Exception {
+    refTables = CacheBuilder.newBuilder().build();
+    entries = CacheBuilder.newBuilder().build();
+    cache = new IncludedInCache(refTables, entries);
+    tr = new TestRepository<>(new InMemoryRepository(new DfsRepositoryDescription("project")));
+    c1 = tr.commit().message("c1").create();
+    c2 = tr.commit().parent(c1).message("c2").create();
+    tr.branch("master").update(c2);
+    tr.branch("stable").update(c1);
+    tr.lightweightTag("v1", c1);
+  }
+
+  @Test
+  public void resolve() throws Exception {
+    assertIncludedIn(c1, "master", "stable", "v1");
+    assertIncludedIn(c2, "master");
+  }
+
+  @Test
+  public void updatedRefs() throws Exception {
+    assertIncludedIn(c1, "master", "stable", "v1");
+    assertIncludedIn(c2, "master");
+
+    // New tag, fast-forwarded branch, rewound branch and removed tag.
+    tr.lightweightTag("v2", c2);
+    tr.branch("stable").update(c2);
+    tr.update("refs/heads/master", c1);
+    RefUpdate ru = tr.getRepository().updateRef("refs/tags/v1");
+    ru.setForceUpdate(true);
+    assertThat(ru.delete()).isEqualTo(RefUpdate.Result.FORCED);
+
+    assertIncludedIn(c1, "master", "stable");
+    assertIncludedIn(c2, "stable", "v2");
+  }
+
+  @Test
+  public void unchangedRefsAreNotWalked() throws Exception {
+    assertIncludedIn(c1, "master", "stable", "v1");
+
+    // Pretend the previous lookup found nothing. As no ref moved, the result is taken from the
+    // cache without looking at the history.
+    IncludedInCache.Key key = IncludedInCache.Key.create(PROJECT, c1);
+    IncludedInCache.Entry entry = entries.getIfPresent(key);
+    entries.put(key, new IncludedInCache.Entry(entry.tableId, entry.version, new BitSet()));
+    assertIncludedIn(c1);
+
+    // Only the new tag is walked.
+    tr.lightweightTag("v2", c2);
+    assertIncludedIn(c1, "v2");
+  }
+
+  @Test
+  public void serializers() throws Exception {
+    assertIncludedIn(c1, "master", "stable", "v1");
+
+    IncludedInCache.Key key = IncludedInCache.Key.create(PROJECT, c1);
+    assertThat(roundTrip(IncludedInCache.Key.Serializer.INSTANCE, key)).isEqualTo(key);
+    IncludedInCache.Entry entry =
+        roundTrip(IncludedInCache.Entry.Serializer.INSTANCE, entries.getIfPresent(key));
+    assertThat(entry.included.cardinality()).isEqualTo(3);
+
+    // The table keeps its ID, version and bits, so bitmaps computed before remain valid.
+    refTables.put(
+        PROJECT.get(),
+        roundTrip(
+            IncludedInCache.RefTable.Serializer.INSTANCE, refTables.getIfPresent(PROJECT.get())));
+    entries.put(key, new IncludedInCache.Entry(entry.tableId, entry.version, new BitSet()));
+    assertIncludedIn(c1);
+  }
+
+  private static <T> T roundTrip(CacheSerializer<T> serializer, T object) {
+    return serializer.deserialize(serializer.serialize(object));
+  }
+
+  private void assertIncludedIn(RevCommit commit, String... refs) throws Exception {
+    try (RevWalk rw = new RevWalk(tr.getRepository())) {
+      IncludedInResolver.Result r =
+          cache.get(PROJECT, tr.getRepository(), rw, rw.parseCommit(commit));
+      assertThat(Iterables.concat(r.branches(), r.tags())).containsExactlyElementsIn(refs);
+    }
+  }
+}
@@ -0,0 +1,220 @@
+// Copyright (C) 2019 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.change;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.gerrit.extensions.api.changes.NotifyHandling;
+import com.google.gerrit.extensions.common.AccountInfo;
+import com.google.gerrit.extensions.events.GitReferenceUpdatedListener;
+import com.google.gerrit.reviewdb.client.Account;
+import com.google.gerrit.reviewdb.client.Branch;
+import com.google.gerrit.reviewdb.client.Change;
+import com.google.gerrit.reviewdb.client.Project;
+import com.google.gerrit.server.change.MergeabilityPrecomputer.Generation;
+import com.google.gerrit.server.change.MergeabilityPrecomputer.Item;
+import java.sql.Timestamp;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.PriorityBlockingQueue;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MergeabilityPrecomputerTest {
+  private static final Project.NameKey PROJECT = new Project.NameKey("project");
+  private static final Branch.NameKey BRANCH = new Branch.NameKey(PROJECT, "refs/heads/master");
+
+  private final Queue<Runnable> tasks = new ArrayDeque<>();
+  private final List<Change> openChanges = new ArrayList<>();
+  private final List<List<Change.Id>> reindexed = new ArrayList<>();
+  private int listed;
+  private MergeabilityPrecomputer precomputer;
+
+  @Before
+  public void setUp() {
+    precomputer =
+        new MergeabilityPrecomputer(tasks::add, null, null, null, null) {
+          @Override
+          List<Change> openChanges(Branch.NameKey branch) {
+            listed++;
+            return ImmutableList.copyOf(openChanges);
+          }
+
+          @Override
+          void reindex(Project.NameKey project, List<Change.Id> ids) {
+            reindexed.add(ids);
+          }
+        };
+  }
+
+  @Test
+  public void order() {
+    Generation generation = new Generation();
+    Item list = new Item(BRANCH, generation, null, 0, 0);
+    Item viewedRecently = batch(generation, 1, 2000, 1);
+    Item viewedEarlier = batch(generation, 2, 1000, 3);
+    Item updatedRecently = batch(generation, 3, 0, 2000);
+    Item updatedEarlier = batch(generation, 4, 0, 1000);
+
+    PriorityBlockingQueue<Item> queue =
+        new PriorityBlockingQueue<>(8, MergeabilityPrecomputer.ORDER);
+    queue.add(updatedEarlier);
+    queue.add(viewedEarlier);
+    queue.add(updatedRecently);
+    queue.add(list);
+    queue.add(viewedRecently);
+
+    assertThat(queue.poll()).isSameAs(list);
+    assertThat(queue.poll()).isSameAs(viewedRecently);
+    assertThat(queue.poll()).isSameAs(viewedEarlier);
+    assertThat(queue.poll()).isSameAs(updatedRecently);
+    assertThat(queue.poll()).isSameAs(updatedEarlier);
+  }
+
+  @Test
+  public void changesAreReindexedInBatches() {
+    int n = 2 * MergeabilityPrecomputer.BATCH_SIZE + 1;
+    for (int i = 1; i <= n; i++) {
+      openChanges.add(change(i, i));
+    }
+    precomputer.recordView(new Change.Id(1));
+
+    update();
+    runAll();
+
+    assertThat(listed).isEqualTo(1);
+    assertThat(reindexed).hasSize(3);
+    // The viewed change goes first, then the most recently updated ones.
+    assertThat(reindexed.get(0).get(0)).isEqualTo(new Change.Id(1));
+    assertThat(reindexed.get(0).get(1)).isEqualTo(new Change.Id(n));
+    assertThat(reindexed.get(0)).hasSize(MergeabilityPrecomputer.BATCH_SIZE);
+    assertThat(reindexed.get(2)).containsExactly(new Change.Id(2));
+    assertThat(precomputer.pendingBranches()).isEqualTo(0);
+  }
+
+  @Test
+  public void repeatedUpdatesListChangesOnce() {
+    openChanges.add(change(1, 1));
+
+    update();
+    update();
+    update();
+    runAll();
+
+    assertThat(listed).isEqualTo(1);
+    assertThat(reindexed).containsExactly(ImmutableList.of(new Change.Id(1)));
+    assertThat(precomputer.pendingBranches()).isEqualTo(0);
+  }
+
+  @Test
+  public void supersededBatchesAreDropped() {
+    openChanges.add(change(1, 1));
+
+    update();
+    tasks.poll().run(); // Lists the changes and queues their batch.
+    update();
+    runAll();
+
+    assertThat(listed).isEqualTo(2);
+    assertThat(reindexed).containsExactly(ImmutableList.of(new Change.Id(1)));
+    assertThat(precomputer.pendingBranches()).isEqualTo(0);
+  }
+
+  @Test
+  public void branchIsTrackedUntilItsWorkIsDone() {
+    openChanges.add(change(1, 1));
+
+    update();
+    assertThat(precomputer.pendingBranches()).isEqualTo(1);
+    tasks.poll().run();
+    assertThat(precomputer.pendingBranches()).isEqualTo(1);
+    tasks.poll().run();
+    assertThat(precomputer.pendingBranches()).isEqualTo(0);
+  }
+
+  private void update() {
+    precomputer.onGitReferenceUpdated(
+        new GitReferenceUpdatedListener.Event() {
+          @Override
+          public String getProjectName() {
+            return PROJECT.get();
+          }
+
+          @Override
+          public NotifyHandling getNotify() {
+            return NotifyHandling.ALL;
+          }
+
+          @Override
+          public String getRefName() {
+            return BRANCH.get();
+          }
+
+          @Override
+          public String getOldObjectId() {
+            return ObjectId.zeroId().name();
+          }
+
+          @Override
+          public String getNewObjectId() {
+            return ObjectId.zeroId().name();
+          }
+
+          @Override
+          public boolean isCreate() {
+            return false;
+          }
+
+          @Override
+          public boolean isDelete() {
+            return false;
+          }
+
+          @Override
+          public boolean isNonFastForward() {
+            return false;
+          }
+
+          @Override
+          public AccountInfo getUpdater() {
+            return null;
+          }
+        });
+  }
+
+  private void runAll() {
+    for (Runnable task; (task = tasks.poll()) != null; ) {
+      task.run();
+    }
+  }
+
+  private static Change change(int id, long lastUpdated) {
+    return new Change(
+        new Change.Key("I" + id),
+        new Change.Id(id),
+        new Account.Id(1000),
+        BRANCH,
+        new Timestamp(lastUpdated));
+  }
+
+  private static Item batch(Generation generation, int id, long lastViewed, long lastUpdated) {
+    return new Item(
+        BRANCH, generation, ImmutableList.of(new Change.Id(id)), lastViewed, lastUpdated);
+  }
+}
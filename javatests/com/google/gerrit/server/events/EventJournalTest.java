@@ -0,0 +1,190 @@
+// Copyright (C) 2019 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.events;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+import com.google.gerrit.extensions.registration.RegistrationHandle;
+import com.google.gerrit.reviewdb.client.Change;
+import com.google.gerrit.reviewdb.client.Project;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class EventJournalTest {
+  private static final Project.NameKey PROJECT = new Project.NameKey("project");
+
+  private Path dir;
+
+  @Before
+  public void setUp() throws Exception {
+    dir = Files.createTempDirectory("gerrit_events_");
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    MoreFiles.deleteRecursively(dir, RecursiveDeleteOption.ALLOW_INSECURE);
+  }
+
+  private EventJournal open(long segmentSize, long maxSize) {
+    EventJournal journal = new EventJournal(dir, segmentSize, maxSize);
+    journal.start();
+    return journal;
+  }
+
+  private static long append(EventJournal journal, int i) throws Exception {
+    return journal.append(
+        "comment-added",
+        PROJECT,
+        "refs/heads/master",
+        new Change.Id(i),
+        "{\"type\":\"comment-added\",\"n\":" + i + "}");
+  }
+
+  private static List<Long> readAll(EventJournal.Reader reader) {
+    List<Long> seqs = new ArrayList<>();
+    for (EventJournal.Entry e = reader.next(); e != null; e = reader.next()) {
+      seqs.add(e.seq());
+    }
+    return seqs;
+  }
+
+  @Test
+  public void disabled() {
+    EventJournal journal = new EventJournal(null, 1024, 1 << 20);
+    journal.start();
+    assertThat(journal.isOpen()).isFalse();
+    journal.onEvent(new ProjectCreatedEvent());
+  }
+
+  @Test
+  public void appendAndRead() throws Exception {
+    EventJournal journal = open(1 << 16, 1 << 20);
+    assertThat(journal.lastSeq()).isEqualTo(0);
+    EventJournal.Reader reader = journal.reader(1);
+    assertThat(reader.next()).isNull();
+
+    assertThat(append(journal, 1)).isEqualTo(1);
+    assertThat(journal.append("project-created", null, null, null, "{}")).isEqualTo(2);
+
+    EventJournal.Entry e = reader.next();
+    assertThat(e.seq()).isEqualTo(1);
+    assertThat(e.type()).isEqualTo("comment-added");
+    assertThat(e.project()).isEqualTo(PROJECT);
+    assertThat(e.ref()).isEqualTo("refs/heads/master");
+    assertThat(e.changeId()).isEqualTo(new Change.Id(1));
+    assertThat(e.json()).isEqualTo("{\"type\":\"comment-added\",\"n\":1}");
+
+    e = reader.next();
+    assertThat(e.seq()).isEqualTo(2);
+    assertThat(e.project()).isNull();
+    assertThat(e.ref()).isNull();
+    assertThat(e.changeId()).isNull();
+    assertThat(reader.next()).isNull();
+
+    append(journal, 3);
+    assertThat(reader.next().seq()).isEqualTo(3);
+    assertThat(reader.next()).isNull();
+    journal.stop();
+  }
+
+  @Test
+  public void readAcrossSegments() throws Exception {
+    EventJournal journal = open(256, 1 << 20);
+    for (int i = 1; i <= 50; i++) {
+      append(journal, i);
+    }
+    assertThat(segments()).isGreaterThan(1L);
+    assertThat(readAll(journal.reader(1))).hasSize(50);
+    assertThat(readAll(journal.reader(47))).containsExactly(47L, 48L, 49L, 50L).inOrder();
+    journal.stop();
+  }
+
+  @Test
+  public void resumeAfterRestart() throws Exception {
+    EventJournal journal = open(256, 1 << 20);
+    for (int i = 1; i <= 20; i++) {
+      append(journal, i);
+    }
+    journal.stop();
+
+    journal = open(256, 1 << 20);
+    assertThat(journal.lastSeq()).isEqualTo(20);
+    assertThat(append(journal, 21)).isEqualTo(21);
+    assertThat(readAll(journal.reader(19))).containsExactly(19L, 20L, 21L).inOrder();
+    journal.stop();
+  }
+
+  @Test
+  public void retentionDeletesOldestSegments() throws Exception {
+    EventJournal journal = open(256, 1024);
+    for (int i = 1; i <= 100; i++) {
+      append(journal, i);
+    }
+    assertThat(segments()).isAtMost(4L);
+
+    List<Long> seqs = readAll(journal.reader(1));
+    assertThat(seqs.get(0)).isGreaterThan(1L);
+    assertThat(seqs.get(seqs.size() - 1)).isEqualTo(100L);
+    journal.stop();
+  }
+
+  @Test
+  public void droppedSegmentIsDeletedOnceReaderIsClosed() throws Exception {
+    EventJournal journal = open(256, 1024);
+    append(journal, 1);
+    EventJournal.Reader reader = journal.reader(1);
+    assertThat(reader.next().seq()).isEqualTo(1);
+    for (int i = 2; i <= 100; i++) {
+      append(journal, i);
+    }
+    Path first = dir.resolve("0000000000000001.journal");
+    assertThat(Files.exists(first)).isTrue();
+
+    reader.close();
+    assertThat(Files.exists(first)).isFalse();
+    assertThat(reader.next()).isNull();
+    journal.stop();
+  }
+
+  @Test
+  public void listenersAreNotified() throws Exception {
+    EventJournal journal = open(1 << 16, 1 << 20);
+    AtomicInteger calls = new AtomicInteger();
+    RegistrationHandle handle = journal.addListener(calls::incrementAndGet);
+    append(journal, 1);
+    append(journal, 2);
+    assertThat(calls.get()).isEqualTo(2);
+
+    handle.remove();
+    append(journal, 3);
+    assertThat(calls.get()).isEqualTo(2);
+    journal.stop();
+  }
+
+  private long segments() throws Exception {
+    try (Stream<Path> files = Files.list(dir)) {
+      return files.count();
+    }
+  }
+}
@@ -0,0 +1,113 @@
+// Copyright (C) 2019 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.events;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.util.concurrent.Uninterruptibles.awaitUninterruptibly;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ListenerDispatcherTest {
+  private ExecutorService pool;
+
+  @Before
+  public void setUp() {
+    pool = Executors.newFixedThreadPool(4);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    pool.shutdownNow();
+    assertThat(pool.awaitTermination(10, SECONDS)).isTrue();
+  }
+
+  @Test
+  public void tasksRunInOrderPerListener() throws Exception {
+    ListenerDispatcher dispatcher = new ListenerDispatcher(pool, 10);
+    Object a = new Object();
+    Object b = new Object();
+    List<Integer> seenByA = Collections.synchronizedList(new ArrayList<>());
+    List<Integer> seenByB = Collections.synchronizedList(new ArrayList<>());
+    List<Integer> expected = new ArrayList<>();
+    CountDownLatch done = new CountDownLatch(2000);
+    for (int i = 0; i < 1000; i++) {
+      int n = i;
+      expected.add(n);
+      dispatcher.execute(
+          a,
+          () -> {
+            seenByA.add(n);
+            done.countDown();
+          });
+      dispatcher.execute(
+          b,
+          () -> {
+            seenByB.add(n);
+            done.countDown();
+          });
+    }
+
+    assertThat(done.await(10, SECONDS)).isTrue();
+    assertThat(seenByA).containsExactlyElementsIn(expected).inOrder();
+    assertThat(seenByB).containsExactlyElementsIn(expected).inOrder();
+  }
+
+  @Test
+  public void slowListenerDoesNotBlockOthers() throws Exception {
+    ListenerDispatcher dispatcher = new ListenerDispatcher(pool, 10);
+    CountDownLatch release = new CountDownLatch(1);
+    CountDownLatch fast = new CountDownLatch(1);
+    dispatcher.execute(new Object(), () -> awaitUninterruptibly(release));
+    dispatcher.execute(new Object(), fast::countDown);
+
+    assertThat(fast.await(10, SECONDS)).isTrue();
+    release.countDown();
+  }
+
+  @Test
+  public void fullQueueBlocksCaller() throws Exception {
+    ListenerDispatcher dispatcher = new ListenerDispatcher(pool, 1);
+    Object listener = new Object();
+    CountDownLatch release = new CountDownLatch(1);
+    CountDownLatch done = new CountDownLatch(1);
+    AtomicBoolean submitted = new AtomicBoolean();
+    dispatcher.execute(listener, () -> awaitUninterruptibly(release));
+
+    Thread caller =
+        new Thread(
+            () -> {
+              dispatcher.execute(listener, done::countDown);
+              submitted.set(true);
+            });
+    caller.start();
+    caller.join(200);
+    assertThat(submitted.get()).isFalse();
+
+    release.countDown();
+    caller.join(10_000);
+    assertThat(submitted.get()).isTrue();
+    assertThat(done.await(10, SECONDS)).isTrue();
+  }
+}
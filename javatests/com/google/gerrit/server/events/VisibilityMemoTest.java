@@ -0,0 +1,45 @@
+// Copyright (C) 2019 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.events;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.gerrit.reviewdb.client.Account;
+import org.junit.Test;
+
+public class VisibilityMemoTest {
+  @Test
+  public void resultsAreRememberedPerAccount() {
+    VisibilityMemo memo = new VisibilityMemo();
+    Account.Id a = new Account.Id(1);
+    Account.Id b = new Account.Id(2);
+
+    assertThat(memo.get(a)).isNull();
+    assertThat(memo.put(a, true)).isTrue();
+    assertThat(memo.get(a)).isTrue();
+    assertThat(memo.get(b)).isNull();
+
+    memo.put(b, false);
+    assertThat(memo.get(a)).isTrue();
+    assertThat(memo.get(b)).isFalse();
+  }
+
+  @Test
+  public void resultsWithoutAccountAreNotRemembered() {
+    VisibilityMemo memo = new VisibilityMemo();
+    assertThat(memo.put(null, true)).isTrue();
+    assertThat(memo.get(null)).isNull();
+  }
+}
@@ -0,0 +1,113 @@
+// Copyright (C) 2019 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.git.receive;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import com.google.common.base.Ticker;
+import com.google.gerrit.server.git.receive.PushTimeline.Phase;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+
+public class PushTimelineTest {
+  private final AtomicLong nanos = new AtomicLong();
+  private final PushTimeline timeline =
+      new PushTimeline(
+          new Ticker() {
+            @Override
+            public long read() {
+              return nanos.get();
+            }
+          });
+
+  @Test
+  public void durationsOfRepeatedPhasesAreSummedUp() {
+    try (PushTimeline.Timer timer = timeline.start(Phase.VALIDATE_COMMITS)) {
+      advance(3);
+    }
+    advance(10);
+    try (PushTimeline.Timer timer = timeline.start(Phase.VALIDATE_COMMITS)) {
+      advance(4);
+    }
+    assertThat(timeline.get(Phase.VALIDATE_COMMITS)).isEqualTo(MILLISECONDS.toNanos(7));
+    assertThat(timeline.get(Phase.FIND_CHANGES)).isEqualTo(0);
+  }
+
+  @Test
+  public void packIsReceivedAfterAdvertisement() {
+    timeline.packReceived();
+    assertThat(timeline.get(Phase.RECEIVE_PACK)).isEqualTo(0);
+
+    try (PushTimeline.Timer timer = timeline.start(Phase.ADVERTISE_REFS)) {
+      advance(2);
+    }
+    advance(5);
+    timeline.packReceived();
+    advance(5);
+    timeline.packReceived();
+    assertThat(timeline.get(Phase.ADVERTISE_REFS)).isEqualTo(MILLISECONDS.toNanos(2));
+    assertThat(timeline.get(Phase.RECEIVE_PACK)).isEqualTo(MILLISECONDS.toNanos(5));
+  }
+
+  @Test
+  public void batchUpdatePhases() {
+    try (PushTimeline.BatchUpdateTimer timer = timeline.startBatchUpdate()) {
+      advance(1);
+      timer.afterUpdateRepos();
+      advance(2);
+      timer.afterUpdateRefs();
+      timer.afterUpdateChanges();
+      advance(3);
+    }
+    assertThat(timeline.get(Phase.UPDATE_REPOS)).isEqualTo(MILLISECONDS.toNanos(1));
+    assertThat(timeline.get(Phase.UPDATE_CHANGES)).isEqualTo(MILLISECONDS.toNanos(2));
+    assertThat(timeline.get(Phase.POST_UPDATE)).isEqualTo(MILLISECONDS.toNanos(3));
+  }
+
+  @Test
+  public void failedBatchUpdateIsAttributedToCurrentPhase() {
+    try (PushTimeline.BatchUpdateTimer timer = timeline.startBatchUpdate()) {
+      advance(4);
+    }
+    assertThat(timeline.get(Phase.UPDATE_REPOS)).isEqualTo(MILLISECONDS.toNanos(4));
+    assertThat(timeline.get(Phase.UPDATE_CHANGES)).isEqualTo(0);
+  }
+
+  @Test
+  public void format() {
+    try (PushTimeline.Timer timer = timeline.start(Phase.FIND_CHANGES)) {
+      advance(20);
+      try (PushTimeline.Timer inner = timeline.start(Phase.VALIDATE_COMMITS)) {
+        advance(15);
+      }
+    }
+    try (PushTimeline.Timer timer = timeline.start(Phase.PARSE_COMMANDS)) {
+      advance(1);
+    }
+    assertThat(timeline.format())
+        .containsExactly(
+            "PUSH_TIMING:",
+            "  parse_commands        1 ms",
+            "  find_changes         35 ms",
+            "  validate_commits     15 ms",
+            "  total                36 ms")
+        .inOrder();
+  }
+
+  private void advance(long millis) {
+    nanos.addAndGet(MILLISECONDS.toNanos(millis));
+  }
+}
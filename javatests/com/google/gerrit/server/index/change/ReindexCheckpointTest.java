@@ -0,0 +1,129 @@
+// Copyright (C) 2019 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.index.change;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Ticker;
+import com.google.gerrit.reviewdb.client.Change;
+import com.google.gerrit.reviewdb.client.Project;
+import com.google.gerrit.server.index.change.ReindexCheckpoint.Slice;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ReindexCheckpointTest {
+  private static final Project.NameKey PROJECT = new Project.NameKey("project");
+
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private final AtomicLong nanos = new AtomicLong();
+  private final Ticker ticker =
+      new Ticker() {
+        @Override
+        public long read() {
+          return nanos.get();
+        }
+      };
+
+  @Test
+  public void sliceSmallProject() {
+    assertThat(AllChangesIndexer.slice(PROJECT, new int[] {1, 5, 9}, 10))
+        .containsExactly(Slice.create(PROJECT, 0, Integer.MAX_VALUE, 3));
+    assertThat(AllChangesIndexer.slice(PROJECT, new int[0], 10))
+        .containsExactly(Slice.create(PROJECT, 0, Integer.MAX_VALUE, 0));
+  }
+
+  @Test
+  public void sliceLargeProject() {
+    List<Slice> slices = AllChangesIndexer.slice(PROJECT, new int[] {2, 3, 5, 7, 11, 13, 17}, 3);
+    assertThat(slices)
+        .containsExactly(
+            Slice.create(PROJECT, 0, 7, 3),
+            Slice.create(PROJECT, 7, 17, 3),
+            Slice.create(PROJECT, 17, Integer.MAX_VALUE, 1))
+        .inOrder();
+    assertThat(slices.get(0).contains(new Change.Id(5))).isTrue();
+    assertThat(slices.get(0).contains(new Change.Id(7))).isFalse();
+    assertThat(slices.get(1).contains(new Change.Id(7))).isTrue();
+    assertThat(slices.get(2).contains(new Change.Id(1000))).isTrue();
+  }
+
+  @Test
+  public void resumeFromCommittedSlices() throws Exception {
+    Path path = temporaryFolder.getRoot().toPath().resolve("changes_0001.checkpoint");
+    Slice first = Slice.create(PROJECT, 0, 7, 3);
+    Slice second = Slice.create(PROJECT, 7, Integer.MAX_VALUE, 2);
+    AtomicInteger flushes = new AtomicInteger();
+    FakeChangeIndex index =
+        new FakeChangeIndex(FakeChangeIndex.V2) {
+          @Override
+          public void flush() {
+            flushes.incrementAndGet();
+          }
+        };
+
+    try (ReindexCheckpoint checkpoint = ReindexCheckpoint.open(path, false, ticker)) {
+      assertThat(checkpoint.add(first)).isFalse();
+      nanos.addAndGet(TimeUnit.MINUTES.toNanos(5));
+      assertThat(checkpoint.add(second)).isTrue();
+      checkpoint.commit(index);
+      assertThat(flushes.get()).isEqualTo(1);
+      checkpoint.commit(index);
+      assertThat(flushes.get()).named("flushes without new slices").isEqualTo(1);
+
+      // Never committed, so lost by the crash.
+      checkpoint.add(Slice.create(new Project.NameKey("other"), 0, Integer.MAX_VALUE, 1));
+    }
+
+    try (ReindexCheckpoint checkpoint = ReindexCheckpoint.open(path, true, ticker)) {
+      assertThat(checkpoint.resumedSlices()).isEqualTo(2);
+      assertThat(checkpoint.resumedChanges()).isEqualTo(5);
+      assertThat(checkpoint.isDone(first)).isTrue();
+      assertThat(checkpoint.isDone(second)).isTrue();
+      assertThat(checkpoint.isDone(Slice.create(PROJECT, 0, 7, 4))).isFalse();
+    }
+
+    try (ReindexCheckpoint checkpoint = ReindexCheckpoint.open(path, false, ticker)) {
+      assertThat(checkpoint.resumedSlices()).isEqualTo(0);
+      checkpoint.delete();
+    }
+    assertThat(Files.exists(path)).isFalse();
+  }
+
+  @Test
+  public void dropTornLine() throws Exception {
+    Path path = temporaryFolder.getRoot().toPath().resolve("changes_0001.checkpoint");
+    Files.write(path, "project\t0\t7\t3\nproject\t7\t".getBytes(UTF_8));
+    Slice second = Slice.create(PROJECT, 7, Integer.MAX_VALUE, 2);
+    try (ReindexCheckpoint checkpoint = ReindexCheckpoint.open(path, true, ticker)) {
+      assertThat(checkpoint.resumedSlices()).isEqualTo(1);
+      assertThat(checkpoint.isDone(Slice.create(PROJECT, 0, 7, 3))).isTrue();
+      checkpoint.add(second);
+      checkpoint.commit(new FakeChangeIndex(FakeChangeIndex.V2));
+    }
+    try (ReindexCheckpoint checkpoint = ReindexCheckpoint.open(path, true, ticker)) {
+      assertThat(checkpoint.resumedSlices()).isEqualTo(2);
+      assertThat(checkpoint.isDone(second)).isTrue();
+    }
+  }
+}
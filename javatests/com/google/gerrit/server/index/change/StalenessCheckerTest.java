@@ -22,6 +22,7 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.stream.Collectors.toList;
 
 import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSetMultimap;
 import com.google.common.collect.ListMultimap;
 import com.google.gerrit.index.RefState;
@@ -316,6 +317,56 @@ public class StalenessCheckerTest extends GerritBaseTests {
         .isFalse();
   }
 
+  @Test
+  public void isStaleBatch() throws Exception {
+    String ref1 = "refs/heads/foo";
+    ObjectId id1 = tr1.update(ref1, tr1.commit().message("commit 1"));
+    String ref2 = "refs/heads/bar";
+    ObjectId id2 = tr2.update(ref2, tr2.commit().message("commit 2"));
+    Change.Id c2 = new Change.Id(1235);
+    Change.Id c3 = new Change.Id(1236);
+    Change.Id c4 = new Change.Id(1237);
+    Change.Id c5 = new Change.Id(1238);
+
+    assertThat(
+            refsAreStale(
+                repoManager,
+                ImmutableMap.of(
+                    // Not stale.
+                    C,
+                    ImmutableSetMultimap.of(
+                        P1, RefState.create(ref1, id1.name()),
+                        P2, RefState.create(ref2, id2.name())),
+                    // Wrong ref value.
+                    c2,
+                    ImmutableSetMultimap.of(P1, RefState.create(ref1, SHA1)),
+                    // Missing ref.
+                    c3,
+                    ImmutableSetMultimap.of(P2, RefState.create("refs/heads/baz", SHA1)),
+                    // Repository doesn't exist.
+                    c4,
+                    ImmutableSetMultimap.of(
+                        new Project.NameKey("missing"), RefState.create(ref1, id1.name())),
+                    // Ref matching the pattern not covered by the states.
+                    c5,
+                    ImmutableSetMultimap.of(P1, RefState.create(ref1, id1.name()))),
+                ImmutableMap.of(
+                    c5, ImmutableListMultimap.of(P2, RefStatePattern.create("refs/heads/*")))))
+        .containsExactly(c2, c3, c4, c5);
+
+    // Refs expected to be absent are absent.
+    assertThat(
+            refsAreStale(
+                repoManager,
+                ImmutableMap.of(
+                    C,
+                    ImmutableSetMultimap.of(
+                        P1, RefState.create(ref1, id1.name()),
+                        P1, RefState.create("refs/heads/baz", (ObjectId) null))),
+                ImmutableMap.of(C, ImmutableListMultimap.of(P1, RefStatePattern.create("refs/*")))))
+        .isEmpty();
+  }
+
   @Test
   public void reviewDbChangeIsStale() throws Exception {
     Change indexChange = newChange(P1, new Account.Id(1));
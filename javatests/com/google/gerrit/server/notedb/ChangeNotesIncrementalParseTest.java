@@ -0,0 +1,147 @@
+// Copyright (C) 2019 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.notedb;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.gerrit.server.notedb.ReviewerStateInternal.CC;
+import static com.google.gerrit.server.notedb.ReviewerStateInternal.REVIEWER;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.gerrit.reviewdb.client.Change;
+import com.google.gerrit.reviewdb.client.PatchSetApproval;
+import com.google.gerrit.server.logging.RequestId;
+import com.google.gerrit.server.notedb.ChangeNotesCommit.ChangeNotesRevWalk;
+import com.google.gerrit.testing.TestChanges;
+import com.google.inject.Inject;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.Test;
+
+public class ChangeNotesIncrementalParseTest extends AbstractChangeNotesTest {
+  @Inject private ChangeNoteJson changeNoteJson;
+  @Inject private LegacyChangeNoteRead legacyChangeNoteRead;
+
+  @Test
+  public void votesMessagesAndReviewers() throws Exception {
+    Change c = newChange();
+    ChangeUpdate update = newUpdate(c, changeOwner);
+    update.putReviewer(otherUserId, REVIEWER);
+    update.setChangeMessage("Added reviewer");
+    update.commit();
+    ChangeNotesState base = parseAll(c);
+
+    update = newUpdate(c, otherUser);
+    update.putApproval("Code-Review", (short) 1);
+    update.setChangeMessage("Looks good");
+    update.commit();
+
+    update = newUpdate(c, changeOwner);
+    update.putApproval("Verified", (short) 1);
+    update.putReviewer(otherUserId, CC);
+    update.setTopic("incremental");
+    update.setHashtags(ImmutableSet.of("tag"));
+    update.commit();
+
+    ChangeNotesState incremental = parseFrom(c, base);
+    assertThat(incremental).isNotNull();
+    assertThat(incremental).isEqualTo(parseAll(c));
+    assertThat(incremental.approvals()).hasSize(2);
+    assertThat(incremental.changeMessages()).hasSize(2);
+  }
+
+  @Test
+  public void upToDate() throws Exception {
+    Change c = newChange();
+    ChangeNotesState base = parseAll(c);
+    assertThat(parseFrom(c, base)).isSameAs(base);
+  }
+
+  @Test
+  public void newPatchSetRequiresFullParse() throws Exception {
+    Change c = newChange();
+    ChangeNotesState base = parseAll(c);
+
+    TestChanges.incrementPatchSet(c);
+    RevCommit commit = tr.commit().message("PS2").create();
+    ChangeUpdate update = newUpdate(c, changeOwner);
+    update.setCommit(rw, commit);
+    update.commit();
+
+    assertThat(parseFrom(c, base)).isNull();
+  }
+
+  @Test
+  public void statusChangeRequiresFullParse() throws Exception {
+    Change c = newChange();
+    ChangeNotesState base = parseAll(c);
+
+    ChangeUpdate update = newUpdate(c, changeOwner);
+    update.setStatus(Change.Status.ABANDONED);
+    update.commit();
+
+    assertThat(parseFrom(c, base)).isNull();
+  }
+
+  @Test
+  public void votesAfterMergeArePostSubmit() throws Exception {
+    Change c = newChange();
+    ChangeUpdate update = newUpdate(c, changeOwner);
+    update.putApproval("Verified", (short) 1);
+    update.commit();
+
+    update = newUpdate(c, changeOwner);
+    update.merge(
+        new RequestId(c.getId().toString()),
+        ImmutableList.of(
+            submitRecord("OK", null, submitLabel("Verified", "OK", changeOwner.getAccountId()))));
+    update.commit();
+    ChangeNotesState base = parseAll(c);
+
+    update = newUpdate(c, otherUser);
+    update.putApproval("Code-Review", (short) 2);
+    update.commit();
+
+    ChangeNotesState incremental = parseFrom(c, base);
+    assertThat(incremental).isEqualTo(parseAll(c));
+    PatchSetApproval psa =
+        incremental
+            .approvals()
+            .stream()
+            .map(e -> e.getValue())
+            .filter(a -> a.getLabel().equals("Code-Review"))
+            .findFirst()
+            .get();
+    assertThat(psa.isPostSubmit()).isTrue();
+  }
+
+  private ChangeNotesState parseAll(Change c) throws Exception {
+    try (ChangeNotesRevWalk walk = ChangeNotesCommit.newRevWalk(repo)) {
+      return newParser(c, walk).parseAll();
+    }
+  }
+
+  private ChangeNotesState parseFrom(Change c, ChangeNotesState base) throws Exception {
+    try (ChangeNotesRevWalk walk = ChangeNotesCommit.newRevWalk(repo)) {
+      return newParser(c, walk).parseFrom(base);
+    }
+  }
+
+  private ChangeNotesParser newParser(Change c, ChangeNotesRevWalk walk) throws Exception {
+    ObjectId tip = newNotes(c).getRevision();
+    return new ChangeNotesParser(
+        c.getId(), tip, walk, changeNoteJson, legacyChangeNoteRead, args.metrics);
+  }
+}
@@ -0,0 +1,147 @@
+// Copyright (C) 2019 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.notedb;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+import com.google.gerrit.reviewdb.client.Account;
+import com.google.gerrit.reviewdb.client.Change;
+import com.google.gerrit.server.notedb.ChangeNotesState.ChangeColumns;
+import com.google.gwtorm.client.KeyUtil;
+import com.google.gwtorm.server.StandardKeyEncoder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ChangeNotesSnapshotTest {
+  static {
+    KeyUtil.setEncoderImpl(new StandardKeyEncoder());
+  }
+
+  private Path dir;
+  private Path path;
+
+  @Before
+  public void setUp() throws Exception {
+    dir = Files.createTempDirectory("gerrit_snapshot_");
+    path = dir.resolve(ChangeNotesSnapshot.FILE_NAME);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    MoreFiles.deleteRecursively(dir, RecursiveDeleteOption.ALLOW_INSECURE);
+  }
+
+  @Test
+  public void roundTrip() throws Exception {
+    ChangeNotesState s1 = state(1, "1111111111111111111111111111111111111111", "First");
+    ChangeNotesState s2 = state(2, "2222222222222222222222222222222222222222", "Second");
+    ChangeNotesState s3 = state(3, "3333333333333333333333333333333333333333", "Third");
+    try (ChangeNotesSnapshot.Writer w = ChangeNotesSnapshot.newWriter(path)) {
+      // Added out of order, as by concurrent indexing threads.
+      w.add(s3);
+      w.add(s1);
+      w.add(s2);
+      assertThat(w.commit()).isEqualTo(3);
+    }
+    assertThat(dir.toFile().list()).asList().containsExactly(ChangeNotesSnapshot.FILE_NAME);
+
+    ChangeNotesSnapshot snapshot = ChangeNotesSnapshot.open(path);
+    assertThat(snapshot.size()).isEqualTo(3);
+    assertThat(snapshot.get(s1.changeId(), s1.metaId())).isEqualTo(s1);
+    assertThat(snapshot.get(s2.changeId(), s2.metaId())).isEqualTo(s2);
+    assertThat(snapshot.get(s3.changeId(), s3.metaId())).isEqualTo(s3);
+    assertThat(snapshot.get(new Change.Id(4), s3.metaId())).isNull();
+  }
+
+  @Test
+  public void staleEntryIsIgnored() throws Exception {
+    ChangeNotesState s = state(1, "1111111111111111111111111111111111111111", "Old");
+    try (ChangeNotesSnapshot.Writer w = ChangeNotesSnapshot.newWriter(path)) {
+      w.add(s);
+      w.commit();
+    }
+
+    ChangeNotesSnapshot snapshot = ChangeNotesSnapshot.open(path);
+    ObjectId newMetaId = ObjectId.fromString("9999999999999999999999999999999999999999");
+    assertThat(snapshot.get(s.changeId(), newMetaId)).isNull();
+  }
+
+  @Test
+  public void lastStateOfChangeWins() throws Exception {
+    ChangeNotesState s1 = state(1, "1111111111111111111111111111111111111111", "Old");
+    ChangeNotesState s2 = state(1, "2222222222222222222222222222222222222222", "New");
+    try (ChangeNotesSnapshot.Writer w = ChangeNotesSnapshot.newWriter(path)) {
+      w.add(s1);
+      w.add(s2);
+      assertThat(w.commit()).isEqualTo(1);
+    }
+
+    ChangeNotesSnapshot snapshot = ChangeNotesSnapshot.open(path);
+    assertThat(snapshot.get(s1.changeId(), s1.metaId())).isNull();
+    assertThat(snapshot.get(s2.changeId(), s2.metaId())).isEqualTo(s2);
+  }
+
+  @Test
+  public void missingChangesAreSkipped() throws Exception {
+    try (ChangeNotesSnapshot.Writer w = ChangeNotesSnapshot.newWriter(path)) {
+      w.add(ChangeNotesState.Builder.empty(new Change.Id(1)).build());
+      assertThat(w.commit()).isEqualTo(0);
+    }
+    assertThat(ChangeNotesSnapshot.open(path).size()).isEqualTo(0);
+  }
+
+  @Test
+  public void uncommittedWriterLeavesSnapshotUntouched() throws Exception {
+    ChangeNotesState s = state(1, "1111111111111111111111111111111111111111", "Committed");
+    try (ChangeNotesSnapshot.Writer w = ChangeNotesSnapshot.newWriter(path)) {
+      w.add(s);
+      w.commit();
+    }
+    try (ChangeNotesSnapshot.Writer w = ChangeNotesSnapshot.newWriter(path)) {
+      w.add(state(2, "2222222222222222222222222222222222222222", "Discarded"));
+    }
+
+    assertThat(dir.toFile().list()).asList().containsExactly(ChangeNotesSnapshot.FILE_NAME);
+    ChangeNotesSnapshot snapshot = ChangeNotesSnapshot.open(path);
+    assertThat(snapshot.size()).isEqualTo(1);
+    assertThat(snapshot.get(s.changeId(), s.metaId())).isEqualTo(s);
+  }
+
+  private static ChangeNotesState state(int id, String metaId, String subject) {
+    Change.Id changeId = new Change.Id(id);
+    return ChangeNotesState.Builder.empty(changeId)
+        .metaId(ObjectId.fromString(metaId))
+        .columns(
+            ChangeColumns.builder()
+                .changeKey(new Change.Key("I" + metaId))
+                .createdOn(new Timestamp(123456L))
+                .lastUpdatedOn(new Timestamp(234567L))
+                .owner(new Account.Id(1000))
+                .branch("refs/heads/master")
+                .subject(subject)
+                .isPrivate(false)
+                .workInProgress(false)
+                .reviewStarted(true)
+                .build())
+        .build();
+  }
+}
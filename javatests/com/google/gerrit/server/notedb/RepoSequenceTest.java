@@ -22,7 +22,10 @@ import static org.junit.Assert.fail;
 import com.github.rholder.retry.Retryer;
 import com.github.rholder.retry.RetryerBuilder;
 import com.github.rholder.retry.StopStrategies;
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.Runnables;
+import com.google.gerrit.common.Nullable;
 import com.google.gerrit.reviewdb.client.Project;
 import com.google.gerrit.reviewdb.client.RefNames;
 import com.google.gerrit.server.extensions.events.GitReferenceUpdated;
@@ -30,8 +33,11 @@ import com.google.gerrit.testing.InMemoryRepositoryManager;
 import com.google.gwtorm.server.OrmException;
 import java.io.IOException;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import org.eclipse.jgit.errors.IncorrectObjectTypeException;
 import org.eclipse.jgit.junit.TestRepository;
 import org.eclipse.jgit.lib.ObjectId;
@@ -51,6 +57,15 @@ public class RepoSequenceTest {
 
   @Rule public ExpectedException exception = ExpectedException.none();
 
+  private final AtomicLong nanos = new AtomicLong();
+  private final Ticker ticker =
+      new Ticker() {
+        @Override
+        public long read() {
+          return nanos.get();
+        }
+      };
+
   private InMemoryRepositoryManager repoManager;
   private Project.NameKey project;
 
@@ -343,6 +358,93 @@ public class RepoSequenceTest {
     s.increaseTo(2);
   }
 
+  @Test
+  public void batchSizeGrowsUnderLoad() throws Exception {
+    RepoSequence s = newSequence("id", 1, 2, 8, null, RepoSequence.Listener.NONE);
+    assertThat(s.next()).isEqualTo(1);
+    assertThat(readBlob("id")).isEqualTo("3");
+    assertThat(s.next()).isEqualTo(2);
+
+    // The ticker doesn't advance, so ranges are used up within a second and each batch doubles, up
+    // to the maximum.
+    assertThat(s.next()).isEqualTo(3);
+    assertThat(readBlob("id")).isEqualTo("7");
+    assertThat(s.next(4)).containsExactly(4, 5, 6, 7).inOrder();
+    assertThat(readBlob("id")).isEqualTo("15");
+    assertThat(s.next(7)).containsExactly(8, 9, 10, 11, 12, 13, 14).inOrder();
+    assertThat(readBlob("id")).isEqualTo("15");
+    assertThat(s.next()).isEqualTo(15);
+    assertThat(readBlob("id")).isEqualTo("23");
+    assertThat(s.acquireCount).isEqualTo(4);
+  }
+
+  @Test
+  public void batchSizeShrinksWhenRangesLastLong() throws Exception {
+    RepoSequence s = newSequence("id", 1, 2, 8, null, RepoSequence.Listener.NONE);
+    assertThat(s.next()).isEqualTo(1);
+    assertThat(s.next()).isEqualTo(2);
+    assertThat(s.next()).isEqualTo(3);
+    assertThat(readBlob("id")).isEqualTo("7");
+    assertThat(s.next(3)).containsExactly(4, 5, 6).inOrder();
+
+    // The range lasted over 30 seconds, so the batch halves.
+    nanos.addAndGet(TimeUnit.SECONDS.toNanos(31));
+    assertThat(s.next()).isEqualTo(7);
+    assertThat(readBlob("id")).isEqualTo("9");
+    assertThat(s.next()).isEqualTo(8);
+
+    // Ranges lasting between 1 and 30 seconds keep the batch size.
+    nanos.addAndGet(TimeUnit.SECONDS.toNanos(5));
+    assertThat(s.next()).isEqualTo(9);
+    assertThat(readBlob("id")).isEqualTo("11");
+    assertThat(s.acquireCount).isEqualTo(4);
+  }
+
+  @Test
+  public void prefetchNextRange() throws Exception {
+    RepoSequence s =
+        newSequence("id", 1, 4, 4, MoreExecutors.directExecutor(), RepoSequence.Listener.NONE);
+    assertThat(s.next()).isEqualTo(1);
+    assertThat(readBlob("id")).isEqualTo("5");
+
+    // Half of the range is handed out, so the next range is acquired ahead of time.
+    assertThat(s.next()).isEqualTo(2);
+    assertThat(readBlob("id")).isEqualTo("9");
+    assertThat(s.acquireCount).isEqualTo(1);
+
+    assertThat(s.next()).isEqualTo(3);
+    assertThat(s.next()).isEqualTo(4);
+    assertThat(s.next()).isEqualTo(5);
+    assertThat(s.acquireCount).isEqualTo(2);
+    assertThat(readBlob("id")).isEqualTo("9");
+  }
+
+  @Test
+  public void listenerIsNotifiedOfAcquiredAndDiscardedRanges() throws Exception {
+    AtomicInteger acquired = new AtomicInteger();
+    AtomicInteger discarded = new AtomicInteger();
+    RepoSequence.Listener listener =
+        new RepoSequence.Listener() {
+          @Override
+          public void onAcquire(int count, long elapsedNanos) {
+            acquired.addAndGet(count);
+          }
+
+          @Override
+          public void onDiscard(int count) {
+            discarded.addAndGet(count);
+          }
+        };
+    RepoSequence s = newSequence("id", 1, 10, 10, null, listener);
+    assertThat(s.next()).isEqualTo(1);
+    assertThat(acquired.get()).isEqualTo(10);
+
+    s.increaseTo(20);
+    assertThat(discarded.get()).isEqualTo(9);
+    assertThat(s.next()).isEqualTo(20);
+    assertThat(acquired.get()).isEqualTo(20);
+  }
+
   private RepoSequence newSequence(String name, int start, int batchSize) {
     return newSequence(name, start, batchSize, Runnables.doNothing(), RETRYER);
   }
@@ -364,6 +466,29 @@ public class RepoSequenceTest {
         retryer);
   }
 
+  private RepoSequence newSequence(
+      String name,
+      int start,
+      int batchSize,
+      int maxBatchSize,
+      @Nullable Executor prefetchExecutor,
+      RepoSequence.Listener listener) {
+    return new RepoSequence(
+        repoManager,
+        GitReferenceUpdated.DISABLED,
+        project,
+        name,
+        () -> start,
+        batchSize,
+        maxBatchSize,
+        prefetchExecutor,
+        listener,
+        Runnables.doNothing(),
+        RETRYER,
+        0,
+        ticker);
+  }
+
   private ObjectId writeBlob(String sequenceName, String value) {
     String refName = RefNames.REFS_SEQUENCES + sequenceName;
     try (Repository repo = repoManager.openRepository(project);
@@ -0,0 +1,141 @@
+// Copyright (C) 2019 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.fail;
+
+import com.google.common.base.Joiner;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.stream.IntStream;
+import org.eclipse.jgit.diff.DiffFormatter;
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.util.io.DisabledOutputStream;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BoundedRenameDetectorTest {
+  private TestRepository<InMemoryRepository> tr;
+
+  @Before
+  public void setUp() throws Exception {
+    tr = new TestRepository<>(new InMemoryRepository(new DfsRepositoryDescription("project")));
+  }
+
+  @Test
+  public void exactRename() throws Exception {
+    RevCommit a = tr.commit().add("a/foo.txt", "foo\n").add("bar.txt", "bar\n").create();
+    RevCommit b = tr.commit().add("b/foo.txt", "foo\n").add("baz.txt", "baz\n").create();
+    assertThat(detect(a, b, BoundedRenameDetector.DEFAULT_CANDIDATES))
+        .containsExactly(
+            "RENAME a/foo.txt b/foo.txt 100",
+            "DELETE bar.txt /dev/null 0",
+            "ADD /dev/null baz.txt 0")
+        .inOrder();
+  }
+
+  @Test
+  public void exactCopy() throws Exception {
+    RevCommit a = tr.commit().add("a.txt", "foo\n").create();
+    RevCommit b = tr.commit().add("b.txt", "foo\n").add("c.txt", "foo\n").create();
+    assertThat(detect(a, b, BoundedRenameDetector.DEFAULT_CANDIDATES))
+        .containsExactly("RENAME a.txt b.txt 100", "COPY a.txt c.txt 100")
+        .inOrder();
+  }
+
+  @Test
+  public void similarRename() throws Exception {
+    String content = lines(0, 20);
+    RevCommit a = tr.commit().add("a.txt", content).add("other.txt", lines(100, 120)).create();
+    RevCommit b =
+        tr.commit()
+            .add("b.txt", content + "one more line\n")
+            .add("new.txt", lines(200, 220))
+            .create();
+    assertThat(detect(a, b, BoundedRenameDetector.DEFAULT_CANDIDATES))
+        .containsExactly(
+            "RENAME a.txt b.txt 91", "ADD /dev/null new.txt 0", "DELETE other.txt /dev/null 0")
+        .inOrder();
+  }
+
+  @Test
+  public void similarRenameDisabled() throws Exception {
+    String content = lines(0, 20);
+    RevCommit a = tr.commit().add("a.txt", content).create();
+    RevCommit b = tr.commit().add("b.txt", content + "one more line\n").create();
+    assertThat(detect(a, b, 0))
+        .containsExactly("DELETE a.txt /dev/null 0", "ADD /dev/null b.txt 0")
+        .inOrder();
+  }
+
+  @Test
+  public void interruptIsNotTreatedAsTimeout() throws Exception {
+    RevCommit a = tr.commit().add("a.txt", lines(0, 20)).create();
+    RevCommit b = tr.commit().add("b.txt", lines(0, 21)).create();
+    Thread.currentThread().interrupt();
+    try {
+      detect(a, b, BoundedRenameDetector.DEFAULT_CANDIDATES);
+      fail("expected InterruptedIOException");
+    } catch (InterruptedIOException e) {
+      assertThat(Thread.currentThread().isInterrupted()).isTrue();
+    } finally {
+      Thread.interrupted();
+    }
+  }
+
+  @Test
+  public void signatureScore() throws Exception {
+    BoundedRenameDetector.Signature a =
+        BoundedRenameDetector.Signature.create(lines(10, 20).getBytes(UTF_8));
+    BoundedRenameDetector.Signature b =
+        BoundedRenameDetector.Signature.create(lines(15, 25).getBytes(UTF_8));
+    assertThat(a.score(a)).isEqualTo(100);
+    assertThat(a.score(b)).isEqualTo(50);
+    assertThat(b.score(a)).isEqualTo(50);
+  }
+
+  private static String lines(int from, int to) {
+    return Joiner.on("")
+        .join(IntStream.range(from, to).mapToObj(i -> "line " + i + "\n").iterator());
+  }
+
+  private List<String> detect(RevCommit a, RevCommit b, int candidates) throws Exception {
+    try (DiffFormatter df = new DiffFormatter(DisabledOutputStream.INSTANCE)) {
+      df.setRepository(tr.getRepository());
+      BoundedRenameDetector detector =
+          new BoundedRenameDetector(
+              MoreExecutors.newDirectExecutorService(),
+              new BoundedRenameDetector.Metrics(new DisabledMetricMaker()),
+              candidates,
+              5000);
+      return detector
+          .compute(tr.getRevWalk().getObjectReader(), df.scan(a.getTree(), b.getTree()))
+          .stream()
+          .map(
+              e ->
+                  Joiner.on(' ')
+                      .join(e.getChangeType(), e.getOldPath(), e.getNewPath(), e.getScore()))
+          .collect(toList());
+    }
+  }
+}
@@ -17,12 +17,20 @@ package com.google.gerrit.server.patch;
 import static com.google.common.truth.Truth.assertThat;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.gerrit.extensions.client.DiffPreferencesInfo.Whitespace;
+import com.google.gerrit.reviewdb.client.Project;
 import java.util.List;
+import org.eclipse.jgit.diff.DiffAlgorithm.SupportedAlgorithm;
 import org.eclipse.jgit.diff.Edit;
 import org.eclipse.jgit.diff.EditList;
 import org.eclipse.jgit.diff.ReplaceEdit;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.ObjectId;
 import org.junit.Test;
 
 public class IntraLineLoaderTest {
@@ -130,8 +138,68 @@ public class IntraLineLoaderTest {
                 .edits);
   }
 
+  @Test
+  public void histogramAlgorithmIsSupported() throws Exception {
+    Text aText = new Text("abc1\n".getBytes(UTF_8));
+    Text bText = new Text("abc2\n".getBytes(UTF_8));
+    assertThat(
+            IntraLineLoader.computeHunk(
+                SupportedAlgorithm.HISTOGRAM, aText, bText, new Edit(0, 1, 0, 1)))
+        .isEqualTo(ref().common("abc").replace("1", "2").common("\n").edits);
+  }
+
+  @Test
+  public void hunksAreComputedAndReusedSeparately() throws Exception {
+    //         |0     |5       |10
+    String a = "abc1\nkeep\ndef1\n";
+    String b = "abc2\nkeep\ndef2\n";
+    Edit first = new Edit(0, 1, 0, 1);
+    Edit second = new Edit(2, 3, 2, 3);
+    IntraLineDiffKey key =
+        IntraLineDiffKey.create(
+            ObjectId.zeroId(), ObjectId.zeroId(), Whitespace.IGNORE_NONE, SupportedAlgorithm.MYERS);
+    Cache<IntraLineHunkKey, IntraLineDiff> hunkCache = CacheBuilder.newBuilder().build();
+
+    // A hunk that timed out before is not computed again.
+    hunkCache.put(
+        IntraLineHunkKey.create(key, first), new IntraLineDiff(IntraLineDiff.Status.TIMEOUT));
+    IntraLineDiff diff = loader(hunkCache, key, a, b, first, second).call();
+    assertThat(diff.getStatus()).isEqualTo(IntraLineDiff.Status.PARTIAL);
+    assertThat(diff.getEdits().get(0)).isNotInstanceOf(ReplaceEdit.class);
+    assertThat(((ReplaceEdit) diff.getEdits().get(1)).getInternalEdits())
+        .isEqualTo(ref().common("def").replace("1", "2").common("\n").edits);
+    assertThat(hunkCache.size()).isEqualTo(2);
+
+    hunkCache.invalidate(IntraLineHunkKey.create(key, first));
+    diff = loader(hunkCache, key, a, b, first, second).call();
+    assertThat(diff.getStatus()).isEqualTo(IntraLineDiff.Status.EDIT_LIST);
+    assertThat(((ReplaceEdit) diff.getEdits().get(0)).getInternalEdits())
+        .isEqualTo(ref().common("abc").replace("1", "2").common("\n").edits);
+  }
+
   // helper functions to call IntraLineLoader.compute
 
+  private static IntraLineLoader loader(
+      Cache<IntraLineHunkKey, IntraLineDiff> hunkCache,
+      IntraLineDiffKey key,
+      String a,
+      String b,
+      Edit... lines) {
+    return new IntraLineLoader(
+        MoreExecutors.newDirectExecutorService(),
+        hunkCache,
+        new Config(),
+        key,
+        IntraLineDiffArgs.create(
+            new Text(a.getBytes(UTF_8)),
+            new Text(b.getBytes(UTF_8)),
+            ImmutableList.copyOf(lines),
+            ImmutableSet.of(),
+            new Project.NameKey("project"),
+            ObjectId.zeroId(),
+            "file"));
+  }
+
   private static int countLines(String s) {
     int count = 0;
     for (int i = 0; i < s.length(); i++) {
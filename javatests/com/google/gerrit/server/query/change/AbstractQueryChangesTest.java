@@ -779,6 +779,31 @@ public abstract class AbstractQueryChangesTest extends GerritServerTests {
     assertQuery("project:repo2", change2);
   }
 
+  @Test
+  public void loadNotesInBatch() throws Exception {
+    assume().that(notesMigration.readChanges()).isTrue();
+    TestRepository<Repo> repo = createProject("repo");
+    Change change1 = insert(repo, newChange(repo));
+    Change change2 = insert(repo, newChange(repo));
+    Change.Id missing = new Change.Id(change2.getId().get() + 1000);
+
+    Map<Change.Id, ChangeNotes> notes =
+        notesFactory.createBatch(
+            db, change1.getProject(), ImmutableList.of(change1.getId(), change2.getId(), missing));
+    assertThat(notes.keySet()).containsExactly(change1.getId(), change2.getId());
+    for (Change c : ImmutableList.of(change1, change2)) {
+      assertThat(notes.get(c.getId()).getMetaId())
+          .isEqualTo(notesFactory.create(db, c.getProject(), c.getId()).getMetaId());
+    }
+
+    List<ChangeData> cds =
+        queryProcessorProvider.get().query(queryBuilder.parse("project:repo")).entities();
+    ChangeData.ensureNotesLoaded(cds);
+    for (ChangeData cd : cds) {
+      assertThat(cd.notes().getMetaId()).isEqualTo(notes.get(cd.getId()).getMetaId());
+    }
+  }
+
   @Test
   public void byParentProject() throws Exception {
     TestRepository<Repo> repo1 = createProject("repo1");
@@ -1267,6 +1292,55 @@ public abstract class AbstractQueryChangesTest extends GerritServerTests {
     assertQuery(newQuery("status:new limit:2").withStart(3));
   }
 
+  @Test
+  public void searchAfter() throws Exception {
+    TestRepository<Repo> repo = createProject("repo");
+    List<Change> changes = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      changes.add(insert(repo, newChange(repo)));
+    }
+
+    List<ChangeInfo> page = assertQuery("status:new limit:2", changes.get(4), changes.get(3));
+    String cursor = Iterables.getLast(page)._searchAfter;
+    assertThat(cursor).isNotNull();
+
+    QueryRequest query = newQuery("status:new limit:2");
+    page = assertQuery(query.withSearchAfter(cursor), changes.get(2), changes.get(1));
+    page = assertQuery(query.withSearchAfter(Iterables.getLast(page)._searchAfter), changes.get(0));
+    assertThat(Iterables.getLast(page)._searchAfter).isNull();
+
+    assertQuery(
+        newQuery("status:new limit:2").withSearchAfter(cursor).withStart(1),
+        changes.get(1),
+        changes.get(0));
+  }
+
+  @Test
+  public void searchAfterWithFilteredResults() throws Exception {
+    TestRepository<Repo> repo = createProject("repo");
+    Account.Id user2 =
+        accountManager.authenticate(AuthRequest.forUser("anotheruser")).getAccountId();
+    List<Change> changes = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      changes.add(insert(repo, newChange(repo), userId));
+      for (int j = 0; j < 3; j++) {
+        insert(repo, newChange(repo), user2);
+      }
+    }
+
+    String query = "status:new ownerin:Administrators limit:2";
+    List<ChangeInfo> page = assertQuery(query, changes.get(2), changes.get(1));
+    assertQuery(
+        newQuery(query).withSearchAfter(Iterables.getLast(page)._searchAfter), changes.get(0));
+  }
+
+  @Test
+  public void invalidSearchAfter() throws Exception {
+    assertThatQueryException(newQuery("status:new").withSearchAfter("foo"))
+        .hasMessageThat()
+        .isEqualTo("Invalid search-after cursor: foo");
+  }
+
   @Test
   public void maxPages() throws Exception {
     TestRepository<Repo> repo = createProject("repo");
@@ -1721,6 +1795,35 @@ public abstract class AbstractQueryChangesTest extends GerritServerTests {
     assertQuery("is:visible", change1);
   }
 
+  @Test
+  public void visibleInBatches() throws Exception {
+    TestRepository<Repo> repo1 = createProject("repo1");
+    TestRepository<Repo> repo2 = createProject("repo2");
+    Account.Id user2 =
+        accountManager.authenticate(AuthRequest.forUser("anotheruser")).getAccountId();
+
+    Change change1 = insert(repo1, newChangeForBranch(repo1, "master"));
+    Change change2 = insert(repo1, newChangeForBranch(repo1, "branch").setPrivate(true));
+    Change change3 = insert(repo1, newChangeForBranch(repo1, "branch").setPrivate(true));
+    Change change4 = insert(repo2, newChange(repo2));
+    Change change5 = insert(repo2, newChange(repo2).setPrivate(true), user2);
+    Change change6 = insert(repo2, newChange(repo2).setPrivate(true));
+
+    AddReviewerInput rin = new AddReviewerInput();
+    rin.reviewer = user2.toString();
+    rin.state = ReviewerState.REVIEWER;
+    gApi.changes().id(change3.getId().get()).addReviewer(rin);
+
+    String q = "project:repo1 OR project:repo2";
+    assertQuery("owner:self (" + q + ")", change3, change6, change4, change2, change1);
+
+    // Second user sees public changes, their own private change and private
+    // changes they are a reviewer on.
+    requestContext.setContext(newRequestContext(user2));
+    assertQuery(q, change3, change5, change4, change1);
+    assertQuery(newQuery(q).withLimit(2), change3, change5);
+  }
+
   @Test
   public void byCommentBy() throws Exception {
     TestRepository<Repo> repo = createProject("repo");
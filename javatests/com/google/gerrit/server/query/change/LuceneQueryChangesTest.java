@@ -14,8 +14,13 @@
 
 package com.google.gerrit.server.query.change;
 
+import static com.google.common.truth.Truth.assertThat;
+import static java.util.stream.Collectors.toList;
+
+import com.google.common.collect.ImmutableSet;
 import com.google.gerrit.extensions.restapi.BadRequestException;
 import com.google.gerrit.reviewdb.client.Change;
+import com.google.gerrit.server.index.change.ChangeField;
 import com.google.gerrit.server.index.change.ChangeSchemaDefinitions;
 import com.google.gerrit.testing.ConfigSuite;
 import com.google.gerrit.testing.InMemoryModule;
@@ -80,4 +85,27 @@ public class LuceneQueryChangesTest extends AbstractQueryChangesTest {
     exception.expectMessage("Cannot create full-text query with value: \\");
     assertQuery("owner: \"" + nameEmail + "\"\\", change1);
   }
+
+  @Test
+  public void requestIdAndProjectOnly() throws Exception {
+    TestRepository<Repo> repo1 = createProject("repo1");
+    Change change1 = insert(repo1, newChange(repo1));
+    TestRepository<Repo> repo2 = createProject("repo2");
+    Change change2 = insert(repo2, newChange(repo2));
+
+    // Use QueryProcessor directly instead of API so we get ChangeDatas back.
+    List<ChangeData> cds =
+        queryProcessorProvider
+            .get()
+            .setRequestedFields(
+                ImmutableSet.of(ChangeField.LEGACY_ID.getName(), ChangeField.PROJECT.getName()))
+            .query(queryBuilder.parse("status:new"))
+            .entities();
+    assertThat(cds.stream().map(ChangeData::getId).collect(toList()))
+        .containsExactly(change2.getId(), change1.getId())
+        .inOrder();
+    assertThat(cds.stream().map(ChangeData::project).collect(toList()))
+        .containsExactly(change2.getProject(), change1.getProject())
+        .inOrder();
+  }
 }
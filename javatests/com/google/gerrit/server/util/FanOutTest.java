@@ -0,0 +1,89 @@
+// Copyright (C) 2019 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.util;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth.assert_;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+
+public class FanOutTest {
+  private final ExecutorService executor = Executors.newFixedThreadPool(1);
+
+  @After
+  public void tearDown() throws Exception {
+    executor.shutdownNow();
+    assertThat(executor.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+  }
+
+  @Test
+  public void resultsAreInTaskOrder() throws Exception {
+    List<Callable<Integer>> tasks = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      int n = i;
+      tasks.add(() -> n);
+    }
+    List<Integer> results = new ArrayList<>();
+    for (Future<Integer> f : FanOut.invokeAll(executor, tasks)) {
+      results.add(f.get());
+    }
+    assertThat(results).containsExactly(0, 1, 2, 3, 4, 5, 6, 7, 8, 9).inOrder();
+  }
+
+  @Test
+  public void nestedFanOutFromPoolThreadCompletes() throws Exception {
+    // With ExecutorService.invokeAll the only pool thread would wait for tasks queued behind it.
+    List<Callable<Integer>> inner = new ArrayList<>();
+    inner.add(() -> 1);
+    inner.add(() -> 2);
+    Future<Integer> outer =
+        executor.submit(
+            () -> {
+              int sum = 0;
+              for (Future<Integer> f : FanOut.invokeAll(executor, inner)) {
+                sum += f.get();
+              }
+              return sum;
+            });
+    assertThat(outer.get(10, TimeUnit.SECONDS)).isEqualTo(3);
+  }
+
+  @Test
+  public void failuresAreReportedThroughFutures() throws Exception {
+    List<Callable<Integer>> tasks = new ArrayList<>();
+    tasks.add(() -> 1);
+    tasks.add(
+        () -> {
+          throw new IllegalStateException("failed");
+        });
+    List<Future<Integer>> futures = FanOut.invokeAll(executor, tasks);
+    assertThat(futures.get(0).get()).isEqualTo(1);
+    try {
+      futures.get(1).get();
+      assert_().fail("expected ExecutionException");
+    } catch (ExecutionException e) {
+      assertThat(e).hasCauseThat().isInstanceOf(IllegalStateException.class);
+    }
+  }
+}